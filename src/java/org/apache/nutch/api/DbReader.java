@@ -34,6 +34,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.nutch.metadata.Nutch;
 import org.apache.nutch.parse.ParseStatusUtils;
 import org.apache.nutch.protocol.ProtocolStatusUtils;
+import org.apache.nutch.storage.ContentCodec;
 import org.apache.nutch.storage.Mark;
 import org.apache.nutch.storage.ParseStatus;
 import org.apache.nutch.storage.ProtocolStatus;
@@ -51,12 +52,14 @@ public class DbReader {
 
   DataStore<String,WebPage> store;
   Configuration conf;
+  ContentCodec contentCodec;
   
   public DbReader(Configuration conf, String crawlId) {
     conf = new Configuration(conf);
     if (crawlId != null) {
       conf.set(Nutch.CRAWL_ID_KEY, crawlId);
     }
+    contentCodec = new ContentCodec(conf);
     try {
       store = StorageUtils.createWebStore(conf, String.class, WebPage.class);
     } catch (Exception e) {
@@ -73,6 +76,10 @@ public class DbReader {
       HashSet<String> flds = new HashSet<String>(Arrays.asList(fields));
       // remove "url"
       flds.remove("url");
+      if (flds.contains("content")) {
+        // the codec of the stored content
+        flds.add("metadata");
+      }
       if (flds.size() > 0) {
         qFields = (String[])flds.toArray(new String[flds.size()]);
       } else {
@@ -141,8 +148,10 @@ public class DbReader {
 
     public Map<String,Object> next() {
       url = res.getKey();
-      page = (WebPage)res.get().clone();
       try {
+        // before the clone, which makes the stored content look new
+        contentCodec.decode(res.get());
+        page = (WebPage)res.get().clone();
         advance();
         if (!hasNext) {
           res.close();
@@ -18,6 +18,8 @@ package org.apache.nutch.crawl;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -25,11 +27,16 @@ import java.util.Map.Entry;
 import org.apache.avro.util.Utf8;
 import org.slf4j.Logger;
 import org.apache.hadoop.util.StringUtils;
+import org.apache.nutch.fetcher.FetcherJob;
+import org.apache.nutch.metadata.Nutch;
 import org.apache.nutch.scoring.ScoreDatum;
 import org.apache.nutch.scoring.ScoringFilterException;
 import org.apache.nutch.scoring.ScoringFilters;
+import org.apache.nutch.storage.Mark;
 import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.NutchJob;
 import org.apache.nutch.util.TableUtil;
+import org.apache.nutch.util.WebPageEncoding;
 import org.apache.nutch.util.WebPageWritable;
 import org.apache.gora.mapreduce.GoraMapper;
 
@@ -39,12 +46,22 @@ extends GoraMapper<String, WebPage, String, NutchWritable> {
 
   private ScoringFilters scoringFilters;
 
+  /** The fields of the pages sent to the reducer */
+  private long shuffledFields;
+
+  private boolean incremental;
+  private Utf8 batchId;
+
   private final List<ScoreDatum> scoreData = new ArrayList<ScoreDatum>();
 
   @Override
   public void map(String key, WebPage page, Context context)
   throws IOException, InterruptedException {
 
+    if (incremental && !shouldUpdate(page)) {
+      return;
+    }
+
     String url = TableUtil.unreverseUrl(key);
 
     scoreData.clear();
@@ -64,7 +81,8 @@ extends GoraMapper<String, WebPage, String, NutchWritable> {
     }
 
     context.write(key,
-        new NutchWritable(new WebPageWritable(context.getConfiguration(), page)));
+        new NutchWritable(new WebPageWritable(context.getConfiguration(), page,
+            shuffledFields)));
 
     for (ScoreDatum scoreDatum : scoreData) {
       String reversedOut = TableUtil.reverseUrl(scoreDatum.getUrl());
@@ -76,6 +94,38 @@ extends GoraMapper<String, WebPage, String, NutchWritable> {
   @Override
   public void setup(Context context) {
     scoringFilters = new ScoringFilters(context.getConfiguration());
+    // the outlinks were scored here, the reducer only needs them if a
+    // scoring filter asks for them
+    Collection<WebPage.Field> fields = EnumSet.allOf(WebPage.Field.class);
+    fields.remove(WebPage.Field.OUTLINKS);
+    fields.addAll(scoringFilters.getFields());
+    shuffledFields = WebPageEncoding.getFieldMask(fields);
+    incremental = context.getConfiguration().getBoolean(
+        DbUpdaterJob.INCREMENTAL_KEY, false);
+    batchId = new Utf8(context.getConfiguration().get(GeneratorJob.BATCH_ID,
+        Nutch.ALL_BATCH_ID_STR));
+  }
+
+  /**
+   * Whether a page belongs to the batch of an incremental update: it was
+   * parsed, or fetched without being parsed, or generated without being
+   * fetched, or it is the destination of a redirect. A page that was
+   * fetched but not parsed yet is left for later.
+   */
+  private boolean shouldUpdate(WebPage page) {
+    if (NutchJob.shouldProcess(Mark.PARSE_MARK.checkMark(page), batchId)) {
+      return true;
+    }
+    if (NutchJob.shouldProcess(Mark.FETCH_MARK.checkMark(page), batchId)) {
+      // not modified pages and failed fetches are not parsed
+      return page.getStatus() != CrawlStatus.STATUS_FETCHED;
+    }
+    if (NutchJob.shouldProcess(Mark.GENERATE_MARK.checkMark(page), batchId)) {
+      // the fetch stopped before the page, its generate mark must be
+      // cleared for it to be generated again
+      return true;
+    }
+    return page.getMetadata().containsKey(FetcherJob.REDIRECT_DISCOVERED);
   }
 
 }
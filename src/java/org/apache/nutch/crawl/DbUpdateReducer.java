@@ -19,6 +19,8 @@ package org.apache.nutch.crawl;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 
 import org.apache.avro.util.Utf8;
@@ -31,10 +33,12 @@ import org.apache.nutch.scoring.ScoreDatum;
 import org.apache.nutch.scoring.ScoringFilterException;
 import org.apache.nutch.scoring.ScoringFilters;
 import org.apache.nutch.storage.Mark;
+import org.apache.nutch.storage.StorageUtils;
 import org.apache.nutch.storage.WebPage;
 import org.apache.nutch.util.TableUtil;
 import org.apache.nutch.util.WebPageWritable;
 import org.apache.gora.mapreduce.GoraReducer;
+import org.apache.gora.store.DataStore;
 
 public class DbUpdateReducer
 extends GoraReducer<String, NutchWritable, String, WebPage> {
@@ -49,6 +53,9 @@ extends GoraReducer<String, NutchWritable, String, WebPage> {
   private FetchSchedule schedule;
   private ScoringFilters scoringFilters;
   private List<ScoreDatum> inlinkedScoreData = new ArrayList<ScoreDatum>();
+  private boolean incremental;
+  private DataStore<String, WebPage> store;
+  private String[] mergedFields;
 
   @Override
   protected void setup(Context context) throws IOException, InterruptedException {
@@ -58,6 +65,28 @@ extends GoraReducer<String, NutchWritable, String, WebPage> {
     maxInterval = conf.getInt("db.fetch.interval.max", 0 );
     schedule = FetchScheduleFactory.getFetchSchedule(conf);
     scoringFilters = new ScoringFilters(conf);
+    incremental = conf.getBoolean(DbUpdaterJob.INCREMENTAL_KEY, false);
+    if (incremental) {
+      try {
+        store = StorageUtils.createWebStore(conf, String.class, WebPage.class);
+      } catch (ClassNotFoundException e) {
+        throw new IOException(e);
+      }
+      Collection<WebPage.Field> fields =
+        new HashSet<WebPage.Field>(scoringFilters.getFields());
+      // the status tells an existing page from a new one
+      fields.add(WebPage.Field.STATUS);
+      fields.add(WebPage.Field.METADATA);
+      fields.add(WebPage.Field.INLINKS);
+      mergedFields = StorageUtils.toStringArray(fields);
+    }
+  }
+
+  @Override
+  protected void cleanup(Context context) throws IOException, InterruptedException {
+    if (store != null) {
+      store.close();
+    }
   }
 
   @Override
@@ -85,6 +114,14 @@ extends GoraReducer<String, NutchWritable, String, WebPage> {
       return;
     }
 
+    boolean merged = false;
+    if (page == null && incremental) {
+      // a page outside of the batch that pages of the batch link to: only
+      // its inlinks and score are updated
+      page = store.get(key, mergedFields);
+      merged = page != null;
+    }
+
     if (page == null) { // new row
       if (!additionsAllowed) {
         return;
@@ -97,7 +134,7 @@ extends GoraReducer<String, NutchWritable, String, WebPage> {
       } catch (ScoringFilterException e) {
         page.setScore(0.0f);
       }
-    } else {
+    } else if (!merged) {
       if (page.getMetadata().containsKey(FetcherJob.REDIRECT_DISCOVERED)
             && !page.isReadable(WebPage.Field.STATUS.getIndex())) {
         // this row is marked during fetch as the destination of a redirect
@@ -153,7 +190,9 @@ extends GoraReducer<String, NutchWritable, String, WebPage> {
       }
     }
 
-    if (page.getInlinks() != null) {
+    // an incremental update only knows the links of the batch, so it adds
+    // to the inlinks and leaves the stale ones for a full update
+    if (!incremental && page.getInlinks() != null) {
       page.getInlinks().clear();
     }
     for (ScoreDatum inlink : inlinkedScoreData) {
@@ -167,6 +206,12 @@ extends GoraReducer<String, NutchWritable, String, WebPage> {
                 StringUtils.stringifyException(e));
     }
 
+    if (merged) {
+      // the markers of the page belong to the batch it was fetched in
+      context.write(key, page);
+      return;
+    }
+
     // clear markers
 
     page.removeFromMetadata(FetcherJob.REDIRECT_DISCOVERED);
@@ -45,6 +45,7 @@ public class DbUpdaterJob extends NutchTool implements Tool {
 
   public static final Logger LOG = LoggerFactory.getLogger(DbUpdaterJob.class);
 
+  public static final String INCREMENTAL_KEY = "db.update.incremental";
 
   private static final Collection<WebPage.Field> FIELDS =
     new HashSet<WebPage.Field>();
@@ -81,6 +82,14 @@ public class DbUpdaterJob extends NutchTool implements Tool {
     if (crawlId != null) {
       currentJob.getConfiguration().set(Nutch.CRAWL_ID_KEY, crawlId);
     }
+    String batchId = (String)args.get(Nutch.ARG_BATCH);
+    if (batchId != null) {
+      currentJob.getConfiguration().set(GeneratorJob.BATCH_ID, batchId);
+    }
+    if (currentJob.getConfiguration().getBoolean(INCREMENTAL_KEY, false)) {
+      LOG.info("DbUpdaterJob: incremental update of batch " + currentJob
+          .getConfiguration().get(GeneratorJob.BATCH_ID, Nutch.ALL_BATCH_ID_STR));
+    }
     //job.setBoolean(ALL, updateAll);
     ScoringFilters scoringFilters = new ScoringFilters(getConf());
     HashSet<WebPage.Field> fields = new HashSet<WebPage.Field>(FIELDS);
@@ -96,19 +105,43 @@ public class DbUpdaterJob extends NutchTool implements Tool {
     return results;
   }
   
-  private int updateTable(String crawlId) throws Exception {
+  private int updateTable(String crawlId, String batchId) throws Exception {
     LOG.info("DbUpdaterJob: starting");
-    run(ToolUtil.toArgMap(Nutch.ARG_CRAWL, crawlId));
+    run(ToolUtil.toArgMap(Nutch.ARG_CRAWL, crawlId, Nutch.ARG_BATCH, batchId));
     LOG.info("DbUpdaterJob: done");
     return 0;
   }
 
   public int run(String[] args) throws Exception {
+    String usage = "Usage: DbUpdaterJob [-crawlId <id>] " +
+      "[-incremental [<batchId> | -all]]\n" +
+      "\t-crawlId <id>\t the id to prefix the schemas to operate on, (default: storage.crawl.id)\n" +
+      "\t-incremental\tonly update the pages of a batch, and the pages they link to\n" +
+      "\tbatchId\tsymbolic batch ID created by Generator (default: -all, every batch not updated yet)";
+
     String crawlId = null;
-    if (args.length == 2 && "-crawlId".equals(args[0])) {
-      crawlId = args[1];
+    String batchId = null;
+    boolean incremental = getConf().getBoolean(INCREMENTAL_KEY, false);
+    for (int i = 0; i < args.length; i++) {
+      if ("-crawlId".equals(args[i]) && i + 1 < args.length) {
+        crawlId = args[++i];
+      } else if ("-incremental".equals(args[i])) {
+        incremental = true;
+      } else if (batchId == null
+          && (!args[i].startsWith("-") || "-all".equals(args[i]))) {
+        batchId = args[i];
+      } else {
+        System.err.println(usage);
+        return -1;
+      }
+    }
+    // a full update does not select the rows of a batch
+    if (batchId != null && !incremental) {
+      System.err.println(usage);
+      return -1;
     }
-    return updateTable(crawlId);
+    getConf().setBoolean(INCREMENTAL_KEY, incremental);
+    return updateTable(crawlId, batchId);
   }
 
   public static void main(String[] args) throws Exception {
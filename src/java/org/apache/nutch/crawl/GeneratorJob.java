@@ -56,6 +56,8 @@ public class GeneratorJob extends NutchTool implements Tool {
   public static final String GENERATOR_COUNT_VALUE_HOST = "host";
   public static final String GENERATOR_COUNT_VALUE_IP = "ip";
   public static final String GENERATOR_TOP_N = "generate.topN";
+  public static final String GENERATOR_TOP_N_MAPSIDE = "generate.topN.mapside";
+  public static final String GENERATOR_TOP_N_SLACK = "generate.topN.mapside.slack";
   public static final String GENERATOR_CUR_TIME = "generate.curTime";
   public static final String GENERATOR_DELAY = "crawl.gen.delay";
   public static final String GENERATOR_RANDOM_SEED = "generate.partition.seed";
@@ -19,9 +19,10 @@ package org.apache.nutch.crawl;
 import java.io.IOException;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Counter;
 import org.apache.nutch.crawl.GeneratorJob.SelectorEntry;
+import org.apache.nutch.net.URLCache;
 import org.apache.nutch.net.URLFilterException;
-import org.apache.nutch.net.URLFilters;
 import org.apache.nutch.net.URLNormalizers;
 import org.apache.nutch.scoring.ScoringFilterException;
 import org.apache.nutch.scoring.ScoringFilters;
@@ -33,31 +34,45 @@ import org.apache.gora.mapreduce.GoraMapper;
 public class GeneratorMapper
 extends GoraMapper<String, WebPage, SelectorEntry, WebPage> {
 
-  private URLFilters filters;
-  private URLNormalizers normalizers;
+  private URLCache urlCache;
   private boolean filter;
   private boolean normalise;
   private FetchSchedule schedule;
   private ScoringFilters scoringFilters;
   private long curTime;
+  /** Set when the best entries are selected before the shuffle. */
+  private TopNSelector<WebPage> selector;
+  private boolean byDomain;
+  /** Whether rows that are not due can be skipped before the url filters. */
+  private boolean dueCheck;
+  private Counter generatedCounter;
+  private Counter notDueCounter;
 
   @Override
   public void map(String reversedUrl, WebPage page,
       Context context) throws IOException, InterruptedException {
-    String url = TableUtil.unreverseUrl(reversedUrl);
-
+    // cheap checks first, most rows of a large table fail them
     if (Mark.GENERATE_MARK.checkMark(page) != null) {
       if (GeneratorJob.LOG.isDebugEnabled()) {
-        GeneratorJob.LOG.debug("Skipping " + url + "; already generated");
+        GeneratorJob.LOG.debug("Skipping " + TableUtil.unreverseUrl(reversedUrl)
+            + "; already generated");
       }
+      generatedCounter.increment(1);
+      return;
+    }
+    if (dueCheck && page.getFetchTime() > curTime) {
+      notDueCounter.increment(1);
+      return;
     }
 
+    String url = TableUtil.unreverseUrl(reversedUrl);
+
     // If filtering is on don't generate URLs that don't pass URLFilters
     try {
       if (normalise) {
-        url = normalizers.normalize(url, URLNormalizers.SCOPE_GENERATE_HOST_COUNT);
+        url = urlCache.normalize(url, URLNormalizers.SCOPE_GENERATE_HOST_COUNT);
       }
-      if (filter && filters.filter(url) == null)
+      if (filter && urlCache.filter(url) == null)
         return;
     } catch (URLFilterException e) {
       GeneratorJob.LOG.warn("Couldn't filter url: " + url + " (" + e.getMessage() + ")");
@@ -79,20 +94,66 @@ extends GoraMapper<String, WebPage, SelectorEntry, WebPage> {
       //ignore
     }
     SelectorEntry entry = new SelectorEntry(url, score);
+    if (selector != null) {
+      long host = HostCounts.hostKey(url, byDomain);
+      // the record reader may reuse the page, copy the ones that are kept
+      if (selector.admit(entry, host)) {
+        selector.offer(entry, host, (WebPage) page.clone());
+      }
+      return;
+    }
     context.write(entry, page);
   }
 
   @Override
   public void setup(Context context) {
     Configuration conf = context.getConfiguration();
-    filters = new URLFilters(conf);
+    urlCache = URLCache.get(conf);
     curTime =
       conf.getLong(GeneratorJob.GENERATOR_CUR_TIME, System.currentTimeMillis());
-    normalizers =
-      new URLNormalizers(conf, URLNormalizers.SCOPE_GENERATE_HOST_COUNT);
     filter = conf.getBoolean(GeneratorJob.GENERATOR_FILTER, true);
     normalise = conf.getBoolean(GeneratorJob.GENERATOR_NORMALISE, true);
     schedule = FetchScheduleFactory.getFetchSchedule(conf);
+    // AbstractFetchSchedule.shouldFetch() comes down to the fetch time
+    try {
+      dueCheck = schedule.getClass().getMethod("shouldFetch", String.class,
+          WebPage.class, long.class).getDeclaringClass()
+          == AbstractFetchSchedule.class;
+    } catch (NoSuchMethodException e) {
+      dueCheck = false;
+    }
+    generatedCounter = context.getCounter("Generator", "SKIPPED_GENERATED");
+    notDueCounter = context.getCounter("Generator", "SKIPPED_NOT_DUE");
     scoringFilters = new ScoringFilters(conf);
+    long topN = conf.getLong(GeneratorJob.GENERATOR_TOP_N, Long.MAX_VALUE);
+    if (topN != Long.MAX_VALUE
+        && conf.getBoolean(GeneratorJob.GENERATOR_TOP_N_MAPSIDE, false)) {
+      // what a reducer takes, with some slack for the urls of the other
+      // mappers taking the places of the urls of a host
+      long limit = topN / Math.max(1, context.getNumReduceTasks());
+      float slack = conf.getFloat(GeneratorJob.GENERATOR_TOP_N_SLACK, 2.0f);
+      int capacity = (int) Math.min(Integer.MAX_VALUE - 1,
+          Math.ceil(limit * Math.max(1.0f, slack)));
+      selector = new TopNSelector<WebPage>(capacity,
+          conf.getLong(GeneratorJob.GENERATOR_MAX_COUNT, -1));
+      byDomain = GeneratorJob.GENERATOR_COUNT_VALUE_DOMAIN.equals(
+          conf.get(GeneratorJob.GENERATOR_COUNT_MODE));
+      GeneratorJob.LOG.info("GeneratorMapper: keeping the best " + capacity
+          + " urls");
+    }
+  }
+
+  @Override
+  protected void cleanup(Context context)
+      throws IOException, InterruptedException {
+    urlCache.report(context);
+    if (selector == null) {
+      return;
+    }
+    for (TopNSelector.Item<WebPage> item : selector) {
+      context.write(item.entry, item.value);
+    }
+    context.getCounter("Generator", "MAPSIDE_SELECTED").increment(selector.size());
+    context.getCounter("Generator", "MAPSIDE_DROPPED").increment(selector.getDropped());
   }
 }
@@ -17,8 +17,6 @@
 package org.apache.nutch.crawl;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
 
 import org.apache.avro.util.Utf8;
 import org.apache.hadoop.conf.Configuration;
@@ -27,7 +25,6 @@ import org.apache.nutch.fetcher.FetcherJob.FetcherMapper;
 import org.apache.nutch.storage.Mark;
 import org.apache.nutch.storage.WebPage;
 import org.apache.nutch.util.TableUtil;
-import org.apache.nutch.util.URLUtil;
 import org.apache.gora.mapreduce.GoraReducer;
 
 /** Reduce class for generate
@@ -43,7 +40,7 @@ extends GoraReducer<SelectorEntry, WebPage, String, WebPage> {
   private long maxCount;
   private long count = 0;
   private boolean byDomain = false;
-  private Map<String, Integer> hostCountMap = new HashMap<String, Integer>();
+  private HostCounts hostCounts = new HostCounts();
   private Utf8 batchId;
 
   @Override
@@ -51,22 +48,11 @@ extends GoraReducer<SelectorEntry, WebPage, String, WebPage> {
       Context context) throws IOException, InterruptedException {
     for (WebPage page : values) {
       if (maxCount > 0) {
-        String hostordomain;
-        if (byDomain) {
-          hostordomain = URLUtil.getDomainName(key.url);
-        } else {
-          hostordomain = URLUtil.getHost(key.url);
-        }
-
-        Integer hostCount = hostCountMap.get(hostordomain);
-        if (hostCount == null) {
-          hostCountMap.put(hostordomain, 0);
-          hostCount = 0;
-        }
-        if (hostCount >= maxCount) {
+        long host = HostCounts.hostKey(key.url, byDomain);
+        if (hostCounts.get(host) >= maxCount) {
           return;
         }
-        hostCountMap.put(hostordomain, hostCount + 1);
+        hostCounts.increment(host);
       }
       if (count >= limit) {
         return;
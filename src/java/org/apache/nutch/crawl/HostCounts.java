@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.crawl;
+
+import java.util.Arrays;
+
+import org.apache.nutch.util.URLUtil;
+
+/**
+ * Counts urls per host or domain for <code>generate.max.count</code>.
+ * Hosts are keyed by a 64 bit hash of their name, computed from the url
+ * without parsing it (see {@link #hostKey(String, boolean)}), in an open
+ * addressing table of primitive longs and ints: about 24 bytes per host
+ * instead of the hundreds taken by a <code>HashMap&lt;String,Integer&gt;</code>.
+ * <p>
+ * A host is only added when one of its urls is generated, so the table never
+ * holds more hosts than the number of urls a generator reducer may emit.
+ */
+class HostCounts {
+
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  /** Marks a free slot; the count of that key is kept aside. */
+  private static final long FREE = 0;
+
+  private long[] keys;
+  private int[] counts;
+  private int size;
+  private int freeKeyCount;
+
+  public HostCounts() {
+    this(1024);
+  }
+
+  public HostCounts(int capacity) {
+    int length = 16;
+    while (length < capacity * 2) {
+      length <<= 1;
+    }
+    keys = new long[length];
+    counts = new int[length];
+  }
+
+  /** @return the count of a host, 0 if it was never incremented */
+  public int get(long host) {
+    if (host == FREE) {
+      return freeKeyCount;
+    }
+    final int slot = slot(host);
+    return keys[slot] == FREE ? 0 : counts[slot];
+  }
+
+  /** @return the count of a host after incrementing it */
+  public int increment(long host) {
+    if (host == FREE) {
+      if (freeKeyCount == 0) {
+        size++;
+      }
+      return ++freeKeyCount;
+    }
+    int slot = slot(host);
+    if (keys[slot] == FREE) {
+      if ((size + 1) * 2 > keys.length) {
+        grow();
+        slot = slot(host);
+      }
+      keys[slot] = host;
+      size++;
+    }
+    return ++counts[slot];
+  }
+
+  /** @return the number of hosts counted */
+  public int size() {
+    return size;
+  }
+
+  public void clear() {
+    Arrays.fill(keys, FREE);
+    Arrays.fill(counts, 0);
+    size = 0;
+    freeKeyCount = 0;
+  }
+
+  private int slot(long host) {
+    final int mask = keys.length - 1;
+    int slot = (int) (host ^ (host >>> 32)) & mask;
+    while (keys[slot] != FREE && keys[slot] != host) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void grow() {
+    final long[] oldKeys = keys;
+    final int[] oldCounts = counts;
+    keys = new long[oldKeys.length * 2];
+    counts = new int[oldCounts.length * 2];
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != FREE) {
+        final int slot = slot(oldKeys[i]);
+        keys[slot] = oldKeys[i];
+        counts[slot] = oldCounts[i];
+      }
+    }
+  }
+
+  /**
+   * @return the key of the host, or of the domain name if
+   * <code>byDomain</code>, of a url. The host is taken from the url
+   * without building a {@link java.net.URL} when it is not needed.
+   */
+  public static long hostKey(String url, boolean byDomain) {
+    int start = url.indexOf("://");
+    if (start == -1) {
+      // not a hierarchical url, count it on its own
+      return hash(url, 0, url.length());
+    }
+    start += 3;
+    // the authority ends with the path, query or fragment
+    final int length = url.length();
+    int end = start;
+    while (end < length) {
+      final char c = url.charAt(end);
+      if (c == '/' || c == '?' || c == '#') {
+        break;
+      }
+      end++;
+    }
+    // drop user info and port
+    final int at = url.lastIndexOf('@', end - 1);
+    if (at >= start) {
+      start = at + 1;
+    }
+    if (start < end && url.charAt(start) == '[') {
+      // IPv6 literal
+      final int close = url.indexOf(']', start);
+      if (close != -1 && close < end) {
+        end = close + 1;
+      }
+    } else {
+      final int colon = url.indexOf(':', start);
+      if (colon != -1 && colon < end) {
+        end = colon;
+      }
+    }
+    if (!byDomain) {
+      return hash(url, start, end);
+    }
+    final String domain =
+      URLUtil.getHostDomainName(url.substring(start, end).toLowerCase());
+    return hash(domain, 0, domain.length());
+  }
+
+  /** 64 bit FNV-1a hash of the lower case chars of s[start, end). */
+  static long hash(String s, int start, int end) {
+    long hash = FNV_OFFSET;
+    for (int i = start; i < end; i++) {
+      final char c = Character.toLowerCase(s.charAt(i));
+      hash ^= c;
+      hash *= FNV_PRIME;
+    }
+    return hash;
+  }
+}
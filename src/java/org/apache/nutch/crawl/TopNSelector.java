@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.crawl;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.apache.nutch.crawl.GeneratorJob.SelectorEntry;
+
+/**
+ * Keeps the best <code>capacity</code> entries offered to it, in the order of
+ * {@link SelectorEntry}, with at most <code>maxPerHost</code> entries of any
+ * host. This lets a generator mapper drop the entries that could not make it
+ * into the fetch list before they are shuffled.
+ *
+ * @param <V> the value kept with an entry
+ */
+class TopNSelector<V> implements Iterable<TopNSelector.Item<V>> {
+
+  static class Item<V> {
+    final SelectorEntry entry;
+    final long host;
+    final V value;
+
+    Item(SelectorEntry entry, long host, V value) {
+      this.entry = entry;
+      this.host = host;
+      this.value = value;
+    }
+  }
+
+  private final Comparator<Item<V>> order = new Comparator<Item<V>>() {
+    public int compare(Item<V> a, Item<V> b) {
+      return a.entry.compareTo(b.entry);
+    }
+  };
+
+  private final int capacity;
+  private final long maxPerHost;
+
+  /** Best first, so the one to drop is last. */
+  private final TreeSet<Item<V>> items = new TreeSet<Item<V>>(order);
+  /** Only kept when there is a limit per host. */
+  private final Map<Long, TreeSet<Item<V>>> hosts =
+    new HashMap<Long, TreeSet<Item<V>>>();
+
+  private long dropped;
+
+  /**
+   * @param capacity the maximum number of entries kept
+   * @param maxPerHost the maximum number of entries kept per host, or 0 or
+   * less for no limit
+   */
+  public TopNSelector(int capacity, long maxPerHost) {
+    this.capacity = capacity;
+    this.maxPerHost = maxPerHost;
+  }
+
+  /**
+   * Check whether an entry would be kept, so that its value is only made
+   * for the entries that are. An entry that is not is counted as dropped.
+   * @param host the key of the host or domain of the entry
+   * @return true if {@link #offer(SelectorEntry, long, Object)} would keep
+   * the entry
+   */
+  public boolean admit(SelectorEntry entry, long host) {
+    final Item<V> item = new Item<V>(entry, host, null);
+    boolean admitted;
+    if (items.contains(item)) {
+      // two rows normalized to the same url
+      admitted = false;
+    } else if (maxPerHost > 0 && isFull(hosts.get(host), maxPerHost)) {
+      // takes the place of the last entry of its host
+      admitted = order.compare(item, hosts.get(host).last()) <= 0;
+    } else if (items.size() >= capacity) {
+      admitted = !items.isEmpty() && order.compare(item, items.last()) <= 0;
+    } else {
+      admitted = true;
+    }
+    if (!admitted) {
+      dropped++;
+    }
+    return admitted;
+  }
+
+  private static boolean isFull(TreeSet<?> hostItems, long maxPerHost) {
+    return hostItems != null && hostItems.size() >= maxPerHost;
+  }
+
+  /**
+   * Offer an entry, dropping it or a worse one if a limit is reached.
+   * @param host the key of the host or domain of the entry
+   * @return true if the entry is kept, for now
+   */
+  public boolean offer(SelectorEntry entry, long host, V value) {
+    if (!admit(entry, host)) {
+      return false;
+    }
+    final Item<V> item = new Item<V>(entry, host, value);
+    TreeSet<Item<V>> hostItems;
+    if (maxPerHost > 0) {
+      hostItems = hosts.get(host);
+      if (isFull(hostItems, maxPerHost)) {
+        remove(hostItems.last());
+      }
+    }
+    if (items.size() >= capacity) {
+      remove(items.last());
+    }
+    items.add(item);
+    if (maxPerHost > 0) {
+      // may have gone with the last item of its host
+      hostItems = hosts.get(host);
+      if (hostItems == null) {
+        hostItems = new TreeSet<Item<V>>(order);
+        hosts.put(host, hostItems);
+      }
+      hostItems.add(item);
+    }
+    return true;
+  }
+
+  private void remove(Item<V> item) {
+    items.remove(item);
+    if (maxPerHost > 0) {
+      final TreeSet<Item<V>> hostItems = hosts.get(item.host);
+      hostItems.remove(item);
+      if (hostItems.isEmpty()) {
+        hosts.remove(item.host);
+      }
+    }
+    dropped++;
+  }
+
+  /** @return the number of entries kept */
+  public int size() {
+    return items.size();
+  }
+
+  /** @return the number of entries dropped */
+  public long getDropped() {
+    return dropped;
+  }
+
+  /** @return the entries kept, best first */
+  public Iterator<Item<V>> iterator() {
+    return items.iterator();
+  }
+}
@@ -17,7 +17,6 @@
 
 package org.apache.nutch.crawl;
 
-import java.net.InetAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.UnknownHostException;
@@ -28,6 +27,8 @@ import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapreduce.Partitioner;
 import org.apache.nutch.crawl.GeneratorJob.SelectorEntry;
+import org.apache.nutch.net.DNSCache;
+import org.apache.nutch.net.URLCache;
 import org.apache.nutch.net.URLNormalizers;
 import org.apache.nutch.storage.WebPage;
 import org.apache.nutch.util.URLUtil;
@@ -50,7 +51,8 @@ implements Configurable {
   private Configuration conf;
 
   private int seed;
-  private URLNormalizers normalizers;
+  private URLCache urlCache;
+  private DNSCache dnsCache;
   private String mode = PARTITION_MODE_HOST;
 
   @Override
@@ -69,7 +71,8 @@ implements Configurable {
       LOG.error("Unknown partition mode : " + mode + " - forcing to byHost");
       mode = PARTITION_MODE_HOST;
     }
-    normalizers = new URLNormalizers(conf, URLNormalizers.SCOPE_PARTITION);
+    urlCache = URLCache.get(conf);
+    dnsCache = DNSCache.get(conf);
   }
 
   public void setup(Configuration conf) {
@@ -82,7 +85,7 @@ implements Configurable {
     URL url = null;
     int hashCode = urlString.hashCode();
     try {
-      urlString = normalizers.normalize(urlString, URLNormalizers.SCOPE_PARTITION);
+      urlString = urlCache.normalize(urlString, URLNormalizers.SCOPE_PARTITION);
       url = new URL(urlString);
       hashCode = url.getHost().hashCode();
     } catch (MalformedURLException e) {
@@ -93,8 +96,7 @@ implements Configurable {
         .getDomainName(url).hashCode();
     else if (mode.equals(PARTITION_MODE_IP)) {
       try {
-        InetAddress address = InetAddress.getByName(url.getHost());
-        hashCode = address.getHostAddress().hashCode();
+        hashCode = dnsCache.resolve(url.getHost()).getHostAddress().hashCode();
       } catch (UnknownHostException e) {
         GeneratorJob.LOG.info("Couldn't find IP for host: " + url.getHost());
       }
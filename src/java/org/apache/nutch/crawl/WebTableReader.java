@@ -17,7 +17,6 @@
 package org.apache.nutch.crawl;
 
 import java.io.IOException;
-import java.net.URL;
 import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.Map;
@@ -45,6 +44,7 @@ import org.apache.hadoop.util.ToolRunner;
 import org.apache.nutch.metadata.Nutch;
 import org.apache.nutch.parse.ParseStatusUtils;
 import org.apache.nutch.protocol.ProtocolStatusUtils;
+import org.apache.nutch.storage.ContentCodec;
 import org.apache.nutch.storage.StorageUtils;
 import org.apache.nutch.storage.WebPage;
 import org.apache.nutch.util.Bytes;
@@ -96,8 +96,7 @@ public class WebTableReader extends NutchTool implements Tool {
       context.write(new Text("s"), new LongWritable(
           (long) (value.getScore() * 1000.0)));
       if (sort) {
-        URL u = new URL(TableUtil.unreverseUrl(key.toString()));
-        String host = u.getHost();
+        String host = TableUtil.getHost(key.toString());
         context.write(new Text("status " + value.getStatus() + " " + host),
             COUNT_1);
       }
@@ -232,6 +231,7 @@ public class WebTableReader extends NutchTool implements Tool {
     query.setKey(reversedUrl);
 
     Result<String, WebPage> result = datastore.execute(query);
+    ContentCodec contentCodec = new ContentCodec(getConf());
     boolean found = false;
     // should happen only once
     while (result.next()) {
@@ -242,6 +242,9 @@ public class WebTableReader extends NutchTool implements Tool {
         break;
       found = true;
       String url = TableUtil.unreverseUrl(skey);
+      if (dumpContent) {
+        contentCodec.decode(page);
+      }
       System.out.println(getPageRepresentation(url, page, dumpContent,
           dumpHeaders, dumpLinks, dumpText));
     }
@@ -266,6 +269,7 @@ public class WebTableReader extends NutchTool implements Tool {
 
     private Pattern regex = null;
     private boolean dumpContent, dumpHeaders, dumpLinks, dumpText;
+    private ContentCodec contentCodec;
 
     @Override
     protected void map(
@@ -276,6 +280,9 @@ public class WebTableReader extends NutchTool implements Tool {
       // checks whether the Key passes the regex
       String url = TableUtil.unreverseUrl(key.toString());
       if (regex.matcher(url).matches()) {
+        if (dumpContent) {
+          contentCodec.decode(value);
+        }
         context.write(new Text(url),
             new Text(getPageRepresentation(key, value, dumpContent, dumpHeaders,
                 dumpLinks, dumpText)));
@@ -292,6 +299,7 @@ public class WebTableReader extends NutchTool implements Tool {
       dumpHeaders = context.getConfiguration().getBoolean(headersParamName, false);
       dumpLinks = context.getConfiguration().getBoolean(linksParamName, false);
       dumpText = context.getConfiguration().getBoolean(textParamName, false);
+      contentCodec = new ContentCodec(context.getConfiguration());
     }
 
   }
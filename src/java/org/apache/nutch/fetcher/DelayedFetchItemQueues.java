@@ -0,0 +1,354 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.fetcher;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Event-driven variant of {@link FetchItemQueues}. Queues that have items
+ * and a free thread slot are kept in a ready set ordered by the time they
+ * become due, so taking an item only looks at the head of that set. Fetcher
+ * threads with nothing to do block until the earliest queue becomes due (or
+ * until another queue is added in front of it), and the feeder is signalled
+ * as soon as an item leaves the queues.
+ * <p>
+ * There is no global lock on the hot paths: the host queues live in a
+ * concurrent map, the ready set is a skip list, and each
+ * {@link FetchItemQueue} is guarded by its own monitor. A queue is claimed
+ * by taking it out of the ready set, so at most one thread takes from a given
+ * queue at a time. A lock is only taken to park and wake up idle threads.
+ */
+class DelayedFetchItemQueues extends FetchItemQueues {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DelayedFetchItemQueues.class);
+
+  /**
+   * Upper bound for a single wait. Waiting threads are woken up by events,
+   * this only guarantees that they regularly re-check the end of the input.
+   */
+  static final long MAX_WAIT = 5000;
+
+  static final Comparator<FetchItemQueue> BY_READY_TIME =
+    new Comparator<FetchItemQueue>() {
+    public int compare(FetchItemQueue q1, FetchItemQueue q2) {
+      if (q1.readyAt != q2.readyAt) {
+        return q1.readyAt < q2.readyAt ? -1 : 1;
+      }
+      return q1.seq < q2.seq ? -1 : (q1.seq == q2.seq ? 0 : 1);
+    }
+  };
+
+  /**
+   * Queues an item could be taken from, ordered by
+   * {@link FetchItemQueue#readyAt}, which does not change while a queue is
+   * in the set.
+   */
+  private final ConcurrentSkipListSet<FetchItemQueue> ready =
+    new ConcurrentSkipListSet<FetchItemQueue>(BY_READY_TIME);
+
+  private final ReentrantLock lock = new ReentrantLock();
+  /** Signalled when the head of the ready set changes. */
+  private final Condition available = lock.newCondition();
+  /** Signalled when items leave the queues. */
+  private final Condition notFull = lock.newCondition();
+  /** Number of parked fetcher threads, so that signalling is only done when needed. */
+  private final AtomicInteger waiting = new AtomicInteger();
+  /** Number of parked feeders. */
+  private final AtomicInteger feederWaiting = new AtomicInteger();
+
+  /**
+   * The thread waiting for the head of the ready set to become due. Other
+   * waiting threads sleep until they are signalled. Guarded by lock.
+   */
+  private Thread leader;
+
+  public DelayedFetchItemQueues(Configuration conf) {
+    super(conf);
+  }
+
+  @Override
+  public void addFetchItem(FetchItem it) {
+    boolean head;
+    while (true) {
+      final FetchItemQueue fiq = getFetchItemQueue(it.queueID);
+      synchronized (fiq) {
+        if (fiq.retired) {
+          // reaped in the meantime, the next lookup creates a new queue
+          continue;
+        }
+        fiq.addFetchItem(it);
+        totalSize.incrementAndGet();
+        head = schedule(fiq);
+      }
+      break;
+    }
+    if (head) {
+      signalNewHead();
+    }
+  }
+
+  @Override
+  public void finishFetchItem(FetchItem it, boolean asap) {
+    final FetchItemQueue fiq = queues.get(it.queueID);
+    if (fiq == null) {
+      LOG.warn("Attempting to finish item from unknown queue: " + it);
+      return;
+    }
+    boolean head;
+    synchronized (fiq) {
+      // readyAt is about to change, take the queue out of the ordering first
+      unschedule(fiq);
+      fiq.finishFetchItem(it, asap);
+      if (fiq.getQueueSize() == 0 && fiq.getInProgressSize() == 0) {
+        // reap empty queue
+        fiq.retired = true;
+        queues.remove(it.queueID, fiq);
+        return;
+      }
+      head = schedule(fiq);
+    }
+    if (head) {
+      signalNewHead();
+    }
+  }
+
+  @Override
+  public FetchItemQueue getFetchItemQueue(String id) {
+    FetchItemQueue fiq = queues.get(id);
+    if (fiq == null) {
+      // initialize queue
+      final FetchItemQueue created =
+        new FetchItemQueue(conf, maxThreads, crawlDelay, minCrawlDelay);
+      fiq = queues.putIfAbsent(id, created);
+      if (fiq == null) {
+        fiq = created;
+      }
+    }
+    return fiq;
+  }
+
+  @Override
+  public FetchItem getFetchItem() {
+    while (true) {
+      final FetchItemQueue fiq = peek();
+      if (fiq == null) {
+        return null;
+      }
+      FetchItem fit;
+      boolean head;
+      synchronized (fiq) {
+        if (!fiq.scheduled) {
+          // claimed by another thread, look at the new head
+          continue;
+        }
+        if (fiq.readyAt > System.currentTimeMillis()) {
+          return null;
+        }
+        unschedule(fiq);
+        fit = fiq.getFetchItem();
+        if (fit != null) {
+          totalSize.decrementAndGet();
+        }
+        head = schedule(fiq);
+      }
+      if (head) {
+        signalNewHead();
+      } else {
+        handOff();
+      }
+      if (fit != null) {
+        signalFeeder();
+      }
+      return fit;
+    }
+  }
+
+  /**
+   * Wait until the earliest queue is due, or until the ready set changes.
+   */
+  @Override
+  public void waitForFetchItem() throws InterruptedException {
+    lock.lock();
+    // count ourselves in before looking at the ready set, so that a
+    // concurrent change either is seen here or signals us
+    waiting.incrementAndGet();
+    try {
+      final FetchItemQueue head = peek();
+      if (head == null) {
+        available.await(MAX_WAIT, TimeUnit.MILLISECONDS);
+        return;
+      }
+      final long delay = head.readyAt - System.currentTimeMillis();
+      if (delay <= 0) {
+        return;
+      }
+      if (leader != null) {
+        available.await(MAX_WAIT, TimeUnit.MILLISECONDS);
+        return;
+      }
+      final Thread thisThread = Thread.currentThread();
+      leader = thisThread;
+      try {
+        available.await(Math.min(delay, MAX_WAIT), TimeUnit.MILLISECONDS);
+      } finally {
+        if (leader == thisThread) {
+          leader = null;
+        }
+      }
+    } finally {
+      waiting.decrementAndGet();
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void waitForCapacity(int size) throws InterruptedException {
+    lock.lock();
+    feederWaiting.incrementAndGet();
+    try {
+      if (totalSize.get() >= size) {
+        notFull.await(MAX_WAIT, TimeUnit.MILLISECONDS);
+      }
+    } finally {
+      feederWaiting.decrementAndGet();
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void wakeUp() {
+    if (waiting.get() == 0) {
+      return;
+    }
+    lock.lock();
+    try {
+      available.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int checkTimelimit() {
+    int count = 0;
+    if (System.currentTimeMillis() >= timelimit && timelimit != -1) {
+      // emptying the queues
+      for (final String id : queues.keySet()) {
+        final FetchItemQueue fiq = queues.get(id);
+        if (fiq == null) continue;
+        synchronized (fiq) {
+          if (fiq.getQueueSize() == 0) continue;
+          LOG.info("* queue: " + id + " >> timelimit! ");
+          unschedule(fiq);
+          final int deleted = fiq.emptyQueue();
+          totalSize.addAndGet(-deleted);
+          count += deleted;
+        }
+      }
+      if (count > 0) {
+        lock.lock();
+        try {
+          available.signalAll();
+          notFull.signalAll();
+        } finally {
+          lock.unlock();
+        }
+      }
+    }
+    return count;
+  }
+
+  private FetchItemQueue peek() {
+    final Iterator<FetchItemQueue> it = ready.iterator();
+    return it.hasNext() ? it.next() : null;
+  }
+
+  /**
+   * Put the queue in the ready set if an item could be taken from it. The
+   * caller holds the monitor of the queue.
+   * @return true if the queue became the head of the ready set
+   */
+  private boolean schedule(FetchItemQueue fiq) {
+    if (fiq.scheduled || !fiq.isEligible()) {
+      return false;
+    }
+    fiq.readyAt = fiq.nextFetchTime.get();
+    fiq.scheduled = true;
+    ready.add(fiq);
+    return peek() == fiq;
+  }
+
+  /** The caller holds the monitor of the queue. */
+  private void unschedule(FetchItemQueue fiq) {
+    if (!fiq.scheduled) {
+      return;
+    }
+    ready.remove(fiq);
+    fiq.scheduled = false;
+  }
+
+  /** The head changed, the current leader waits for the wrong deadline. */
+  private void signalNewHead() {
+    if (waiting.get() == 0) {
+      return;
+    }
+    lock.lock();
+    try {
+      leader = null;
+      available.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Let a waiting thread take over the wait for the next queue. */
+  private void handOff() {
+    if (waiting.get() == 0 || ready.isEmpty()) {
+      return;
+    }
+    lock.lock();
+    try {
+      if (leader == null) {
+        available.signal();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void signalFeeder() {
+    if (feederWaiting.get() == 0) {
+      return;
+    }
+    lock.lock();
+    try {
+      notFull.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+}
@@ -25,12 +25,13 @@ import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
 import org.apache.nutch.storage.WebPage;
-import org.apache.gora.util.IOUtils;
+import org.apache.nutch.util.WebPageEncoding;
 
 public class FetchEntry extends Configured implements Writable {
 
   private String key;
   private WebPage page;
+  private long fields = WebPageEncoding.ALL_FIELDS;
 
   public FetchEntry() {
     super(null);
@@ -42,16 +43,25 @@ public class FetchEntry extends Configured implements Writable {
     this.page = page;
   }
 
+  /**
+   * @param fields the fields of the page to send to the fetcher threads, as
+   *        a mask from {@link WebPageEncoding#getFieldMask(java.util.Collection)}
+   */
+  public FetchEntry(Configuration conf, String key, WebPage page, long fields) {
+    this(conf, key, page);
+    this.fields = fields;
+  }
+
   @Override
   public void readFields(DataInput in) throws IOException {
     key = Text.readString(in);
-    page = IOUtils.deserialize(getConf(), in, null, WebPage.class);
+    page = WebPageEncoding.read(in, null);
   }
 
   @Override
   public void write(DataOutput out) throws IOException {
     Text.writeString(out, key);
-    IOUtils.serialize(getConf(), out, page, WebPage.class);
+    WebPageEncoding.write(out, page, fields);
   }
 
   public String getKey() {
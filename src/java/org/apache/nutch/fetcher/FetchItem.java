@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.fetcher;
+
+import java.net.URL;
+import java.net.UnknownHostException;
+
+import org.apache.nutch.net.DNSCache;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.URLUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class described the item to be fetched.
+ */
+class FetchItem {
+
+  private static final Logger LOG = LoggerFactory.getLogger(FetchItem.class);
+
+  WebPage page;
+  String queueID;
+  String url;
+  URL u;
+
+  public FetchItem(String url, WebPage page, URL u, String queueID) {
+    this.page = page;
+    this.url = url;
+    this.u = u;
+    this.queueID = queueID;
+  }
+
+  /** Create an item. Queue id will be created based on <code>queueMode</code>
+   * argument, either as a protocol + hostname pair, protocol + IP
+   * address pair or protocol+domain pair. IP addresses are looked up in
+   * <code>dnsCache</code>.
+   */
+  public static FetchItem create(String url, WebPage page, String queueMode,
+      DNSCache dnsCache) {
+    String queueID;
+    URL u = null;
+    try {
+      u = new URL(url);
+    } catch (final Exception e) {
+      LOG.warn("Cannot parse url: " + url, e);
+      return null;
+    }
+    final String proto = u.getProtocol().toLowerCase();
+    String host;
+    if (FetchItemQueues.QUEUE_MODE_IP.equalsIgnoreCase(queueMode)) {
+      try {
+        host = dnsCache.resolve(u.getHost()).getHostAddress();
+      } catch (final UnknownHostException e) {
+        // unable to resolve it, so don't fall back to host name
+        LOG.warn("Unable to resolve: " + u.getHost() + ", skipping.");
+        return null;
+      }
+    }
+    else if (FetchItemQueues.QUEUE_MODE_DOMAIN.equalsIgnoreCase(queueMode)){
+      host = URLUtil.getDomainName(u);
+      if (host == null) {
+        LOG.warn("Unknown domain for url: " + url + ", using URL string as key");
+        host=u.toExternalForm();
+      }
+    }
+    else {
+      host = u.getHost();
+      if (host == null) {
+        LOG.warn("Unknown host for url: " + url + ", using URL string as key");
+        host=u.toExternalForm();
+      }
+    }
+    queueID = proto + "://" + host.toLowerCase();
+    return new FetchItem(url, page, u, queueID);
+  }
+
+}
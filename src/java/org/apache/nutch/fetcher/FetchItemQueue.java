@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.fetcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class handles FetchItems which come from the same host ID (be it
+ * a proto/hostname or proto/IP pair). It also keeps track of requests in
+ * progress and elapsed time between requests.
+ * <p>
+ * The item queue and the in-progress set are concurrent collections, so
+ * queues of different hosts never contend with each other. Taking an item
+ * is not atomic by itself: callers make sure only one thread takes from a
+ * given queue at a time.
+ */
+class FetchItemQueue {
+
+  private static final Logger LOG = LoggerFactory.getLogger(FetchItemQueue.class);
+
+  private static final AtomicLong SEQUENCE = new AtomicLong();
+
+  BlockingQueue<FetchItem> queue = new LinkedBlockingQueue<FetchItem>();
+  Set<FetchItem>  inProgress =
+    Collections.newSetFromMap(new ConcurrentHashMap<FetchItem, Boolean>());
+  AtomicLong nextFetchTime = new AtomicLong();
+  long crawlDelay;
+  long minCrawlDelay;
+  int maxThreads;
+
+  /** Creation order, used to break ties between queues due at the same time. */
+  final long seq = SEQUENCE.incrementAndGet();
+
+  // the fields below belong to DelayedFetchItemQueues, and are only changed
+  // while holding this queue's monitor
+
+  /** True while this queue sits in the ready set of a {@link DelayedFetchItemQueues}. */
+  boolean scheduled;
+  /** The value of {@link #nextFetchTime} when the queue was put in the ready set. */
+  volatile long readyAt;
+  /** True once the queue has been reaped, items must then go to a new queue. */
+  boolean retired;
+
+  public FetchItemQueue(Configuration conf, int maxThreads, long crawlDelay, long minCrawlDelay) {
+    this.maxThreads = maxThreads;
+    this.crawlDelay = crawlDelay;
+    this.minCrawlDelay = minCrawlDelay;
+    // ready to start
+    setEndTime(System.currentTimeMillis() - crawlDelay);
+  }
+
+  public int getQueueSize() {
+    return queue.size();
+  }
+
+  public int getInProgressSize() {
+    return inProgress.size();
+  }
+
+  /**
+   * @return true if an item could be taken from this queue once
+   * {@link #nextFetchTime} has passed
+   */
+  public boolean isEligible() {
+    return getQueueSize() > 0 && getInProgressSize() < maxThreads;
+  }
+
+  public void finishFetchItem(FetchItem it, boolean asap) {
+    if (it != null) {
+      inProgress.remove(it);
+      setEndTime(System.currentTimeMillis(), asap);
+    }
+  }
+
+  public void addFetchItem(FetchItem it) {
+    if (it == null) return;
+    queue.add(it);
+  }
+
+  @SuppressWarnings("unused")
+  public void addInProgressFetchItem(FetchItem it) {
+    if (it == null) return;
+    inProgress.add(it);
+  }
+
+  public FetchItem getFetchItem() {
+    if (inProgress.size() >= maxThreads) return null;
+    final long now = System.currentTimeMillis();
+    if (nextFetchTime.get() > now) return null;
+    FetchItem it = null;
+    if (queue.size() == 0) return null;
+    try {
+      it = queue.poll();
+      if (it == null) return null;
+      inProgress.add(it);
+    } catch (final Exception e) {
+      LOG.error("Cannot remove FetchItem from queue or cannot add it to inProgress queue", e);
+    }
+    return it;
+  }
+
+  public synchronized void dump() {
+    LOG.info("  maxThreads    = " + maxThreads);
+    LOG.info("  inProgress    = " + inProgress.size());
+    LOG.info("  crawlDelay    = " + crawlDelay);
+    LOG.info("  minCrawlDelay = " + minCrawlDelay);
+    LOG.info("  nextFetchTime = " + nextFetchTime.get());
+    LOG.info("  now           = " + System.currentTimeMillis());
+    int i = 0;
+    for (final Iterator<FetchItem> iter = queue.iterator(); iter.hasNext(); i++) {
+      LOG.info("  " + i + ". " + iter.next().url);
+    }
+  }
+
+  private void setEndTime(long endTime) {
+    setEndTime(endTime, false);
+  }
+
+  private void setEndTime(long endTime, boolean asap) {
+    if (!asap)
+      nextFetchTime.set(endTime + (maxThreads > 1 ? minCrawlDelay : crawlDelay));
+    else
+      nextFetchTime.set(endTime);
+  }
+
+  public synchronized int emptyQueue() {
+    return queue.drainTo(new ArrayList<FetchItem>());
+  }
+}
@@ -0,0 +1,235 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.fetcher;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.net.DNSCache;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.URLUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Convenience class - a collection of queues that keeps track of the total
+ * number of items, and provides items eligible for fetching from any queue.
+ * <p>
+ * This implementation walks all queues on every request and leaves it to
+ * the callers to poll; see {@link DelayedFetchItemQueues} for a scheduler
+ * that wakes callers up when a queue becomes due.
+ */
+class FetchItemQueues {
+
+  private static final Logger LOG = LoggerFactory.getLogger(FetchItemQueues.class);
+
+  @SuppressWarnings("unused")
+  public static final String DEFAULT_ID = "default";
+  ConcurrentMap<String, FetchItemQueue> queues =
+    new ConcurrentHashMap<String, FetchItemQueue>();
+  AtomicInteger totalSize = new AtomicInteger(0);
+  int maxThreads;
+  String queueMode;
+  long crawlDelay;
+  long minCrawlDelay;
+  Configuration conf;
+  long timelimit = -1;
+  DNSCache dnsCache;
+
+  public static final String QUEUE_MODE_HOST = "byHost";
+  public static final String QUEUE_MODE_DOMAIN = "byDomain";
+  public static final String QUEUE_MODE_IP = "byIP";
+
+  public static final String SCHEDULER_KEY = "fetcher.queue.scheduler";
+  public static final String SCHEDULER_POLLING = "polling";
+  public static final String SCHEDULER_DELAYED = "delayed";
+
+  /** How long a fetcher thread sleeps when no queue has an item ready. */
+  static final long SPIN_WAIT = 500;
+  /** How long the feeder sleeps when the queues are full. */
+  static final long FEED_WAIT = 1000;
+
+  /**
+   * Create the queues according to <code>fetcher.queue.scheduler</code>.
+   */
+  public static FetchItemQueues create(Configuration conf) {
+    String scheduler = conf.get(SCHEDULER_KEY, SCHEDULER_POLLING);
+    if (SCHEDULER_DELAYED.equals(scheduler)) {
+      LOG.info("Using queue scheduler : " + scheduler);
+      return new DelayedFetchItemQueues(conf);
+    }
+    if (!SCHEDULER_POLLING.equals(scheduler)) {
+      LOG.error("Unknown queue scheduler : " + scheduler + " - forcing to "
+          + SCHEDULER_POLLING);
+    }
+    LOG.info("Using queue scheduler : " + SCHEDULER_POLLING);
+    return new FetchItemQueues(conf);
+  }
+
+  public FetchItemQueues(Configuration conf) {
+    this.conf = conf;
+    this.maxThreads = conf.getInt("fetcher.threads.per.queue", 1);
+    queueMode = conf.get("fetcher.queue.mode", QUEUE_MODE_HOST);
+    // check that the mode is known
+    if (!queueMode.equals(QUEUE_MODE_IP) && !queueMode.equals(QUEUE_MODE_DOMAIN)
+        && !queueMode.equals(QUEUE_MODE_HOST)) {
+      LOG.error("Unknown partition mode : " + queueMode + " - forcing to byHost");
+      queueMode = QUEUE_MODE_HOST;
+    }
+    LOG.info("Using queue mode : "+queueMode);
+    this.crawlDelay = (long) (conf.getFloat("fetcher.server.delay", 1.0f) * 1000);
+    this.minCrawlDelay = (long) (conf.getFloat("fetcher.server.min.delay", 0.0f) * 1000);
+    this.timelimit = conf.getLong("fetcher.timelimit", -1);
+    this.dnsCache = DNSCache.get(conf);
+  }
+
+  public int getTotalSize() {
+    return totalSize.get();
+  }
+
+  public int getQueueCount() {
+    return queues.size();
+  }
+
+  public void addFetchItem(String url, WebPage page) {
+    final FetchItem it = FetchItem.create(url, page, queueMode, dnsCache);
+    if (it != null) addFetchItem(it);
+  }
+
+  /**
+   * Start resolving the hosts of urls that are about to be added, when
+   * queues are by IP address.
+   */
+  public void prefetch(List<String> urls) {
+    if (!queueMode.equals(QUEUE_MODE_IP)) return;
+    final List<String> hosts = new ArrayList<String>(urls.size());
+    for (final String url : urls) {
+      final String host = URLUtil.getHost(url);
+      if (host != null) hosts.add(host);
+    }
+    dnsCache.prefetch(hosts);
+  }
+
+  public synchronized void addFetchItem(FetchItem it) {
+    final FetchItemQueue fiq = getFetchItemQueue(it.queueID);
+    fiq.addFetchItem(it);
+    totalSize.incrementAndGet();
+  }
+
+  public void finishFetchItem(FetchItem it) {
+    finishFetchItem(it, false);
+  }
+
+  public void finishFetchItem(FetchItem it, boolean asap) {
+    final FetchItemQueue fiq = queues.get(it.queueID);
+    if (fiq == null) {
+      LOG.warn("Attempting to finish item from unknown queue: " + it);
+      return;
+    }
+    fiq.finishFetchItem(it, asap);
+  }
+
+  public synchronized FetchItemQueue getFetchItemQueue(String id) {
+    FetchItemQueue fiq = queues.get(id);
+    if (fiq == null) {
+      // initialize queue
+      fiq = new FetchItemQueue(conf, maxThreads, crawlDelay, minCrawlDelay);
+      queues.put(id, fiq);
+    }
+    return fiq;
+  }
+
+  public synchronized FetchItem getFetchItem() {
+    final Iterator<Map.Entry<String, FetchItemQueue>> it =
+      queues.entrySet().iterator();
+    while (it.hasNext()) {
+      final FetchItemQueue fiq = it.next().getValue();
+      // reap empty queues
+      if (fiq.getQueueSize() == 0 && fiq.getInProgressSize() == 0) {
+        it.remove();
+        continue;
+      }
+      final FetchItem fit = fiq.getFetchItem();
+      if (fit != null) {
+        totalSize.decrementAndGet();
+
+        return fit;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Block the calling fetcher thread after {@link #getFetchItem()} came back
+   * empty, until it is worth asking again.
+   */
+  public void waitForFetchItem() throws InterruptedException {
+    Thread.sleep(SPIN_WAIT);
+  }
+
+  /**
+   * Block the feeder while the queues hold <code>size</code> items or more.
+   */
+  public void waitForCapacity(int size) throws InterruptedException {
+    Thread.sleep(FEED_WAIT);
+  }
+
+  /**
+   * Wake up a thread blocked in {@link #waitForFetchItem()}, because it has
+   * other work to do. Polling threads notice on their own.
+   */
+  public void wakeUp() {
+  }
+
+  public synchronized int checkTimelimit() {
+    int count = 0;
+    if (System.currentTimeMillis() >= timelimit && timelimit != -1) {
+      // emptying the queues
+      for (String id : queues.keySet()) {
+        FetchItemQueue fiq = queues.get(id);
+        if (fiq.getQueueSize() == 0) continue;
+        LOG.info("* queue: " + id + " >> timelimit! ");
+        int deleted = fiq.emptyQueue();
+        for (int i = 0; i < deleted; i++) {
+          totalSize.decrementAndGet();
+        }
+        count += deleted;
+      }
+      // there might also be a case where totalsize !=0 but number of queues
+      // == 0
+      // in which case we simply force it to 0 to avoid blocking
+      if (totalSize.get() != 0 && queues.size() == 0) totalSize.set(0);
+    }
+    return count;
+  }
+
+
+  public synchronized void dump() {
+    for (final String id : queues.keySet()) {
+      final FetchItemQueue fiq = queues.get(id);
+      if (fiq.getQueueSize() == 0) continue;
+      LOG.info("* queue: " + id);
+      fiq.dump();
+    }
+  }
+}
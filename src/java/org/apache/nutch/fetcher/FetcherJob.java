@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -46,6 +47,7 @@ import org.apache.nutch.util.NutchJob;
 import org.apache.nutch.util.NutchTool;
 import org.apache.nutch.util.TableUtil;
 import org.apache.nutch.util.ToolUtil;
+import org.apache.nutch.util.WebPageEncoding;
 import org.apache.gora.mapreduce.GoraMapper;
 
 /**
@@ -63,12 +65,20 @@ public class FetcherJob extends NutchTool implements Tool {
   public static final String RESUME_KEY = "fetcher.job.resume";
   public static final String PARSE_KEY = "fetcher.parse";
   public static final String THREADS_KEY = "fetcher.threads.fetch";
+  public static final String THREADS_VIRTUAL_KEY = "fetcher.threads.virtual";
+  public static final String THREADS_VIRTUAL_MAX_KEY = "fetcher.threads.virtual.max";
+  public static final String ENGINE_KEY = "fetcher.engine";
+  public static final String ENGINE_THREADS = "threads";
+  public static final String ENGINE_NIO = "nio";
 
   private static final Collection<WebPage.Field> FIELDS = new HashSet<WebPage.Field>();
 
   static {
     FIELDS.add(WebPage.Field.MARKERS);
     FIELDS.add(WebPage.Field.REPR_URL);
+    FIELDS.add(WebPage.Field.FETCH_TIME);
+    // for the digest of the stored content
+    FIELDS.add(WebPage.Field.METADATA);
   }
 
   /**
@@ -91,6 +101,13 @@ public class FetcherJob extends NutchTool implements Tool {
   public static class FetcherMapper
   extends GoraMapper<String, WebPage, IntWritable, FetchEntry> {
 
+    /**
+     * The stored content is not sent to the fetcher threads: a new fetch
+     * replaces it, and a page that was not modified keeps it in the store.
+     */
+    private static final long SHUFFLED_FIELDS = WebPageEncoding.getFieldMask(
+        EnumSet.complementOf(EnumSet.of(WebPage.Field.CONTENT)));
+
     private boolean shouldContinue;
 
     private Utf8 batchId;
@@ -121,7 +138,7 @@ public class FetcherJob extends NutchTool implements Tool {
         return;
       }
       context.write(new IntWritable(random.nextInt(65536)), new FetchEntry(context
-          .getConfiguration(), key, page));
+          .getConfiguration(), key, page, SHUFFLED_FIELDS));
     }
   }
 
@@ -191,6 +208,7 @@ public class FetcherJob extends NutchTool implements Tool {
       currentJob.setNumReduceTasks(numTasks);
     }
     currentJob.waitForCompletion(true);
+    PartitionUrlByHost.reportSkew(currentJob);
     ToolUtil.recordJobStatus(null, currentJob, results);
     return results;
   }
@@ -17,19 +17,19 @@
 package org.apache.nutch.fetcher;
 
 import java.io.IOException;
-import java.net.InetAddress;
-import java.net.URL;
-import java.net.UnknownHostException;
+import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -39,8 +39,9 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.nutch.crawl.CrawlStatus;
 import org.apache.nutch.crawl.URLWebPage;
+import org.apache.nutch.net.DNSCache;
+import org.apache.nutch.net.URLCache;
 import org.apache.nutch.net.URLFilterException;
-import org.apache.nutch.net.URLFilters;
 import org.apache.nutch.net.URLNormalizers;
 import org.apache.nutch.parse.ParseUtil;
 import org.apache.nutch.protocol.Content;
@@ -50,6 +51,8 @@ import org.apache.nutch.protocol.ProtocolOutput;
 import org.apache.nutch.protocol.ProtocolStatusCodes;
 import org.apache.nutch.protocol.ProtocolStatusUtils;
 import org.apache.nutch.protocol.RobotRules;
+import org.apache.nutch.protocol.RobotRulesCache;
+import org.apache.nutch.storage.ContentCodec;
 import org.apache.nutch.storage.Mark;
 import org.apache.nutch.storage.ProtocolStatus;
 import org.apache.nutch.storage.WebPage;
@@ -82,298 +85,45 @@ extends GoraReducer<IntWritable, FetchEntry, String, WebPage> {
   private boolean parse;
 
   private ParseUtil parseUtil;
+  private ContentCodec contentCodec;
 
-  /**
-   * This class described the item to be fetched.
-   */
-  private static class FetchItem {
-    WebPage page;
-    String queueID;
-    String url;
-    URL u;
-
-    public FetchItem(String url, WebPage page, URL u, String queueID) {
-      this.page = page;
-      this.url = url;
-      this.u = u;
-      this.queueID = queueID;
-    }
-
-    /** Create an item. Queue id will be created based on <code>queueMode</code>
-     * argument, either as a protocol + hostname pair, protocol + IP
-     * address pair or protocol+domain pair.
-     */
-    public static FetchItem create(String url, WebPage page, String queueMode) {
-      String queueID;
-      URL u = null;
-      try {
-        u = new URL(url);
-      } catch (final Exception e) {
-        LOG.warn("Cannot parse url: " + url, e);
-        return null;
-      }
-      final String proto = u.getProtocol().toLowerCase();
-      String host;
-      if (FetchItemQueues.QUEUE_MODE_IP.equalsIgnoreCase(queueMode)) {
-        try {
-          final InetAddress addr = InetAddress.getByName(u.getHost());
-          host = addr.getHostAddress();
-        } catch (final UnknownHostException e) {
-          // unable to resolve it, so don't fall back to host name
-          LOG.warn("Unable to resolve: " + u.getHost() + ", skipping.");
-          return null;
-        }
-      }
-      else if (FetchItemQueues.QUEUE_MODE_DOMAIN.equalsIgnoreCase(queueMode)){
-        host = URLUtil.getDomainName(u);
-        if (host == null) {
-          LOG.warn("Unknown domain for url: " + url + ", using URL string as key");
-          host=u.toExternalForm();
-        }
-      }
-      else {
-        host = u.getHost();
-        if (host == null) {
-          LOG.warn("Unknown host for url: " + url + ", using URL string as key");
-          host=u.toExternalForm();
-        }
-      }
-      queueID = proto + "://" + host.toLowerCase();
-      return new FetchItem(url, page, u, queueID);
-    }
-
-  }
-
-  /**
-   * This class handles FetchItems which come from the same host ID (be it
-   * a proto/hostname or proto/IP pair). It also keeps track of requests in
-   * progress and elapsed time between requests.
-   */
-  private static class FetchItemQueue {
-    List<FetchItem> queue = Collections.synchronizedList(new LinkedList<FetchItem>());
-    Set<FetchItem>  inProgress = Collections.synchronizedSet(new HashSet<FetchItem>());
-    AtomicLong nextFetchTime = new AtomicLong();
-    long crawlDelay;
-    long minCrawlDelay;
-    int maxThreads;
-
-    public FetchItemQueue(Configuration conf, int maxThreads, long crawlDelay, long minCrawlDelay) {
-      this.maxThreads = maxThreads;
-      this.crawlDelay = crawlDelay;
-      this.minCrawlDelay = minCrawlDelay;
-      // ready to start
-      setEndTime(System.currentTimeMillis() - crawlDelay);
-    }
-
-    public int getQueueSize() {
-      return queue.size();
-    }
-
-    public int getInProgressSize() {
-      return inProgress.size();
-    }
-
-    public void finishFetchItem(FetchItem it, boolean asap) {
-      if (it != null) {
-        inProgress.remove(it);
-        setEndTime(System.currentTimeMillis(), asap);
-      }
-    }
-
-    public void addFetchItem(FetchItem it) {
-      if (it == null) return;
-      queue.add(it);
-    }
-
-    @SuppressWarnings("unused")
-    public void addInProgressFetchItem(FetchItem it) {
-      if (it == null) return;
-      inProgress.add(it);
-    }
+  /** Non-blocking client for http urls, null unless the nio engine is used. */
+  private NioHttpClient nioClient;
 
-    public FetchItem getFetchItem() {
-      if (inProgress.size() >= maxThreads) return null;
-      final long now = System.currentTimeMillis();
-      if (nextFetchTime.get() > now) return null;
-      FetchItem it = null;
-      if (queue.size() == 0) return null;
-      try {
-        it = queue.remove(0);
-        inProgress.add(it);
-      } catch (final Exception e) {
-        LOG.error("Cannot remove FetchItem from queue or cannot add it to inProgress queue", e);
-      }
-      return it;
-    }
-
-    public synchronized void dump() {
-      LOG.info("  maxThreads    = " + maxThreads);
-      LOG.info("  inProgress    = " + inProgress.size());
-      LOG.info("  crawlDelay    = " + crawlDelay);
-      LOG.info("  minCrawlDelay = " + minCrawlDelay);
-      LOG.info("  nextFetchTime = " + nextFetchTime.get());
-      LOG.info("  now           = " + System.currentTimeMillis());
-      for (int i = 0; i < queue.size(); i++) {
-        final FetchItem it = queue.get(i);
-        LOG.info("  " + i + ". " + it.url);
-      }
-    }
-
-    private void setEndTime(long endTime) {
-      setEndTime(endTime, false);
-    }
-
-    private void setEndTime(long endTime, boolean asap) {
-      if (!asap)
-        nextFetchTime.set(endTime + (maxThreads > 1 ? minCrawlDelay : crawlDelay));
-      else
-        nextFetchTime.set(endTime);
-    }
-    
-    public synchronized int emptyQueue() {
-      int presize = queue.size();
-      queue.clear();
-      return presize;
-    }
-  }
-
-  /**
-   * Convenience class - a collection of queues that keeps track of the total
-   * number of items, and provides items eligible for fetching from any queue.
-   */
-  private static class FetchItemQueues {
-    @SuppressWarnings("unused")
-    public static final String DEFAULT_ID = "default";
-    Map<String, FetchItemQueue> queues = new HashMap<String, FetchItemQueue>();
-    AtomicInteger totalSize = new AtomicInteger(0);
-    int maxThreads;
-    String queueMode;
-    long crawlDelay;
-    long minCrawlDelay;
-    Configuration conf;
-    long timelimit = -1;
-
-    public static final String QUEUE_MODE_HOST = "byHost";
-    public static final String QUEUE_MODE_DOMAIN = "byDomain";
-    public static final String QUEUE_MODE_IP = "byIP";
-
-    public FetchItemQueues(Configuration conf) {
-      this.conf = conf;
-      this.maxThreads = conf.getInt("fetcher.threads.per.queue", 1);
-      queueMode = conf.get("fetcher.queue.mode", QUEUE_MODE_HOST);
-      // check that the mode is known
-      if (!queueMode.equals(QUEUE_MODE_IP) && !queueMode.equals(QUEUE_MODE_DOMAIN)
-          && !queueMode.equals(QUEUE_MODE_HOST)) {
-        LOG.error("Unknown partition mode : " + queueMode + " - forcing to byHost");
-        queueMode = QUEUE_MODE_HOST;
-      }
-      LOG.info("Using queue mode : "+queueMode);
-      this.crawlDelay = (long) (conf.getFloat("fetcher.server.delay", 1.0f) * 1000);
-      this.minCrawlDelay = (long) (conf.getFloat("fetcher.server.min.delay", 0.0f) * 1000);
-      this.timelimit = conf.getLong("fetcher.timelimit", -1);
-    }
-
-    public int getTotalSize() {
-      return totalSize.get();
-    }
-
-    public int getQueueCount() {
-      return queues.size();
-    }
-
-    public void addFetchItem(String url, WebPage page) {
-      final FetchItem it = FetchItem.create(url, page, queueMode);
-      if (it != null) addFetchItem(it);
-    }
+  /** Requests handed to nioClient whose response has not been handled yet. */
+  private final AtomicInteger inFlight = new AtomicInteger(0);
 
-    public synchronized void addFetchItem(FetchItem it) {
-      final FetchItemQueue fiq = getFetchItemQueue(it.queueID);
-      fiq.addFetchItem(it);
-      totalSize.incrementAndGet();
-    }
-
-    public void finishFetchItem(FetchItem it) {
-      finishFetchItem(it, false);
-    }
-
-    public void finishFetchItem(FetchItem it, boolean asap) {
-      final FetchItemQueue fiq = queues.get(it.queueID);
-      if (fiq == null) {
-        LOG.warn("Attempting to finish item from unknown queue: " + it);
-        return;
-      }
-      fiq.finishFetchItem(it, asap);
-    }
+  /** Responses from nioClient, waiting for a fetcher thread. */
+  private final Queue<AsyncFetch> completions =
+    new ConcurrentLinkedQueue<AsyncFetch>();
 
-    public synchronized FetchItemQueue getFetchItemQueue(String id) {
-      FetchItemQueue fiq = queues.get(id);
-      if (fiq == null) {
-        // initialize queue
-        fiq = new FetchItemQueue(conf, maxThreads, crawlDelay, minCrawlDelay);
-        queues.put(id, fiq);
-      }
-      return fiq;
-    }
+  /** Runs the FetchTask-s, null unless fetcher.threads.virtual is set. */
+  private ExecutorService taskExecutor;
+  private boolean virtualThreads;
+  private int maxTasks;
+  private Semaphore taskPermits;
+  private final AtomicInteger runningTasks = new AtomicInteger(0);
+  private final AtomicInteger peakTasks = new AtomicInteger(0);
+  /** ItemFetcher-s not used by a task at the moment. */
+  private final Queue<ItemFetcher> idleFetchers =
+    new ConcurrentLinkedQueue<ItemFetcher>();
 
-    public synchronized FetchItem getFetchItem() {
-      final Iterator<Map.Entry<String, FetchItemQueue>> it =
-        queues.entrySet().iterator();
-      while (it.hasNext()) {
-        final FetchItemQueue fiq = it.next().getValue();
-        // reap empty queues
-        if (fiq.getQueueSize() == 0 && fiq.getInProgressSize() == 0) {
-          it.remove();
-          continue;
-        }
-        final FetchItem fit = fiq.getFetchItem();
-        if (fit != null) {
-          totalSize.decrementAndGet();
+  private static class AsyncFetch {
+    private final FetchItem fit;
+    private final ProtocolOutput output;
 
-          return fit;
-        }
-      }
-      return null;
-    }
-    
-    public synchronized int checkTimelimit() {
-      int count = 0;
-      if (System.currentTimeMillis() >= timelimit && timelimit != -1) {
-        // emptying the queues
-        for (String id : queues.keySet()) {
-          FetchItemQueue fiq = queues.get(id);
-          if (fiq.getQueueSize() == 0) continue;
-          LOG.info("* queue: " + id + " >> timelimit! ");
-          int deleted = fiq.emptyQueue();
-          for (int i = 0; i < deleted; i++) {
-            totalSize.decrementAndGet();
-          }
-          count += deleted;
-        }
-        // there might also be a case where totalsize !=0 but number of queues
-        // == 0
-        // in which case we simply force it to 0 to avoid blocking
-        if (totalSize.get() != 0 && queues.size() == 0) totalSize.set(0);
-      }
-      return count;
-    }
-    
-
-    public synchronized void dump() {
-      for (final String id : queues.keySet()) {
-        final FetchItemQueue fiq = queues.get(id);
-        if (fiq.getQueueSize() == 0) continue;
-        LOG.info("* queue: " + id);
-        fiq.dump();
-      }
+    AsyncFetch(FetchItem fit, ProtocolOutput output) {
+      this.fit = fit;
+      this.output = output;
     }
   }
 
   /**
-   * This class picks items from queues and fetches the pages.
+   * Fetches items and handles the responses. Keeps the state of the fetch
+   * under way, so each fetcher thread or task needs its own instance.
    */
-  private class FetcherThread extends Thread {
-    private final URLFilters urlFilters;
-    private final URLNormalizers normalizers;
+  private class ItemFetcher {
+    private final URLCache urlCache;
     private final ProtocolFactory protocolFactory;
     private final long maxCrawlDelay;
     @SuppressWarnings("unused")
@@ -384,186 +134,206 @@ extends GoraReducer<IntWritable, FetchEntry, String, WebPage> {
     private int redirectCount;
     private final Context context;
 
-    public FetcherThread(Context context, int num) {
-      this.setDaemon(true);                       // don't hang JVM on exit
-      this.setName("FetcherThread" + num);        // use an informative name
+    public ItemFetcher(Context context) {
       this.context = context;
       Configuration conf = context.getConfiguration();
-      this.urlFilters = new URLFilters(conf);
+      this.urlCache = URLCache.get(conf);
       this.protocolFactory = new ProtocolFactory(conf);
-      this.normalizers = new URLNormalizers(conf, URLNormalizers.SCOPE_FETCHER);
       this.maxCrawlDelay = conf.getInt("fetcher.max.crawl.delay", 30) * 1000;
       // backward-compatible default setting
       this.byIP = conf.getBoolean("fetcher.threads.per.host.by.ip", true);
       this.maxRedirect = conf.getInt("http.redirect.max", 3);
     }
 
-    @Override
-    public void run() {
-      activeThreads.incrementAndGet(); // count threads
-
-      FetchItem fit = null;
+    /** Fetch an item taken from the queues, and finish it. */
+    public void fetch(FetchItem fit) throws IOException, InterruptedException {
+      lastRequestStart.set(System.currentTimeMillis());
+      setReprUrl(fit);
       try {
+        LOG.info("fetching " + fit.url);
 
-        while (true) {
-          fit = fetchQueues.getFetchItem();
-          if (fit == null) {
-            if (feeder.isAlive() || fetchQueues.getTotalSize() > 0) {
-              if (LOG.isDebugEnabled()) {
-                LOG.debug(getName() + " fetchQueues.getFetchItem() was null, spin-waiting ...");
-              }
-              // spin-wait.
-              spinWaiting.incrementAndGet();
-              try {
-                Thread.sleep(500);
-              } catch (final Exception e) {}
-              spinWaiting.decrementAndGet();
+        // fetch the page
+        redirecting = false;
+        redirectCount = 0;
+        do {
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("redirectCount=" + redirectCount);
+          }
+          redirecting = false;
+          final Protocol protocol = this.protocolFactory.getProtocol(fit.url);
+          final RobotRules rules = protocol.getRobotRules(fit.url, fit.page);
+          if (!rules.isAllowed(fit.u)) {
+            // unblock
+            fetchQueues.finishFetchItem(fit, true);
+            if (LOG.isDebugEnabled()) {
+              LOG.debug("Denied by robots.txt: " + fit.url);
+            }
+            output(fit, null, ProtocolStatusUtils.STATUS_ROBOTS_DENIED,
+                CrawlStatus.STATUS_GONE);
+            continue;
+          }
+          if (rules.getCrawlDelay() > 0) {
+            if (rules.getCrawlDelay() > maxCrawlDelay) {
+              // unblock
+              fetchQueues.finishFetchItem(fit, true);
+              LOG.debug("Crawl-Delay for " + fit.url + " too long (" + rules.getCrawlDelay() + "), skipping");
+              output(fit, null, ProtocolStatusUtils.STATUS_ROBOTS_DENIED, CrawlStatus.STATUS_GONE);
               continue;
             } else {
-              // all done, finish this thread
-              return;
+              final FetchItemQueue fiq = fetchQueues.getFetchItemQueue(fit.queueID);
+              fiq.crawlDelay = rules.getCrawlDelay();
             }
           }
-          lastRequestStart.set(System.currentTimeMillis());
-          if (!fit.page.isReadable(WebPage.Field.REPR_URL.getIndex())) {
-            reprUrl = fit.url;
-          } else {
-            reprUrl = TableUtil.toString(fit.page.getReprUrl());
+          if (nioClient != null && "http".equals(fit.u.getProtocol())) {
+            // the response is handled by whichever thread picks it up
+            fetchAsync(fit);
+            break;
           }
-          try {
-            LOG.info("fetching " + fit.url);
+          final ProtocolOutput output = protocol.getProtocolOutput(fit.url, fit.page);
+          handleOutput(fit, output);
 
-            // fetch the page
-            redirecting = false;
-            redirectCount = 0;
-            do {
-              if (LOG.isDebugEnabled()) {
-                LOG.debug("redirectCount=" + redirectCount);
-              }
-              redirecting = false;
-              final Protocol protocol = this.protocolFactory.getProtocol(fit.url);
-              final RobotRules rules = protocol.getRobotRules(fit.url, fit.page);
-              if (!rules.isAllowed(fit.u)) {
-                // unblock
-                fetchQueues.finishFetchItem(fit, true);
-                if (LOG.isDebugEnabled()) {
-                  LOG.debug("Denied by robots.txt: " + fit.url);
-                }
-                output(fit, null, ProtocolStatusUtils.STATUS_ROBOTS_DENIED,
-                    CrawlStatus.STATUS_GONE);
-                continue;
-              }
-              if (rules.getCrawlDelay() > 0) {
-                if (rules.getCrawlDelay() > maxCrawlDelay) {
-                  // unblock
-                  fetchQueues.finishFetchItem(fit, true);
-                  LOG.debug("Crawl-Delay for " + fit.url + " too long (" + rules.getCrawlDelay() + "), skipping");
-                  output(fit, null, ProtocolStatusUtils.STATUS_ROBOTS_DENIED, CrawlStatus.STATUS_GONE);
-                  continue;
-                } else {
-                  final FetchItemQueue fiq = fetchQueues.getFetchItemQueue(fit.queueID);
-                  fiq.crawlDelay = rules.getCrawlDelay();
-                }
-              }
-              final ProtocolOutput output = protocol.getProtocolOutput(fit.url, fit.page);
-              final ProtocolStatus status = output.getStatus();
-              final Content content = output.getContent();
-              // unblock queue
-              fetchQueues.finishFetchItem(fit);
-
-              context.getCounter("FetcherStatus", ProtocolStatusUtils.getName(status.getCode())).increment(1);
-
-              int length = 0;
-              if (content!=null && content.getContent()!=null) length= content.getContent().length;
-              updateStatus(length);
-
-              switch(status.getCode()) {
-
-              case ProtocolStatusCodes.WOULDBLOCK:
-                // retry ?
-                fetchQueues.addFetchItem(fit);
-                break;
-
-              case ProtocolStatusCodes.SUCCESS:        // got a page
-                output(fit, content, status, CrawlStatus.STATUS_FETCHED);
-                break;
-
-              case ProtocolStatusCodes.MOVED:         // redirect
-              case ProtocolStatusCodes.TEMP_MOVED:
-                byte code;
-                boolean temp;
-                if (status.getCode() == ProtocolStatusCodes.MOVED) {
-                  code = CrawlStatus.STATUS_REDIR_PERM;
-                  temp = false;
-                } else {
-                  code = CrawlStatus.STATUS_REDIR_TEMP;
-                  temp = true;
-                }
-                output(fit, content, status, code);
-                final String newUrl = ProtocolStatusUtils.getMessage(status);
-                handleRedirect(fit.url, newUrl, temp,  FetcherJob.PROTOCOL_REDIR);
-                redirecting = false;
-                break;
-              case ProtocolStatusCodes.EXCEPTION:
-                logError(fit.url, ProtocolStatusUtils.getMessage(status));
-                /* FALLTHROUGH */
-              case ProtocolStatusCodes.RETRY:          // retry
-              case ProtocolStatusCodes.BLOCKED:
-                output(fit, null, status, CrawlStatus.STATUS_RETRY);
-                break;
-
-              case ProtocolStatusCodes.GONE:           // gone
-              case ProtocolStatusCodes.NOTFOUND:
-              case ProtocolStatusCodes.ACCESS_DENIED:
-              case ProtocolStatusCodes.ROBOTS_DENIED:
-                output(fit, null, status, CrawlStatus.STATUS_GONE);
-                break;
-
-              case ProtocolStatusCodes.NOTMODIFIED:
-                output(fit, null, status, CrawlStatus.STATUS_NOTMODIFIED);
-                break;
-
-              default:
-                if (LOG.isWarnEnabled()) {
-                  LOG.warn("Unknown ProtocolStatus: " + status.getCode());
-                }
-                output(fit, null, status, CrawlStatus.STATUS_RETRY);
-              }
+          if (redirecting && redirectCount > maxRedirect) {
+            fetchQueues.finishFetchItem(fit);
+            LOG.info(" - redirect count exceeded " + fit.url);
+            output(fit, null, ProtocolStatusUtils.STATUS_REDIR_EXCEEDED,
+                CrawlStatus.STATUS_GONE);
+          }
 
-              if (redirecting && redirectCount > maxRedirect) {
-                fetchQueues.finishFetchItem(fit);
-                LOG.info(" - redirect count exceeded " + fit.url);
-                output(fit, null, ProtocolStatusUtils.STATUS_REDIR_EXCEEDED,
-                    CrawlStatus.STATUS_GONE);
-              }
+        } while (redirecting && (redirectCount <= maxRedirect));
 
-            } while (redirecting && (redirectCount <= maxRedirect));
+      } catch (final Throwable t) {                 // unexpected exception
+        // unblock
+        fetchQueues.finishFetchItem(fit);
+        logError(fit.url, t.toString());
+        t.printStackTrace(LogUtil.getDebugStream(LOG));
+        output(fit, null, ProtocolStatusUtils.STATUS_FAILED,
+            CrawlStatus.STATUS_RETRY);
+      }
+    }
 
-          } catch (final Throwable t) {                 // unexpected exception
-            // unblock
-            fetchQueues.finishFetchItem(fit);
-            logError(fit.url, t.toString());
-            t.printStackTrace(LogUtil.getDebugStream(LOG));
-            output(fit, null, ProtocolStatusUtils.STATUS_FAILED,
-                CrawlStatus.STATUS_RETRY);
-          }
+    /**
+     * Update the queues and the counters after a fetch, and write out the
+     * page according to the protocol status.
+     */
+    private void handleOutput(FetchItem fit, ProtocolOutput output)
+    throws IOException, InterruptedException, URLFilterException {
+      final ProtocolStatus status = output.getStatus();
+      final Content content = output.getContent();
+      // unblock queue
+      fetchQueues.finishFetchItem(fit);
+
+      context.getCounter("FetcherStatus", ProtocolStatusUtils.getName(status.getCode())).increment(1);
+
+      int length = 0;
+      if (content!=null && content.getContent()!=null) length= content.getContent().length;
+      updateStatus(length);
+
+      switch(status.getCode()) {
+
+      case ProtocolStatusCodes.WOULDBLOCK:
+        // retry ?
+        fetchQueues.addFetchItem(fit);
+        break;
+
+      case ProtocolStatusCodes.SUCCESS:        // got a page
+        output(fit, content, status, CrawlStatus.STATUS_FETCHED);
+        break;
+
+      case ProtocolStatusCodes.MOVED:         // redirect
+      case ProtocolStatusCodes.TEMP_MOVED:
+        byte code;
+        boolean temp;
+        if (status.getCode() == ProtocolStatusCodes.MOVED) {
+          code = CrawlStatus.STATUS_REDIR_PERM;
+          temp = false;
+        } else {
+          code = CrawlStatus.STATUS_REDIR_TEMP;
+          temp = true;
         }
+        output(fit, content, status, code);
+        final String newUrl = ProtocolStatusUtils.getMessage(status);
+        handleRedirect(fit.url, newUrl, temp,  FetcherJob.PROTOCOL_REDIR);
+        redirecting = false;
+        break;
+      case ProtocolStatusCodes.EXCEPTION:
+        logError(fit.url, ProtocolStatusUtils.getMessage(status));
+        /* FALLTHROUGH */
+      case ProtocolStatusCodes.RETRY:          // retry
+      case ProtocolStatusCodes.BLOCKED:
+        output(fit, null, status, CrawlStatus.STATUS_RETRY);
+        break;
+
+      case ProtocolStatusCodes.GONE:           // gone
+      case ProtocolStatusCodes.NOTFOUND:
+      case ProtocolStatusCodes.ACCESS_DENIED:
+      case ProtocolStatusCodes.ROBOTS_DENIED:
+        output(fit, null, status, CrawlStatus.STATUS_GONE);
+        break;
+
+      case ProtocolStatusCodes.NOTMODIFIED:
+        output(fit, null, status, CrawlStatus.STATUS_NOTMODIFIED);
+        break;
+
+      default:
+        if (LOG.isWarnEnabled()) {
+          LOG.warn("Unknown ProtocolStatus: " + status.getCode());
+        }
+        output(fit, null, status, CrawlStatus.STATUS_RETRY);
+      }
+    }
 
-      } catch (final Throwable e) {
-        LOG.error("fetcher caught:"+e.toString());
-        e.printStackTrace(LogUtil.getFatalStream(LOG));
+    /**
+     * Handle one response of the nio engine, if there is one.
+     * @return true if a response was handled
+     */
+    private boolean handleCompletion() throws IOException, InterruptedException {
+      final AsyncFetch done = completions.poll();
+      if (done == null) {
+        return false;
+      }
+      setReprUrl(done.fit);
+      try {
+        handleOutput(done.fit, done.output);
+      } catch (final Throwable t) {                 // unexpected exception
+        // unblock
+        fetchQueues.finishFetchItem(done.fit);
+        logError(done.fit.url, t.toString());
+        t.printStackTrace(LogUtil.getDebugStream(LOG));
+        output(done.fit, null, ProtocolStatusUtils.STATUS_FAILED,
+            CrawlStatus.STATUS_RETRY);
       } finally {
-        if (fit != null) fetchQueues.finishFetchItem(fit);
-        activeThreads.decrementAndGet(); // count threads
-        LOG.info("-finishing thread " + getName() + ", activeThreads=" + activeThreads);
+        inFlight.decrementAndGet();
+      }
+      return true;
+    }
+
+    private void fetchAsync(final FetchItem fit) throws InterruptedException {
+      inFlight.incrementAndGet();
+      try {
+        nioClient.fetch(fit.u, fit.page, new NioHttpClient.Callback() {
+          public void completed(ProtocolOutput output) {
+            completions.add(new AsyncFetch(fit, output));
+            fetchQueues.wakeUp();
+          }
+        });
+      } catch (final InterruptedException e) {
+        inFlight.decrementAndGet();
+        throw e;
+      }
+    }
+
+    private void setReprUrl(FetchItem fit) {
+      if (!fit.page.isReadable(WebPage.Field.REPR_URL.getIndex())) {
+        reprUrl = fit.url;
+      } else {
+        reprUrl = TableUtil.toString(fit.page.getReprUrl());
       }
     }
 
     private void handleRedirect(String url, String newUrl,
         boolean temp, String redirType)
     throws URLFilterException, IOException, InterruptedException {
-      newUrl = normalizers.normalize(newUrl, URLNormalizers.SCOPE_FETCHER);
-      newUrl = urlFilters.filter(newUrl);
+      newUrl = urlCache.normalizeAndFilter(newUrl, URLNormalizers.SCOPE_FETCHER);
       if (newUrl == null || newUrl.equals(url)) {
         return;
       }
@@ -613,6 +383,7 @@ extends GoraReducer<IntWritable, FetchEntry, String, WebPage> {
                         redirectedPage.getDatum());
         }
       }
+      contentCodec.encode(fit.page);
       context.write(key, fit.page);
     }
 
@@ -622,6 +393,156 @@ extends GoraReducer<IntWritable, FetchEntry, String, WebPage> {
     }
   }
 
+  /**
+   * This class picks items from queues and fetches the pages.
+   */
+  private class FetcherThread extends Thread {
+    private final ItemFetcher fetcher;
+
+    public FetcherThread(Context context, int num) {
+      this.setDaemon(true);                       // don't hang JVM on exit
+      this.setName("FetcherThread" + num);        // use an informative name
+      this.fetcher = new ItemFetcher(context);
+    }
+
+    @Override
+    public void run() {
+      activeThreads.incrementAndGet(); // count threads
+
+      FetchItem fit = null;
+      try {
+
+        while (true) {
+          if (nioClient != null && fetcher.handleCompletion()) {
+            continue;
+          }
+          fit = fetchQueues.getFetchItem();
+          if (fit == null) {
+            if (feeder.isAlive() || fetchQueues.getTotalSize() > 0
+                || inFlight.get() > 0) {
+              if (LOG.isDebugEnabled()) {
+                LOG.debug(getName() + " fetchQueues.getFetchItem() was null, spin-waiting ...");
+              }
+              // wait until a queue has an item ready
+              spinWaiting.incrementAndGet();
+              try {
+                fetchQueues.waitForFetchItem();
+              } catch (final Exception e) {}
+              spinWaiting.decrementAndGet();
+              continue;
+            } else {
+              // all done, finish this thread
+              return;
+            }
+          }
+          fetcher.fetch(fit);
+          fit = null;
+        }
+
+      } catch (final Throwable e) {
+        LOG.error("fetcher caught:"+e.toString());
+        e.printStackTrace(LogUtil.getFatalStream(LOG));
+      } finally {
+        if (fit != null) fetchQueues.finishFetchItem(fit);
+        activeThreads.decrementAndGet(); // count threads
+        LOG.info("-finishing thread " + getName() + ", activeThreads=" + activeThreads);
+      }
+    }
+  }
+
+  /**
+   * Used instead of FetcherThread-s when <code>fetcher.threads.virtual</code>
+   * is set: takes items from the queues and starts a task for each of them,
+   * up to <code>fetcher.threads.virtual.max</code> tasks. The queues hand out
+   * at most <code>fetcher.threads.per.queue</code> items of a queue at a
+   * time, which bounds the number of tasks per host.
+   */
+  private class FetchDispatcher extends Thread {
+    private final Context context;
+
+    public FetchDispatcher(Context context) {
+      this.setDaemon(true);
+      this.setName("FetchDispatcher");
+      this.context = context;
+    }
+
+    @Override
+    public void run() {
+      activeThreads.incrementAndGet();
+      try {
+        while (true) {
+          taskPermits.acquire();
+          final FetchItem fit = fetchQueues.getFetchItem();
+          if (fit == null) {
+            taskPermits.release();
+            if (feeder.isAlive() || fetchQueues.getTotalSize() > 0) {
+              // wait until a queue has an item ready
+              spinWaiting.incrementAndGet();
+              try {
+                fetchQueues.waitForFetchItem();
+              } catch (final Exception e) {}
+              spinWaiting.decrementAndGet();
+              continue;
+            } else {
+              // all done, running tasks finish on their own
+              return;
+            }
+          }
+          activeThreads.incrementAndGet();
+          final int running = runningTasks.incrementAndGet();
+          if (running > peakTasks.get()) {
+            peakTasks.set(running);
+          }
+          try {
+            taskExecutor.execute(new FetchTask(context, fit));
+          } catch (final RejectedExecutionException e) {
+            fetchQueues.finishFetchItem(fit);
+            runningTasks.decrementAndGet();
+            activeThreads.decrementAndGet();
+            taskPermits.release();
+            throw e;
+          }
+        }
+      } catch (final Throwable e) {
+        LOG.error("dispatcher caught:"+e.toString());
+        e.printStackTrace(LogUtil.getFatalStream(LOG));
+      } finally {
+        activeThreads.decrementAndGet();
+        LOG.info("-finishing dispatcher, activeThreads=" + activeThreads);
+      }
+    }
+  }
+
+  /** Fetches a single item, see {@link FetchDispatcher}. */
+  private class FetchTask implements Runnable {
+    private final Context context;
+    private final FetchItem fit;
+
+    public FetchTask(Context context, FetchItem fit) {
+      this.context = context;
+      this.fit = fit;
+    }
+
+    public void run() {
+      ItemFetcher fetcher = idleFetchers.poll();
+      if (fetcher == null) {
+        fetcher = new ItemFetcher(context);
+      }
+      try {
+        fetcher.fetch(fit);
+      } catch (final Throwable e) {
+        fetchQueues.finishFetchItem(fit);
+        LOG.error("fetcher caught:"+e.toString());
+        e.printStackTrace(LogUtil.getFatalStream(LOG));
+      } finally {
+        idleFetchers.add(fetcher);
+        runningTasks.decrementAndGet();
+        activeThreads.decrementAndGet();
+        taskPermits.release();
+      }
+    }
+  }
+
   /**
    * This class feeds the queues with input items, and re-fills them as
    * items are consumed by FetcherThread-s.
@@ -671,23 +592,29 @@ extends GoraReducer<IntWritable, FetchEntry, String, WebPage> {
           }
           int feed = size - queues.getTotalSize();
           if (feed <= 0) {
-            // queues are full - spin-wait until they have some free space
+            // queues are full - wait until they have some free space
             try {
-              Thread.sleep(1000);
+              queues.waitForCapacity(size);
             } catch (final Exception e) {};
             continue;
           }
           if (LOG.isDebugEnabled()) {
             LOG.debug("-feeding " + feed + " input urls ...");
           }
+          final List<String> urls = new ArrayList<String>(feed);
+          final List<WebPage> pages = new ArrayList<WebPage>(feed);
           while (feed > 0 && currentIter.hasNext()) {
             FetchEntry entry = currentIter.next();
-            final String url =
-              TableUtil.unreverseUrl(entry.getKey());
-            queues.addFetchItem(url, entry.getWebPage());
+            urls.add(TableUtil.unreverseUrl(entry.getKey()));
+            pages.add(entry.getWebPage());
             feed--;
             cnt++;
           }
+          // resolve the hosts of the batch in parallel
+          queues.prefetch(urls);
+          for (int i = 0; i < urls.size(); i++) {
+            queues.addFetchItem(urls.get(i), pages.get(i));
+          }
           if (currentIter.hasNext()) {
             continue; // finish items in current list before reading next key
           }
@@ -703,6 +630,8 @@ extends GoraReducer<IntWritable, FetchEntry, String, WebPage> {
       LOG.info("QueueFeeder finished: total " + cnt + " records. Hit by time limit :"
           + timelimitcount);
       context.getCounter("FetcherStatus","HitByTimeLimit-QueueFeeder").increment(timelimitcount);
+      // for the skew report of the job
+      PartitionUrlByHost.countUrls(context, cnt + timelimitcount);
     }
   }
 
@@ -715,32 +644,140 @@ extends GoraReducer<IntWritable, FetchEntry, String, WebPage> {
     status.append(Math.round(((((float)bytes.get())*8)/1024)/elapsed)).append(" kb/s, ");
     status.append(this.fetchQueues.getTotalSize()).append(" URLs in ");
     status.append(this.fetchQueues.getQueueCount()).append(" queues");
+    if (nioClient != null) {
+      status.append(", ").append(inFlight).append(" requests in flight");
+    }
+    if (taskExecutor != null) {
+      status.append(", ").append(runningTasks).append("/").append(maxTasks);
+      status.append(" tasks (peak ").append(peakTasks).append(")");
+      if (virtualThreads) {
+        // virtual threads run on a ForkJoinPool of carrier threads
+        final int carriers = Integer.getInteger(
+            "jdk.virtualThreadScheduler.parallelism",
+            Runtime.getRuntime().availableProcessors());
+        status.append(" on ").append(carriers).append(" carrier threads, ");
+        status.append(Math.round(((float)runningTasks.get()*10)/carriers)/10.0);
+        status.append(" tasks/carrier");
+      } else if (taskExecutor instanceof ThreadPoolExecutor) {
+        final ThreadPoolExecutor pool = (ThreadPoolExecutor) taskExecutor;
+        status.append(" on ").append(pool.getActiveCount()).append("/");
+        status.append(pool.getPoolSize()).append(" busy threads");
+      }
+    }
     context.setStatus(status.toString());
   }
 
+  /**
+   * Create the executor for FetchTask-s: one virtual thread per task when the
+   * JVM supports them, otherwise a growing pool of daemon threads.
+   */
+  private ExecutorService createTaskExecutor() {
+    try {
+      final Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      virtualThreads = true;
+      return (ExecutorService) m.invoke(null);
+    } catch (final Exception e) {
+      LOG.warn("Fetcher: virtual threads not supported by this JVM, using a pool of threads");
+    }
+    virtualThreads = false;
+    return Executors.newCachedThreadPool(new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger(0);
+      public Thread newThread(Runnable r) {
+        final Thread t = new Thread(r, "FetchTask" + count.getAndIncrement());
+        t.setDaemon(true);                        // don't hang JVM on exit
+        return t;
+      }
+    });
+  }
+
   @Override
   public void run(Context context)
   throws IOException, InterruptedException {
     Configuration conf = context.getConfiguration();
-    this.fetchQueues = new FetchItemQueues(conf);
+    this.fetchQueues = FetchItemQueues.create(conf);
     int threadCount = conf.getInt("fetcher.threads.fetch", 10);
     parse = conf.getBoolean(FetcherJob.PARSE_KEY, false);
+    contentCodec = new ContentCodec(conf);
     if (parse) {
       parseUtil = new ParseUtil(conf);
     }
     LOG.info("Fetcher: threads: " + threadCount);
+    String engine = conf.get(FetcherJob.ENGINE_KEY, FetcherJob.ENGINE_THREADS);
+    if (FetcherJob.ENGINE_NIO.equals(engine)) {
+      nioClient = new NioHttpClient(conf);
+    } else if (!FetcherJob.ENGINE_THREADS.equals(engine)) {
+      LOG.error("Unknown fetch engine : " + engine + " - forcing to "
+          + FetcherJob.ENGINE_THREADS);
+      engine = FetcherJob.ENGINE_THREADS;
+    }
+    LOG.info("Fetcher: engine: " + engine);
+    int feedSize = threadCount * 50;
+    if (conf.getBoolean(FetcherJob.THREADS_VIRTUAL_KEY, false)) {
+      if (nioClient != null) {
+        LOG.warn("Fetcher: " + FetcherJob.THREADS_VIRTUAL_KEY
+            + " is ignored by the " + engine + " engine");
+      } else {
+        maxTasks = conf.getInt(FetcherJob.THREADS_VIRTUAL_MAX_KEY, 1000);
+        taskPermits = new Semaphore(maxTasks);
+        taskExecutor = createTaskExecutor();
+        feedSize = Math.max(feedSize, maxTasks * 2);
+        LOG.info("Fetcher: tasks: " + maxTasks + ", virtual threads: "
+            + virtualThreads);
+      }
+    }
 
-    feeder = new QueueFeeder(context, fetchQueues, threadCount * 50);
+    feeder = new QueueFeeder(context, fetchQueues, feedSize);
     feeder.start();
 
-    for (int i = 0; i < threadCount; i++) {       // spawn threads
-      FetcherThread ft = new FetcherThread(context, i);
-      fetcherThreads.add(ft);
-      ft.start();
+    if (taskExecutor != null) {
+      new FetchDispatcher(context).start();
+    } else {
+      for (int i = 0; i < threadCount; i++) {     // spawn threads
+        FetcherThread ft = new FetcherThread(context, i);
+        fetcherThreads.add(ft);
+        ft.start();
+      }
     }
     // select a timeout that avoids a task timeout
     final long timeout = conf.getInt("mapred.task.timeout", 10*60*1000)/2;
 
+    try {
+      waitForThreads(context, timeout);
+    } finally {
+      if (nioClient != null) {
+        nioClient.close();
+      }
+      if (taskExecutor != null) {
+        taskExecutor.shutdownNow();
+      }
+      DNSCache.get(conf).close();
+      final RobotRulesCache robots = RobotRulesCache.get(conf);
+      robots.close();
+      context.getCounter("FetcherStatus", "RobotsCache-Hits")
+          .increment(robots.getHits());
+      context.getCounter("FetcherStatus", "RobotsCache-Misses")
+          .increment(robots.getMisses());
+      context.getCounter("FetcherStatus", "RobotsCache-Evictions")
+          .increment(robots.getEvictions());
+      URLCache.get(conf).report(context);
+      if (parseUtil != null) {
+        context.getCounter("ParserStatus", "timeout")
+            .increment(parseUtil.getParseTimeouts());
+        context.getCounter("ParserStatus", "zombie")
+            .increment(parseUtil.getZombieParsers());
+        context.getCounter("ParserStatus", "killed")
+            .increment(parseUtil.getKilledParsers());
+        // a peak, not a count: summing it over the tasks would mean nothing
+        if (parseUtil.getMaxZombieParsers() > 0) {
+          LOG.info("FetcherReducer: at most " + parseUtil.getMaxZombieParsers()
+              + " parsers running after a timeout at the same time");
+        }
+      }
+    }
+  }
+
+  private void waitForThreads(Context context, long timeout)
+  throws IOException {
     do {                                          // wait for threads to exit
       try {
         Thread.sleep(10000);
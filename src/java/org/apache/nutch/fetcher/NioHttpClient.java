@@ -0,0 +1,463 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.fetcher;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.metadata.SpellCheckedMetadata;
+import org.apache.nutch.net.DNSCache;
+import org.apache.nutch.net.protocols.ConditionalGet;
+import org.apache.nutch.net.protocols.HttpUtils;
+import org.apache.nutch.net.protocols.Response;
+import org.apache.nutch.protocol.ProtocolOutput;
+import org.apache.nutch.protocol.ProtocolStatusCodes;
+import org.apache.nutch.protocol.ProtocolStatusUtils;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.MimeUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Non-blocking HTTP/1.0 client used by the <code>nio</code> fetch engine of
+ * {@link FetcherReducer}. Requests are multiplexed over a small pool of
+ * selector threads, so the number of requests in flight is no longer bound
+ * by the number of fetcher threads. Requests and responses follow what the
+ * protocol-http plugin does, and are turned into the same
+ * {@link ProtocolOutput} by {@link HttpUtils}.
+ */
+class NioHttpClient {
+
+  private static final Logger LOG = LoggerFactory.getLogger(NioHttpClient.class);
+
+  public static final String SELECTORS_KEY = "fetcher.nio.selectors";
+  public static final String CONNECTIONS_KEY = "fetcher.nio.connections";
+
+  private static final int BUFFER_SIZE = 8 * 1024;
+  private static final int MAX_HEADER_SIZE = 64 * 1024;
+  /** How often the selector threads look for timed out requests. */
+  private static final long SELECT_TIMEOUT = 500;
+
+  /** Receives the outcome of a request. Called from a selector thread. */
+  interface Callback {
+    void completed(ProtocolOutput output);
+  }
+
+  private final SelectorLoop[] loops;
+  private final AtomicInteger nextLoop = new AtomicInteger();
+  private final int maxConnections;
+  private final Semaphore connections;
+
+  private final MimeUtil mimeTypes;
+  private final DNSCache dnsCache;
+  private final int timeout;
+  private final int maxContent;
+  private final String userAgent;
+  private final String proxyHost;
+  private final int proxyPort;
+  private final boolean useProxy;
+
+  public NioHttpClient(Configuration conf) throws IOException {
+    this.timeout = conf.getInt("http.timeout", 10000);
+    this.maxContent = conf.getInt("http.content.limit", 64 * 1024);
+    this.proxyHost = conf.get("http.proxy.host");
+    this.proxyPort = conf.getInt("http.proxy.port", 8080);
+    this.useProxy = (proxyHost != null && proxyHost.length() > 0);
+    this.userAgent = HttpUtils.getAgentString(conf.get("http.agent.name"),
+        conf.get("http.agent.version"), conf.get("http.agent.description"),
+        conf.get("http.agent.url"), conf.get("http.agent.email"));
+    this.mimeTypes = new MimeUtil(conf);
+    this.dnsCache = DNSCache.get(conf);
+    this.maxConnections = conf.getInt(CONNECTIONS_KEY, 1000);
+    this.connections = new Semaphore(maxConnections);
+    int selectors = Math.max(1, conf.getInt(SELECTORS_KEY, 2));
+    loops = new SelectorLoop[selectors];
+    for (int i = 0; i < selectors; i++) {
+      loops[i] = new SelectorLoop(i);
+      loops[i].start();
+    }
+  }
+
+  /**
+   * Start fetching an http url. Blocks while the maximum number of
+   * connections is open, returns as soon as the request is under way.
+   */
+  public void fetch(URL url, WebPage page, Callback callback)
+  throws InterruptedException {
+    if (!"http".equals(url.getProtocol())) {
+      throw new IllegalArgumentException("Not an HTTP url:" + url);
+    }
+    connections.acquire();
+    final Exchange ex = new Exchange(url, page, callback);
+    final String sockHost = useProxy ? proxyHost : url.getHost();
+    final int sockPort = useProxy ? proxyPort
+        : (url.getPort() == -1 ? 80 : url.getPort());
+    final InetSocketAddress addr;
+    try {
+      addr = new InetSocketAddress(dnsCache.resolve(sockHost), sockPort);
+    } catch (UnknownHostException e) {
+      ex.fail(e);
+      return;
+    }
+    try {
+      ex.channel = SocketChannel.open();
+      ex.channel.configureBlocking(false);
+      ex.channel.connect(addr);
+    } catch (IOException e) {
+      ex.fail(e);
+      return;
+    }
+    loops[(nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length]
+      .register(ex);
+  }
+
+  /** @return the number of requests in flight */
+  public int getInFlight() {
+    return maxConnections - connections.availablePermits();
+  }
+
+  /** Stop the selector threads, requests still in flight fail. */
+  public void close() {
+    for (SelectorLoop loop : loops) {
+      loop.shutdown();
+    }
+  }
+
+  /**
+   * The state of one request, owned by the selector thread it is
+   * registered with.
+   */
+  private class Exchange {
+    private final URL url;
+    private final WebPage page;
+    private final Callback callback;
+    private SocketChannel channel;
+    private final ByteBuffer request;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final ByteArrayOutputStream header = new ByteArrayOutputStream();
+    /** The end of the header lines seen so far: 1 after a '\n', 2 after "\n\r". */
+    private int eol;
+    private ByteArrayOutputStream body;
+    private int code = -1;
+    private Metadata headers = new SpellCheckedMetadata();
+    private int contentLength = Integer.MAX_VALUE;
+    private long deadline;
+    private boolean done;
+
+    Exchange(URL url, WebPage page, Callback callback) {
+      this.url = url;
+      this.page = page;
+      this.callback = callback;
+      this.request = ByteBuffer.wrap(buildRequest(url, page));
+    }
+
+    void touch() {
+      deadline = System.currentTimeMillis() + timeout;
+    }
+
+    void process(SelectionKey key) throws IOException {
+      if (key.isConnectable()) {
+        if (channel.finishConnect()) {
+          key.interestOps(SelectionKey.OP_WRITE);
+          touch();
+        }
+      } else if (key.isWritable()) {
+        channel.write(request);
+        touch();
+        if (!request.hasRemaining()) {
+          key.interestOps(SelectionKey.OP_READ);
+        }
+      } else if (key.isReadable()) {
+        buffer.clear();
+        int n = channel.read(buffer);
+        if (n == -1) {
+          if (body == null) {
+            throw new EOFException("Connection closed before end of headers");
+          }
+          complete();
+          return;
+        }
+        touch();
+        buffer.flip();
+        if (body == null) {
+          readHeaders();
+        } else {
+          readBody(buffer.array(), buffer.position(), buffer.remaining());
+        }
+      }
+    }
+
+    /**
+     * Look for the blank line ending the headers in what was just read, and
+     * only copy the headers out of the buffer once it is found.
+     */
+    private void readHeaders() throws IOException {
+      final byte[] bytes = buffer.array();
+      final int limit = buffer.limit();
+      int start = buffer.position();
+      for (int i = start; i < limit; i++) {
+        final byte b = bytes[i];
+        if (b == '\n') {
+          if (eol == 0) {
+            eol = 1;
+            continue;
+          }
+          eol = 0;
+          header.write(bytes, start, i + 1 - start);
+          parseHeaders(header.toString("ISO-8859-1"));
+          header.reset();
+          start = i + 1;
+          if (code != 100) { // 100 is "Continue"
+            startBody();
+            readBody(bytes, start, limit - start);
+            return;
+          }
+          headers = new SpellCheckedMetadata();
+        } else {
+          eol = (b == '\r' && eol == 1) ? 2 : 0;
+        }
+      }
+      header.write(bytes, start, limit - start);
+      if (header.size() > MAX_HEADER_SIZE) {
+        throw new IOException("Headers too long");
+      }
+    }
+
+    private void parseHeaders(String text) throws IOException {
+      String[] lines = text.split("\r?\n");
+      code = HttpUtils.parseStatusCode(lines[0]);
+      if (code == -1) {
+        throw new IOException("bad status line '" + lines[0] + "'");
+      }
+      StringBuilder line = new StringBuilder();
+      for (int i = 1; i <= lines.length; i++) {
+        if (i < lines.length && lines[i].length() > 0
+            && (lines[i].charAt(0) == ' ' || lines[i].charAt(0) == '\t')) {
+          // continued line
+          line.append(lines[i].trim());
+          continue;
+        }
+        if (!HttpUtils.parseHeaderLine(line, headers)) {
+          throw new IOException("No colon in header:" + line);
+        }
+        line.setLength(0);
+        if (i < lines.length) line.append(lines[i]);
+      }
+    }
+
+    private void startBody() throws IOException {
+      String contentLengthString = headers.get(Response.CONTENT_LENGTH);
+      if (contentLengthString != null) {
+        contentLengthString = contentLengthString.trim();
+        try {
+          contentLength = Integer.parseInt(contentLengthString);
+        } catch (NumberFormatException e) {
+          throw new IOException("bad content length: " + contentLengthString);
+        }
+      }
+      if (maxContent >= 0 && contentLength > maxContent) // limit download size
+        contentLength = maxContent;
+      body = new ByteArrayOutputStream(Math.min(contentLength, BUFFER_SIZE));
+    }
+
+    private void readBody(byte[] bytes, int offset, int length) {
+      int n = Math.min(length, contentLength - body.size());
+      body.write(bytes, offset, n);
+      if (body.size() >= contentLength) {
+        complete();
+      }
+    }
+
+    void complete() {
+      if (done) return;
+      done = true;
+      close();
+      ProtocolOutput output;
+      try {
+        byte[] content = HttpUtils.decodeContent(body.toByteArray(),
+            headers.get(Response.CONTENT_ENCODING), maxContent);
+        // add headers in metadata to row
+        ConditionalGet.storeHeaders(page, code, headers);
+        output = HttpUtils.toProtocolOutput(url, code, headers, content,
+            mimeTypes);
+      } catch (Exception e) {
+        output = new ProtocolOutput(null, ProtocolStatusUtils.makeStatus(
+            ProtocolStatusCodes.EXCEPTION, e.toString()));
+      }
+      finish(output);
+    }
+
+    void fail(Throwable e) {
+      if (done) return;
+      done = true;
+      close();
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("fetch of " + url + " failed: " + e);
+      }
+      finish(new ProtocolOutput(null, ProtocolStatusUtils.makeStatus(
+          ProtocolStatusCodes.EXCEPTION, e.toString())));
+    }
+
+    private void finish(ProtocolOutput output) {
+      connections.release();
+      try {
+        callback.completed(output);
+      } catch (Throwable t) {
+        LOG.error("Callback failed for " + url, t);
+      }
+    }
+
+    private void close() {
+      if (channel == null) return;
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+  }
+
+  /** A selector thread and the requests registered with it. */
+  private class SelectorLoop extends Thread {
+    private final Selector selector;
+    private final Queue<Exchange> pending = new ConcurrentLinkedQueue<Exchange>();
+    private volatile boolean running = true;
+
+    SelectorLoop(int num) throws IOException {
+      this.selector = Selector.open();
+      this.setDaemon(true);
+      this.setName("NioHttpClient" + num);
+    }
+
+    void register(Exchange ex) {
+      pending.add(ex);
+      selector.wakeup();
+    }
+
+    void shutdown() {
+      running = false;
+      selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+      long lastCheck = System.currentTimeMillis();
+      while (running) {
+        try {
+          selector.select(SELECT_TIMEOUT);
+        } catch (IOException e) {
+          LOG.error("Select failed", e);
+        }
+        Exchange ex;
+        while ((ex = pending.poll()) != null) {
+          try {
+            int ops = ex.channel.isConnected() ? SelectionKey.OP_WRITE
+                : SelectionKey.OP_CONNECT;
+            ex.channel.register(selector, ops, ex);
+            ex.touch();
+          } catch (IOException e) {
+            ex.fail(e);
+          }
+        }
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+          SelectionKey key = it.next();
+          it.remove();
+          Exchange x = (Exchange) key.attachment();
+          try {
+            x.process(key);
+          } catch (Exception e) {
+            x.fail(e);
+          }
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastCheck >= SELECT_TIMEOUT) {
+          lastCheck = now;
+          for (SelectionKey key : new ArrayList<SelectionKey>(selector.keys())) {
+            Exchange x = (Exchange) key.attachment();
+            if (x.deadline < now) {
+              x.fail(new SocketTimeoutException("Read timed out"));
+            }
+          }
+        }
+      }
+      // fail whatever is left
+      for (SelectionKey key : new ArrayList<SelectionKey>(selector.keys())) {
+        ((Exchange) key.attachment()).fail(new IOException("Client closed"));
+      }
+      Exchange ex;
+      while ((ex = pending.poll()) != null) {
+        ex.fail(new IOException("Client closed"));
+      }
+      try {
+        selector.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+  }
+
+  private byte[] buildRequest(URL url, WebPage page) {
+    String path = "".equals(url.getFile()) ? "/" : url.getFile();
+    String host = url.getHost();
+    String portString = url.getPort() == -1 ? "" : ":" + url.getPort();
+    StringBuilder reqStr = new StringBuilder("GET ");
+    if (useProxy) {
+      reqStr.append(url.getProtocol() + "://" + host + portString + path);
+    } else {
+      reqStr.append(path);
+    }
+    reqStr.append(" HTTP/1.0\r\n");
+    reqStr.append("Host: ").append(host).append(portString).append("\r\n");
+    reqStr.append("Accept-Encoding: x-gzip, gzip\r\n");
+    if (userAgent.length() > 0) {
+      reqStr.append("User-Agent: ").append(userAgent).append("\r\n");
+    }
+    String ifModifiedSince = ConditionalGet.getIfModifiedSince(page);
+    if (ifModifiedSince != null) {
+      reqStr.append("If-Modified-Since: ").append(ifModifiedSince).append("\r\n");
+    }
+    String ifNoneMatch = ConditionalGet.getIfNoneMatch(page);
+    if (ifNoneMatch != null) {
+      reqStr.append("If-None-Match: ").append(ifNoneMatch).append("\r\n");
+    }
+    reqStr.append("\r\n");
+    try {
+      return reqStr.toString().getBytes("ISO-8859-1");
+    } catch (IOException e) {
+      // cannot happen
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -5,9 +5,9 @@
  * The ASF licenses this file to You under the Apache License, Version 2.0
  * (the "License"); you may not use this file except in compliance with
  * the License.  You may obtain a copy of the License at
- * 
+ *
  *     http://www.apache.org/licenses/LICENSE-2.0
- * 
+ *
  * Unless required by applicable law or agreed to in writing, software
  * distributed under the License is distributed on an "AS IS" BASIS,
  * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
@@ -16,24 +16,202 @@
  ******************************************************************************/
 package org.apache.nutch.fetcher;
 
-import java.net.URL;
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.nutch.net.DNSCache;
 import org.apache.nutch.util.TableUtil;
+import org.apache.nutch.util.URLUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * Partitions the fetch list so that all urls of a {@link FetchItemQueue} go
+ * to the same reducer. Urls are grouped by host, domain or IP address
+ * depending on <code>fetcher.queue.mode</code>, like
+ * {@link FetchItem#create(String, org.apache.nutch.storage.WebPage, String, DNSCache)}
+ * does.
+ * <p>
+ * The host is read from the reversed url used as row key (see
+ * {@link TableUtil#reverseUrl(String)}) without parsing the url. Rows of a
+ * host come one after the other, so the hash of the last host is kept, and
+ * domain names and IP addresses are cached. IP addresses are looked up in
+ * the shared {@link DNSCache}.
+ */
 public class PartitionUrlByHost
-extends Partitioner<IntWritable, FetchEntry> {
+extends Partitioner<IntWritable, FetchEntry>
+implements Configurable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PartitionUrlByHost.class);
+
+  /** The group of the counters of the fetcher reducers. */
+  public static final String COUNTER_GROUP = "FetcherPartitions";
+
+  /** The counter of the urls fed to the fetcher reducers. */
+  public static final String URLS_COUNTER = "Urls";
+
+  /**
+   * Whether each fetcher reducer also counts its urls in a counter of its
+   * own, named {@link #URLS_COUNTER} followed by the partition number, for
+   * {@link #reportSkew(Job)}. Off by default, as it takes one counter per
+   * reducer.
+   */
+  public static final String SKEW_REPORT_KEY = "fetcher.partition.skew.report";
+
+  static final int CACHE_SIZE = 10000;
+
+  private Configuration conf;
+  private String mode = FetchItemQueues.QUEUE_MODE_HOST;
+
+  /** Hashes of the domains or IP addresses of reversed hosts. */
+  private final Map<String, Integer> hashes =
+    new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+      return size() > CACHE_SIZE;
+    }
+  };
+
+  /** The last reversed url seen, and the hash of its host. */
+  private String lastUrl;
+  private int lastHostLength;
+  private int lastHash;
+
+  @Override
+  public Configuration getConf() {
+    return conf;
+  }
+
+  @Override
+  public void setConf(Configuration conf) {
+    this.conf = conf;
+    mode = conf.get("fetcher.queue.mode", FetchItemQueues.QUEUE_MODE_HOST);
+    // check that the mode is known
+    if (!mode.equals(FetchItemQueues.QUEUE_MODE_IP)
+        && !mode.equals(FetchItemQueues.QUEUE_MODE_DOMAIN)
+        && !mode.equals(FetchItemQueues.QUEUE_MODE_HOST)) {
+      LOG.error("Unknown partition mode : " + mode + " - forcing to byHost");
+      mode = FetchItemQueues.QUEUE_MODE_HOST;
+    }
+  }
 
   @Override
   public int getPartition(IntWritable key,
       FetchEntry value, int numPartitions) {
-    String urlString = TableUtil.unreverseUrl(value.getKey());
+    final int hashCode = hash(value.getKey());
+    return (hashCode & Integer.MAX_VALUE) % numPartitions;
+  }
 
-    URL url = null;
+  /**
+   * @return the hash of the host, domain or IP address of a reversed url
+   */
+  int hash(String reversedUrl) {
+    final int hostLength = TableUtil.getReversedHostLength(reversedUrl);
+    if (lastUrl != null && hostLength == lastHostLength
+        && reversedUrl.regionMatches(0, lastUrl, 0, hostLength)) {
+      return lastHash;
+    }
+    int hashCode;
+    if (mode.equals(FetchItemQueues.QUEUE_MODE_HOST)) {
+      hashCode = TableUtil.hashReversedHost(reversedUrl);
+    } else {
+      final String reversedHost = reversedUrl.substring(0, hostLength);
+      final Integer cached = hashes.get(reversedHost);
+      if (cached != null) {
+        hashCode = cached;
+      } else {
+        hashCode = hashHost(reversedHost);
+        hashes.put(reversedHost, hashCode);
+      }
+    }
+    lastUrl = reversedUrl;
+    lastHostLength = hostLength;
+    lastHash = hashCode;
+    return hashCode;
+  }
 
-    int hashCode = (url==null ? urlString : url.getHost()).hashCode();
+  private int hashHost(String reversedHost) {
+    final String host = TableUtil.unreverseHost(reversedHost);
+    if (mode.equals(FetchItemQueues.QUEUE_MODE_DOMAIN)) {
+      return URLUtil.getHostDomainName(host).hashCode();
+    } else {
+      try {
+        return DNSCache.get(conf).resolve(host).getHostAddress().hashCode();
+      } catch (UnknownHostException e) {
+        // the fetcher skips it anyway, keep it with its host
+        LOG.info("Couldn't find IP for host: " + host);
+      }
+    }
+    return reversedHost.hashCode();
+  }
 
-    return (hashCode & Integer.MAX_VALUE) % numPartitions;
+  /**
+   * Count the urls fed to a fetcher reducer.
+   */
+  static void countUrls(TaskInputOutputContext<?, ?, ?, ?> context,
+      long urls) {
+    context.getCounter(COUNTER_GROUP, URLS_COUNTER).increment(urls);
+    if (context.getConfiguration().getBoolean(SKEW_REPORT_KEY, false)) {
+      final int partition = context.getTaskAttemptID().getTaskID().getId();
+      context.getCounter(COUNTER_GROUP, URLS_COUNTER + partition)
+        .increment(urls);
+    }
+  }
+
+  /**
+   * Log how evenly the urls of a finished fetch job were spread over the
+   * reducers, from the counters of each partition. Unless
+   * <code>fetcher.partition.skew.report</code> is set, only the total of
+   * the job is reported.
+   * @return the report
+   */
+  public static String reportSkew(Job job) throws IOException {
+    final Counters counters = job.getCounters();
+    final String report;
+    if (job.getConfiguration().getBoolean(SKEW_REPORT_KEY, false)) {
+      final long[] counts = new long[job.getNumReduceTasks()];
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] = counters.findCounter(COUNTER_GROUP, URLS_COUNTER + i)
+          .getValue();
+      }
+      report = skew(counts);
+    } else {
+      final long total = counters.findCounter(COUNTER_GROUP, URLS_COUNTER)
+        .getValue();
+      report = job.getNumReduceTasks() + " partitions, " + total + " urls";
+    }
+    LOG.info("Fetcher: partition skew: " + report);
+    return report;
+  }
+
+  static String skew(long[] counts) {
+    long min = Long.MAX_VALUE, max = 0, total = 0;
+    int empty = 0;
+    for (final long count : counts) {
+      min = Math.min(min, count);
+      max = Math.max(max, count);
+      total += count;
+      if (count == 0) empty++;
+    }
+    if (counts.length == 0) min = 0;
+    final double mean = counts.length == 0 ? 0 : (double) total / counts.length;
+    final StringBuilder report = new StringBuilder();
+    report.append(counts.length).append(" partitions, ");
+    report.append(total).append(" urls, min ").append(min);
+    report.append(", max ").append(max);
+    report.append(", mean ").append(Math.round(mean * 10) / 10.0);
+    report.append(", max/mean ");
+    report.append(mean == 0 ? 0 : Math.round(max / mean * 100) / 100.0);
+    report.append(", empty ").append(empty);
+    return report.toString();
   }
 }
@@ -47,4 +47,10 @@ public interface HttpHeaders {
 
   public final static String LOCATION = "Location";
 
+  public final static String TRANSFER_ENCODING = "Transfer-Encoding";
+
+  public final static String CONNECTION = "Connection";
+
+  public final static String ETAG = "ETag";
+
 }
@@ -0,0 +1,250 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.net;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.nutch.util.ObjectCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded cache of host name lookups, shared by everything that works
+ * with the same configuration (see {@link #get(Configuration)}). Resolved
+ * addresses are kept for <code>dns.cache.ttl</code> seconds, failed lookups
+ * for <code>dns.cache.negative.ttl</code> seconds.
+ * <p>
+ * Hosts that will be needed soon can be handed to {@link #prefetch(Iterable)},
+ * which resolves them in parallel on a small pool of threads. A lookup of a
+ * host that is being resolved waits for that resolution instead of starting
+ * another one.
+ */
+public class DNSCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DNSCache.class);
+
+  public static final String TTL_KEY = "dns.cache.ttl";
+  public static final String NEGATIVE_TTL_KEY = "dns.cache.negative.ttl";
+  public static final String SIZE_KEY = "dns.cache.size";
+  public static final String THREADS_KEY = "dns.cache.threads";
+  public static final String RESOLVER_KEY = "dns.resolver.class";
+
+  /** Resolves host names, replaceable through <code>dns.resolver.class</code>. */
+  public interface Resolver {
+    InetAddress resolve(String host) throws UnknownHostException;
+  }
+
+  /** Resolves host names with {@link InetAddress#getByName(String)}. */
+  public static class DefaultResolver implements Resolver {
+    public InetAddress resolve(String host) throws UnknownHostException {
+      return InetAddress.getByName(host);
+    }
+  }
+
+  /** A lookup, done or under way. */
+  private class Lookup implements Callable<InetAddress> {
+    private final String host;
+    private final FutureTask<InetAddress> task;
+    /** When the result expires, set once it is known. */
+    private volatile long expires = Long.MAX_VALUE;
+
+    Lookup(String host) {
+      this.host = host;
+      this.task = new FutureTask<InetAddress>(this);
+    }
+
+    public InetAddress call() throws UnknownHostException {
+      try {
+        final InetAddress address = resolver.resolve(host);
+        expires = System.currentTimeMillis() + ttl;
+        return address;
+      } catch (UnknownHostException e) {
+        expires = System.currentTimeMillis() + negativeTtl;
+        throw e;
+      } catch (RuntimeException e) {
+        expires = System.currentTimeMillis() + negativeTtl;
+        throw e;
+      }
+    }
+
+    InetAddress get() throws UnknownHostException {
+      try {
+        return task.get();
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof UnknownHostException) {
+          throw (UnknownHostException) e.getCause();
+        }
+        throw (UnknownHostException)
+          new UnknownHostException(host).initCause(e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new UnknownHostException(host + " (interrupted)");
+      }
+    }
+  }
+
+  private final Resolver resolver;
+  private final long ttl;
+  private final long negativeTtl;
+  private final int maxSize;
+  private final int threads;
+
+  /** Guarded by itself. */
+  private final Map<String, Lookup> lookups;
+
+  /** Created when the first prefetch comes in. Guarded by this. */
+  private ExecutorService executor;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+
+  /**
+   * @return the cache shared by all users of <code>conf</code>
+   */
+  public static DNSCache get(Configuration conf) {
+    final ObjectCache objectCache = ObjectCache.get(conf);
+    synchronized (DNSCache.class) {
+      DNSCache cache = (DNSCache) objectCache.getObject(DNSCache.class.getName());
+      if (cache == null) {
+        cache = new DNSCache(conf);
+        objectCache.setObject(DNSCache.class.getName(), cache);
+      }
+      return cache;
+    }
+  }
+
+  public DNSCache(Configuration conf) {
+    this(conf, (Resolver) ReflectionUtils.newInstance(
+        conf.getClass(RESOLVER_KEY, DefaultResolver.class, Resolver.class), conf));
+  }
+
+  public DNSCache(Configuration conf, Resolver resolver) {
+    this.resolver = resolver;
+    this.ttl = conf.getLong(TTL_KEY, 300) * 1000;
+    this.negativeTtl = conf.getLong(NEGATIVE_TTL_KEY, 60) * 1000;
+    this.maxSize = conf.getInt(SIZE_KEY, 10000);
+    this.threads = conf.getInt(THREADS_KEY, 10);
+    this.lookups = new LinkedHashMap<String, Lookup>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Lookup> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  /**
+   * Resolve a host, from the cache if possible.
+   * @throws UnknownHostException if the host could not be resolved, now or
+   * within <code>dns.cache.negative.ttl</code>
+   */
+  public InetAddress resolve(String host) throws UnknownHostException {
+    final Lookup lookup = lookup(host);
+    // resolve in the calling thread, unless it is done or under way
+    lookup.task.run();
+    try {
+      return lookup.get();
+    } catch (UnknownHostException e) {
+      failures.incrementAndGet();
+      throw e;
+    }
+  }
+
+  /**
+   * Start resolving the hosts that are not cached yet, in the background.
+   */
+  public void prefetch(Iterable<String> hosts) {
+    for (final String host : hosts) {
+      final Lookup lookup = lookup(host);
+      if (!lookup.task.isDone()) {
+        getExecutor().execute(lookup.task);
+      }
+    }
+  }
+
+  /** @return the valid lookup of a host, a new one if there is none */
+  private Lookup lookup(String host) {
+    synchronized (lookups) {
+      Lookup lookup = lookups.get(host);
+      if (lookup == null || lookup.expires < System.currentTimeMillis()) {
+        misses.incrementAndGet();
+        lookup = new Lookup(host);
+        lookups.put(host, lookup);
+      } else {
+        hits.incrementAndGet();
+      }
+      return lookup;
+    }
+  }
+
+  private synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger(0);
+        public Thread newThread(Runnable r) {
+          final Thread t = new Thread(r, "DNSCache" + count.getAndIncrement());
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    return executor;
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getFailures() {
+    return failures.get();
+  }
+
+  public int size() {
+    synchronized (lookups) {
+      return lookups.size();
+    }
+  }
+
+  /** Stop the prefetching threads. The cache can still be used. */
+  public synchronized void close() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+      if (LOG.isInfoEnabled()) {
+        LOG.info("DNSCache: " + hits + " hits, " + misses + " misses, "
+            + failures + " failures");
+      }
+    }
+  }
+}
@@ -0,0 +1,316 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net;
+
+import java.net.MalformedURLException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.nutch.util.ObjectCache;
+
+/**
+ * Normalizes and filters urls with the {@link URLNormalizers} and
+ * {@link URLFilters} plugins, remembering the outcome for recently seen
+ * urls, as the same urls (links of navigation menus, redirects...) come up
+ * again and again during a task. The cache is shared by everything that
+ * works with the same configuration (see {@link #get(Configuration)}), so
+ * it is read and written without locking.
+ * <p>
+ * About <code>urlnormalizer.cache.size</code> normalized urls and
+ * <code>urlfilter.cache.size</code> filtered urls are kept, 0 turns caching
+ * off. When a cache is full, some of its urls are dropped, not necessarily
+ * the least recently used. The plugins must give the same result whenever
+ * they are given the same url, which is what the bundled ones do.
+ */
+public class URLCache {
+
+  public static final String NORMALIZE_SIZE_KEY = "urlnormalizer.cache.size";
+  public static final String FILTER_SIZE_KEY = "urlfilter.cache.size";
+
+  /** The group of the counters of {@link #report(TaskInputOutputContext)}. */
+  public static final String COUNTER_GROUP = "URLCache";
+
+  /** Stands for a url that was normalized or filtered to null. */
+  private static final Object NULL = new Object();
+
+  /** A url that could not be normalized. */
+  private static class Malformed {
+    private final String message;
+
+    Malformed(MalformedURLException e) {
+      this.message = e.getMessage();
+    }
+  }
+
+  /** A url to normalize in a scope. */
+  private static class Key {
+    private final String scope;
+    private final String url;
+
+    Key(String scope, String url) {
+      this.scope = scope;
+      this.url = url;
+    }
+
+    @Override
+    public int hashCode() {
+      return url.hashCode() * 31 + scope.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      final Key other = (Key) o;
+      return url.equals(other.url) && scope.equals(other.scope);
+    }
+  }
+
+  /**
+   * A concurrent map of about <code>maxSize</code> entries. When it is full,
+   * one of the threads adding to it drops an eighth of its entries, in no
+   * particular order, while the others go on using it.
+   */
+  private static class Memo<K> {
+    private final ConcurrentMap<K, Object> map =
+      new ConcurrentHashMap<K, Object>();
+    private final int maxSize;
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    Memo(int maxSize) {
+      this.maxSize = maxSize;
+    }
+
+    Object get(K key) {
+      return map.get(key);
+    }
+
+    void put(K key, Object value) {
+      if (map.put(key, value) == null && size.incrementAndGet() > maxSize) {
+        evict();
+      }
+    }
+
+    int size() {
+      return size.get();
+    }
+
+    private void evict() {
+      if (!evicting.compareAndSet(false, true)) {
+        return;
+      }
+      try {
+        final int target = maxSize - maxSize / 8;
+        final Iterator<K> keys = map.keySet().iterator();
+        while (size.get() > target && keys.hasNext()) {
+          if (map.remove(keys.next()) != null) {
+            size.decrementAndGet();
+          }
+        }
+      } finally {
+        evicting.set(false);
+      }
+    }
+  }
+
+  private final Configuration conf;
+
+  /** The normalizers of each scope. */
+  private final ConcurrentMap<String, URLNormalizers> normalizers =
+    new ConcurrentHashMap<String, URLNormalizers>();
+
+  /** Created when first needed. */
+  private volatile URLFilters filters;
+
+  /** Null if not caching. */
+  private final Memo<Key> normalized;
+  /** Null if not caching. */
+  private final Memo<String> filtered;
+
+  private final AtomicLong normalizeHits = new AtomicLong();
+  private final AtomicLong normalizeMisses = new AtomicLong();
+  private final AtomicLong filterHits = new AtomicLong();
+  private final AtomicLong filterMisses = new AtomicLong();
+
+  /** The counts already reported. Guarded by this. */
+  private final long[] reported = new long[4];
+
+  /**
+   * @return the cache shared by all users of <code>conf</code>
+   */
+  public static URLCache get(Configuration conf) {
+    final ObjectCache objectCache = ObjectCache.get(conf);
+    synchronized (URLCache.class) {
+      URLCache cache = (URLCache) objectCache.getObject(URLCache.class.getName());
+      if (cache == null) {
+        cache = new URLCache(conf);
+        objectCache.setObject(URLCache.class.getName(), cache);
+      }
+      return cache;
+    }
+  }
+
+  public URLCache(Configuration conf) {
+    this.conf = conf;
+    final int normalizeSize = conf.getInt(NORMALIZE_SIZE_KEY, 10000);
+    final int filterSize = conf.getInt(FILTER_SIZE_KEY, 10000);
+    this.normalized = normalizeSize > 0 ? new Memo<Key>(normalizeSize) : null;
+    this.filtered = filterSize > 0 ? new Memo<String>(filterSize) : null;
+  }
+
+  /**
+   * Normalizes a url, as {@link URLNormalizers#normalize(String, String)}
+   * does with the normalizers of <code>scope</code>.
+   * @return the normalized url, or null if it was rejected
+   * @throws MalformedURLException if the url cannot be normalized
+   */
+  public String normalize(String url, String scope)
+  throws MalformedURLException {
+    if (normalized == null) {
+      normalizeMisses.incrementAndGet();
+      return getNormalizers(scope).normalize(url, scope);
+    }
+    final Key key = new Key(scope, url);
+    Object result = normalized.get(key);
+    if (result != null) {
+      normalizeHits.incrementAndGet();
+    } else {
+      normalizeMisses.incrementAndGet();
+      try {
+        result = getNormalizers(scope).normalize(url, scope);
+      } catch (MalformedURLException e) {
+        result = new Malformed(e);
+      }
+      if (result == null) {
+        result = NULL;
+      }
+      normalized.put(key, result);
+    }
+    if (result instanceof Malformed) {
+      throw new MalformedURLException(((Malformed) result).message);
+    }
+    return result == NULL ? null : (String) result;
+  }
+
+  /**
+   * Filters a url, as {@link URLFilters#filter(String)} does.
+   * @return the filtered url, or null if it was rejected
+   */
+  public String filter(String url) throws URLFilterException {
+    if (filtered == null) {
+      filterMisses.incrementAndGet();
+      return getFilters().filter(url);
+    }
+    Object result = filtered.get(url);
+    if (result != null) {
+      filterHits.incrementAndGet();
+    } else {
+      filterMisses.incrementAndGet();
+      // failures are not remembered, the next try may succeed
+      result = getFilters().filter(url);
+      if (result == null) {
+        result = NULL;
+      }
+      filtered.put(url, result);
+    }
+    return result == NULL ? null : (String) result;
+  }
+
+  /**
+   * Normalizes a url in a scope, then filters it.
+   * @return the url to use, or null if it was rejected
+   * @throws MalformedURLException if the url cannot be normalized
+   */
+  public String normalizeAndFilter(String url, String scope)
+  throws MalformedURLException, URLFilterException {
+    url = normalize(url, scope);
+    return url == null ? null : filter(url);
+  }
+
+  private URLNormalizers getNormalizers(String scope) {
+    URLNormalizers scoped = normalizers.get(scope);
+    if (scoped == null) {
+      // the plugins are cached, a normalizers created twice is cheap
+      final URLNormalizers created = new URLNormalizers(conf, scope);
+      scoped = normalizers.putIfAbsent(scope, created);
+      if (scoped == null) {
+        scoped = created;
+      }
+    }
+    return scoped;
+  }
+
+  private URLFilters getFilters() {
+    URLFilters current = filters;
+    if (current == null) {
+      synchronized (this) {
+        if (filters == null) {
+          filters = new URLFilters(conf);
+        }
+        current = filters;
+      }
+    }
+    return current;
+  }
+
+  public long getNormalizeHits() {
+    return normalizeHits.get();
+  }
+
+  public long getNormalizeMisses() {
+    return normalizeMisses.get();
+  }
+
+  public long getFilterHits() {
+    return filterHits.get();
+  }
+
+  public long getFilterMisses() {
+    return filterMisses.get();
+  }
+
+  /** @return the number of normalized urls kept */
+  int getNormalizedSize() {
+    return normalized == null ? 0 : normalized.size();
+  }
+
+  /**
+   * Adds the hits and misses since the last report to the counters of a
+   * task.
+   */
+  public synchronized void report(TaskInputOutputContext<?, ?, ?, ?> context) {
+    final String[] names = { "Normalize-Hits", "Normalize-Misses",
+        "Filter-Hits", "Filter-Misses" };
+    final long[] counts = { normalizeHits.get(), normalizeMisses.get(),
+        filterHits.get(), filterMisses.get() };
+    for (int i = 0; i < names.length; i++) {
+      if (counts[i] > reported[i]) {
+        context.getCounter(COUNTER_GROUP, names[i])
+            .increment(counts[i] - reported[i]);
+        reported[i] = counts[i];
+      }
+    }
+  }
+}
@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net.protocols;
+
+import java.util.Map;
+
+import org.apache.avro.util.Utf8;
+import org.apache.gora.persistency.State;
+import org.apache.gora.persistency.StatefulMap;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.storage.WebPage;
+
+/**
+ * Makes refetches of HTTP pages conditional. The validators that came with
+ * the stored content, its <code>ETag</code> and <code>Last-Modified</code>
+ * headers, are sent back in <code>If-None-Match</code> and
+ * <code>If-Modified-Since</code>, so that a page that did not change comes
+ * back as a <code>304 Not Modified</code> response without a body.
+ * <p>
+ * This needs the {@link WebPage.Field#HEADERS} and
+ * {@link WebPage.Field#MODIFIED_TIME} fields of the page.
+ */
+public class ConditionalGet {
+
+  public static final String IF_NONE_MATCH = "If-None-Match";
+  public static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+
+  /**
+   * @return the value of the <code>If-None-Match</code> request header for
+   *         a refetch of the page, or null if the server sent no entity tag
+   */
+  public static String getIfNoneMatch(WebPage page) {
+    return getHeader(page, Response.ETAG);
+  }
+
+  /**
+   * @return the value of the <code>If-Modified-Since</code> request header
+   *         for a refetch of the page: the last modification date sent by
+   *         the server, as is, or else the modified time of the page. Null
+   *         if neither is known.
+   */
+  public static String getIfModifiedSince(WebPage page) {
+    final String lastModified = getHeader(page, Response.LAST_MODIFIED);
+    if (lastModified != null) {
+      return lastModified;
+    }
+    if (page.getModifiedTime() > 0) {
+      return HttpDateFormat.toString(page.getModifiedTime());
+    }
+    return null;
+  }
+
+  /**
+   * Stores the headers of a response in the page. The headers of a
+   * <code>304 Not Modified</code> response only update the headers stored
+   * with the unchanged content, which keeps its type and validators.
+   */
+  public static void storeHeaders(WebPage page, int code, Metadata headers) {
+    if (code != 304 && page.getHeaders() != null) {
+      page.getHeaders().clear();
+    }
+    for (String key : headers.names()) {
+      page.putToHeaders(new Utf8(key), new Utf8(headers.get(key)));
+    }
+  }
+
+  /** @return a header stored in the page, whatever the case of its name */
+  private static String getHeader(WebPage page, String name) {
+    final Map<Utf8, Utf8> headers = page.getHeaders();
+    if (headers == null) {
+      return null;
+    }
+    for (Map.Entry<Utf8, Utf8> header : headers.entrySet()) {
+      if (name.equalsIgnoreCase(header.getKey().toString())
+          && !isDeleted(headers, header.getKey())) {
+        return header.getValue().toString();
+      }
+    }
+    return null;
+  }
+
+  /** Cleared headers stay in the map until the page is written. */
+  private static boolean isDeleted(Map<Utf8, Utf8> headers, Utf8 key) {
+    return headers instanceof StatefulMap
+      && ((StatefulMap<Utf8, Utf8>) headers).getState(key) == State.DELETED;
+  }
+
+}
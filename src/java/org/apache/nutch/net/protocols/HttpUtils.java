@@ -0,0 +1,214 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net.protocols;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.protocol.Content;
+import org.apache.nutch.protocol.ProtocolOutput;
+import org.apache.nutch.protocol.ProtocolStatusCodes;
+import org.apache.nutch.protocol.ProtocolStatusUtils;
+import org.apache.nutch.util.DeflateUtils;
+import org.apache.nutch.util.GZIPUtils;
+import org.apache.nutch.util.MimeUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The parts of an HTTP client shared by the http protocol plugins, through
+ * HttpBase in lib-http, and by the <code>nio</code> fetch engine: the
+ * <code>User-Agent</code> header, the parsing of the status line and
+ * headers, the decoding of the content and the mapping of the status code
+ * to a {@link ProtocolOutput}.
+ */
+public class HttpUtils {
+
+  private static final Logger LOG = LoggerFactory.getLogger(HttpUtils.class);
+
+  private static final byte[] EMPTY_CONTENT = new byte[0];
+
+  /**
+   * @return the value of the <code>User-Agent</code> request header, like
+   *         "name/version (description; url; email)", or an empty string if
+   *         there is no agent name
+   */
+  public static String getAgentString(String agentName, String agentVersion,
+      String agentDesc, String agentURL, String agentEmail) {
+    if (agentName == null || agentName.trim().length() == 0) {
+      LOG.error("No User-Agent string set (http.agent.name)!");
+      return "";
+    }
+    final StringBuilder buf = new StringBuilder(agentName);
+    if (agentVersion != null) {
+      buf.append("/").append(agentVersion);
+    }
+    final List<String> parts = new ArrayList<String>();
+    for (final String part : new String[] { agentDesc, agentURL, agentEmail }) {
+      if (part != null && part.length() != 0) parts.add(part);
+    }
+    if (!parts.isEmpty()) {
+      buf.append(" (");
+      for (int i = 0; i < parts.size(); i++) {
+        if (i > 0) buf.append("; ");
+        buf.append(parts.get(i));
+      }
+      buf.append(")");
+    }
+    return buf.toString();
+  }
+
+  /**
+   * Parse the code of a status line, like "HTTP/1.1 200 OK" or
+   * "HTTP/1.1 200".
+   * @return the status code, or -1 if the line has none
+   */
+  public static int parseStatusCode(CharSequence statusLine) {
+    final String line = statusLine.toString();
+    final int codeStart = line.indexOf(' ');
+    if (codeStart == -1) {
+      return -1;
+    }
+    int codeEnd = line.indexOf(' ', codeStart + 1);
+    if (codeEnd == -1) {
+      codeEnd = line.length();
+    }
+    try {
+      return Integer.parseInt(line.substring(codeStart + 1, codeEnd).trim());
+    } catch (final NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Parse a header line, continued lines already joined, and set the header
+   * in <code>headers</code>. Blank lines are ignored.
+   * @return false if the line is not a header
+   */
+  public static boolean parseHeaderLine(CharSequence headerLine,
+      Metadata headers) {
+    final String line = headerLine.toString();
+    final int colonIndex = line.indexOf(':');
+    if (colonIndex == -1) {
+      return line.trim().length() == 0;
+    }
+    headers.set(line.substring(0, colonIndex),
+        line.substring(colonIndex + 1).trim());
+    return true;
+  }
+
+  /**
+   * Decode content sent with a gzip, x-gzip or deflate
+   * <code>Content-Encoding</code>. Truncated or corrupted content is
+   * decoded as far as possible.
+   * @param maxContent the length limit of the decoded content, -1 for none
+   * @return the decoded content, or the content as is for other encodings
+   * @throws IOException if nothing could be decoded
+   */
+  public static byte[] decodeContent(byte[] content, String contentEncoding,
+      int maxContent) throws IOException {
+    if (contentEncoding == null || content == null) {
+      return content;
+    }
+    final String encoding = contentEncoding.trim().toLowerCase();
+    final int limit = maxContent >= 0 ? maxContent : Integer.MAX_VALUE;
+    final byte[] decoded;
+    if ("gzip".equals(encoding) || "x-gzip".equals(encoding)) {
+      decoded = GZIPUtils.unzipBestEffort(content, limit);
+      if (decoded == null)
+        throw new IOException("unzipBestEffort returned null");
+    } else if ("deflate".equals(encoding)) {
+      decoded = DeflateUtils.inflateBestEffort(content, limit);
+      if (decoded == null)
+        throw new IOException("inflateBestEffort returned null");
+    } else {
+      return content;
+    }
+    if (LOG.isTraceEnabled()) {
+      LOG.trace("decoded " + content.length + " bytes of " + encoding
+          + " content to " + decoded.length + " bytes");
+    }
+    return decoded;
+  }
+
+  /**
+   * Map an HTTP response to a {@link ProtocolOutput}.
+   * @param url the url that was fetched
+   * @param code the status code of the response
+   * @param headers the headers of the response
+   * @param content the decoded content of the response, or null
+   */
+  public static ProtocolOutput toProtocolOutput(URL url, int code,
+      Metadata headers, byte[] content, MimeUtil mimeTypes)
+  throws MalformedURLException {
+    if (code == 304) { // not modified, the stored content stays
+      return new ProtocolOutput(null,
+          ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.NOTMODIFIED, url));
+    }
+    final String u = url.toString();
+    final Content c = new Content(u, u,
+        content == null ? EMPTY_CONTENT : content,
+        headers.get(Response.CONTENT_TYPE), headers, mimeTypes);
+
+    if (code == 200) { // got a good response
+      return new ProtocolOutput(c); // return it
+    } else if (code == 410) { // page is gone
+      return new ProtocolOutput(c, ProtocolStatusUtils.makeStatus(
+          ProtocolStatusCodes.GONE, "Http: " + code + " url=" + u));
+    } else if (code >= 300 && code < 400) { // handle redirect
+      String location = headers.get(Response.LOCATION);
+      // some broken servers, such as MS IIS, use lowercase header name...
+      if (location == null) location = headers.get("location");
+      if (location == null) location = "";
+      final URL target = new URL(url, location);
+      int protocolStatusCode;
+      switch (code) {
+      case 300:   // multiple choices, preferred value in Location
+      case 301:   // moved permanently
+      case 305:   // use proxy (Location is URL of proxy)
+        protocolStatusCode = ProtocolStatusCodes.MOVED;
+        break;
+      case 302:   // found (temporarily moved)
+      case 303:   // see other (redirect after POST)
+      case 307:   // temporary redirect
+        protocolStatusCode = ProtocolStatusCodes.TEMP_MOVED;
+        break;
+      default:
+        protocolStatusCode = ProtocolStatusCodes.MOVED;
+      }
+      // handle this in the higher layer.
+      return new ProtocolOutput(c,
+          ProtocolStatusUtils.makeStatus(protocolStatusCode, target));
+    } else if (code == 400) { // bad request, mark as GONE
+      return new ProtocolOutput(c,
+          ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.GONE, url));
+    } else if (code == 401) { // requires authorization, but no valid auth provided.
+      return new ProtocolOutput(c, ProtocolStatusUtils.makeStatus(
+          ProtocolStatusCodes.ACCESS_DENIED, "Authentication required: " + u));
+    } else if (code == 404) {
+      return new ProtocolOutput(c,
+          ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.NOTFOUND, url));
+    } else {
+      return new ProtocolOutput(c, ProtocolStatusUtils.makeStatus(
+          ProtocolStatusCodes.EXCEPTION, "Http code=" + code + ", url=" + u));
+    }
+  }
+}
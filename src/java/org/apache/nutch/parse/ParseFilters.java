@@ -111,6 +111,11 @@ public class ParseFilters {
     return parse;
   }
 
+  /** @return true if no filter is configured */
+  public boolean isEmpty() {
+    return parseFilters.length == 0;
+  }
+
   public Collection<WebPage.Field> getFields() {
     Collection<WebPage.Field> fields = new HashSet<WebPage.Field>();
     for (ParseFilter htmlParseFilter : parseFilters) {
@@ -20,9 +20,6 @@ package org.apache.nutch.parse;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.ByteBuffer;
-import java.util.concurrent.FutureTask;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 
 import org.apache.avro.util.Utf8;
 import org.slf4j.Logger;
@@ -35,9 +32,10 @@ import org.apache.nutch.crawl.Signature;
 import org.apache.nutch.crawl.SignatureFactory;
 import org.apache.nutch.crawl.URLWebPage;
 import org.apache.nutch.fetcher.FetcherJob;
+import org.apache.nutch.net.URLCache;
 import org.apache.nutch.net.URLFilterException;
-import org.apache.nutch.net.URLFilters;
 import org.apache.nutch.net.URLNormalizers;
+import org.apache.nutch.storage.ContentCodec;
 import org.apache.nutch.storage.Mark;
 import org.apache.nutch.storage.ParseStatus;
 import org.apache.nutch.storage.WebPage;
@@ -61,13 +59,15 @@ public class ParseUtil extends Configured {
   private Configuration conf;
 
   private Signature sig;
-  private URLFilters filters;
-  private URLNormalizers normalizers;
+  private ContentCodec contentCodec;
+  private URLCache urlCache;
   private int maxOutlinks;
   private boolean ignoreExternalLinks;
   private ParserFactory parserFactory;
   /** Parser timeout set to 30 sec by default. Set -1 to deactivate **/
   private int MAX_PARSE_TIME = 30;
+  /** Runs the parsers when there is a timeout. */
+  private ParserExecutor parserExecutor;
   /**
    *
    * @param conf
@@ -87,9 +87,16 @@ public class ParseUtil extends Configured {
     this.conf = conf;
     parserFactory = new ParserFactory(conf);
     MAX_PARSE_TIME=conf.getInt("parser.timeout", 30);
+    if (MAX_PARSE_TIME != -1) {
+      int killDelay = conf.getInt("parser.timeout.kill", 300);
+      parserExecutor = new ParserExecutor(conf.getInt("parser.threads", 10),
+          MAX_PARSE_TIME * 1000L, killDelay < 0 ? -1 : killDelay * 1000L);
+    } else {
+      parserExecutor = null;
+    }
     sig = SignatureFactory.getSignature(conf);
-    filters = new URLFilters(conf);
-    normalizers = new URLNormalizers(conf, URLNormalizers.SCOPE_OUTLINK);
+    contentCodec = new ContentCodec(conf);
+    urlCache = URLCache.get(conf);
     int maxOutlinksPerPage = conf.getInt("db.max.outlinks.per.page", 100);
     maxOutlinks = (maxOutlinksPerPage < 0) ? Integer.MAX_VALUE : maxOutlinksPerPage;
     ignoreExternalLinks = conf.getBoolean("db.ignore.external.links", false);
@@ -138,24 +145,37 @@ public class ParseUtil extends Configured {
   }
   
   private Parse runParser(Parser p, String url, WebPage page) {
-	  ParseCallable pc = new ParseCallable(p, page, url);
-	  FutureTask<Parse> task = new FutureTask<Parse>(pc);
-	  Parse res = null;
-	  Thread t = new Thread(task);
-	  t.start();
-	  try {
-		  res = task.get(MAX_PARSE_TIME, TimeUnit.SECONDS);
-	  } catch (TimeoutException e) {
-		  LOG.warn("TIMEOUT parsing " + url + " with " + p);
-	  } catch (Exception e) {
-		  task.cancel(true);
-		  res = null;
-		  t.interrupt();
-	  } finally {
-		  t = null;
-		  pc = null;
-	  }
-	  return res;
+    return parserExecutor.parse(p, url, page);
+  }
+
+  /**
+   * @return the number of parses abandoned after <code>parser.timeout</code>
+   */
+  public long getParseTimeouts() {
+    return parserExecutor == null ? 0 : parserExecutor.getTimeouts();
+  }
+
+  /**
+   * @return the number of parses that kept running after a timeout
+   */
+  public long getZombieParsers() {
+    return parserExecutor == null ? 0 : parserExecutor.getZombieCount();
+  }
+
+  /**
+   * @return the largest number of parsers that were running after a timeout
+   * at the same time
+   */
+  public int getMaxZombieParsers() {
+    return parserExecutor == null ? 0 : parserExecutor.getMaxZombies();
+  }
+
+  /**
+   * @return the number of parser threads stopped after
+   * <code>parser.timeout.kill</code>
+   */
+  public long getKilledParsers() {
+    return parserExecutor == null ? 0 : parserExecutor.getKilled();
   }
 
   /**
@@ -178,6 +198,7 @@ public class ParseUtil extends Configured {
 
     Parse parse;
     try {
+      contentCodec.decode(page);
       parse = parse(url, page);
     } catch (final Exception e) {
       LOG.warn("Error parsing: " + url + ": " + StringUtils.stringifyException(e));
@@ -197,8 +218,8 @@ public class ParseUtil extends Configured {
         String newUrl = ParseStatusUtils.getMessage(pstatus);
         int refreshTime = Integer.parseInt(ParseStatusUtils.getArg(pstatus, 1));
         try {
-          newUrl = normalizers.normalize(newUrl, URLNormalizers.SCOPE_FETCHER);
-          newUrl = filters.filter(newUrl);
+          newUrl = urlCache.normalizeAndFilter(newUrl,
+              URLNormalizers.SCOPE_FETCHER);
         } catch (URLFilterException e) {
           return redirectedPage; // TODO: is this correct
         } catch (MalformedURLException e) {
@@ -238,8 +259,8 @@ public class ParseUtil extends Configured {
         for (int i = 0; count < maxOutlinks && i < outlinks.length; i++) {
           String toUrl = outlinks[i].getToUrl();
           try {
-            toUrl = normalizers.normalize(toUrl, URLNormalizers.SCOPE_OUTLINK);
-            toUrl = filters.filter(toUrl);
+            toUrl = urlCache.normalizeAndFilter(toUrl,
+                URLNormalizers.SCOPE_OUTLINK);
           } catch (final URLFilterException e) {
             continue;
           }
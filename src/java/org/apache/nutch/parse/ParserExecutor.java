@@ -0,0 +1,272 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.parse;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.nutch.storage.WebPage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs parsers on a bounded pool of reusable threads, so that a parse can be
+ * abandoned after a timeout. The timeout counts from the moment a parser
+ * starts, not from the moment it is queued.
+ * <p>
+ * A parser that times out is interrupted. If it ignores the interrupt, its
+ * thread becomes a zombie: the pool grows by one thread to make up for it,
+ * and shrinks back when the zombie finishes.
+ * <p>
+ * Zombies still running after the kill delay are stopped with
+ * {@link Thread#stop()}, on a best-effort basis: JVMs that no longer
+ * support it throw {@link UnsupportedOperationException}, which is logged
+ * once, after which zombies are left to finish on their own.
+ */
+class ParserExecutor {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ParserExecutor.class);
+
+  private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+  /** Set once {@link Thread#stop()} turned out to be unsupported. */
+  private static volatile boolean stopUnsupported = false;
+
+  private final int threads;
+  private final long timeout;
+  private final long killDelay;
+  private final ThreadPoolExecutor pool;
+
+  /** Parses that timed out and did not stop. */
+  private final Set<ParseTask> zombies =
+    Collections.newSetFromMap(new ConcurrentHashMap<ParseTask, Boolean>());
+
+  private final AtomicLong timeouts = new AtomicLong();
+  private final AtomicLong zombieCount = new AtomicLong();
+  private final AtomicInteger maxZombies = new AtomicInteger();
+  private final AtomicLong killed = new AtomicLong();
+
+  private class ParseTask extends FutureTask<Parse> {
+    private final String url;
+    private volatile Thread runner;
+    private volatile long started;
+    private boolean stopped;
+
+    ParseTask(Parser p, String url, WebPage page) {
+      super(new ParseCallable(p, page, url));
+      this.url = url;
+    }
+
+    @Override
+    public void run() {
+      runner = Thread.currentThread();
+      started = System.currentTimeMillis();
+      try {
+        super.run();
+      } finally {
+        runner = null;
+        if (zombies.remove(this)) {
+          LOG.info("Parser of " + url + " finished after "
+              + (System.currentTimeMillis() - started) + "ms");
+          resize();
+        }
+      }
+    }
+  }
+
+  /**
+   * @param threads the number of threads running parsers
+   * @param timeout parse timeout in milliseconds
+   * @param killDelay time in milliseconds after which the thread of a parser
+   * that timed out is stopped, -1 to never stop it
+   */
+  public ParserExecutor(int threads, long timeout, long killDelay) {
+    this.threads = threads;
+    this.timeout = timeout;
+    this.killDelay = killDelay;
+    final int poolNum = POOL_COUNT.incrementAndGet();
+    this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger(0);
+      public Thread newThread(Runnable r) {
+        final Thread t = new Thread(r, "Parser" + poolNum + "-"
+            + count.getAndIncrement());
+        t.setDaemon(true);                          // don't hang JVM on exit
+        return t;
+      }
+    });
+    // an idle pool goes away with its ParseUtil
+    pool.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Run a parser, and wait for it to finish or time out.
+   * @return the parse, or null if the parser failed or timed out
+   */
+  public Parse parse(Parser p, String url, WebPage page) {
+    killZombies();
+    final ParseTask task = new ParseTask(p, url, page);
+    try {
+      pool.execute(task);
+    } catch (final RejectedExecutionException e) {
+      LOG.warn("Cannot run parser for " + url + ": " + e);
+      return null;
+    }
+    try {
+      while (true) {
+        final long started = task.started;
+        final long wait = started == 0 ? timeout
+            : started + timeout - System.currentTimeMillis();
+        try {
+          return task.get(Math.max(wait, 1), TimeUnit.MILLISECONDS);
+        } catch (final TimeoutException e) {
+          if (task.started != 0
+              && System.currentTimeMillis() - task.started >= timeout) {
+            break;
+          }
+          // still queued, or started while we were waiting
+        }
+      }
+    } catch (final ExecutionException e) {
+      LOG.warn("Error parsing " + url + " with " + p + ": " + e.getCause());
+      return null;
+    } catch (final InterruptedException e) {
+      task.cancel(true);
+      Thread.currentThread().interrupt();
+      return null;
+    }
+
+    LOG.warn("TIMEOUT parsing " + url + " with " + p);
+    timeouts.incrementAndGet();
+    task.cancel(true);
+    if (task.runner != null) {
+      zombies.add(task);
+      if (task.runner == null) {
+        // finished in the meantime
+        zombies.remove(task);
+      } else {
+        zombieCount.incrementAndGet();
+      }
+      resize();
+    }
+    return null;
+  }
+
+  /** Keep <code>threads</code> threads available next to the zombies. */
+  private synchronized void resize() {
+    final int current = zombies.size();
+    if (current > maxZombies.get()) {
+      maxZombies.set(current);
+    }
+    final int size = threads + current;
+    if (size > pool.getMaximumPoolSize()) {
+      pool.setMaximumPoolSize(size);
+      pool.setCorePoolSize(size);
+    } else {
+      pool.setCorePoolSize(size);
+      pool.setMaximumPoolSize(size);
+    }
+  }
+
+  private void killZombies() {
+    if (killDelay < 0 || stopUnsupported || zombies.isEmpty()) {
+      return;
+    }
+    final long now = System.currentTimeMillis();
+    for (final ParseTask zombie : zombies) {
+      synchronized (zombie) {
+        final Thread runner = zombie.runner;
+        if (zombie.stopped || runner == null
+            || now - zombie.started < timeout + killDelay) {
+          continue;
+        }
+        zombie.stopped = true;
+        LOG.warn("Stopping parser thread " + runner.getName() + " stuck on "
+            + zombie.url + " for " + (now - zombie.started) + "ms");
+        if (stop(runner)) {
+          killed.incrementAndGet();
+        }
+      }
+    }
+  }
+
+  /**
+   * Stop a thread with {@link Thread#stop()}. This is a last resort for
+   * parsers stuck in a loop, and may leave the objects they used in an
+   * inconsistent state.
+   * @return true if the thread was asked to stop, false if this JVM does
+   * not support it
+   */
+  @SuppressWarnings("deprecation")
+  private static boolean stop(Thread thread) {
+    try {
+      thread.stop();
+      return true;
+    } catch (final UnsupportedOperationException e) {
+      if (!stopUnsupported) {
+        stopUnsupported = true;
+        LOG.warn("Thread.stop() is not supported by this JVM, parser threads"
+            + " that time out are left running until they finish");
+      }
+    } catch (final SecurityException e) {
+      LOG.warn("Cannot stop parser thread " + thread.getName() + ": " + e);
+    }
+    return false;
+  }
+
+  /** @return the number of parses that timed out */
+  public long getTimeouts() {
+    return timeouts.get();
+  }
+
+  /**
+   * @return the number of parser threads still running after a timeout,
+   * right now
+   */
+  public int getZombies() {
+    return zombies.size();
+  }
+
+  /**
+   * @return the largest number of parser threads that were running after a
+   * timeout at the same time
+   */
+  public int getMaxZombies() {
+    return maxZombies.get();
+  }
+
+  /** @return the number of parses that kept running after a timeout */
+  public long getZombieCount() {
+    return zombieCount.get();
+  }
+
+  /** @return the number of parser threads stopped */
+  public long getKilled() {
+    return killed.get();
+  }
+}
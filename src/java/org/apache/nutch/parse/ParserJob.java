@@ -17,9 +17,17 @@
 package org.apache.nutch.parse;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.avro.util.Utf8;
 import org.slf4j.Logger;
@@ -28,10 +36,12 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
+import org.apache.nutch.crawl.CrawlStatus;
 import org.apache.nutch.crawl.GeneratorJob;
 import org.apache.nutch.crawl.SignatureFactory;
 import org.apache.nutch.crawl.URLWebPage;
 import org.apache.nutch.metadata.Nutch;
+import org.apache.nutch.net.URLCache;
 import org.apache.nutch.storage.Mark;
 import org.apache.nutch.storage.ParseStatus;
 import org.apache.nutch.storage.StorageUtils;
@@ -51,6 +61,10 @@ public class ParserJob extends NutchTool implements Tool {
   private static final String RESUME_KEY = "parse.job.resume";
   private static final String FORCE_KEY = "parse.job.force";
 
+  public static final String THREADS_KEY = "parser.mapper.threads";
+  public static final String INFLIGHT_BYTES_KEY = "parser.mapper.inflight.bytes";
+  private static final String POOL_THREADS_KEY = "parser.threads";
+
   private static final Collection<WebPage.Field> FIELDS = new HashSet<WebPage.Field>();
 
   private Configuration conf;
@@ -80,6 +94,12 @@ public class ParserJob extends NutchTool implements Tool {
     @Override
     public void setup(Context context) throws IOException {
       Configuration conf = context.getConfiguration();
+      // every parsing thread of the task must get a pooled parser thread
+      int threads = conf.getInt(THREADS_KEY, 1);
+      if (threads > conf.getInt(POOL_THREADS_KEY, 10)) {
+        LOG.info("ParserMapper: raising " + POOL_THREADS_KEY + " to " + threads);
+        conf.setInt(POOL_THREADS_KEY, threads);
+      }
       parseUtil = new ParseUtil(conf);
       shouldResume = conf.getBoolean(RESUME_KEY, false);
       force = conf.getBoolean(FORCE_KEY, false);
@@ -89,12 +109,109 @@ public class ParserJob extends NutchTool implements Tool {
     @Override
     public void map(String key, WebPage page, Context context)
         throws IOException, InterruptedException {
+      if (shouldParse(key, page)) {
+        parse(key, page, context);
+      }
+    }
+
+    /**
+     * Parse the pages on <code>parser.mapper.threads</code> threads. Pages
+     * are handed to the threads as long as the content of the pages being
+     * parsed fits in <code>parser.mapper.inflight.bytes</code>.
+     */
+    @Override
+    public void run(final Context context)
+        throws IOException, InterruptedException {
+      final Configuration conf = context.getConfiguration();
+      final int threads = conf.getInt(THREADS_KEY, 1);
+      if (threads <= 1) {
+        super.run(context);
+        return;
+      }
+      setup(context);
+      final int budget = (int) Math.min(Integer.MAX_VALUE,
+          Math.max(1, conf.getLong(INFLIGHT_BYTES_KEY, 64L * 1024 * 1024)));
+      final Semaphore bytes = new Semaphore(budget);
+      // don't let small pages pile up either
+      final Semaphore pages = new Semaphore(threads * 2);
+      final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+      final ExecutorService executor = Executors.newFixedThreadPool(threads,
+          new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger(0);
+        public Thread newThread(Runnable r) {
+          final Thread t = new Thread(r, "ParserMapper" + count.getAndIncrement());
+          t.setDaemon(true);
+          return t;
+        }
+      });
+      LOG.info("ParserMapper: threads: " + threads + ", in-flight bytes: " + budget);
+      try {
+        while (failure.get() == null && context.nextKeyValue()) {
+          final String key = context.getCurrentKey();
+          WebPage page = context.getCurrentValue();
+          if (!shouldParse(key, page)) {
+            continue;
+          }
+          final ByteBuffer content = page.getContent();
+          // a page larger than the budget is parsed alone
+          final int size = content == null ? 0
+              : Math.min(budget, content.remaining());
+          pages.acquire();
+          bytes.acquire(size);
+          // the record reader may reuse the page
+          final WebPage copy = (WebPage) page.clone();
+          // a clone is all dirty, and its stored content must not look new
+          for (int i = 0; i < copy.getFields().length; i++) {
+            if (!page.isDirty(i)) {
+              copy.clearDirty(i);
+            }
+          }
+          executor.execute(new Runnable() {
+            public void run() {
+              try {
+                parse(key, copy, context);
+              } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+              } finally {
+                bytes.release(size);
+                pages.release();
+              }
+            }
+          });
+        }
+      } finally {
+        executor.shutdown();
+        while (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+          context.progress();
+        }
+      }
+      final Throwable t = failure.get();
+      if (t instanceof IOException) {
+        throw (IOException) t;
+      } else if (t instanceof InterruptedException) {
+        throw (InterruptedException) t;
+      } else if (t instanceof RuntimeException) {
+        throw (RuntimeException) t;
+      } else if (t instanceof Error) {
+        throw (Error) t;
+      }
+      cleanup(context);
+    }
+
+    private boolean shouldParse(String key, WebPage page) {
       Utf8 mark = Mark.FETCH_MARK.checkMark(page);
       if (!NutchJob.shouldProcess(mark, batchId)) {
         if (LOG.isDebugEnabled()) {
           LOG.debug("Skipping " + TableUtil.unreverseUrl(key) + "; different batch id");
         }
-        return;
+        return false;
+      }
+      if (page.getStatus() == CrawlStatus.STATUS_NOTMODIFIED) {
+        // the stored content and its parse did not change
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Skipping " + TableUtil.unreverseUrl(key) + "; not modified");
+        }
+        return false;
       }
       if (shouldResume && Mark.PARSE_MARK.checkMark(page) != null) {
         if (force) {
@@ -105,23 +222,54 @@ public class ParserJob extends NutchTool implements Tool {
           if (LOG.isDebugEnabled()) {
             LOG.debug("Skipping " + TableUtil.unreverseUrl(key) + "; already parsed");
           }
-          return;
+          return false;
         }
       }
+      return true;
+    }
 
-      URLWebPage redirectedPage = parseUtil.process(key, page);
+    /** Parse a page, and write it out. Safe to call from several threads. */
+    private void parse(String key, WebPage page, Context context)
+        throws IOException, InterruptedException {
+      URLWebPage redirectedPage = process(key, page);
       ParseStatus pstatus = page.getParseStatus();
-      if (pstatus != null) {
-        context.getCounter("ParserStatus",
-            ParseStatusCodes.majorCodes[pstatus.getMajorCode()]).increment(1);
+      synchronized (context) {
+        if (pstatus != null) {
+          context.getCounter("ParserStatus",
+              ParseStatusCodes.majorCodes[pstatus.getMajorCode()]).increment(1);
+        }
+
+        if (redirectedPage != null) {
+          context.write(TableUtil.reverseUrl(redirectedPage.getUrl()),
+                        redirectedPage.getDatum());
+        }
+        context.write(key, page);
       }
+    }
 
-      if (redirectedPage != null) {
-        context.write(TableUtil.reverseUrl(redirectedPage.getUrl()),
-                      redirectedPage.getDatum());
+    /**
+     * Parse a page with {@link ParseUtil#process(String, WebPage)}.
+     * Overridden by tests.
+     */
+    URLWebPage process(String key, WebPage page) {
+      return parseUtil.process(key, page);
+    }
+
+    @Override
+    protected void cleanup(Context context) {
+      context.getCounter("ParserStatus", "timeout")
+          .increment(parseUtil.getParseTimeouts());
+      context.getCounter("ParserStatus", "zombie")
+          .increment(parseUtil.getZombieParsers());
+      context.getCounter("ParserStatus", "killed")
+          .increment(parseUtil.getKilledParsers());
+      // a peak, not a count: summing it over the tasks would mean nothing
+      if (parseUtil.getMaxZombieParsers() > 0) {
+        LOG.info("ParserMapper: at most " + parseUtil.getMaxZombieParsers()
+            + " parsers running after a timeout at the same time");
       }
-      context.write(key, page);
-    }    
+      URLCache.get(context.getConfiguration()).report(context);
+    }
   }
   
   public ParserJob() {
@@ -0,0 +1,350 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.protocol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.util.ObjectCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded cache of the robots.txt rules of hosts, shared by all the
+ * protocols working with the same configuration (see
+ * {@link #get(Configuration)}). Rules are kept for
+ * <code>http.robots.cache.ttl</code> seconds, or until the time returned by
+ * {@link RobotRules#getExpireTime()} if it is set. Rules that expire at once
+ * are handed to the callers waiting for them, and not kept.
+ * <p>
+ * The rules of a host are fetched once: callers asking for them while they
+ * are being fetched wait for that fetch.
+ * <p>
+ * If <code>http.robots.cache.file</code> is set, the cache is read from
+ * that local file when a protocol first {@link #attach(Serializer)}es to it,
+ * and written back by {@link #close()}, so that the fetch tasks running on
+ * a node can share the rules.
+ */
+public class RobotRulesCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RobotRulesCache.class);
+
+  public static final String TTL_KEY = "http.robots.cache.ttl";
+  public static final String SIZE_KEY = "http.robots.cache.size";
+  public static final String FILE_KEY = "http.robots.cache.file";
+
+  private static final int FILE_VERSION = 1;
+
+  /** Reads and writes rules, for the cache file. */
+  public interface Serializer {
+    void write(RobotRules rules, DataOutput out) throws IOException;
+    RobotRules read(DataInput in) throws IOException;
+  }
+
+  /** The rules of a host, fetched or being fetched. */
+  private class CachedRules {
+    private final String host;
+    private final FutureTask<RobotRules> task;
+    /** When the rules expire, set once they are known. */
+    private volatile long expires = Long.MAX_VALUE;
+
+    CachedRules(final String host, final Callable<RobotRules> fetch) {
+      this.host = host;
+      this.task = new FutureTask<RobotRules>(new Callable<RobotRules>() {
+        public RobotRules call() throws Exception {
+          try {
+            final RobotRules rules = fetch.call();
+            setRules(rules);
+            return rules;
+          } catch (Exception e) {
+            // nothing to keep
+            expires = 0;
+            throw e;
+          }
+        }
+      });
+    }
+
+    CachedRules(String host, final RobotRules rules) {
+      this.host = host;
+      this.task = new FutureTask<RobotRules>(new Callable<RobotRules>() {
+        public RobotRules call() {
+          return rules;
+        }
+      });
+      task.run();
+      setRules(rules);
+    }
+
+    private void setRules(RobotRules rules) {
+      final long expireTime = rules.getExpireTime();
+      expires = expireTime > 0 ? expireTime : System.currentTimeMillis() + ttl;
+    }
+
+    RobotRules get() throws Exception {
+      try {
+        return task.get();
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof Exception) {
+          throw (Exception) e.getCause();
+        }
+        throw e;
+      }
+    }
+  }
+
+  private final long ttl;
+  private final int maxSize;
+  private final String file;
+
+  /** Guarded by itself. */
+  private final Map<String, CachedRules> entries;
+
+  /** Set by the first protocol to attach. Guarded by this. */
+  private Serializer serializer;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * @return the cache shared by all users of <code>conf</code>
+   */
+  public static RobotRulesCache get(Configuration conf) {
+    final ObjectCache objectCache = ObjectCache.get(conf);
+    synchronized (RobotRulesCache.class) {
+      RobotRulesCache cache =
+        (RobotRulesCache) objectCache.getObject(RobotRulesCache.class.getName());
+      if (cache == null) {
+        cache = new RobotRulesCache(conf);
+        objectCache.setObject(RobotRulesCache.class.getName(), cache);
+      }
+      return cache;
+    }
+  }
+
+  public RobotRulesCache(Configuration conf) {
+    this.ttl = conf.getLong(TTL_KEY, 86400) * 1000;
+    this.maxSize = conf.getInt(SIZE_KEY, 10000);
+    final String file = conf.get(FILE_KEY, "").trim();
+    this.file = file.length() == 0 ? null : file;
+    this.entries = new LinkedHashMap<String, CachedRules>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CachedRules> eldest) {
+        if (size() > maxSize) {
+          evictions.incrementAndGet();
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Get the rules of a host, from the cache if possible.
+   * @param host the host, in lower case
+   * @param fetch fetches the rules of the host, if needed
+   * @throws Exception what <code>fetch</code> threw
+   */
+  public RobotRules get(String host, Callable<RobotRules> fetch)
+  throws Exception {
+    CachedRules entry;
+    synchronized (entries) {
+      entry = entries.get(host);
+      if (entry == null || entry.expires < System.currentTimeMillis()) {
+        if (entry != null) {
+          evictions.incrementAndGet();
+        }
+        misses.incrementAndGet();
+        entry = new CachedRules(host, fetch);
+        entries.put(host, entry);
+      } else {
+        hits.incrementAndGet();
+      }
+    }
+    // fetch in the calling thread, unless it is done or under way
+    entry.task.run();
+    try {
+      return entry.get();
+    } finally {
+      if (entry.expires <= System.currentTimeMillis()) {
+        // not to be kept
+        synchronized (entries) {
+          if (entries.get(host) == entry) {
+            entries.remove(host);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Add rules to the cache, e.g. those of a host that another redirected to.
+   */
+  public void put(String host, RobotRules rules) {
+    final CachedRules entry = new CachedRules(host, rules);
+    synchronized (entries) {
+      entries.put(host, entry);
+    }
+  }
+
+  /**
+   * Read the cache file, once, if there is one. Only rules that have not
+   * expired yet are read.
+   */
+  public synchronized void attach(Serializer serializer) {
+    if (this.serializer != null || file == null) {
+      return;
+    }
+    this.serializer = serializer;
+    final File f = new File(file);
+    if (!f.exists()) {
+      return;
+    }
+    int count = 0;
+    try {
+      final DataInputStream in = new DataInputStream(
+          new BufferedInputStream(new FileInputStream(f)));
+      try {
+        if (in.readInt() != FILE_VERSION) {
+          LOG.warn("Ignoring robots cache " + file + " of another version");
+          return;
+        }
+        final int size = in.readInt();
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < size; i++) {
+          final String host = in.readUTF();
+          final long expires = in.readLong();
+          final RobotRules rules = serializer.read(in);
+          if (expires > now) {
+            final CachedRules entry = new CachedRules(host, rules);
+            entry.expires = expires;
+            synchronized (entries) {
+              if (!entries.containsKey(host)) {
+                entries.put(host, entry);
+                count++;
+              }
+            }
+          }
+        }
+      } finally {
+        in.close();
+      }
+      LOG.info("Read " + count + " robots rules from " + file);
+    } catch (IOException e) {
+      LOG.warn("Cannot read robots cache " + file + ": " + e);
+    }
+  }
+
+  /**
+   * Write the cache file, if there is one. The file is replaced at once, so
+   * that tasks reading it do not see it half written.
+   */
+  public synchronized void close() {
+    if (LOG.isInfoEnabled()) {
+      LOG.info("RobotRulesCache: " + hits + " hits, " + misses + " misses, "
+          + evictions + " evictions");
+    }
+    if (serializer == null) {
+      return;
+    }
+    final List<CachedRules> done = new ArrayList<CachedRules>();
+    synchronized (entries) {
+      for (final CachedRules entry : entries.values()) {
+        if (entry.task.isDone() && entry.expires != Long.MAX_VALUE) {
+          done.add(entry);
+        }
+      }
+    }
+    final long now = System.currentTimeMillis();
+    final File f = new File(file);
+    final File tmp = new File(file + "." + System.nanoTime() + ".tmp");
+    try {
+      final DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(tmp)));
+      int count = 0;
+      try {
+        final List<CachedRules> kept = new ArrayList<CachedRules>();
+        for (final CachedRules entry : done) {
+          if (entry.expires > now) {
+            try {
+              entry.get();
+              kept.add(entry);
+            } catch (Exception e) {
+              // not kept
+            }
+          }
+        }
+        out.writeInt(FILE_VERSION);
+        out.writeInt(kept.size());
+        for (final CachedRules entry : kept) {
+          out.writeUTF(entry.host);
+          out.writeLong(entry.expires);
+          serializer.write(entry.get(), out);
+          count++;
+        }
+      } finally {
+        out.close();
+      }
+      if (!tmp.renameTo(f)) {
+        f.delete();
+        if (!tmp.renameTo(f)) {
+          throw new IOException("cannot rename " + tmp);
+        }
+      }
+      LOG.info("Wrote " + count + " robots rules to " + file);
+    } catch (Exception e) {
+      LOG.warn("Cannot write robots cache " + file + ": " + e);
+      tmp.delete();
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+}
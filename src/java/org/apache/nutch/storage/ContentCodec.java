@@ -0,0 +1,194 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.avro.util.Utf8;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.nutch.util.Bytes;
+
+/**
+ * Compresses the content of pages when they are stored, and decompresses
+ * it when they are parsed.
+ * <p>
+ * The codec that compressed the stored content is kept in the metadata of
+ * the page, so that the codec of <code>storage.content.codec</code> can
+ * change without making the content stored before unreadable, and so is
+ * the digest of the uncompressed content. A refetched page whose content
+ * did not change leaves the stored content as it is, instead of writing it
+ * again.
+ * <p>
+ * Content that was set in a page is not compressed before the page is
+ * stored, and content that was read from the store is not decompressed
+ * before the page is parsed: the content is compressed when its field is
+ * dirty, and decompressed when it is not.
+ */
+public class ContentCodec {
+
+  public static final String CODEC_KEY = "storage.content.codec";
+
+  /** The metadata of the codec that compressed the stored content */
+  public static final Utf8 CODEC_META = new Utf8("_cdc_");
+
+  /** The metadata of the digest of the uncompressed content */
+  public static final Utf8 DIGEST_META = new Utf8("_cdg_");
+
+  private static final int CONTENT = WebPage.Field.CONTENT.getIndex();
+
+  private final Configuration conf;
+  private final CompressionCodec codec;
+  private final byte[] codecName;
+  private final Map<String, CompressionCodec> codecs =
+    new HashMap<String, CompressionCodec>();
+
+  public ContentCodec(Configuration conf) {
+    this.conf = conf;
+    final String name = conf.get(CODEC_KEY, "").trim();
+    if (name.length() == 0) {
+      codec = null;
+      codecName = null;
+    } else {
+      codec = getCodec(name);
+      codecName = Bytes.toBytes(name);
+    }
+  }
+
+  /**
+   * Prepares the content set in a page to be stored: leaves the stored
+   * content as it is when it is the same, or else compresses the content.
+   * Needs the {@link WebPage.Field#METADATA} of the page as it was read.
+   */
+  public void encode(WebPage page) throws IOException {
+    final ByteBuffer content = page.getContent();
+    if (content == null || !page.isDirty(CONTENT)) {
+      return;
+    }
+    final byte[] raw = toByteArray(content);
+    final ByteBuffer digest =
+      ByteBuffer.wrap(MD5Hash.digest(raw).getDigest());
+    if (digest.equals(page.getFromMetadata(DIGEST_META))) {
+      page.clearDirty(CONTENT);
+      return;
+    }
+    page.putToMetadata(DIGEST_META, digest);
+    if (codec != null) {
+      final byte[] compressed = compress(raw);
+      if (compressed.length < raw.length) {
+        page.setContent(ByteBuffer.wrap(compressed));
+        page.putToMetadata(CODEC_META, ByteBuffer.wrap(codecName));
+        return;
+      }
+    }
+    if (page.getFromMetadata(CODEC_META) != null) {
+      page.removeFromMetadata(CODEC_META);
+    }
+  }
+
+  /**
+   * Decompresses the stored content of a page in place, without making it
+   * dirty. Is called once, before the page is parsed or its content is
+   * read.
+   */
+  public void decode(WebPage page) throws IOException {
+    final ByteBuffer content = page.getContent();
+    final ByteBuffer name = page.getFromMetadata(CODEC_META);
+    if (content == null || name == null || page.isDirty(CONTENT)) {
+      return;
+    }
+    final CompressionCodec codec = getCodec(Bytes.toString(toByteArray(name)));
+    page.setContent(ByteBuffer.wrap(decompress(codec, toByteArray(content))));
+    page.clearDirty(CONTENT);
+  }
+
+  private byte[] compress(byte[] raw) throws IOException {
+    final Compressor compressor = CodecPool.getCompressor(codec);
+    try {
+      final ByteArrayOutputStream bytes =
+        new ByteArrayOutputStream(raw.length / 4 + 64);
+      final OutputStream out = codec.createOutputStream(bytes, compressor);
+      out.write(raw);
+      out.close();
+      return bytes.toByteArray();
+    } finally {
+      CodecPool.returnCompressor(compressor);
+    }
+  }
+
+  private static byte[] decompress(CompressionCodec codec, byte[] compressed)
+  throws IOException {
+    final Decompressor decompressor = CodecPool.getDecompressor(codec);
+    try {
+      final InputStream in = codec.createInputStream(
+          new ByteArrayInputStream(compressed), decompressor);
+      byte[] bytes = new byte[Math.max(4096, 4 * compressed.length)];
+      int length = 0;
+      int n;
+      while ((n = in.read(bytes, length, bytes.length - length)) != -1) {
+        length += n;
+        if (length == bytes.length) {
+          bytes = Arrays.copyOf(bytes, 2 * bytes.length);
+        }
+      }
+      in.close();
+      return Arrays.copyOf(bytes, length);
+    } finally {
+      CodecPool.returnDecompressor(decompressor);
+    }
+  }
+
+  private CompressionCodec getCodec(String name) {
+    synchronized (codecs) {
+      CompressionCodec codec = codecs.get(name);
+      if (codec == null) {
+        try {
+          codec = (CompressionCodec) ReflectionUtils.newInstance(
+              conf.getClassByName(name), conf);
+        } catch (ClassNotFoundException e) {
+          throw new RuntimeException("Unknown content codec " + name, e);
+        }
+        codecs.put(name, codec);
+      }
+      return codec;
+    }
+  }
+
+  private static byte[] toByteArray(ByteBuffer buffer) {
+    if (buffer.hasArray() && buffer.arrayOffset() == 0
+        && buffer.position() == 0 && buffer.remaining() == buffer.array().length) {
+      return buffer.array();
+    }
+    final byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
+
+}
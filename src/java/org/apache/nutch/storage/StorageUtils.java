@@ -122,7 +122,7 @@ public class StorageUtils {
     GoraOutputFormat.setOutput(job, store, true);
   }
 
-  private static String[] toStringArray(Collection<WebPage.Field> fields) {
+  public static String[] toStringArray(Collection<WebPage.Field> fields) {
     String[] arr = new String[fields.size()];
     Iterator<WebPage.Field> iter = fields.iterator();
     for (int i = 0; i < arr.length; i++) {
@@ -57,6 +57,13 @@ import com.ibm.icu.text.CharsetMatch;
  *        available;</li>
  *    <li>Run step (2) to guess what the most probable answer is.</li>
  * </p>
+ *
+ * <p>
+ * The statistical detection of step (1) is expensive, so it is only run
+ * when the other clues are missing or disagree: a page whose HTTP header
+ * and HTML meta tag give the same encoding is not looked at. A detector
+ * can be reused for many pages, see {@link #get(Configuration)}.
+ * </p>
  */
 public class EncodingDetector {
 
@@ -150,18 +157,40 @@ public class EncodingDetector {
 
   }
 
+  private static final ThreadLocal<EncodingDetector> DETECTORS =
+    new ThreadLocal<EncodingDetector>();
+
   private final int minConfidence;
 
-  private final CharsetDetector detector;
+  /** Created when first needed */
+  private CharsetDetector detector;
 
   private final List<EncodingClue> clues;
 
+  /** The content to detect the encoding of, if the other clues don't do */
+  private byte[] detectData;
+  private boolean detectFilter;
+
   public EncodingDetector(Configuration conf) {
     minConfidence = conf.getInt(MIN_CONFIDENCE_KEY, -1);
-    detector = new CharsetDetector();
     clues = new ArrayList<EncodingClue>();
   }
 
+  /**
+   * @return the detector of the current thread, without clues, which is
+   *         reused by the next call
+   */
+  public static EncodingDetector get(Configuration conf) {
+    EncodingDetector detector = DETECTORS.get();
+    if (detector == null
+        || detector.minConfidence != conf.getInt(MIN_CONFIDENCE_KEY, -1)) {
+      detector = new EncodingDetector(conf);
+      DETECTORS.set(detector);
+    }
+    detector.clearClues();
+    return detector;
+  }
+
   public void autoDetectClues(WebPage page, boolean filter) {
     autoDetectClues(page.getContent(), page.getContentType(),
         parseCharacterEncoding(page.getFromHeaders(CONTENT_TYPE_UTF8)), filter);
@@ -174,30 +203,62 @@ public class EncodingDetector {
 
     if (minConfidence >= 0 && DETECTABLES.contains(type)
         && data.length > MIN_LENGTH) {
-      CharsetMatch[] matches = null;
-
-      // do all these in a try/catch; setText and detect/detectAll
-      // will sometimes throw exceptions
-      try {
-        detector.enableInputFilter(filter);
-        if (data.length > MIN_LENGTH) {
-          detector.setText(data);
-          matches = detector.detectAll();
-        }
-      } catch (Exception e) {
-        LOG.debug("Exception from ICU4J (ignoring): ");
-        e.printStackTrace(LogUtil.getDebugStream(LOG));
+      // detected when guessing, unless the other clues agree
+      detectData = data;
+      detectFilter = filter;
+    }
+
+    // add character encoding coming from HTTP response header
+    addClue(encoding, "header");
+  }
+
+  /** Adds the detected encodings before the other clues. */
+  private void detect(byte[] data, boolean filter) {
+    CharsetMatch[] matches = null;
+
+    // do all these in a try/catch; setText and detect/detectAll
+    // will sometimes throw exceptions
+    try {
+      if (detector == null) {
+        detector = new CharsetDetector();
       }
+      detector.enableInputFilter(filter);
+      detector.setText(data);
+      matches = detector.detectAll();
+    } catch (Exception e) {
+      LOG.debug("Exception from ICU4J (ignoring): ");
+      e.printStackTrace(LogUtil.getDebugStream(LOG));
+    }
 
-      if (matches != null) {
-        for (CharsetMatch match : matches) {
-          addClue(match.getName(), "detect", match.getConfidence());
+    if (matches != null) {
+      List<EncodingClue> detected = new ArrayList<EncodingClue>();
+      for (CharsetMatch match : matches) {
+        String value = resolveEncodingAlias(match.getName());
+        if (value != null) {
+          detected.add(new EncodingClue(value, "detect", match.getConfidence()));
         }
       }
+      clues.addAll(0, detected);
     }
+  }
 
-    // add character encoding coming from HTTP response header
-    addClue(encoding, "header");
+  /**
+   * @return true if there are clues from at least two sources, such as the
+   *         HTTP header and the HTML meta tags, and they all agree
+   */
+  private boolean cluesAgree() {
+    if (clues.isEmpty()) {
+      return false;
+    }
+    EncodingClue first = clues.get(0);
+    boolean sources = false;
+    for (EncodingClue clue : clues) {
+      if (!first.value.equals(clue.value)) {
+        return false;
+      }
+      sources |= !first.source.equals(clue.source);
+    }
+    return sources;
   }
 
   public void addClue(String value, String source, int confidence) {
@@ -248,7 +309,14 @@ public class EncodingDetector {
      * the correct answer, and use machine learning/some statistical method
      * to generate a better heuristic.
      */
-
+    if (detectData != null) {
+      if (!cluesAgree()) {
+        detect(detectData, detectFilter);
+      } else if (LOG.isTraceEnabled()) {
+        LOG.trace(baseUrl + ": clues agree, not detecting");
+      }
+      detectData = null;
+    }
 
     if (LOG.isTraceEnabled()) {
       findDisagreements(baseUrl, clues);
@@ -288,6 +356,7 @@ public class EncodingDetector {
   /** Clears all clues. */
   public void clearClues() {
     clues.clear();
+    detectData = null;
   }
 
   /*
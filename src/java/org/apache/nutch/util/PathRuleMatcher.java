@@ -0,0 +1,230 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Matches <code>String</code>s against an ordered list of path rules, as
+ * found in <code>robots.txt</code> files, and tells which rule comes first.
+ * A rule matches the strings it is a prefix of, except that <code>*</code>
+ * in a rule matches any sequence of characters, and a <code>$</code> ending
+ * a rule anchors it at the end of the string.
+ * <p>
+ * Plain rules are compiled into a prefix trie that is walked once per
+ * string, whatever the number of rules; the few rules with wildcards are
+ * matched one by one, but only if they come before the best rule found in
+ * the trie. Matching does not allocate, and may be done by several threads
+ * at once.
+ */
+public class PathRuleMatcher extends TrieStringMatcher {
+
+  /** The index of an empty plain rule, which matches everything. */
+  private int rootRule = -1;
+
+  /** The rules with wildcards, in rule order. */
+  private final int[] wildcardRules;
+  private final char[][] wildcardPatterns;
+  private final boolean[] wildcardAnchored;
+
+  /**
+   * Creates a new <code>PathRuleMatcher</code> for the supplied rules, the
+   * index of a rule in the array being its rank.
+   */
+  public PathRuleMatcher(String[] rules) {
+    super();
+    final List<Integer> wildcards = new ArrayList<Integer>();
+    for (int i = 0; i < rules.length; i++) {
+      final String rule = rules[i];
+      if (rule.indexOf('*') != -1 || rule.endsWith("$")) {
+        wildcards.add(i);
+      } else if (rule.length() == 0) {
+        if (rootRule == -1) {
+          rootRule = i;
+        }
+      } else {
+        addRule(rule, i);
+      }
+    }
+    wildcardRules = new int[wildcards.size()];
+    wildcardPatterns = new char[wildcards.size()][];
+    wildcardAnchored = new boolean[wildcards.size()];
+    for (int i = 0; i < wildcardRules.length; i++) {
+      final String rule = rules[wildcards.get(i)];
+      wildcardRules[i] = wildcards.get(i);
+      wildcardAnchored[i] = rule.endsWith("$");
+      wildcardPatterns[i] = (wildcardAnchored[i]
+          ? rule.substring(0, rule.length() - 1) : rule).toCharArray();
+    }
+    compact();
+  }
+
+  /** Adds a plain rule, keeping the first rank of duplicates. */
+  private void addRule(String rule, int index) {
+    TrieNode node = root;
+    for (int i = 0; i < rule.length(); i++) {
+      node = node.getChildAddIfNotPresent(rule.charAt(i), false);
+    }
+    node.terminal = true;
+    if (node.value == -1) {
+      node.value = index;
+    }
+  }
+
+  /**
+   * Returns the index of the first rule matching <code>input</code>, or -1
+   * if no rule matches.
+   */
+  public int firstMatch(String input) {
+    int best = rootRule == -1 ? Integer.MAX_VALUE : rootRule;
+    TrieNode node = root;
+    for (int i = 0; i < input.length() && best > 0; i++) {
+      node = matchChar(node, input, i);
+      if (node == null) {
+        break;
+      }
+      if (node.terminal && node.value < best) {
+        best = node.value;
+      }
+    }
+    for (int i = 0; i < wildcardRules.length && wildcardRules[i] < best; i++) {
+      if (matchEnd(wildcardPatterns[i], wildcardAnchored[i], input,
+          input.length()) != -1) {
+        best = wildcardRules[i];
+        break;
+      }
+    }
+    return best == Integer.MAX_VALUE ? -1 : best;
+  }
+
+  /**
+   * Returns the end of the shortest prefix of <code>input[0, end)</code>
+   * matched by a pattern, or -1 if there is none. An anchored pattern must
+   * match up to <code>end</code>.
+   */
+  static int matchEnd(char[] pattern, boolean anchored, String input,
+      int end) {
+    int p = 0;
+    int i = 0;
+    // where the last star was, and where its match ends for now
+    int star = -1;
+    int starEnd = 0;
+    while (true) {
+      if (p == pattern.length && !anchored) {
+        return i;
+      }
+      if (i == end) {
+        while (p < pattern.length && pattern[p] == '*') {
+          p++;
+        }
+        return p == pattern.length ? i : -1;
+      }
+      if (p < pattern.length) {
+        final char c = pattern[p];
+        if (c == '*') {
+          star = p++;
+          starEnd = i;
+          continue;
+        }
+        if (c == input.charAt(i)) {
+          p++;
+          i++;
+          continue;
+        }
+      }
+      if (star == -1) {
+        return -1;
+      }
+      // let the last star match one more character
+      p = star + 1;
+      i = ++starEnd;
+    }
+  }
+
+  /**
+   * Returns true if the given <code>String</code> is matched by a rule.
+   */
+  public boolean matches(String input) {
+    return firstMatch(input) != -1;
+  }
+
+  /**
+   * Returns the shortest prefix of <code>input<code> that is matched by a
+   * rule, or <code>null<code> if no match exists.
+   */
+  public String shortestMatch(String input) {
+    if (rootRule != -1) {
+      return "";
+    }
+    int shortest = -1;
+    TrieNode node = root;
+    for (int i = 0; i < input.length(); i++) {
+      node = matchChar(node, input, i);
+      if (node == null) {
+        break;
+      }
+      if (node.terminal) {
+        shortest = i + 1;
+        break;
+      }
+    }
+    for (int i = 0; i < wildcardRules.length; i++) {
+      final int end = matchEnd(wildcardPatterns[i], wildcardAnchored[i],
+          input, input.length());
+      if (end != -1 && (shortest == -1 || end < shortest)) {
+        shortest = end;
+      }
+    }
+    return shortest == -1 ? null : input.substring(0, shortest);
+  }
+
+  /**
+   * Returns the longest prefix of <code>input<code> that is matched by a
+   * rule, or <code>null<code> if no match exists.
+   */
+  public String longestMatch(String input) {
+    int longest = rootRule != -1 ? 0 : -1;
+    TrieNode node = root;
+    for (int i = 0; i < input.length(); i++) {
+      node = matchChar(node, input, i);
+      if (node == null) {
+        break;
+      }
+      if (node.terminal) {
+        longest = i + 1;
+      }
+    }
+    for (int i = 0; i < wildcardRules.length; i++) {
+      if (wildcardAnchored[i]) {
+        if (matchEnd(wildcardPatterns[i], true, input, input.length()) != -1) {
+          longest = input.length();
+        }
+        continue;
+      }
+      // the longest prefix that the whole rule matches
+      for (int end = input.length(); end > longest; end--) {
+        if (matchEnd(wildcardPatterns[i], true, input, end) != -1) {
+          longest = end;
+          break;
+        }
+      }
+    }
+    return longest == -1 ? null : input.substring(0, longest);
+  }
+}
@@ -26,12 +26,15 @@ public class TableUtil {
 
   public static final ByteBuffer YES_VAL = ByteBuffer.wrap(new byte[] { 'y' });
 
+  /** The protocols whose urls are reversed without a {@link URL}. */
+  private static final String[] PLAIN_PROTOCOLS = { "http", "https", "ftp" };
+
   /**
    * Reverses a url's domain. This form is better for storing in hbase. Because
    * scans within the same domain are faster.
    * <p>
    * E.g. "http://bar.foo.com:8983/to/index.html?a=b" becomes
-   * "com.foo.bar:8983:http/to/index.html?a=b".
+   * "com.foo.bar:http:8983/to/index.html?a=b".
    *
    * @param url
    *          url to be reversed
@@ -40,7 +43,29 @@ public class TableUtil {
    */
   public static String reverseUrl(String urlString)
       throws MalformedURLException {
-    return reverseUrl(new URL(urlString));
+    return reverseUrl((CharSequence) urlString);
+  }
+
+  /**
+   * Reverses a url's domain, as {@link #reverseUrl(String)} does.
+   * <p>
+   * Plain http, https and ftp urls are reversed in a single scan, with the
+   * same result as {@link #reverseUrl(URL)}; other urls, and urls that
+   * {@link URL} would rewrite (user info, IPv6 hosts, dot segments...),
+   * go through a {@link URL}.
+   *
+   * @param url
+   *          url to be reversed
+   * @return Reversed url
+   * @throws MalformedURLException
+   */
+  public static String reverseUrl(CharSequence url)
+      throws MalformedURLException {
+    final StringBuilder buf = new StringBuilder(url.length() + 2);
+    if (appendReversedUrl(url, buf)) {
+      return buf.toString();
+    }
+    return reverseUrl(new URL(url.toString()));
   }
 
   /**
@@ -63,7 +88,7 @@ public class TableUtil {
     StringBuilder buf = new StringBuilder();
 
     /* reverse host */
-    reverseAppendSplits(host.split("\\."), buf);
+    appendReversedHost(host, 0, host.length(), buf);
 
     /* add protocol */
     buf.append(':');
@@ -84,25 +109,136 @@ public class TableUtil {
     return buf.toString();
   }
 
+  /**
+   * Appends the reversed form of a plain url.
+   * @return false, with nothing appended, if the url is not plain
+   */
+  private static boolean appendReversedUrl(CharSequence url, StringBuilder buf) {
+    final int length = url.length();
+    // URL trims the url
+    if (length == 0 || url.charAt(0) <= ' ' || url.charAt(length - 1) <= ' ') {
+      return false;
+    }
+
+    /* protocol */
+    int pos = 0;
+    while (pos < length && url.charAt(pos) != ':') {
+      pos++;
+    }
+    String protocol = null;
+    for (int i = 0; i < PLAIN_PROTOCOLS.length && protocol == null; i++) {
+      if (pos == PLAIN_PROTOCOLS[i].length()
+          && regionMatchesIgnoreCase(url, PLAIN_PROTOCOLS[i])) {
+        protocol = PLAIN_PROTOCOLS[i];
+      }
+    }
+    if (protocol == null || pos + 2 >= length || url.charAt(pos + 1) != '/'
+        || url.charAt(pos + 2) != '/') {
+      return false;
+    }
+
+    /* authority: host and port */
+    final int hostStart = pos + 3;
+    int portStart = -1;
+    pos = hostStart;
+    while (pos < length) {
+      final char c = url.charAt(pos);
+      if (c == '/' || c == '?' || c == '#') {
+        break;
+      } else if (c == '@' || c == '[' || c == ']') {
+        // user info, IPv6 address
+        return false;
+      } else if (c == ':') {
+        if (portStart != -1) {
+          return false;
+        }
+        portStart = pos + 1;
+      } else if (portStart != -1 && (c < '0' || c > '9')) {
+        return false;
+      }
+      pos++;
+    }
+    final int authorityEnd = pos;
+    final int hostEnd = portStart == -1 ? authorityEnd : portStart - 1;
+    // URL drops leading zeros, and fails on ports that are not ints
+    if (portStart != -1 && portStart < authorityEnd
+        && (url.charAt(portStart) == '0' || authorityEnd - portStart > 5)) {
+      return false;
+    }
+
+    /* file: path and query, without the fragment */
+    int fileEnd = authorityEnd;
+    boolean inQuery = false;
+    while (fileEnd < length) {
+      final char c = url.charAt(fileEnd);
+      if (c == '#') {
+        break;
+      } else if (c == '?') {
+        inQuery = true;
+      } else if (c == '.' && !inQuery && url.charAt(fileEnd - 1) == '/') {
+        // URL resolves dot segments
+        return false;
+      }
+      fileEnd++;
+    }
+
+    appendReversedHost(url, hostStart, hostEnd, buf);
+    buf.append(':');
+    buf.append(protocol);
+    if (portStart != -1 && portStart < authorityEnd) {
+      buf.append(':');
+      buf.append(url, portStart, authorityEnd);
+    }
+    if (fileEnd > authorityEnd && url.charAt(authorityEnd) != '/') {
+      buf.append('/');
+    }
+    buf.append(url, authorityEnd, fileEnd);
+    return true;
+  }
+
+  private static boolean regionMatchesIgnoreCase(CharSequence s, String lower) {
+    for (int i = 0; i < lower.length(); i++) {
+      if (Character.toLowerCase(s.charAt(i)) != lower.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   public static String unreverseUrl(String reversedUrl) {
-    StringBuilder buf = new StringBuilder(reversedUrl.length() + 2);
+    return unreverseUrl((CharSequence) reversedUrl);
+  }
 
-    int pathBegin = reversedUrl.indexOf('/');
-    if (pathBegin == -1)
-      pathBegin = reversedUrl.length();
-    String sub = reversedUrl.substring(0, pathBegin);
+  /**
+   * Given a reversed url, returns the url E.g
+   * "com.foo.bar:http:8983/to/index.html?a=b" ->
+   * "http://bar.foo.com:8983/to/index.html?a=b"
+   *
+   * @param reversedUrl
+   *          Reversed url
+   * @return Url
+   */
+  public static String unreverseUrl(CharSequence reversedUrl) {
+    final int length = reversedUrl.length();
+    StringBuilder buf = new StringBuilder(length + 2);
 
-    String[] splits = sub.split(":"); // {<reversed host>, <port>, <protocol>}
+    // <reversed host>:<protocol>[:<port>]<file>
+    final int pathBegin = indexOf(reversedUrl, '/', 0, length);
+    final int hostEnd = indexOf(reversedUrl, ':', 0, pathBegin);
+    if (hostEnd == pathBegin) {
+      throw new IllegalArgumentException("Not a reversed url: " + reversedUrl);
+    }
+    final int protocolEnd = indexOf(reversedUrl, ':', hostEnd + 1, pathBegin);
+    final int portEnd = indexOf(reversedUrl, ':', protocolEnd + 1, pathBegin);
 
-    buf.append(splits[1]); // add protocol
+    buf.append(reversedUrl, hostEnd + 1, protocolEnd); // add protocol
     buf.append("://");
-    reverseAppendSplits(splits[0].split("\\."), buf); // splits[0] is reversed
-    // host
-    if (splits.length == 3) { // has a port
+    appendReversedHost(reversedUrl, 0, hostEnd, buf);
+    if (portEnd > protocolEnd + 1) { // has a port
       buf.append(':');
-      buf.append(splits[2]);
+      buf.append(reversedUrl, protocolEnd + 1, portEnd);
     }
-    buf.append(reversedUrl.substring(pathBegin));
+    buf.append(reversedUrl, pathBegin, length);
     return buf.toString();
   }
 
@@ -118,12 +254,143 @@ public class TableUtil {
     return reversedUrl.substring(0, reversedUrl.indexOf(':'));
   }
 
-  private static void reverseAppendSplits(String[] splits, StringBuilder buf) {
-    for (int i = splits.length - 1; i > 0; i--) {
-      buf.append(splits[i]);
-      buf.append('.');
+  /**
+   * Given a reversed url, returns the length of the reversed host it starts
+   * with, without copying it.
+   *
+   * @param reversedUrl
+   *          Reversed url
+   * @return Length of the reversed host
+   */
+  public static int getReversedHostLength(CharSequence reversedUrl) {
+    final int length = reversedUrl.length();
+    return indexOf(reversedUrl, ':', 0, length);
+  }
+
+  /**
+   * Given a reversed url, returns the hash code of its reversed host, the
+   * same as <code>getReversedHost(reversedUrl).hashCode()</code>.
+   *
+   * @param reversedUrl
+   *          Reversed url
+   * @return Hash code of the reversed host
+   */
+  public static int hashReversedHost(CharSequence reversedUrl) {
+    final int hostLength = getReversedHostLength(reversedUrl);
+    int hashCode = 0;
+    for (int i = 0; i < hostLength; i++) {
+      hashCode = 31 * hashCode + reversedUrl.charAt(i);
+    }
+    return hashCode;
+  }
+
+  /**
+   * Tells whether two reversed urls have the same host, without copying
+   * the hosts.
+   */
+  public static boolean isSameReversedHost(CharSequence reversedUrl1,
+      CharSequence reversedUrl2) {
+    final int hostLength = getReversedHostLength(reversedUrl1);
+    if (hostLength != getReversedHostLength(reversedUrl2)) {
+      return false;
+    }
+    for (int i = hostLength - 1; i >= 0; i--) {
+      if (reversedUrl1.charAt(i) != reversedUrl2.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Given a reversed url, returns the host E.g
+   * "com.foo.bar:http:8983/to/index.html?a=b" -> "bar.foo.com"
+   *
+   * @param reversedUrl
+   *          Reversed url
+   * @return Host
+   */
+  public static String getHost(CharSequence reversedUrl) {
+    final int hostLength = getReversedHostLength(reversedUrl);
+    final StringBuilder buf = new StringBuilder(hostLength);
+    appendReversedHost(reversedUrl, 0, hostLength, buf);
+    return buf.toString();
+  }
+
+  /**
+   * Given a reversed url, returns the protocol E.g
+   * "com.foo.bar:http:8983/to/index.html?a=b" -> "http"
+   *
+   * @param reversedUrl
+   *          Reversed url
+   * @return Protocol
+   */
+  public static String getProtocol(CharSequence reversedUrl) {
+    final int length = reversedUrl.length();
+    final int pathBegin = indexOf(reversedUrl, '/', 0, length);
+    final int hostEnd = indexOf(reversedUrl, ':', 0, pathBegin);
+    if (hostEnd == pathBegin) {
+      throw new IllegalArgumentException("Not a reversed url: " + reversedUrl);
+    }
+    final int protocolEnd = indexOf(reversedUrl, ':', hostEnd + 1, pathBegin);
+    return reversedUrl.subSequence(hostEnd + 1, protocolEnd).toString();
+  }
+
+  /**
+   * Given a reversed url, returns the domain name of its host (see
+   * {@link URLUtil#getDomainName(URL)}) E.g
+   * "com.foo.bar:http:8983/to/index.html?a=b" -> "foo.com"
+   *
+   * @param reversedUrl
+   *          Reversed url
+   * @return Domain name
+   */
+  public static String getDomainName(CharSequence reversedUrl) {
+    return URLUtil.getHostDomainName(getHost(reversedUrl));
+  }
+
+  /**
+   * Given a reversed host, returns the host E.g
+   * "com.foo.bar" -> "bar.foo.com"
+   *
+   * @param reversedHost
+   *          Reversed host
+   * @return Host
+   */
+  public static String unreverseHost(String reversedHost) {
+    StringBuilder buf = new StringBuilder(reversedHost.length());
+    appendReversedHost(reversedHost, 0, reversedHost.length(), buf);
+    return buf.toString();
+  }
+
+  /**
+   * Appends the labels of host[start, end) in reverse order. Like
+   * <code>host.split("\\.")</code>, drops trailing empty labels.
+   */
+  private static void appendReversedHost(CharSequence host, int start,
+      int end, StringBuilder buf) {
+    while (end > start && host.charAt(end - 1) == '.') {
+      end--;
+    }
+    int labelEnd = end;
+    for (int i = end - 1; i >= start; i--) {
+      if (host.charAt(i) == '.') {
+        buf.append(host, i + 1, labelEnd);
+        buf.append('.');
+        labelEnd = i;
+      }
+    }
+    buf.append(host, start, labelEnd);
+  }
+
+  /** @return the index of c in s[start, end), or end */
+  private static int indexOf(CharSequence s, char c, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (s.charAt(i) == c) {
+        return i;
+      }
     }
-    buf.append(splits[0]);
+    return end;
   }
 
   /**
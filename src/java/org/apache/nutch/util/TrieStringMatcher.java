@@ -42,6 +42,8 @@ public abstract class TrieStringMatcher {
     protected LinkedList<TrieNode> childrenList;
     protected char nodeChar;
     protected boolean terminal;
+    /** A value attached to the node by subclasses, -1 if none. */
+    int value = -1;
 
     /**
      * Creates a new TrieNode, which contains the given
@@ -142,6 +144,21 @@ public abstract class TrieStringMatcher {
     }
   }
 
+  /**
+   * Turns the children lists of all the nodes into the sorted arrays that
+   * are searched, so that the trie is not modified any more while it is
+   * matched, e.g. by several threads. Patterns must not be added after this.
+   */
+  protected final void compact() {
+    final LinkedList<TrieNode> nodes = new LinkedList<TrieNode>();
+    nodes.add(root);
+    while (!nodes.isEmpty()) {
+      final TrieNode node = nodes.removeFirst();
+      node.getChild('\000');
+      nodes.addAll(Arrays.asList(node.children));
+    }
+  }
+
   /**
    * Returns the next {@link TrieNode} visited, given that you are at
    * <code>node</code>, and the the next character in the input is 
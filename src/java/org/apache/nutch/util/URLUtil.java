@@ -19,7 +19,6 @@ package org.apache.nutch.util;
 
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.regex.Pattern;
 
 import org.apache.nutch.util.domain.DomainSuffix;
 import org.apache.nutch.util.domain.DomainSuffixes;
@@ -27,7 +26,28 @@ import org.apache.nutch.util.domain.DomainSuffixes;
 /** Utility class for URL analysis */
 public class URLUtil {
 
-  private static Pattern IP_PATTERN = Pattern.compile("(\\d{1,3}\\.){3}(\\d{1,3})");
+  /**
+   * Tells whether host[start, end) is made of four dot separated groups of
+   * one to three digits, like an IPv4 address.
+   */
+  private static boolean isIPv4(CharSequence host, int start, int end) {
+    int groups = 0;
+    int digits = 0;
+    for (int i = start; i < end; i++) {
+      final char c = host.charAt(i);
+      if (c >= '0' && c <= '9') {
+        if (++digits > 3) {
+          return false;
+        }
+      } else if (c == '.' && digits > 0 && groups < 3) {
+        groups++;
+        digits = 0;
+      } else {
+        return false;
+      }
+    }
+    return groups == 3 && digits > 0;
+  }
 
   /** Returns the domain name of the url. The domain name of a url is
    *  the substring of the url's hostname, w/o subdomain names. As an
@@ -37,25 +57,31 @@ public class URLUtil {
    *  will return <br><code> apache.org</code>
    *   */
   public static String getDomainName(URL url) {
-    DomainSuffixes tlds = DomainSuffixes.getInstance();
-    String host = url.getHost();
+    return getHostDomainName(url.getHost());
+  }
+
+  /** Returns the domain name of a host name, as
+   *  {@link #getDomainName(URL)} does for the host of a url.
+   */
+  public static String getHostDomainName(String host) {
     //it seems that java returns hostnames ending with .
+    int end = host.length();
     if(host.endsWith("."))
-      host = host.substring(0, host.length() - 1);
-    if(IP_PATTERN.matcher(host).matches())
-      return host;
-    
-    int index = 0;
-    String candidate = host;
-    for(;index >= 0;) {
-      index = candidate.indexOf('.');
-      String subCandidate = candidate.substring(index+1); 
-      if(tlds.isDomainSuffix(subCandidate)) {
-        return candidate; 
-      }
-      candidate = subCandidate;
-    }
-    return candidate;
+      end--;
+    if(isIPv4(host, 0, end))
+      return host.substring(0, end);
+
+    // the label before the longest suffix, and that suffix
+    int suffixStart =
+      DomainSuffixes.getInstance().getSuffixStart(host, 0, end);
+    int start;
+    if(suffixStart > 0)
+      start = host.lastIndexOf('.', suffixStart - 2) + 1;
+    else if(suffixStart == 0)
+      start = 0;
+    else // an unknown suffix, keep the last label
+      start = host.lastIndexOf('.', end - 1) + 1;
+    return host.substring(start, end);
   }
 
   /** Returns the domain name of the url. The domain name of a url is
@@ -99,23 +125,17 @@ public class URLUtil {
    * last public part of the hostname
    */
   public static DomainSuffix getDomainSuffix(URL url) {
-    DomainSuffixes tlds = DomainSuffixes.getInstance();
-    String host = url.getHost();
-    if(IP_PATTERN.matcher(host).matches())
+    return getHostDomainSuffix(url.getHost());
+  }
+
+  /** Returns the {@link DomainSuffix} corresponding to the
+   * last public part of a host name, as {@link #getDomainSuffix(URL)} does
+   * for the host of a url.
+   */
+  public static DomainSuffix getHostDomainSuffix(String host) {
+    if(isIPv4(host, 0, host.length()))
       return null;
-    
-    int index = 0;
-    String candidate = host;
-    for(;index >= 0;) {
-      index = candidate.indexOf('.');
-      String subCandidate = candidate.substring(index+1);
-      DomainSuffix d = tlds.get(subCandidate);
-      if(d != null) {
-        return d; 
-      }
-      candidate = subCandidate;
-    }
-    return null;
+    return DomainSuffixes.getInstance().getSuffix(host, 0, host.length());
   }
 
   /** Returns the {@link DomainSuffix} corresponding to the
@@ -130,7 +150,7 @@ public class URLUtil {
     String host = url.getHost();
     //return whole hostname, if it is an ipv4
     //TODO : handle ipv6
-    if(IP_PATTERN.matcher(host).matches())
+    if(isIPv4(host, 0, host.length()))
       return new String[] {host};
     return host.split("\\.");
   }
@@ -0,0 +1,354 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericArray;
+import org.apache.avro.specific.SpecificData;
+import org.apache.avro.util.Utf8;
+import org.apache.gora.persistency.ListGenericArray;
+import org.apache.gora.persistency.State;
+import org.apache.gora.persistency.StatefulHashMap;
+import org.apache.gora.persistency.StatefulMap;
+import org.apache.gora.persistency.impl.PersistentBase;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.nutch.storage.WebPage;
+
+/**
+ * A compact encoding of {@link WebPage}s for the data that jobs send from
+ * their mappers to their reducers.
+ * <p>
+ * Only the fields that a reducer needs are written: the fields of a
+ * projection that were read from the store, and the fields that the mapper
+ * changed. A page comes out with the same readable and dirty fields, and
+ * with the same states of the entries of its maps, so that the reducer
+ * writes back exactly what it would have written with the original page.
+ * <p>
+ * Unlike the Avro serialization of Gora, there is no serializer to create
+ * for every record, the field flags take a few bytes instead of two
+ * boolean arrays, and byte fields, such as the content, are copied in one
+ * go.
+ */
+public class WebPageEncoding {
+
+  /** All the fields of a page */
+  public static final long ALL_FIELDS = getFieldMask(null);
+
+  private static final List<Schema.Field> FIELDS = WebPage._SCHEMA.getFields();
+
+  private static final State[] STATES = State.values();
+
+  /**
+   * @param fields a projection of the fields of a page, or null for all
+   *        of them
+   * @return the projection as a bit mask of the indexes of its fields
+   */
+  public static long getFieldMask(Collection<WebPage.Field> fields) {
+    long mask = 0;
+    for (WebPage.Field field : WebPage.Field.values()) {
+      if (fields == null || fields.contains(field)) {
+        mask |= 1L << field.getIndex();
+      }
+    }
+    return mask;
+  }
+
+  /** Writes all the readable fields of a page. */
+  public static void write(DataOutput out, WebPage page) throws IOException {
+    write(out, page, ALL_FIELDS);
+  }
+
+  /**
+   * Writes the dirty fields of a page, and the readable fields in a
+   * projection.
+   * @param projection the bit mask of the projection, from
+   *        {@link #getFieldMask(Collection)}
+   */
+  public static void write(DataOutput out, WebPage page, long projection)
+  throws IOException {
+    long written = 0;
+    long dirty = 0;
+    for (int i = 0; i < FIELDS.size(); i++) {
+      final long bit = 1L << i;
+      if (page.isDirty(i)) {
+        written |= bit;
+        dirty |= bit;
+      } else if ((projection & bit) != 0 && page.isReadable(i)) {
+        written |= bit;
+      }
+    }
+    WritableUtils.writeVLong(out, written);
+    WritableUtils.writeVLong(out, dirty);
+    for (int i = 0; i < FIELDS.size(); i++) {
+      if ((written & (1L << i)) != 0) {
+        writeValue(out, FIELDS.get(i).schema(), page.get(i));
+      }
+    }
+  }
+
+  /**
+   * Reads a page.
+   * @param page a page to reuse, or null
+   * @return the page read, which only has the fields that were written
+   */
+  public static WebPage read(DataInput in, WebPage page) throws IOException {
+    if (page == null) {
+      page = new WebPage();
+    } else {
+      page.clear();
+    }
+    final long written = WritableUtils.readVLong(in);
+    final long dirty = WritableUtils.readVLong(in);
+    for (int i = 0; i < FIELDS.size(); i++) {
+      if ((written & (1L << i)) != 0) {
+        page.put(i, readValue(in, FIELDS.get(i).schema(), page.get(i)));
+      }
+    }
+    page.clearDirty();
+    page.clearReadable();
+    for (int i = 0; i < FIELDS.size(); i++) {
+      final long bit = 1L << i;
+      if ((dirty & bit) != 0) {
+        page.setDirty(i);
+      } else if ((written & bit) != 0) {
+        page.setReadable(i);
+      }
+    }
+    return page;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void writeValue(DataOutput out, Schema schema, Object value)
+  throws IOException {
+    switch (schema.getType()) {
+    case INT:
+      WritableUtils.writeVInt(out, (Integer) value);
+      break;
+    case LONG:
+      WritableUtils.writeVLong(out, (Long) value);
+      break;
+    case FLOAT:
+      out.writeFloat((Float) value);
+      break;
+    case STRING:
+      writeUtf8(out, (Utf8) value);
+      break;
+    case BYTES:
+      writeBytes(out, (ByteBuffer) value);
+      break;
+    case ARRAY:
+      final GenericArray<Object> array = (GenericArray<Object>) value;
+      if (array == null) {
+        WritableUtils.writeVLong(out, -1);
+        break;
+      }
+      WritableUtils.writeVLong(out, array.size());
+      for (Object element : array) {
+        writeValue(out, schema.getElementType(), element);
+      }
+      break;
+    case MAP:
+      writeMap(out, schema, (Map<Utf8, Object>) value);
+      break;
+    case RECORD:
+      final PersistentBase record = (PersistentBase) value;
+      out.writeBoolean(record != null);
+      if (record != null) {
+        for (Schema.Field field : schema.getFields()) {
+          writeValue(out, field.schema(), record.get(field.pos()));
+        }
+      }
+      break;
+    default:
+      throw new IOException("Unsupported type " + schema.getType());
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Object readValue(DataInput in, Schema schema, Object reuse)
+  throws IOException {
+    switch (schema.getType()) {
+    case INT:
+      return WritableUtils.readVInt(in);
+    case LONG:
+      return WritableUtils.readVLong(in);
+    case FLOAT:
+      return in.readFloat();
+    case STRING:
+      return readUtf8(in);
+    case BYTES:
+      return readBytes(in);
+    case ARRAY:
+      final int size = (int) WritableUtils.readVLong(in);
+      if (size < 0) {
+        return null;
+      }
+      final GenericArray<Object> array =
+        new ListGenericArray<Object>(size, schema);
+      for (int i = 0; i < size; i++) {
+        array.add(readValue(in, schema.getElementType(), null));
+      }
+      return array;
+    case MAP:
+      return readMap(in, schema, (Map<Utf8, Object>) reuse);
+    case RECORD:
+      if (!in.readBoolean()) {
+        return null;
+      }
+      final PersistentBase record = newRecord(schema);
+      for (Schema.Field field : schema.getFields()) {
+        record.put(field.pos(), readValue(in, field.schema(), null));
+      }
+      record.clearDirty();
+      return record;
+    default:
+      throw new IOException("Unsupported type " + schema.getType());
+    }
+  }
+
+  /**
+   * Writes the entries of a map, then the states of the entries that were
+   * changed, and of the keys that were removed from it.
+   */
+  private static void writeMap(DataOutput out, Schema schema,
+      Map<Utf8, Object> map) throws IOException {
+    if (map == null) {
+      WritableUtils.writeVInt(out, -1);
+      return;
+    }
+    WritableUtils.writeVInt(out, map.size());
+    for (Map.Entry<Utf8, Object> entry : map.entrySet()) {
+      writeUtf8(out, entry.getKey());
+      writeValue(out, schema.getValueType(), entry.getValue());
+    }
+    final Map<Utf8, State> states = map instanceof StatefulMap
+      ? ((StatefulMap<Utf8, Object>) map).states() : null;
+    if (states == null || states.isEmpty()) {
+      WritableUtils.writeVInt(out, 0);
+      return;
+    }
+    WritableUtils.writeVInt(out, states.size());
+    int index = 0;
+    for (Utf8 key : map.keySet()) {
+      final State state = states.get(key);
+      if (state != null) {
+        WritableUtils.writeVInt(out, index);
+        out.writeByte(state.ordinal());
+      }
+      index++;
+    }
+    for (Map.Entry<Utf8, State> state : states.entrySet()) {
+      if (!map.containsKey(state.getKey())) {
+        WritableUtils.writeVInt(out, -1);
+        writeUtf8(out, state.getKey());
+        out.writeByte(state.getValue().ordinal());
+      }
+    }
+  }
+
+  private static Map<Utf8, Object> readMap(DataInput in, Schema schema,
+      Map<Utf8, Object> reuse) throws IOException {
+    final int size = WritableUtils.readVInt(in);
+    if (size < 0) {
+      return null;
+    }
+    final StatefulHashMap<Utf8, Object> map;
+    if (reuse instanceof StatefulHashMap && reuse.isEmpty()) {
+      map = (StatefulHashMap<Utf8, Object>) reuse;
+    } else {
+      map = new StatefulHashMap<Utf8, Object>();
+    }
+    final Utf8[] keys = new Utf8[size];
+    for (int i = 0; i < size; i++) {
+      keys[i] = readUtf8(in);
+      map.put(keys[i], readValue(in, schema.getValueType(), null));
+    }
+    map.clearStates();
+    final int changed = WritableUtils.readVInt(in);
+    for (int i = 0; i < changed; i++) {
+      final int index = WritableUtils.readVInt(in);
+      final Utf8 key = index < 0 ? readUtf8(in) : keys[index];
+      map.putState(key, STATES[in.readByte()]);
+    }
+    return map;
+  }
+
+  private static void writeUtf8(DataOutput out, Utf8 value)
+  throws IOException {
+    if (value == null) {
+      WritableUtils.writeVInt(out, -1);
+      return;
+    }
+    WritableUtils.writeVInt(out, value.getLength());
+    out.write(value.getBytes(), 0, value.getLength());
+  }
+
+  private static Utf8 readUtf8(DataInput in) throws IOException {
+    final int length = WritableUtils.readVInt(in);
+    if (length < 0) {
+      return null;
+    }
+    final byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new Utf8(bytes);
+  }
+
+  private static void writeBytes(DataOutput out, ByteBuffer value)
+  throws IOException {
+    if (value == null) {
+      WritableUtils.writeVInt(out, -1);
+      return;
+    }
+    final int length = value.remaining();
+    WritableUtils.writeVInt(out, length);
+    if (value.hasArray()) {
+      out.write(value.array(), value.arrayOffset() + value.position(), length);
+    } else {
+      final byte[] bytes = new byte[length];
+      value.duplicate().get(bytes);
+      out.write(bytes);
+    }
+  }
+
+  private static ByteBuffer readBytes(DataInput in) throws IOException {
+    final int length = WritableUtils.readVInt(in);
+    if (length < 0) {
+      return null;
+    }
+    final byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return ByteBuffer.wrap(bytes);
+  }
+
+  private static PersistentBase newRecord(Schema schema) throws IOException {
+    try {
+      return (PersistentBase) SpecificData.get().getClass(schema).newInstance();
+    } catch (Exception e) {
+      throw new IOException("Cannot create a " + schema.getFullName() + ": "
+          + e.getMessage());
+    }
+  }
+
+}
@@ -24,12 +24,12 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.io.Writable;
 import org.apache.nutch.storage.WebPage;
-import org.apache.gora.util.IOUtils;
 
 public class WebPageWritable extends Configured
 implements Writable {
 
   private WebPage webPage;
+  private long fields = WebPageEncoding.ALL_FIELDS;
 
   public WebPageWritable() {
     this(null, new WebPage());
@@ -40,14 +40,23 @@ implements Writable {
     this.webPage = webPage;
   }
 
+  /**
+   * @param fields the fields of the page to write, besides the dirty ones,
+   *        as a mask from {@link WebPageEncoding#getFieldMask(java.util.Collection)}
+   */
+  public WebPageWritable(Configuration conf, WebPage webPage, long fields) {
+    this(conf, webPage);
+    this.fields = fields;
+  }
+
   @Override
   public void readFields(DataInput in) throws IOException {
-    webPage = IOUtils.deserialize(getConf(), in, webPage, WebPage.class);
+    webPage = WebPageEncoding.read(in, webPage);
   }
 
   @Override
   public void write(DataOutput out) throws IOException {
-    IOUtils.serialize(getConf(), out, webPage, WebPage.class);
+    WebPageEncoding.write(out, webPage, fields);
   }
 
   public WebPage getWebPage() {
@@ -27,6 +27,10 @@ import org.apache.hadoop.util.StringUtils;
 /**
  * Storage class for <code>DomainSuffix</code> objects 
  * Note: this class is singleton
+ * <p>
+ * The suffixes are also kept in a trie of their chars read from right to
+ * left, which finds the longest suffix of a host name in a single scan of
+ * its chars (see {@link #getSuffixStart(CharSequence, int, int)}).
  * @author Enis Soztutar &lt;enis.soz.nutch@gmail.com&gt;
  */
 public class DomainSuffixes {
@@ -34,7 +38,58 @@ public class DomainSuffixes {
   
   private HashMap<String, DomainSuffix> domains = new HashMap<String, DomainSuffix>(); 
   
-  private static DomainSuffixes instance;
+  /** A node of the trie, reached by reading a suffix from its end */
+  private static class Node {
+    private char[] chars = new char[0];
+    private Node[] children = new Node[0];
+    /** The suffix ending at this node, or null */
+    private DomainSuffix suffix;
+
+    Node get(char c) {
+      int lo = 0;
+      int hi = chars.length - 1;
+      while (lo <= hi) {
+        final int mid = (lo + hi) >>> 1;
+        if (chars[mid] < c) {
+          lo = mid + 1;
+        } else if (chars[mid] > c) {
+          hi = mid - 1;
+        } else {
+          return children[mid];
+        }
+      }
+      return null;
+    }
+
+    Node add(char c) {
+      Node child = get(c);
+      if (child != null) {
+        return child;
+      }
+      int pos = 0;
+      while (pos < chars.length && chars[pos] < c) {
+        pos++;
+      }
+      final char[] newChars = new char[chars.length + 1];
+      final Node[] newChildren = new Node[children.length + 1];
+      System.arraycopy(chars, 0, newChars, 0, pos);
+      System.arraycopy(children, 0, newChildren, 0, pos);
+      newChars[pos] = c;
+      newChildren[pos] = child = new Node();
+      System.arraycopy(chars, pos, newChars, pos + 1, chars.length - pos);
+      System.arraycopy(children, pos, newChildren, pos + 1, children.length - pos);
+      chars = newChars;
+      children = newChildren;
+      return child;
+    }
+  }
+
+  private final Node root = new Node();
+
+  /** Lazy, thread safe instantiation */
+  private static class Holder {
+    private static final DomainSuffixes INSTANCE = new DomainSuffixes();
+  }
   
   /** private ctor */
   private DomainSuffixes() {
@@ -53,14 +108,57 @@ public class DomainSuffixes {
    * @return
    */
   public static DomainSuffixes getInstance() {
-    if(instance == null) {
-      instance = new DomainSuffixes();
-    }
-    return instance;
+    return Holder.INSTANCE;
   }
   
   void addDomainSuffix(DomainSuffix tld) {
     domains.put(tld.getDomain(), tld);
+    final String domain = tld.getDomain();
+    Node node = root;
+    for (int i = domain.length() - 1; i >= 0; i--) {
+      node = node.add(domain.charAt(i));
+    }
+    node.suffix = tld;
+  }
+
+  /**
+   * Finds the longest domain suffix of the host name host[start, end) that
+   * follows a dot of it, or that is the whole host name if it has no dot.
+   * @return the index of the first char of the suffix, or -1 if there is
+   *         none
+   */
+  public int getSuffixStart(CharSequence host, int start, int end) {
+    final Node node = findSuffix(host, start, end);
+    return node == null ? -1 : end - node.suffix.getDomain().length();
+  }
+
+  /**
+   * Returns the {@link DomainSuffix} found by
+   * {@link #getSuffixStart(CharSequence, int, int)}, or null if there is
+   * none.
+   */
+  public DomainSuffix getSuffix(CharSequence host, int start, int end) {
+    final Node node = findSuffix(host, start, end);
+    return node == null ? null : node.suffix;
+  }
+
+  private Node findSuffix(CharSequence host, int start, int end) {
+    Node node = root;
+    Node found = null;
+    boolean dot = false;
+    for (int i = end - 1; i >= start; i--) {
+      final char c = host.charAt(i);
+      node = node.get(c);
+      if (node == null) {
+        break;
+      }
+      dot |= c == '.';
+      if (node.suffix != null
+          && (i > start ? host.charAt(i - 1) == '.' : !dot)) {
+        found = node;
+      }
+    }
+    return found;
   }
 
   /** return whether the extension is a registered domain entry */
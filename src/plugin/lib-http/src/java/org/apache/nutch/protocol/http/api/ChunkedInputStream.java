@@ -0,0 +1,145 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.http.api;
+
+// JDK imports
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes a body sent with <code>Transfer-Encoding: chunked</code> (RFC
+ * 2616, section 3.6.1). Reading stops at the last chunk, after its trailer,
+ * so the connection is left at the start of the next response.
+ */
+public class ChunkedInputStream extends InputStream {
+
+  /** The longest chunk size line or trailer line accepted */
+  private static final int MAX_LINE = 8 * 1024;
+
+  private final InputStream in;
+
+  /** The bytes left in the current chunk */
+  private int left = 0;
+
+  /** Whether a chunk was read, whose CRLF must be skipped */
+  private boolean started = false;
+
+  /** Whether the last chunk and the trailer were read */
+  private boolean complete = false;
+
+  public ChunkedInputStream(InputStream in) {
+    this.in = in;
+  }
+
+  /** Whether the whole body has been read. */
+  public boolean isComplete() {
+    return complete;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!nextChunk()) {
+      return -1;
+    }
+    final int b = in.read();
+    if (b == -1) {
+      throw new EOFException("Truncated chunk");
+    }
+    left--;
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (!nextChunk()) {
+      return -1;
+    }
+    final int n = in.read(b, off, Math.min(len, left));
+    if (n == -1) {
+      throw new EOFException("Truncated chunk");
+    }
+    left -= n;
+    return n;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return complete ? 0 : Math.min(left, in.available());
+  }
+
+  /**
+   * Moves to the next chunk if the current one is done.
+   * @return false at the end of the body
+   */
+  private boolean nextChunk() throws IOException {
+    if (complete) {
+      return false;
+    }
+    if (left > 0) {
+      return true;
+    }
+    if (started) {
+      // the CRLF ending the chunk data
+      readLine();
+    }
+    started = true;
+    final String line = readLine();
+    int end = line.indexOf(';');   // chunk extensions are ignored
+    if (end == -1) {
+      end = line.length();
+    }
+    final String size = line.substring(0, end).trim();
+    try {
+      left = Integer.parseInt(size, 16);
+    } catch (NumberFormatException e) {
+      throw new IOException("Bad chunk size: '" + size + "'");
+    }
+    if (left < 0) {
+      throw new IOException("Bad chunk size: '" + size + "'");
+    }
+    if (left == 0) {
+      // the trailer, up to an empty line
+      while (readLine().length() > 0) {
+      }
+      complete = true;
+      return false;
+    }
+    return true;
+  }
+
+  /** Reads a line ended by LF or CRLF, without its end. */
+  private String readLine() throws IOException {
+    final StringBuilder line = new StringBuilder();
+    for (int c = in.read(); c != '\n'; c = in.read()) {
+      if (c == -1) {
+        throw new EOFException("Truncated chunked body");
+      }
+      if (c != '\r') {
+        if (line.length() >= MAX_LINE) {
+          throw new IOException("Chunk line too long");
+        }
+        line.append((char) c);
+      }
+    }
+    return line.toString();
+  }
+
+}
@@ -0,0 +1,98 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.http.api;
+
+// JDK imports
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * A growable buffer for content of unknown length, reused by all the
+ * fetches of a thread. Unlike a <code>ByteArrayOutputStream</code>, which
+ * is thrown away with every page and copies its content once more when it
+ * is done, the buffer only allocates the array that is handed out, sized to
+ * the content.
+ * <p>
+ * The bytes read so far are kept when reading fails, so that what was
+ * received of a truncated or corrupted body can still be used.
+ */
+public class ContentBuffer {
+
+  /** The largest buffer kept for the next fetch of a thread */
+  private static final int MAX_RETAINED = 1024 * 1024;
+
+  private static final ThreadLocal<ContentBuffer> BUFFERS =
+    new ThreadLocal<ContentBuffer>() {
+      @Override
+      protected ContentBuffer initialValue() {
+        return new ContentBuffer();
+      }
+    };
+
+  private byte[] bytes = new byte[HttpBase.BUFFER_SIZE];
+  private int length = 0;
+
+  /**
+   * @return the empty buffer of the current thread, which must not be used
+   *         any more once {@link #toByteArray()} was called
+   */
+  public static ContentBuffer get() {
+    final ContentBuffer buffer = BUFFERS.get();
+    buffer.length = 0;
+    return buffer;
+  }
+
+  /**
+   * Appends the bytes of a stream, until its end or until the buffer holds
+   * <code>limit</code> bytes.
+   * @return the number of bytes read
+   */
+  public int readFrom(InputStream in, int limit) throws IOException {
+    final int start = length;
+    while (length < limit) {
+      if (length == bytes.length) {
+        final int size = (int) Math.min((long) limit, 2L * bytes.length);
+        bytes = Arrays.copyOf(bytes, size);
+      }
+      final int n = in.read(bytes, length, Math.min(bytes.length, limit) - length);
+      if (n == -1) {
+        break;
+      }
+      length += n;
+    }
+    return length - start;
+  }
+
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * @return a copy of the content, and gives the buffer back to the
+   *         thread
+   */
+  public byte[] toByteArray() {
+    final byte[] content = Arrays.copyOf(bytes, length);
+    length = 0;
+    if (bytes.length > MAX_RETAINED) {
+      bytes = new byte[HttpBase.BUFFER_SIZE];
+    }
+    return content;
+  }
+
+}
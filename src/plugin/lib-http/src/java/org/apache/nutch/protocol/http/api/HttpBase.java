@@ -19,12 +19,11 @@ package org.apache.nutch.protocol.http.api;
 // JDK imports
 import java.io.IOException;
 import java.net.URL;
-import java.util.HashMap;
-import java.util.LinkedList;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.net.protocols.HttpUtils;
 import org.apache.nutch.net.protocols.Response;
 import org.apache.nutch.protocol.Content;
 import org.apache.nutch.protocol.Protocol;
@@ -34,8 +33,6 @@ import org.apache.nutch.protocol.ProtocolStatusCodes;
 import org.apache.nutch.protocol.ProtocolStatusUtils;
 import org.apache.nutch.protocol.RobotRules;
 import org.apache.nutch.storage.WebPage;
-import org.apache.nutch.util.GZIPUtils;
-import org.apache.nutch.util.DeflateUtils;
 import org.apache.nutch.util.LogUtil;
 import org.apache.nutch.util.MimeUtil;
 
@@ -47,8 +44,6 @@ public abstract class HttpBase implements Protocol {
 
   public static final int BUFFER_SIZE = 8 * 1024;
 
-  private static final byte[] EMPTY_CONTENT = new byte[0];
-
   private RobotRulesParser robots = null;
 
   /** The proxy hostname. */
@@ -67,7 +62,7 @@ public abstract class HttpBase implements Protocol {
   protected int maxContent = 64 * 1024;
 
   /** The Nutch 'User-Agent' request header */
-  protected String userAgent = getAgentString(
+  protected String userAgent = HttpUtils.getAgentString(
       "NutchCVS", null, "Nutch",
       "http://lucene.apache.org/nutch/bot.html",
   "nutch-agent@lucene.apache.org");
@@ -90,6 +85,9 @@ public abstract class HttpBase implements Protocol {
   /** Do we use HTTP/1.1? */
   protected boolean useHttp11 = false;
 
+  /** The connections kept alive, if using HTTP/1.1 */
+  private HttpConnectionPool connectionPool = null;
+
   /** Creates a new instance of HttpBase */
   public HttpBase() {
     this(null);
@@ -111,11 +109,15 @@ public abstract class HttpBase implements Protocol {
     this.useProxy = (proxyHost != null && proxyHost.length() > 0);
     this.timeout = conf.getInt("http.timeout", 10000);
     this.maxContent = conf.getInt("http.content.limit", 64 * 1024);
-    this.userAgent = getAgentString(conf.get("http.agent.name"), conf.get("http.agent.version"), conf
+    this.userAgent = HttpUtils.getAgentString(conf.get("http.agent.name"), conf.get("http.agent.version"), conf
         .get("http.agent.description"), conf.get("http.agent.url"), conf.get("http.agent.email"));
     this.acceptLanguage = conf.get("http.accept.language", acceptLanguage);
     this.mimeTypes = new MimeUtil(conf);
     this.useHttp11 = conf.getBoolean("http.useHttp11", false);
+    if (connectionPool != null) {
+      connectionPool.close();
+    }
+    this.connectionPool = useHttp11 ? new HttpConnectionPool(conf) : null;
     this.robots.setConf(conf);
     logConf();
   }
@@ -131,68 +133,15 @@ public abstract class HttpBase implements Protocol {
 
     try {
       URL u = new URL(url);
-      String host = null;
       Response response = getResponse(u, page, false); // make a request
       int code = response.getCode();
-      byte[] content = response.getContent();
-      Content c = new Content(u.toString(), u.toString(),
-          (content == null ? EMPTY_CONTENT : content),
-          response.getHeader("Content-Type"),
-          response.getHeaders(), mimeTypes);
-
-      if (code == 200) { // got a good response
-        return new ProtocolOutput(c); // return it
-
-      } else if (code == 410) { // page is gone
-        return new ProtocolOutput(c,
-            ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.GONE, "Http: " + code + " url=" + url));
-      } else if (code >= 300 && code < 400) { // handle redirect
-        String location = response.getHeader("Location");
-        // some broken servers, such as MS IIS, use lowercase header name...
-        if (location == null) location = response.getHeader("location");
-        if (location == null) location = "";
-        u = new URL(u, location);
-        int protocolStatusCode;
-        switch (code) {
-        case 300:   // multiple choices, preferred value in Location
-          protocolStatusCode = ProtocolStatusCodes.MOVED;
-          break;
-        case 301:   // moved permanently
-        case 305:   // use proxy (Location is URL of proxy)
-          protocolStatusCode = ProtocolStatusCodes.MOVED;
-          break;
-        case 302:   // found (temporarily moved)
-        case 303:   // see other (redirect after POST)
-        case 307:   // temporary redirect
-          protocolStatusCode = ProtocolStatusUtils.TEMP_MOVED;
-          break;
-        case 304:   // not modified
-          protocolStatusCode = ProtocolStatusUtils.NOTMODIFIED;
-          break;
-        default:
-          protocolStatusCode = ProtocolStatusUtils.MOVED;
-        }
-        // handle this in the higher layer.
-        return new ProtocolOutput(c, ProtocolStatusUtils.makeStatus(protocolStatusCode, u));
-      } else if (code == 400) { // bad request, mark as GONE
-        if (logger.isTraceEnabled()) { logger.trace("400 Bad request: " + u); }
-        return new ProtocolOutput(c, ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.GONE, u));
-      } else if (code == 401) { // requires authorization, but no valid auth provided.
-        if (logger.isTraceEnabled()) { logger.trace("401 Authentication Required"); }
-        return new ProtocolOutput(c,
-            ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.ACCESS_DENIED,
-                "Authentication required: "+ url));
-      } else if (code == 404) {
-        return new ProtocolOutput(c,
-            ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.NOTFOUND, u));
-      } else if (code == 410) { // permanently GONE
-        return new ProtocolOutput(c,
-            ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.GONE, u));
-      } else {
-        return new ProtocolOutput(c,
-            ProtocolStatusUtils.makeStatus(ProtocolStatusCodes.EXCEPTION, "Http code=" + code + ", url="
-                + u));
+      if (code == 400 && logger.isTraceEnabled()) {
+        logger.trace("400 Bad request: " + u);
+      } else if (code == 401 && logger.isTraceEnabled()) {
+        logger.trace("401 Authentication Required");
       }
+      return HttpUtils.toProtocolOutput(u, code, response.getHeaders(),
+          response.getContent(), mimeTypes);
     } catch (Throwable e) {
       e.printStackTrace(LogUtil.getErrorStream(logger));
       return new ProtocolOutput(null,
@@ -240,49 +189,11 @@ public abstract class HttpBase implements Protocol {
     return useHttp11;
   }
 
-  private static String getAgentString(String agentName,
-      String agentVersion,
-      String agentDesc,
-      String agentURL,
-      String agentEmail) {
-
-    if ( (agentName == null) || (agentName.trim().length() == 0) ) {
-      // TODO : NUTCH-258
-      if (LOGGER.isErrorEnabled()) {
-        LOGGER.error("No User-Agent string set (http.agent.name)!");
-      }
-    }
-
-    StringBuffer buf= new StringBuffer();
-
-    buf.append(agentName);
-    if (agentVersion != null) {
-      buf.append("/");
-      buf.append(agentVersion);
-    }
-    if ( ((agentDesc != null) && (agentDesc.length() != 0))
-        || ((agentEmail != null) && (agentEmail.length() != 0))
-        || ((agentURL != null) && (agentURL.length() != 0)) ) {
-      buf.append(" (");
-
-      if ((agentDesc != null) && (agentDesc.length() != 0)) {
-        buf.append(agentDesc);
-        if ( (agentURL != null) || (agentEmail != null) )
-          buf.append("; ");
-      }
-
-      if ((agentURL != null) && (agentURL.length() != 0)) {
-        buf.append(agentURL);
-        if (agentEmail != null)
-          buf.append("; ");
-      }
-
-      if ((agentEmail != null) && (agentEmail.length() != 0))
-        buf.append(agentEmail);
-
-      buf.append(")");
-    }
-    return buf.toString();
+  /**
+   * @return the connections kept alive, or null if not using HTTP/1.1
+   */
+  public HttpConnectionPool getConnectionPool() {
+    return connectionPool;
   }
 
   protected void logConf() {
@@ -297,42 +208,11 @@ public abstract class HttpBase implements Protocol {
   }
 
   public byte[] processGzipEncoded(byte[] compressed, URL url) throws IOException {
-
-    if (LOGGER.isTraceEnabled()) { LOGGER.trace("uncompressing...."); }
-
-    byte[] content;
-    if (getMaxContent() >= 0) {
-      content = GZIPUtils.unzipBestEffort(compressed, getMaxContent());
-    } else {
-      content = GZIPUtils.unzipBestEffort(compressed);
-    }
-
-    if (content == null)
-      throw new IOException("unzipBestEffort returned null");
-
-    if (LOGGER.isTraceEnabled()) {
-      LOGGER.trace("fetched " + compressed.length
-          + " bytes of compressed content (expanded to "
-          + content.length + " bytes) from " + url);
-    }
-    return content;
+    return HttpUtils.decodeContent(compressed, "gzip", getMaxContent());
   }
 
   public byte[] processDeflateEncoded(byte[] compressed, URL url) throws IOException {
-
-    if (LOGGER.isTraceEnabled()) { LOGGER.trace("inflating...."); }
-
-    byte[] content = DeflateUtils.inflateBestEffort(compressed, getMaxContent());
-
-    if (content == null)
-      throw new IOException("inflateBestEffort returned null");
-
-    if (LOGGER.isTraceEnabled()) {
-      LOGGER.trace("fetched " + compressed.length
-                 + " bytes of compressed content (expanded to "
-                 + content.length + " bytes) from " + url);
-    }
-    return content;
+    return HttpUtils.decodeContent(compressed, "deflate", getMaxContent());
   }
 
   protected static void main(HttpBase http, String[] args) throws Exception {
@@ -0,0 +1,218 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.http.api;
+
+// JDK imports
+import java.io.IOException;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the connections left open by HTTP/1.1 servers, so that the next
+ * request to the same host and port does not have to connect again.
+ * <p>
+ * A connection stays idle in the pool for at most
+ * <code>http.keepalive.timeout</code> milliseconds. At most
+ * <code>http.keepalive.max.per.host</code> connections are kept for a host,
+ * by default as many as the fetcher uses at the same time on a queue
+ * (<code>fetcher.threads.per.queue</code>), and at most
+ * <code>http.keepalive.max.total</code> for all hosts.
+ */
+public class HttpConnectionPool {
+
+  public static final Logger LOG =
+    LoggerFactory.getLogger(HttpConnectionPool.class);
+
+  public static final String TIMEOUT_KEY = "http.keepalive.timeout";
+  public static final String MAX_PER_HOST_KEY = "http.keepalive.max.per.host";
+  public static final String MAX_TOTAL_KEY = "http.keepalive.max.total";
+
+  /** An idle connection. */
+  private static class Idle {
+    final String key;
+    final Socket socket;
+    final long expires;
+    /** The order of release */
+    final long serial;
+
+    Idle(String key, Socket socket, long expires, long serial) {
+      this.key = key;
+      this.socket = socket;
+      this.expires = expires;
+      this.serial = serial;
+    }
+  }
+
+  private final long timeout;
+  private final int maxPerHost;
+  private final int maxTotal;
+
+  /** The idle connections of each host:port, the oldest first */
+  private final Map<String, LinkedList<Idle>> idle =
+    new HashMap<String, LinkedList<Idle>>();
+
+  /** The number of idle connections */
+  private int size = 0;
+
+  /** When to look for expired connections next */
+  private long nextSweep = 0;
+
+  /** The number of connections released so far */
+  private long released = 0;
+
+  public HttpConnectionPool(Configuration conf) {
+    this.timeout = conf.getLong(TIMEOUT_KEY, 5000);
+    int perHost = conf.getInt(MAX_PER_HOST_KEY, -1);
+    if (perHost < 0) {
+      perHost = conf.getInt("fetcher.threads.per.queue", 1);
+    }
+    this.maxPerHost = perHost;
+    this.maxTotal = conf.getInt(MAX_TOTAL_KEY, 100);
+  }
+
+  private static String getKey(String host, int port) {
+    return host.toLowerCase() + ":" + port;
+  }
+
+  /**
+   * Takes an idle connection to a host, the most recently used one.
+   * @return the connection, or null if there is none
+   */
+  public Socket get(String host, int port) {
+    final long now = System.currentTimeMillis();
+    synchronized (this) {
+      sweep(now);
+      final LinkedList<Idle> connections = idle.get(getKey(host, port));
+      while (connections != null && !connections.isEmpty()) {
+        final Idle connection = connections.removeLast();
+        size--;
+        if (connections.isEmpty()) {
+          idle.remove(connection.key);
+        }
+        if (connection.expires > now && !connection.socket.isClosed()) {
+          return connection.socket;
+        }
+        close(connection.socket);
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Gives back a connection that is ready for another request. It is closed
+   * if there are enough idle connections already, if needed the oldest idle
+   * connection is closed instead.
+   */
+  public void release(String host, int port, Socket socket) {
+    if (timeout <= 0 || maxPerHost <= 0 || maxTotal <= 0) {
+      close(socket);
+      return;
+    }
+    final long now = System.currentTimeMillis();
+    final String key = getKey(host, port);
+    synchronized (this) {
+      sweep(now);
+      LinkedList<Idle> connections = idle.get(key);
+      if (connections != null && connections.size() >= maxPerHost) {
+        close(connections.removeFirst().socket);
+        size--;
+      } else if (size >= maxTotal) {
+        removeOldest();
+        connections = idle.get(key);
+      }
+      if (connections == null) {
+        connections = new LinkedList<Idle>();
+        idle.put(key, connections);
+      }
+      connections.addLast(new Idle(key, socket, now + timeout, released++));
+      size++;
+    }
+  }
+
+  /** Closes all idle connections. */
+  public synchronized void close() {
+    for (LinkedList<Idle> connections : idle.values()) {
+      for (Idle connection : connections) {
+        close(connection.socket);
+      }
+    }
+    idle.clear();
+    size = 0;
+  }
+
+  /** @return the number of idle connections */
+  public synchronized int size() {
+    return size;
+  }
+
+  /** Closes the expired connections, at most once a second. */
+  private void sweep(long now) {
+    if (now < nextSweep) {
+      return;
+    }
+    nextSweep = now + 1000;
+    final Iterator<LinkedList<Idle>> lists = idle.values().iterator();
+    while (lists.hasNext()) {
+      final LinkedList<Idle> connections = lists.next();
+      // the oldest expire first
+      while (!connections.isEmpty() && connections.getFirst().expires <= now) {
+        close(connections.removeFirst().socket);
+        size--;
+      }
+      if (connections.isEmpty()) {
+        lists.remove();
+      }
+    }
+  }
+
+  /** Closes the connection that has been idle for the longest time. */
+  private void removeOldest() {
+    LinkedList<Idle> oldest = null;
+    for (LinkedList<Idle> connections : idle.values()) {
+      if (!connections.isEmpty() && (oldest == null
+          || connections.getFirst().serial < oldest.getFirst().serial)) {
+        oldest = connections;
+      }
+    }
+    if (oldest != null) {
+      final Idle connection = oldest.removeFirst();
+      size--;
+      if (oldest.isEmpty()) {
+        idle.remove(connection.key);
+      }
+      close(connection.socket);
+    }
+  }
+
+  private static void close(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException e) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Failed to close connection: " + e);
+      }
+    }
+  }
+
+}
@@ -17,6 +17,8 @@
 package org.apache.nutch.protocol.http.api;
 
 // JDK imports
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
@@ -25,8 +27,8 @@ import java.net.URL;
 import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Hashtable;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,7 +37,9 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.nutch.net.protocols.Response;
 import org.apache.nutch.protocol.ProtocolException;
 import org.apache.nutch.protocol.RobotRules;
+import org.apache.nutch.protocol.RobotRulesCache;
 import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.PathRuleMatcher;
 
 
 /**
@@ -53,8 +57,31 @@ public class RobotRulesParser implements Configurable {
 
   private boolean allowForbidden = false;
 
-  private static final Hashtable<String, RobotRules> CACHE =
-    new Hashtable<String, RobotRules>();
+  /** Writes rule sets to the robots cache file, and reads them back. */
+  private static final RobotRulesCache.Serializer SERIALIZER =
+    new RobotRulesCache.Serializer() {
+    public void write(RobotRules rules, DataOutput out) throws IOException {
+      final RobotRuleSet ruleSet = (RobotRuleSet) rules;
+      final RobotRuleSet.RobotsEntry[] entries = ruleSet.getEntries();
+      out.writeLong(ruleSet.getCrawlDelay());
+      out.writeInt(entries.length);
+      for (final RobotRuleSet.RobotsEntry entry : entries) {
+        out.writeUTF(entry.prefix);
+        out.writeBoolean(entry.allowed);
+      }
+    }
+
+    public RobotRules read(DataInput in) throws IOException {
+      final RobotRuleSet ruleSet = new RobotRuleSet();
+      ruleSet.setCrawlDelay(in.readLong());
+      final int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        ruleSet.addPrefix(in.readUTF(), in.readBoolean());
+      }
+      ruleSet.getEntries();
+      return ruleSet;
+    }
+  };
 
   private static final String CHARACTER_ENCODING= "UTF-8";
   private static final int NO_PRECEDENCE= Integer.MAX_VALUE;
@@ -65,6 +92,7 @@ public class RobotRulesParser implements Configurable {
 
   private Configuration conf;
   private HashMap<String, Integer> robotNames;
+  private RobotRulesCache cache;
 
   /**
    * This class holds the rules which were parsed from a robots.txt
@@ -72,13 +100,15 @@ public class RobotRulesParser implements Configurable {
    */
   public static class RobotRuleSet implements RobotRules {
     ArrayList<RobotsEntry> tmpEntries = new ArrayList<RobotsEntry>();
-    RobotsEntry[] entries = null;
+    volatile RobotsEntry[] entries = null;
+    /** Compiled from the entries, set before them. */
+    PathRuleMatcher matcher;
     long expireTime;
     long crawlDelay = -1;
 
     /**
      */
-    private class RobotsEntry {
+    private static class RobotsEntry {
       String prefix;
       boolean allowed;
 
@@ -114,6 +144,31 @@ public class RobotRulesParser implements Configurable {
       }
     }
 
+    /**
+     * Compile the rules added so far into the matcher, once. A path
+     * <code>*</code> matches any characters, and a <code>$</code> ending a
+     * path anchors it; the first rule matching a path applies.
+     */
+    private RobotsEntry[] getEntries() {
+      RobotsEntry[] result= entries;
+      if (result == null) {
+        synchronized (this) {
+          if (entries == null) {
+            final RobotsEntry[] compiled=
+              tmpEntries.toArray(new RobotsEntry[tmpEntries.size()]);
+            final String[] prefixes= new String[compiled.length];
+            for (int i= 0; i < compiled.length; i++)
+              prefixes[i]= compiled[i].prefix;
+            matcher= new PathRuleMatcher(prefixes);
+            entries= compiled;
+            tmpEntries= null;
+          }
+          result= entries;
+        }
+      }
+      return result;
+    }
+
     /**
      * Change when the ruleset goes stale.
      */
@@ -161,35 +216,25 @@ public class RobotRulesParser implements Configurable {
      *  <code>true</code> otherwise.
      */
     public boolean isAllowed(String path) {
-      try {
-        path= URLDecoder.decode(path, CHARACTER_ENCODING);
-      } catch (Exception e) {
-        // just ignore it- we can still try to match
-        // path prefixes
-      }
-
-      if (entries == null) {
-        entries= new RobotsEntry[tmpEntries.size()];
-        entries= tmpEntries.toArray(entries);
-        tmpEntries= null;
-      }
-
-      int pos= 0;
-      int end= entries.length;
-      while (pos < end) {
-        if (path.startsWith(entries[pos].prefix))
-          return entries[pos].allowed;
-        pos++;
+      if (path.indexOf('%') != -1 || path.indexOf('+') != -1) {
+        try {
+          path= URLDecoder.decode(path, CHARACTER_ENCODING);
+        } catch (Exception e) {
+          // just ignore it- we can still try to match
+          // path prefixes
+        }
       }
 
-      return true;
+      final RobotsEntry[] entries= getEntries();
+      final int rule= matcher.firstMatch(path);
+      return rule == -1 ? true : entries[rule].allowed;
     }
 
     /**
      */
     @Override
     public String toString() {
-      isAllowed("x");  // force String[] representation
+      final RobotsEntry[] entries= getEntries();
       StringBuffer buf= new StringBuffer();
       for (int i= 0; i < entries.length; i++)
         if (entries[i].allowed)
@@ -249,6 +294,8 @@ public class RobotRulesParser implements Configurable {
       }
     }
     setRobotNames(agents.toArray(new String[agents.size()]));
+    cache = RobotRulesCache.get(conf);
+    cache.attach(SERIALIZER);
   }
 
   public Configuration getConf() {
@@ -443,64 +490,84 @@ public class RobotRulesParser implements Configurable {
     return getRobotRulesSet(http, u);
   }
 
-  private RobotRuleSet getRobotRulesSet(HttpBase http, URL url) {
+  private RobotRuleSet getRobotRulesSet(final HttpBase http, final URL url) {
 
-    String host = url.getHost().toLowerCase(); // normalize to lower case
+    final String host = url.getHost().toLowerCase(); // normalize to lower case
 
-    RobotRuleSet robotRules = (RobotRuleSet)CACHE.get(host);
+    try {
+      return (RobotRuleSet) cache.get(host, new Callable<RobotRules>() {
+        public RobotRules call() {
+          return fetchRobotRulesSet(http, url, host);
+        }
+      });
+    } catch (Exception e) {
+      if (LOG.isInfoEnabled()) {
+        LOG.info("Couldn't get robots.txt for " + url + ": " + e.toString());
+      }
+      return EMPTY_RULES;
+    }
+  }
+
+  /**
+   * Fetch and parse the robots.txt of a host. Rules that should not be
+   * cached come back already expired.
+   */
+  private RobotRuleSet fetchRobotRulesSet(HttpBase http, URL url, String host) {
+    RobotRuleSet robotRules;
 
     boolean cacheRule = true;
 
-    if (robotRules == null) {                     // cache miss
-      URL redir = null;
-      if (LOG.isTraceEnabled()) { LOG.trace("cache miss " + url); }
-      try {
-        Response response = http.getResponse(new URL(url, "/robots.txt"),
-                                             new WebPage(), true);
-        // try one level of redirection ?
-        if (response.getCode() == 301 || response.getCode() == 302) {
-          String redirection = response.getHeader("Location");
-          if (redirection == null) {
-            // some versions of MS IIS are known to mangle this header
-            redirection = response.getHeader("location");
+    URL redir = null;
+    if (LOG.isTraceEnabled()) { LOG.trace("cache miss " + url); }
+    try {
+      Response response = http.getResponse(new URL(url, "/robots.txt"),
+                                           new WebPage(), true);
+      // try one level of redirection ?
+      if (response.getCode() == 301 || response.getCode() == 302) {
+        String redirection = response.getHeader("Location");
+        if (redirection == null) {
+          // some versions of MS IIS are known to mangle this header
+          redirection = response.getHeader("location");
+        }
+        if (redirection != null) {
+          if (!redirection.startsWith("http")) {
+            // RFC says it should be absolute, but apparently it isn't
+            redir = new URL(url, redirection);
+          } else {
+            redir = new URL(redirection);
           }
-          if (redirection != null) {
-            if (!redirection.startsWith("http")) {
-              // RFC says it should be absolute, but apparently it isn't
-              redir = new URL(url, redirection);
-            } else {
-              redir = new URL(redirection);
-            }
 
-            response = http.getResponse(redir, new WebPage(), true);
-          }
+          response = http.getResponse(redir, new WebPage(), true);
         }
+      }
 
-        if (response.getCode() == 200)               // found rules: parse them
-          robotRules = parseRules(response.getContent());
-        else if ( (response.getCode() == 403) && (!allowForbidden) )
-          robotRules = FORBID_ALL_RULES;            // use forbid all
-        else if (response.getCode() >= 500) {
-          cacheRule = false;
-          robotRules = EMPTY_RULES;
-        }else
-          robotRules = EMPTY_RULES;                 // use default rules
-      } catch (Throwable t) {
-        if (LOG.isInfoEnabled()) {
-          LOG.info("Couldn't get robots.txt for " + url + ": " + t.toString());
-        }
+      if (response.getCode() == 200)               // found rules: parse them
+        robotRules = parseRules(response.getContent());
+      else if ( (response.getCode() == 403) && (!allowForbidden) )
+        robotRules = FORBID_ALL_RULES;            // use forbid all
+      else if (response.getCode() >= 500) {
         cacheRule = false;
         robotRules = EMPTY_RULES;
+      }else
+        robotRules = EMPTY_RULES;                 // use default rules
+    } catch (Throwable t) {
+      if (LOG.isInfoEnabled()) {
+        LOG.info("Couldn't get robots.txt for " + url + ": " + t.toString());
       }
+      cacheRule = false;
+      robotRules = EMPTY_RULES;
+    }
 
-      if (cacheRule) {
-        CACHE.put(host, robotRules);  // cache rules for host
-        if (redir != null && !redir.getHost().equals(host)) {
-          // cache also for the redirected host
-          CACHE.put(redir.getHost(), robotRules);
-        }
-      }
+    if (!cacheRule) {
+      // shared with the threads waiting for it, but not kept
+      robotRules = new RobotRuleSet();
+      robotRules.setExpireTime(System.currentTimeMillis());
+    } else if (redir != null && !redir.getHost().equalsIgnoreCase(host)) {
+      // cache also for the redirected host
+      cache.put(redir.getHost().toLowerCase(), robotRules);
     }
+    // ready to be matched by several threads
+    robotRules.getEntries();
     return robotRules;
   }
 
@@ -17,11 +17,24 @@
 
 package org.apache.nutch.protocol.http.api;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
 import org.apache.nutch.protocol.http.api.RobotRulesParser.RobotRuleSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import junit.framework.TestCase;
 
 public class TestRobotRulesParser extends TestCase {
+  private static final Logger LOG =
+    LoggerFactory.getLogger(TestRobotRulesParser.class);
+
+  private static final String SAMPLES = System.getProperty("test.data", ".");
+
   private static final String LF= "\n";
   private static final String CR= "\r";
   private static final String CRLF= "\r\n";
@@ -283,6 +296,100 @@ public class TestRobotRulesParser extends TestCase {
     assertTrue("testing crawl delay for agent nutchbot - rule 2", (crawlDelay == -1));
   }
 
+  public void testWildcards() {
+    RobotRulesParser p = new RobotRulesParser(new String[] { "nutchbot" });
+    String robots = "User-agent: *" + CR +
+                    "Allow: /*.html$" + CR +
+                    "Disallow: /*?" + CR +
+                    "Disallow: /*.pdf$" + CR +
+                    "Disallow: /private*/" + CR +
+                    "Disallow: /a%2Fb" + CR;
+    RobotRuleSet rules = p.parseRules(robots.getBytes());
+    assertTrue(rules.isAllowed("/index.html"));
+    assertFalse(rules.isAllowed("/index?page=2"));
+    assertFalse(rules.isAllowed("/search.html?q=a"));
+    assertFalse(rules.isAllowed("/doc/paper.pdf"));
+    assertTrue(rules.isAllowed("/doc/paper.pdf.txt"));
+    assertFalse(rules.isAllowed("/private-stuff/a"));
+    assertTrue(rules.isAllowed("/private"));
+    // paths are decoded, as the rules are
+    assertFalse(rules.isAllowed("/a%2Fb/c"));
+    assertFalse(rules.isAllowed("/a/b/c"));
+    assertFalse(rules.isAllowed("/doc/paper%2Epdf"));
+  }
+
+  public void testRobotsFiles() throws IOException {
+    RobotRulesParser p = new RobotRulesParser(new String[] { "nutchbot" });
+    RobotRuleSet wiki = p.parseRules(readSample("robots-wiki.txt"));
+    assertTrue(wiki.isAllowed("/wiki/Main_Page"));
+    assertFalse(wiki.isAllowed("/wiki/Special:Random"));
+    assertFalse(wiki.isAllowed("/wiki/Special%3ARandom"));
+    assertTrue(wiki.isAllowed("/w/load.php?modules=site"));
+    assertFalse(wiki.isAllowed("/w/index.php"));
+
+    RobotRuleSet shop = p.parseRules(readSample("robots-shop.txt"));
+    assertEquals(2000, shop.getCrawlDelay());
+    assertTrue(shop.isAllowed("/catalog/shoes"));
+    assertFalse(shop.isAllowed("/catalog/shoes?sort=price"));
+    assertFalse(shop.isAllowed("/catalog/shoes?page=2&sort=price"));
+    assertFalse(shop.isAllowed("/manuals/x100.pdf"));
+    assertFalse(shop.isAllowed("/catalog/shoes/print"));
+    assertTrue(shop.isAllowed("/catalog/shoes/printers"));
+    assertFalse(shop.isAllowed("/search?q=shoes"));
+    assertFalse(shop.isAllowed("/search/help"));
+    assertFalse(shop.isAllowed("/catalog/42/reviews/write"));
+
+    RobotRuleSet news = p.parseRules(readSample("robots-news.txt"));
+    assertTrue(news.isAllowed("/archive/2010/"));
+    assertFalse(news.isAllowed("/world/2010/story/comments/"));
+    assertFalse(news.isAllowed("/world/2010/story/amp"));
+    assertTrue(news.isAllowed("/world/2010/story/amp/"));
+    assertFalse(news.isAllowed("/weather/forecast/london/hourly"));
+    assertTrue(news.isAllowed("/rss/world.xml"));
+    assertFalse(news.isAllowed("/rss/private/feed.xml"));
+  }
+
+  /** Times matching paths against the sample robots files. */
+  public void bench() throws IOException {
+    RobotRulesParser p = new RobotRulesParser(new String[] { "nutchbot" });
+    String[] samples = { "robots-wiki.txt", "robots-shop.txt",
+                         "robots-news.txt" };
+    String[] paths = { "/", "/wiki/Main_Page", "/wiki/Wikipedia:Teahouse/x",
+                       "/w/load.php?modules=site", "/catalog/shoes",
+                       "/catalog/shoes?sort=price", "/manuals/x100.pdf",
+                       "/world/2010/story/comments/", "/rss/world.xml",
+                       "/weather/forecast/london/hourly", "/a%20b/c" };
+    for (String sample : samples) {
+      RobotRuleSet rules = p.parseRules(readSample(sample));
+      int allowed = 0;
+      for (int round = 0; round < 3; round++) {
+        long start = System.nanoTime();
+        for (int i = 0; i < 100000; i++) {
+          for (String path : paths) {
+            if (rules.isAllowed(path))
+              allowed++;
+          }
+        }
+        LOG.info(sample + ": " + (System.nanoTime() - start)
+                 / (100000L * paths.length) + "ns per path (" + allowed + ")");
+      }
+    }
+  }
+
+  private static byte[] readSample(String name) throws IOException {
+    InputStream in = new FileInputStream(new File(SAMPLES, name));
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buf = new byte[4096];
+      int n;
+      while ((n = in.read(buf)) != -1)
+        out.write(buf, 0, n);
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+
   // helper
 
   public void testRobots(int robotsString, String[] agents, String[] paths, 
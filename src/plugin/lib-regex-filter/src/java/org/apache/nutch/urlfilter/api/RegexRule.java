@@ -18,6 +18,8 @@ package org.apache.nutch.urlfilter.api;
 
 import org.apache.nutch.net.*;
 
+import dk.brics.automaton.RunAutomaton;
+
 
 /**
  * A generic regular expression rule.
@@ -60,5 +62,14 @@ public abstract class RegexRule {
    */
   protected abstract boolean match(String url);
 
+  /**
+   * Returns an automaton accepting exactly the urls matched by this rule,
+   * so that it can be combined with the automata of the other rules (see
+   * {@link RegexURLFilterBase}), or <code>null</code> if the rule cannot
+   * be expressed as one and must be matched on its own.
+   * The default implementation returns <code>null</code>.
+   */
+  protected RunAutomaton getAutomaton() { return null; }
+
 }
 
@@ -0,0 +1,420 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.urlfilter.api;
+
+// JDK imports
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+// Commons Logging imports
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Automaton imports
+import dk.brics.automaton.RunAutomaton;
+
+
+/**
+ * Finds the first of a list of {@link RegexRule rules} matching a url.
+ *
+ * <p>The automata of the rules that have one (see
+ * {@link RegexRule#getAutomaton()}) are combined into a single
+ * deterministic automaton, whose states tell which of these rules comes
+ * first among those matching the url read so far. A url is then matched
+ * against all of them in one pass, which stops as soon as the outcome
+ * cannot change any more. The other rules are only matched on their own
+ * if they come before the rule found by the automaton.</p>
+ *
+ * <p>If the combined automaton would have more than a given number of
+ * states, the rules are all matched one after the other instead.</p>
+ *
+ * <p>A matcher is immutable once built, and may be used by several threads
+ * at once.</p>
+ */
+class RegexRuleMatcher {
+
+  /** My logger */
+  private final static Logger LOG = LoggerFactory.getLogger(RegexRuleMatcher.class);
+
+  /** The result of a state in which no rule matches */
+  private final static int NO_MATCH = -1;
+
+  private final RegexRule[] rules;
+
+  /** The indexes of the rules matched on their own, in order */
+  private final int[] others;
+
+  /** Whether the rules with an automaton are combined */
+  private final boolean combined;
+
+  /** The first char of each char class, sorted */
+  private final char[] points;
+  /** The char class of ASCII chars */
+  private final int[] asciiClasses;
+
+  /** The next state for each state and char class */
+  private final int[] transitions;
+  /** The first rule matching in each state, or NO_MATCH */
+  private final int[] results;
+  /** Whether the result of a state holds whatever follows */
+  private final boolean[] decided;
+
+
+  /**
+   * Builds a matcher for a list of rules.
+   * @param rules the rules, in the order they apply.
+   * @param maxStates the maximum number of states of the combined
+   *        automaton, 0 not to combine the rules.
+   */
+  RegexRuleMatcher(RegexRule[] rules, int maxStates) {
+    this.rules = rules;
+
+    List<RunAutomaton> automata = new ArrayList<RunAutomaton>();
+    List<Integer> automatonRules = new ArrayList<Integer>();
+    if (maxStates > 0) {
+      for (int i = 0; i < rules.length; i++) {
+        RunAutomaton automaton = rules[i].getAutomaton();
+        if (automaton != null) {
+          automata.add(automaton);
+          automatonRules.add(i);
+        }
+      }
+    }
+
+    Product product = null;
+    if (!automata.isEmpty()) {
+      product = new Product(automata, automatonRules, maxStates);
+      if (!product.build()) {
+        if (LOG.isWarnEnabled()) {
+          LOG.warn("Combining " + automata.size() + " url filter rules takes"
+                   + " more than " + maxStates + " states,"
+                   + " matching them one by one");
+        }
+        product = null;
+      }
+    }
+
+    combined = product != null;
+    List<Integer> otherRules = new ArrayList<Integer>();
+    for (int i = 0; i < rules.length; i++) {
+      if (!combined || !automatonRules.contains(i)) {
+        otherRules.add(i);
+      }
+    }
+    others = toArray(otherRules);
+
+    if (combined) {
+      points = product.points;
+      asciiClasses = new int[128];
+      for (char c = 0; c < 128; c++) {
+        asciiClasses[c] = search(points, c);
+      }
+      transitions =
+        Arrays.copyOf(product.transitions, product.transitionCount);
+      results = toArray(product.results);
+      decided = new boolean[results.length];
+      for (int s = 0; s < decided.length; s++) {
+        decided[s] = product.decided.get(s);
+      }
+      if (LOG.isInfoEnabled()) {
+        LOG.info("Combined " + automata.size() + " of " + rules.length
+                 + " url filter rules into " + results.length + " states");
+      }
+    } else {
+      points = null;
+      asciiClasses = null;
+      transitions = null;
+      results = null;
+      decided = null;
+    }
+  }
+
+  /**
+   * Returns the index of the first rule matching a url, or -1 if no rule
+   * matches it.
+   */
+  int firstMatch(String url) {
+    int match = Integer.MAX_VALUE;
+    if (combined) {
+      final int classes = points.length;
+      int state = 0;
+      for (int i = 0; i < url.length() && !decided[state]; i++) {
+        final char c = url.charAt(i);
+        final int cls = c < 128 ? asciiClasses[c] : search(points, c);
+        state = transitions[state * classes + cls];
+      }
+      if (results[state] != NO_MATCH) {
+        match = results[state];
+      }
+    }
+    for (int i = 0; i < others.length && others[i] < match; i++) {
+      if (rules[others[i]].match(url)) {
+        return others[i];
+      }
+    }
+    return match == Integer.MAX_VALUE ? -1 : match;
+  }
+
+  /** @return the rules matched */
+  RegexRule[] getRules() {
+    return rules;
+  }
+
+  /** Returns the class of a char, the last point not after it. */
+  private static int search(char[] points, char c) {
+    int lo = 0;
+    int hi = points.length;
+    while (hi - lo > 1) {
+      final int mid = (lo + hi) >>> 1;
+      if (points[mid] > c) {
+        hi = mid;
+      } else {
+        lo = mid;
+      }
+    }
+    return lo;
+  }
+
+  private static int[] toArray(List<Integer> list) {
+    int[] array = new int[list.size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = list.get(i);
+    }
+    return array;
+  }
+
+
+  /**
+   * The product of the automata of the rules. A state of the product is
+   * the list of the states of these automata, in rule order, where -1
+   * stands for an automaton that cannot accept any more.
+   */
+  private static class Product {
+
+    private final RunAutomaton[] automata;
+    private final int[] ruleIndexes;
+    private final int maxStates;
+
+    /** Per automaton, whether a state may still lead to acceptance */
+    private final boolean[][] live;
+    /** Per automaton, whether a state accepts whatever follows */
+    private final boolean[][] universal;
+
+    private char[] points;
+    private final Map<Tuple, Integer> ids = new HashMap<Tuple, Integer>();
+    private final List<int[]> states = new ArrayList<int[]>();
+    private int[] transitions = new int[1024];
+    private int transitionCount;
+    private final List<Integer> results = new ArrayList<Integer>();
+    private final List<Boolean> decided = new ArrayList<Boolean>();
+
+    Product(List<RunAutomaton> automata, List<Integer> ruleIndexes,
+            int maxStates) {
+      this.automata = automata.toArray(new RunAutomaton[automata.size()]);
+      this.ruleIndexes = toArray(ruleIndexes);
+      this.maxStates = maxStates;
+      this.live = new boolean[this.automata.length][];
+      this.universal = new boolean[this.automata.length][];
+    }
+
+    /** @return false if there would be too many states */
+    boolean build() {
+      TreeSet<Character> allPoints = new TreeSet<Character>();
+      allPoints.add(Character.MIN_VALUE);
+      for (int i = 0; i < automata.length; i++) {
+        for (char c : automata[i].getCharIntervals()) {
+          allPoints.add(c);
+        }
+        live[i] = liveStates(automata[i]);
+        universal[i] = universalStates(automata[i]);
+      }
+      points = new char[allPoints.size()];
+      int n = 0;
+      for (char c : allPoints) {
+        points[n++] = c;
+      }
+
+      int[] initial = new int[automata.length];
+      for (int i = 0; i < automata.length; i++) {
+        initial[i] = automata[i].getInitialState();
+      }
+      add(normalize(initial));
+      // states are numbered in the order they are found, and their
+      // transitions are added in the same order
+      for (int s = 0; s < states.size(); s++) {
+        final int[] state = states.get(s);
+        for (char c : points) {
+          int[] next = new int[state.length];
+          for (int i = 0; i < state.length; i++) {
+            next[i] = state[i] == -1 ? -1 : automata[i].step(state[i], c);
+          }
+          final Integer id = add(normalize(next));
+          if (id == null) {
+            return false;
+          }
+          if (transitionCount == transitions.length) {
+            transitions = Arrays.copyOf(transitions, transitionCount * 2);
+          }
+          transitions[transitionCount++] = id;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Drops the automata that can no longer accept, and those after the
+     * first one that will accept whatever follows, as they cannot change
+     * the result any more.
+     */
+    private int[] normalize(int[] state) {
+      boolean done = false;
+      for (int i = 0; i < state.length; i++) {
+        if (done || state[i] == -1 || !live[i][state[i]]) {
+          state[i] = -1;
+        } else if (universal[i][state[i]]) {
+          done = true;
+        }
+      }
+      return state;
+    }
+
+    /** @return the id of a state, or null if there are too many states */
+    private Integer add(int[] state) {
+      final Tuple tuple = new Tuple(state);
+      Integer id = ids.get(tuple);
+      if (id != null) {
+        return id;
+      }
+      if (states.size() >= maxStates) {
+        return null;
+      }
+      id = states.size();
+      ids.put(tuple, id);
+      states.add(state);
+      int result = NO_MATCH;
+      boolean isDecided = true;
+      boolean first = true;
+      for (int i = 0; i < state.length; i++) {
+        if (state[i] == -1) {
+          continue;
+        }
+        if (first) {
+          // the first live automaton may still change the result, unless
+          // it accepts whatever follows
+          isDecided = universal[i][state[i]];
+          first = false;
+        }
+        if (result == NO_MATCH && automata[i].isAccept(state[i])) {
+          result = ruleIndexes[i];
+        }
+      }
+      results.add(result);
+      decided.add(isDecided);
+      return id;
+    }
+
+    /** The states from which an accepting state can be reached */
+    private static boolean[] liveStates(RunAutomaton automaton) {
+      final int size = automaton.getSize();
+      final char[] points = automaton.getCharIntervals();
+      List<List<Integer>> previous = new ArrayList<List<Integer>>(size);
+      for (int q = 0; q < size; q++) {
+        previous.add(new ArrayList<Integer>());
+      }
+      for (int q = 0; q < size; q++) {
+        for (char c : points) {
+          final int next = automaton.step(q, c);
+          if (next != -1) {
+            previous.get(next).add(q);
+          }
+        }
+      }
+      boolean[] live = new boolean[size];
+      List<Integer> todo = new ArrayList<Integer>();
+      for (int q = 0; q < size; q++) {
+        if (automaton.isAccept(q)) {
+          live[q] = true;
+          todo.add(q);
+        }
+      }
+      while (!todo.isEmpty()) {
+        final int q = todo.remove(todo.size() - 1);
+        for (int p : previous.get(q)) {
+          if (!live[p]) {
+            live[p] = true;
+            todo.add(p);
+          }
+        }
+      }
+      return live;
+    }
+
+    /** The accepting states from which only accepting states are reached */
+    private static boolean[] universalStates(RunAutomaton automaton) {
+      final int size = automaton.getSize();
+      final char[] points = automaton.getCharIntervals();
+      boolean[] universal = new boolean[size];
+      for (int q = 0; q < size; q++) {
+        universal[q] = automaton.isAccept(q);
+      }
+      boolean changed = true;
+      while (changed) {
+        changed = false;
+        for (int q = 0; q < size; q++) {
+          if (!universal[q]) {
+            continue;
+          }
+          for (char c : points) {
+            final int next = automaton.step(q, c);
+            if (next == -1 || !universal[next]) {
+              universal[q] = false;
+              changed = true;
+              break;
+            }
+          }
+        }
+      }
+      return universal;
+    }
+  }
+
+  /** A state of the product, as a map key */
+  private static class Tuple {
+    private final int[] states;
+    private final int hash;
+
+    Tuple(int[] states) {
+      this.states = states;
+      this.hash = Arrays.hashCode(states);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Tuple && Arrays.equals(states, ((Tuple) o).states);
+    }
+  }
+
+}
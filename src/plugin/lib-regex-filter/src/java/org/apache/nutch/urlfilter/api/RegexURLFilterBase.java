@@ -53,6 +53,12 @@ import org.apache.nutch.net.*;
  * where plus (<code>+</code>)means go ahead and index it and minus 
  * (<code>-</code>)means no.</p>
  *
+ * <p>The rules are tried in order, and the first one matching a url decides.
+ * The rules that can be turned into automata are all matched at once, by a
+ * single automaton (see {@link RegexRule#getAutomaton()}); at most
+ * <code>urlfilter.combine.max.states</code> states are used for it.
+ * A filter is not locked while it filters urls.</p>
+ *
  * @author J&eacute;r&ocirc;me Charron
  */
 public abstract class RegexURLFilterBase implements URLFilter {
@@ -60,8 +66,13 @@ public abstract class RegexURLFilterBase implements URLFilter {
   /** My logger */
   private final static Logger LOG = LoggerFactory.getLogger(RegexURLFilterBase.class);
 
-  /** An array of applicable rules */
-  private RegexRule[] rules;
+  /** The maximum number of states of the automaton combining the rules */
+  public final static String MAX_STATES_KEY = "urlfilter.combine.max.states";
+
+  private final static int DEFAULT_MAX_STATES = 5000;
+
+  /** The applicable rules, replaced as a whole by setConf */
+  private volatile RegexRuleMatcher rules;
 
   /** The current configuration */
   private Configuration conf;
@@ -98,7 +109,7 @@ public abstract class RegexURLFilterBase implements URLFilter {
    */
   protected RegexURLFilterBase(Reader reader)
     throws IOException, IllegalArgumentException {
-    rules = readRules(reader);
+    rules = new RegexRuleMatcher(readRules(reader), DEFAULT_MAX_STATES);
   }
   
   /**
@@ -125,13 +136,13 @@ public abstract class RegexURLFilterBase implements URLFilter {
    * -------------------------- */
   
   // Inherited Javadoc
-  public synchronized String filter(String url) {
-    for (int i=0; i<rules.length; i++) {
-      if (rules[i].match(url)) {
-        return rules[i].accept() ? url : null;
-      }
-    };
-    return null;
+  public String filter(String url) {
+    final RegexRuleMatcher matcher = rules;
+    final int rule = matcher.firstMatch(url);
+    if (rule == -1) {
+      return null;
+    }
+    return matcher.getRules()[rule].accept() ? url : null;
   }
 
   /* --------------------------- *
@@ -153,7 +164,8 @@ public abstract class RegexURLFilterBase implements URLFilter {
       throw new RuntimeException(e.getMessage(), e);      
     }
     try {
-      rules = readRules(reader);
+      rules = new RegexRuleMatcher(readRules(reader),
+          conf.getInt(MAX_STATES_KEY, DEFAULT_MAX_STATES));
     } catch (IOException e) {
       if (LOG.isErrorEnabled()) { LOG.error(e.getMessage()); }
       throw new RuntimeException(e.getMessage(), e);
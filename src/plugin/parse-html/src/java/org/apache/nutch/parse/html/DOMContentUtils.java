@@ -86,6 +86,11 @@ public class DOMContentUtils {
     }
   }
   
+  /** @return the link parameters of an element, null if it holds no link */
+  LinkParams getLinkParams(String elName) {
+    return linkParams.get(elName);
+  }
+
   /**
    * This method takes a {@link StringBuilder} and a DOM {@link Node},
    * and will append all the content text found beneath the DOM node to 
@@ -341,6 +346,12 @@ public class DOMContentUtils {
     return new URL(base, target);
   }
 
+  /** Resolves the target of a link against the base URL of its page. */
+  URL resolve(URL base, String target) throws MalformedURLException {
+    return (base.toString().indexOf(';') > 0) ?
+      fixEmbeddedParams(base, target) : new URL(base, target);
+  }
+
   /**
    * This method finds all anchors below the supplied DOM
    * <code>node</code>, and creates appropriate {@link Outlink}
@@ -396,9 +407,7 @@ public class DOMContentUtils {
             }
             if (target != null && !noFollow && !post)
               try {
-                
-                URL url = (base.toString().indexOf(';') > 0) ? 
-                  fixEmbeddedParams(base, target) :  new URL(base, target);
+                URL url = resolve(base, target);
                 outlinks.add(new Outlink(url.toString(),
                                          linkText.toString().trim()));
               } catch (MalformedURLException e) {
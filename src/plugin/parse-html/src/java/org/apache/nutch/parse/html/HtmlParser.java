@@ -22,17 +22,13 @@ import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.ByteBuffer;
-import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.apache.avro.util.Utf8;
 import org.slf4j.Logger;
@@ -56,10 +52,12 @@ import org.apache.nutch.util.LogUtil;
 import org.apache.nutch.util.NutchConfiguration;
 import org.apache.nutch.util.TableUtil;
 import org.cyberneko.html.parsers.DOMFragmentParser;
+import org.cyberneko.html.parsers.SAXParser;
 import org.w3c.dom.DOMException;
 import org.w3c.dom.DocumentFragment;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 
 public class HtmlParser implements Parser {
   public static final Logger LOG = LoggerFactory.getLogger("org.apache.nutch.parse.html");
@@ -69,14 +67,6 @@ public class HtmlParser implements Parser {
   // (e.g. http://cn.promo.yahoo.com/customcare/music.html)
   private static final int CHUNK_SIZE = 2000;
 
-  // NUTCH-1006 Meta equiv with single quotes not accepted
-  private static Pattern metaPattern =
-    Pattern.compile("<meta\\s+([^>]*http-equiv=(\"|')?content-type(\"|')?[^>]*)>",
-        Pattern.CASE_INSENSITIVE);
-  private static Pattern charsetPattern =
-    Pattern.compile("charset=\\s*([a-z][_\\-0-9a-z]*)",
-        Pattern.CASE_INSENSITIVE);
-
   private static Collection<WebPage.Field> FIELDS = new HashSet<WebPage.Field>();
 
   static {
@@ -91,6 +81,11 @@ public class HtmlParser implements Parser {
    * from the first <code>CHUNK_SIZE</code> bytes.
    * If there's no meta tag for Content-Type or no charset is specified,
    * <code>null</code> is returned.  <br />
+   * The bytes are scanned as they are, without decoding them or running
+   * regular expressions: the first META tag with a
+   * <code>http-equiv="content-type"</code> attribute and a
+   * <code>charset=</code> parameter in its content, or with a
+   * <code>charset</code> attribute, gives the encoding.  <br />
    * FIXME: non-byte oriented character encodings (UTF-16, UTF-32)
    * can't be handled with this.
    * We need to do something similar to what's done by mozilla
@@ -100,33 +95,144 @@ public class HtmlParser implements Parser {
    *
    * @param content <code>byte[]</code> representation of an html file
    */
-
-  private static String sniffCharacterEncoding(byte[] content) {
+  static String sniffCharacterEncoding(byte[] content) {
     int length = content.length < CHUNK_SIZE ?
         content.length : CHUNK_SIZE;
 
-    // We don't care about non-ASCII parts so that it's sufficient
-    // to just inflate each byte to a 16-bit value by padding.
-    // For instance, the sequence {0x41, 0x82, 0xb7} will be turned into
-    // {U+0041, U+0082, U+00B7}.
-    String str = "";
-    try {
-      str = new String(content, 0, length,
-          Charset.forName("ASCII").toString());
-    } catch (UnsupportedEncodingException e) {
-      // code should never come here, but just in case...
-      return null;
+    for (int i = 0; i < length; i++) {
+      if (content[i] != '<' || !matches(content, i + 1, length, META)
+          || i + 5 >= length || !isSpace(content[i + 5])) {
+        continue;
+      }
+      int start = i + 6;
+      int end = start;
+      while (end < length && content[end] != '>') {
+        end++;
+      }
+      if (end == length) {             // the tag is cut off
+        return null;
+      }
+      String encoding = getCharset(content, start, end,
+          !hasContentTypeEquiv(content, start, end));
+      if (encoding != null) {
+        return encoding;
+      }
+      i = end;
+    }
+    return null;
+  }
+
+  private static final byte[] META = { 'm', 'e', 't', 'a' };
+  private static final byte[] HTTP_EQUIV =
+    { 'h', 't', 't', 'p', '-', 'e', 'q', 'u', 'i', 'v', '=' };
+  private static final byte[] CONTENT_TYPE =
+    { 'c', 'o', 'n', 't', 'e', 'n', 't', '-', 't', 'y', 'p', 'e' };
+  private static final byte[] CHARSET =
+    { 'c', 'h', 'a', 'r', 's', 'e', 't' };
+
+  /** @return true if the bytes at <code>i</code> are the lower case ASCII
+   * <code>word</code>, whatever their case */
+  private static boolean matches(byte[] b, int i, int end, byte[] word) {
+    if (i + word.length > end) {
+      return false;
+    }
+    for (int j = 0; j < word.length; j++) {
+      int c = b[i + j];
+      if (c >= 'A' && c <= 'Z') {
+        c += 'a' - 'A';
+      }
+      if (c != word[j]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isSpace(byte c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f'
+      || c == '\r';
+  }
+
+  private static boolean isQuote(byte c) {
+    return c == '"' || c == '\'';
+  }
+
+  /** @return true if the attributes hold http-equiv="content-type" */
+  private static boolean hasContentTypeEquiv(byte[] b, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (matches(b, i, end, HTTP_EQUIV)) {
+        int j = i + HTTP_EQUIV.length;
+        if (j < end && isQuote(b[j])) {
+          j++;
+        }
+        if (matches(b, j, end, CONTENT_TYPE)) {
+          return true;
+        }
+      }
     }
+    return false;
+  }
 
-    Matcher metaMatcher = metaPattern.matcher(str);
-    String encoding = null;
-    if (metaMatcher.find()) {
-      Matcher charsetMatcher = charsetPattern.matcher(metaMatcher.group(1));
-      if (charsetMatcher.find())
-        encoding = new String(charsetMatcher.group(1));
+  /**
+   * @param attribute whether to look for a charset attribute, else for the
+   *          charset parameter of the content attribute
+   * @return the first charset in the attributes, null if there is none
+   */
+  private static String getCharset(byte[] b, int start, int end,
+      boolean attribute) {
+    byte quote = 0;
+    for (int i = start; i < end; i++) {
+      if (attribute) {
+        // an attribute name, not within a value
+        if (quote != 0) {
+          if (b[i] == quote) {
+            quote = 0;
+          }
+          continue;
+        } else if (isQuote(b[i])) {
+          quote = b[i];
+          continue;
+        } else if (!isSpace(b[i - 1])) {
+          continue;
+        }
+      }
+      if (!matches(b, i, end, CHARSET)) {
+        continue;
+      }
+      int j = i + CHARSET.length;
+      if (attribute) {
+        while (j < end && isSpace(b[j])) {
+          j++;
+        }
+      }
+      if (j == end || b[j++] != '=') {
+        continue;
+      }
+      while (j < end && isSpace(b[j])) {
+        j++;
+      }
+      if (attribute && j < end && isQuote(b[j])) {
+        j++;
+      }
+      // [a-z][_\-0-9a-z]*
+      int valueStart = j;
+      while (j < end && (isLetter(b[j]) || (j > valueStart
+          && (b[j] == '_' || b[j] == '-' || (b[j] >= '0' && b[j] <= '9'))))) {
+        j++;
+      }
+      if (j > valueStart) {
+        char[] value = new char[j - valueStart];
+        for (int k = 0; k < value.length; k++) {
+          value[k] = (char) b[valueStart + k];
+        }
+        return new String(value);
+      }
     }
+    return null;
+  }
 
-    return encoding;
+  private static boolean isLetter(byte c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
   }
 
   private String defaultCharEncoding;
@@ -139,6 +245,9 @@ public class HtmlParser implements Parser {
 
   private String cachingPolicy;
 
+  /** Whether to build a DOM tree, needed by the parse filters only */
+  private boolean buildDOM;
+
   public Parse getParse(String url, WebPage page) {
     HTMLMetaTags metaTags = new HTMLMetaTags();
 
@@ -155,13 +264,14 @@ public class HtmlParser implements Parser {
     Outlink[] outlinks = new Outlink[0];
     Metadata metadata = new Metadata();
 
-    // parse the content
-    DocumentFragment root;
+    // parse the content, without a DOM tree unless a parse filter needs it
+    DocumentFragment root = null;
+    SAXContentExtractor extractor = null;
     try {
       byte[] contentInOctets = page.getContent().array();
       InputSource input = new InputSource(new ByteArrayInputStream(contentInOctets));
 
-      EncodingDetector detector = new EncodingDetector(conf);
+      EncodingDetector detector = EncodingDetector.get(conf);
       detector.autoDetectClues(page, true);
       detector.addClue(sniffCharacterEncoding(contentInOctets), "sniffed");
       String encoding = detector.guessEncoding(page, defaultCharEncoding);
@@ -171,7 +281,12 @@ public class HtmlParser implements Parser {
 
       input.setEncoding(encoding);
       if (LOG.isTraceEnabled()) { LOG.trace("Parsing..."); }
-      root = parse(input);
+      if (buildDOM) {
+        root = parse(input);
+      } else {
+        extractor = new SAXContentExtractor(utils, base, metaTags);
+        extract(input, extractor);
+      }
     } catch (IOException e) {
       return ParseStatusUtils.getEmptyParse(e, getConf());
     } catch (DOMException e) {
@@ -184,12 +299,17 @@ public class HtmlParser implements Parser {
     }
 
     // get meta directives
-    HTMLMetaProcessor.getMetaTags(metaTags, root, base);
+    if (root != null) {
+      HTMLMetaProcessor.getMetaTags(metaTags, root, base);
+    }
     if (LOG.isTraceEnabled()) {
       LOG.trace("Meta tags for " + base + ": " + metaTags.toString());
     }
     // check meta directives
-    if (!metaTags.getNoIndex()) {               // okay to index
+    if (!metaTags.getNoIndex() && root == null) {
+      text = extractor.getText();
+      title = extractor.getTitle();
+    } else if (!metaTags.getNoIndex()) {        // okay to index
       StringBuilder sb = new StringBuilder();
       if (LOG.isTraceEnabled()) { LOG.trace("Getting text..."); }
       utils.getText(sb, root);          // extract text
@@ -200,7 +320,9 @@ public class HtmlParser implements Parser {
       title = sb.toString().trim();
     }
 
-    if (!metaTags.getNoFollow()) {              // okay to follow links
+    if (!metaTags.getNoFollow() && root == null) {
+      outlinks = extractor.getOutlinks();
+    } else if (!metaTags.getNoFollow()) {       // okay to follow links
       ArrayList<Outlink> l = new ArrayList<Outlink>();   // extract outlinks
       URL baseTag = utils.getBase(root);
       if (LOG.isTraceEnabled()) { LOG.trace("Getting links..."); }
@@ -220,7 +342,9 @@ public class HtmlParser implements Parser {
     }
 
     Parse parse = new Parse(text, title, outlinks, status);
-    parse = htmlParseFilters.filter(url, page, parse, metaTags, root);
+    if (root != null) {
+      parse = htmlParseFilters.filter(url, page, parse, metaTags, root);
+    }
 
     if (metaTags.getNoCache()) {             // not okay to cache
       page.putToMetadata(new Utf8(Nutch.CACHING_FORBIDDEN_KEY),
@@ -236,6 +360,36 @@ public class HtmlParser implements Parser {
     else return parseNeko(input);
   }
 
+  /** Feeds the SAX events of the page to a content handler. */
+  private void extract(InputSource input, SAXContentExtractor handler)
+      throws Exception {
+    XMLReader reader;
+    if (parserImpl.equalsIgnoreCase("tagsoup")) {
+      reader = new org.ccil.cowan.tagsoup.Parser();
+      reader.setFeature(org.ccil.cowan.tagsoup.Parser.ignoreBogonsFeature, true);
+      reader.setFeature(org.ccil.cowan.tagsoup.Parser.bogonsEmptyFeature, false);
+    } else {
+      reader = new SAXParser();
+      try {
+        reader.setFeature("http://cyberneko.org/html/features/augmentations",
+            true);
+        reader.setProperty("http://cyberneko.org/html/properties/default-encoding",
+            defaultCharEncoding);
+        reader.setFeature("http://cyberneko.org/html/features/scanner/ignore-specified-charset",
+            true);
+        reader.setFeature("http://cyberneko.org/html/features/balance-tags/ignore-outside-content",
+            false);
+        reader.setFeature("http://cyberneko.org/html/features/balance-tags/document-fragment",
+            true);
+        reader.setFeature("http://cyberneko.org/html/features/report-errors",
+            LOG.isTraceEnabled());
+      } catch (SAXException e) {}
+    }
+    reader.setContentHandler(handler);
+    reader.setProperty("http://xml.org/sax/properties/lexical-handler", handler);
+    reader.parse(input);
+  }
+
   private DocumentFragment parseTagSoup(InputSource input) throws Exception {
     HTMLDocumentImpl doc = new HTMLDocumentImpl();
     DocumentFragment frag = doc.createDocumentFragment();
@@ -290,6 +444,8 @@ public class HtmlParser implements Parser {
   public void setConf(Configuration conf) {
     this.conf = conf;
     this.htmlParseFilters = new ParseFilters(getConf());
+    this.buildDOM = !htmlParseFilters.isEmpty()
+      || conf.getBoolean("parser.html.dom.always", false);
     this.parserImpl = getConf().get("parser.html.impl", "neko");
     this.defaultCharEncoding = getConf().get(
         "parser.character.encoding.default", "windows-1252");
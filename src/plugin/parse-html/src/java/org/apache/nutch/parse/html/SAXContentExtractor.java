@@ -0,0 +1,447 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.parse.html;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+
+import org.apache.nutch.parse.HTMLMetaTags;
+import org.apache.nutch.parse.Outlink;
+import org.apache.nutch.parse.html.DOMContentUtils.LinkParams;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.DefaultHandler2;
+
+/**
+ * Extracts the text, title, outlinks and meta directives of an HTML page
+ * from the SAX events of the parser, in a single pass and without building
+ * a DOM tree.
+ *
+ * <p>
+ *
+ * The results are the same as those of {@link DOMContentUtils} and
+ * {@link HTMLMetaProcessor} on the DOM tree built from the same events:
+ * text nodes are separated by a space and their whitespace is collapsed,
+ * the title and the base URL are taken from the first TITLE and BASE tags
+ * before BODY, and empty links or links that only hold a nested link are
+ * thrown away. The links are resolved at the end of the page, against the
+ * base URL wherever the BASE tag appears.
+ */
+public class SAXContentExtractor extends DefaultHandler2 {
+
+  /** The kinds of child nodes that tell whether a link is empty */
+  private static final int TEXT = 0;
+  private static final int WHITESPACE = 1;
+  private static final int LINK = 2;
+  private static final int OTHER = 3;
+
+  /** A link being read. */
+  private static class Link {
+    final LinkParams params;
+    final String target;
+    final StringBuilder text = new StringBuilder();
+    /** The anchors of the link, including the link itself */
+    int anchors;
+    /** No more text once a nested anchor is found */
+    boolean aborted;
+    /** The number of child nodes, and the kinds of the first three */
+    int childLen;
+    final int[] children = new int[3];
+
+    Link(LinkParams params, String target) {
+      this.params = params;
+      this.target = target;
+    }
+
+    void addChild(int kind) {
+      if (childLen < children.length) {
+        children[childLen] = kind;
+      }
+      childLen++;
+    }
+
+    /** @see DOMContentUtils#getOutlinks(URL, ArrayList, org.w3c.dom.Node) */
+    boolean shouldThrowAway() {
+      switch (childLen) {
+      case 0:
+        return params.childLen != 0;
+      case 1:
+        return children[0] == LINK;
+      case 2:
+        return (children[0] == LINK && children[1] == WHITESPACE)
+          || (children[0] == WHITESPACE && children[1] == LINK);
+      case 3:
+        return children[0] == WHITESPACE && children[1] == LINK
+          && children[2] == WHITESPACE;
+      default:
+        return false;
+      }
+    }
+  }
+
+  private final DOMContentUtils utils;
+  private final URL base;
+  private final HTMLMetaTags metaTags;
+
+  private final StringBuilder text = new StringBuilder();
+  private StringBuilder title;
+  private int titleDepth;
+  private URL baseTag;
+
+  /** True until the BODY tag, where the title and base URL are looked for */
+  private boolean inHead = true;
+  /** The depth of BODY tags, under which META tags are ignored */
+  private int bodyDepth;
+  /** The depth of SCRIPT and STYLE tags, whose content is not text */
+  private int skipDepth;
+  private boolean inCDATA;
+  private boolean inDTD;
+
+  /** The characters of the current text node */
+  private final StringBuilder chars = new StringBuilder();
+  private final StringBuilder normalized = new StringBuilder();
+
+  /** The link of each open element, null for other elements */
+  private final ArrayList<Link> elements = new ArrayList<Link>();
+  /** The open links, which get the text */
+  private final ArrayList<Link> openLinks = new ArrayList<Link>();
+  /** All the links, in page order */
+  private final ArrayList<Link> links = new ArrayList<Link>();
+
+  /**
+   * @param utils the link parameters
+   * @param base the URL of the page
+   * @param metaTags the meta directives found, reset when the page starts
+   */
+  public SAXContentExtractor(DOMContentUtils utils, URL base,
+      HTMLMetaTags metaTags) {
+    this.utils = utils;
+    this.base = base;
+    this.metaTags = metaTags;
+  }
+
+  /** @return the text of the page */
+  public String getText() {
+    return text.toString();
+  }
+
+  /** @return the text of the title of the page, trimmed */
+  public String getTitle() {
+    return title == null ? "" : title.toString().trim();
+  }
+
+  /** @return the URL of the BASE tag of the page, null if it has none */
+  public URL getBase() {
+    return baseTag;
+  }
+
+  /** @return the links of the page, resolved against its base URL */
+  public Outlink[] getOutlinks() {
+    final URL linkBase = baseTag != null ? baseTag : base;
+    final ArrayList<Outlink> outlinks = new ArrayList<Outlink>(links.size());
+    for (Link link : links) {
+      if (link.shouldThrowAway()) {
+        continue;
+      }
+      try {
+        final URL url = utils.resolve(linkBase, link.target);
+        outlinks.add(new Outlink(url.toString(), link.text.toString().trim()));
+      } catch (MalformedURLException e) {
+        // don't care
+      }
+    }
+    return outlinks.toArray(new Outlink[outlinks.size()]);
+  }
+
+  @Override
+  public void startDocument() throws SAXException {
+    metaTags.reset();
+  }
+
+  @Override
+  public void endDocument() throws SAXException {
+    flushText();
+  }
+
+  @Override
+  public void startElement(String uri, String localName, String qName,
+      Attributes atts) throws SAXException {
+    flushText();
+    final String name = getName(localName, qName);
+    final LinkParams params = utils.getLinkParams(name);
+    addChild(params != null ? LINK : OTHER, name);
+
+    if ("body".equals(name)) {
+      inHead = false;
+      bodyDepth++;
+    } else if ("script".equals(name) || "style".equals(name)) {
+      skipDepth++;
+    } else if ("a".equals(name)) {
+      for (int i = 0; i < openLinks.size(); i++) {
+        final Link link = openLinks.get(i);
+        if (++link.anchors > 1) {
+          link.aborted = true;
+        }
+      }
+    }
+    if (titleDepth > 0) {
+      titleDepth++;
+    } else if (inHead && title == null && "title".equals(name)) {
+      title = new StringBuilder();
+      titleDepth = 1;
+    }
+    if (inHead && baseTag == null && "base".equals(name)) {
+      baseTag = getBase(atts);
+    }
+    if (bodyDepth == 0) {
+      if ("meta".equals(name)) {
+        processMeta(atts);
+      } else if ("base".equals(name)) {
+        final String href = atts.getValue("href");
+        if (href != null) {
+          HTMLMetaProcessor.processBase(metaTags, href, base);
+        }
+      }
+    }
+
+    Link link = null;
+    if (params != null) {
+      link = newLink(params, atts);
+      if (link != null) {
+        if ("a".equals(name)) {
+          link.anchors = 1;
+        }
+        links.add(link);
+        openLinks.add(link);
+      }
+    }
+    elements.add(link);
+  }
+
+  @Override
+  public void endElement(String uri, String localName, String qName)
+      throws SAXException {
+    flushText();
+    if (elements.isEmpty()) {
+      return;
+    }
+    final String name = getName(localName, qName);
+    final Link link = elements.remove(elements.size() - 1);
+    if (link != null) {
+      openLinks.remove(openLinks.size() - 1);
+    }
+    if (titleDepth > 0) {
+      titleDepth--;
+    }
+    if ("body".equals(name) && bodyDepth > 0) {
+      bodyDepth--;
+    } else if (("script".equals(name) || "style".equals(name))
+        && skipDepth > 0) {
+      skipDepth--;
+    }
+  }
+
+  @Override
+  public void characters(char[] ch, int start, int length)
+      throws SAXException {
+    if (!inCDATA) {
+      chars.append(ch, start, length);
+    }
+  }
+
+  @Override
+  public void ignorableWhitespace(char[] ch, int start, int length)
+      throws SAXException {
+    characters(ch, start, length);
+  }
+
+  @Override
+  public void processingInstruction(String target, String data)
+      throws SAXException {
+    flushText();
+    addChild(OTHER, null);
+  }
+
+  @Override
+  public void comment(char[] ch, int start, int length) throws SAXException {
+    if (inDTD) {
+      return;
+    }
+    flushText();
+    addChild(OTHER, null);
+  }
+
+  @Override
+  public void startCDATA() throws SAXException {
+    flushText();
+    addChild(OTHER, null);
+    inCDATA = true;
+  }
+
+  @Override
+  public void endCDATA() throws SAXException {
+    inCDATA = false;
+  }
+
+  @Override
+  public void startDTD(String name, String publicId, String systemId)
+      throws SAXException {
+    inDTD = true;
+  }
+
+  @Override
+  public void endDTD() throws SAXException {
+    inDTD = false;
+  }
+
+  private static String getName(String localName, String qName) {
+    final String name = localName != null && localName.length() > 0
+      ? localName : qName;
+    return name.toLowerCase();
+  }
+
+  /** Notes a new child node of the element being read. */
+  private void addChild(int kind, String name) {
+    if (elements.isEmpty()) {
+      return;
+    }
+    final Link parent = elements.get(elements.size() - 1);
+    if (parent != null) {
+      if (kind == LINK && !parent.params.elName.equalsIgnoreCase(name)) {
+        kind = OTHER;
+      }
+      parent.addChild(kind);
+    }
+  }
+
+  /** Ends the current text node. */
+  private void flushText() {
+    if (chars.length() == 0) {
+      return;
+    }
+    boolean whitespace = true;
+    for (int i = 0; i < chars.length() && whitespace; i++) {
+      whitespace = Character.isWhitespace(chars.charAt(i));
+    }
+    addChild(whitespace ? WHITESPACE : TEXT, null);
+
+    if (skipDepth == 0 && normalize(chars)) {
+      append(text, normalized);
+      if (titleDepth > 0) {
+        append(title, normalized);
+      }
+      for (int i = 0; i < openLinks.size(); i++) {
+        final Link link = openLinks.get(i);
+        if (!link.aborted) {
+          append(link.text, normalized);
+        }
+      }
+    }
+    chars.setLength(0);
+  }
+
+  /**
+   * Collapses the whitespace of a text node and trims it, as
+   * <code>s.replaceAll("\\s+", " ").trim()</code> does.
+   * @return false if nothing is left
+   */
+  private boolean normalize(CharSequence s) {
+    normalized.setLength(0);
+    boolean space = false;
+    for (int i = 0; i < s.length(); i++) {
+      final char c = s.charAt(i);
+      if (c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f'
+          || c == '\r') {
+        if (!space) {
+          normalized.append(' ');
+          space = true;
+        }
+      } else {
+        normalized.append(c);
+        space = false;
+      }
+    }
+    int end = normalized.length();
+    while (end > 0 && normalized.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    normalized.setLength(end);
+    int start = 0;
+    while (start < end && normalized.charAt(start) <= ' ') {
+      start++;
+    }
+    normalized.delete(0, start);
+    return normalized.length() > 0;
+  }
+
+  private static void append(StringBuilder sb, CharSequence s) {
+    if (sb.length() > 0) {
+      sb.append(' ');
+    }
+    sb.append(s);
+  }
+
+  /** @return the link of an element, null if it is not followed */
+  private static Link newLink(LinkParams params, Attributes atts) {
+    String target = null;
+    for (int i = 0; i < atts.getLength(); i++) {
+      final String attName = getName(atts.getLocalName(i), atts.getQName(i));
+      final String value = atts.getValue(i);
+      if (params.attrName.equals(attName)) {
+        target = value;
+      } else if ("rel".equals(attName) && "nofollow".equalsIgnoreCase(value)) {
+        return null;
+      } else if ("method".equals(attName) && "post".equalsIgnoreCase(value)) {
+        return null;
+      }
+    }
+    return target == null ? null : new Link(params, target);
+  }
+
+  /** @see DOMContentUtils#getBase(org.w3c.dom.Node) */
+  private static URL getBase(Attributes atts) {
+    for (int i = 0; i < atts.getLength(); i++) {
+      if ("href".equals(getName(atts.getLocalName(i), atts.getQName(i)))) {
+        try {
+          return new URL(atts.getValue(i));
+        } catch (MalformedURLException e) {}
+      }
+    }
+    return null;
+  }
+
+  /** @see HTMLMetaProcessor#getMetaTags(HTMLMetaTags, org.w3c.dom.Node, URL) */
+  private void processMeta(Attributes atts) {
+    String name = null;
+    String equiv = null;
+    String content = null;
+    for (int i = 0; i < atts.getLength(); i++) {
+      final String attName = getName(atts.getLocalName(i), atts.getQName(i));
+      if (attName.equals("name")) {
+        name = atts.getValue(i);
+      } else if (attName.equals("http-equiv")) {
+        equiv = atts.getValue(i);
+      } else if (attName.equals("content")) {
+        content = atts.getValue(i);
+      }
+    }
+    HTMLMetaProcessor.processMeta(metaTags, name, equiv, content, base);
+  }
+
+}
@@ -0,0 +1,247 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.parse.html;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import org.apache.avro.util.Utf8;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.EncodingDetector;
+import org.apache.nutch.util.NutchConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.icu.text.CharsetDetector;
+import com.ibm.icu.text.CharsetMatch;
+
+/** Unit tests for the character encoding of HTML pages. */
+public class TestCharacterEncoding extends TestCase {
+
+  private static final Logger LOG =
+    LoggerFactory.getLogger(TestCharacterEncoding.class);
+
+  private static final String SAMPLES = System.getProperty("test.data", ".");
+
+  /** The sample pages, the charset of their HTTP header, their encoding */
+  private static final String[][] CORPUS = {
+    { "utf-8.html", "utf-8", "utf-8" },
+    { "utf-8-html5.html", null, "utf-8" },
+    { "windows-1252.html", "windows-1252", "windows-1252" },
+    { "iso-8859-1.html", null, "windows-1252" },
+    { "iso-8859-2.html", "iso-8859-2", "iso-8859-2" },
+    { "shift_jis.html", "iso-8859-1", "shift_jis" },
+    { "euc-jp.html", null, "euc-jp" },
+    { "gb2312.html", "gb2312", "gb2312" },
+    { "big5.html", "big5", "big5" },
+    { "koi8-r.html", null, "koi8-r" },
+    { "windows-1251.html", null, "windows-1251" },
+  };
+
+  public void testSniffCharacterEncoding() {
+    String[][] tests = {
+      { "<meta http-equiv=\"Content-Type\" "
+        + "content=\"text/html; charset=utf-8\">", "utf-8" },
+      { "<META HTTP-EQUIV=Content-Type CONTENT=\"text/html;charset= "
+        + "ISO-8859-1\">", "ISO-8859-1" },
+      // NUTCH-1006 Meta equiv with single quotes not accepted
+      { "<meta http-equiv='content-type' "
+        + "content='text/html; charset=windows-1251'>", "windows-1251" },
+      { "<meta content=\"text/html; charset=x-sjis\" "
+        + "http-equiv=\"content-type\">", "x-sjis" },
+      { "<meta charset=\"utf-8\">", "utf-8" },
+      { "<meta\ncharset = 'koi8-r' >", "koi8-r" },
+      { "<meta name=\"description\" content=\"charset=none\">"
+        + "<meta http-equiv=\"content-type\" content=\"charset=big5\">",
+        "big5" },
+      { "<meta name=\"description\" content=\"charset=none\">", null },
+      { "<meta http-equiv=\"content-type\" content=\"text/html\">", null },
+      { "<metadata charset=\"utf-8\">", null },
+      { "<meta http-equiv=\"content-type\" content=\"charset=utf-8\"", null },
+      { "", null },
+    };
+    for (String[] test : tests) {
+      assertEquals(test[0], test[1],
+          HtmlParser.sniffCharacterEncoding(test[0].getBytes()));
+    }
+  }
+
+  public void testCorpus() throws IOException {
+    Configuration conf = NutchConfiguration.create();
+    conf.setInt(EncodingDetector.MIN_CONFIDENCE_KEY, 50);
+    for (String[] sample : CORPUS) {
+      byte[] content = readSample(sample[0]);
+      assertEquals(sample[0], sample[2], guessEncoding(conf,
+          createPage(content, sample[1]), content));
+    }
+  }
+
+  /**
+   * Compares the time and accuracy of the encoding detection with those of
+   * the regular expressions that sniffed the encoding before, and of a
+   * statistical detection of every page.
+   */
+  public void bench() throws IOException {
+    Configuration conf = NutchConfiguration.create();
+    conf.setInt(EncodingDetector.MIN_CONFIDENCE_KEY, 50);
+    byte[][] contents = new byte[CORPUS.length][];
+    WebPage[] pages = new WebPage[CORPUS.length];
+    for (int i = 0; i < CORPUS.length; i++) {
+      contents[i] = readSample(CORPUS[i][0]);
+      pages[i] = createPage(contents[i], CORPUS[i][1]);
+    }
+    int loops = 2000;
+    for (int round = 0; round < 3; round++) {
+      int found = 0;
+      long start = System.nanoTime();
+      for (int n = 0; n < loops; n++) {
+        for (byte[] content : contents) {
+          if (regexSniffCharacterEncoding(content) != null)
+            found++;
+        }
+      }
+      long regex = System.nanoTime() - start;
+      start = System.nanoTime();
+      for (int n = 0; n < loops; n++) {
+        for (byte[] content : contents) {
+          if (HtmlParser.sniffCharacterEncoding(content) != null)
+            found--;
+        }
+      }
+      long bytes = System.nanoTime() - start;
+      LOG.info("sniffing: regex " + regex / (loops * contents.length)
+          + "ns, bytes " + bytes / (loops * contents.length)
+          + "ns per page (" + found + ")");
+
+      int detectRight = 0;
+      int guessRight = 0;
+      start = System.nanoTime();
+      for (int n = 0; n < loops / 10; n++) {
+        for (int i = 0; i < pages.length; i++) {
+          if (CORPUS[i][2].equals(detectEncoding(pages[i], contents[i])))
+            detectRight++;
+        }
+      }
+      long detect = System.nanoTime() - start;
+      start = System.nanoTime();
+      for (int n = 0; n < loops / 10; n++) {
+        for (int i = 0; i < pages.length; i++) {
+          if (CORPUS[i][2].equals(guessEncoding(conf, pages[i], contents[i])))
+            guessRight++;
+        }
+      }
+      long guess = System.nanoTime() - start;
+      int total = loops / 10 * pages.length;
+      LOG.info("encoding: always detected " + detect / total + "ns, "
+          + detectRight + "/" + total + " right; guessed "
+          + guess / total + "ns, " + guessRight + "/" + total + " right");
+    }
+  }
+
+  private static String guessEncoding(Configuration conf, WebPage page,
+      byte[] content) {
+    EncodingDetector detector = EncodingDetector.get(conf);
+    detector.autoDetectClues(page, true);
+    detector.addClue(HtmlParser.sniffCharacterEncoding(content), "sniffed");
+    return detector.guessEncoding(page, "windows-1252");
+  }
+
+  /** The encoding detection before clues were compared. */
+  private static String detectEncoding(WebPage page, byte[] content) {
+    CharsetDetector detector = new CharsetDetector();
+    detector.enableInputFilter(true);
+    detector.setText(content);
+    for (CharsetMatch match : detector.detectAll()) {
+      String encoding = EncodingDetector.resolveEncodingAlias(match.getName());
+      if (encoding != null && match.getConfidence() >= 50) {
+        return encoding.toLowerCase();
+      }
+    }
+    String[] clues = { EncodingDetector.parseCharacterEncoding(
+        page.getFromHeaders(EncodingDetector.CONTENT_TYPE_UTF8)),
+        regexSniffCharacterEncoding(content) };
+    for (String clue : clues) {
+      String encoding = EncodingDetector.resolveEncodingAlias(clue);
+      if (encoding != null) {
+        return encoding.toLowerCase();
+      }
+    }
+    return "windows-1252";
+  }
+
+  private static Pattern metaPattern =
+    Pattern.compile("<meta\\s+([^>]*http-equiv=(\"|')?content-type(\"|')?[^>]*)>",
+        Pattern.CASE_INSENSITIVE);
+  private static Pattern charsetPattern =
+    Pattern.compile("charset=\\s*([a-z][_\\-0-9a-z]*)",
+        Pattern.CASE_INSENSITIVE);
+
+  /** The encoding sniffing before the bytes were scanned. */
+  private static String regexSniffCharacterEncoding(byte[] content) {
+    int length = content.length < 2000 ? content.length : 2000;
+    String str;
+    try {
+      str = new String(content, 0, length, "ASCII");
+    } catch (IOException e) {
+      return null;
+    }
+    Matcher metaMatcher = metaPattern.matcher(str);
+    if (metaMatcher.find()) {
+      Matcher charsetMatcher = charsetPattern.matcher(metaMatcher.group(1));
+      if (charsetMatcher.find())
+        return charsetMatcher.group(1);
+    }
+    return null;
+  }
+
+  private static WebPage createPage(byte[] content, String charset) {
+    WebPage page = new WebPage();
+    page.setBaseUrl(new Utf8("http://www.example.com/"));
+    page.setContentType(new Utf8("text/html"));
+    page.setContent(ByteBuffer.wrap(content));
+    if (charset != null) {
+      page.putToHeaders(EncodingDetector.CONTENT_TYPE_UTF8,
+          new Utf8("text/html; charset=" + charset));
+    }
+    return page;
+  }
+
+  private static byte[] readSample(String name) throws IOException {
+    InputStream in = new FileInputStream(new File(SAMPLES, name));
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buf = new byte[4096];
+      int n;
+      while ((n = in.read(buf)) != -1)
+        out.write(buf, 0, n);
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+
+}
@@ -19,6 +19,7 @@ package org.apache.nutch.parse.html;
 
 import junit.framework.TestCase;
 
+import org.apache.nutch.parse.HTMLMetaTags;
 import org.apache.nutch.parse.Outlink;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.nutch.util.NutchConfiguration;
@@ -362,6 +363,47 @@ public class TestDOMContentUtils extends TestCase {
     }
   }
 
+  public void testSAXContentExtractor() throws Exception {
+    if (testDOMs[0] == null) 
+      setup();
+    for (int i= 0; i < testPages.length; i++) {
+      conf.setBoolean("parser.html.form.use_action", i != SKIP);
+      utils.setConf(conf);
+      SAXContentExtractor extractor= 
+        extract(testPages[i], testBaseHrefURLs[i], new HTMLMetaTags());
+      assertTrue("expecting text: " + answerText[i] 
+                 + System.getProperty("line.separator") 
+                 + "got text: " + extractor.getText(),
+                 equalsIgnoreWhitespace(answerText[i], extractor.getText()));
+      assertTrue("expecting title: " + answerTitle[i] 
+                 + System.getProperty("line.separator") 
+                 + "got title: " + extractor.getTitle(),
+                 equalsIgnoreWhitespace(answerTitle[i], extractor.getTitle()));
+      compareOutlinks(answerOutlinks[i], extractor.getOutlinks());
+
+      // same as from the DOM tree
+      StringBuilder sb= new StringBuilder();
+      utils.getText(sb, testDOMs[i]);
+      assertEquals(sb.toString(), extractor.getText());
+    }
+  }
+
+  /** Parses a page with the SAX parser of nekohtml. */
+  static SAXContentExtractor extract(String page, URL base,
+      HTMLMetaTags metaTags) throws Exception {
+    SAXContentExtractor extractor= 
+      new SAXContentExtractor(utils != null ? utils
+          : new DOMContentUtils(NutchConfiguration.create()), base, metaTags);
+    SAXParser parser= new SAXParser();
+    parser.setFeature("http://cyberneko.org/html/features/balance-tags/document-fragment",
+        true);
+    parser.setContentHandler(extractor);
+    parser.setProperty("http://xml.org/sax/properties/lexical-handler",
+        extractor);
+    parser.parse(new InputSource(new ByteArrayInputStream(page.getBytes())));
+    return extractor;
+  }
+
   private static final void appendOutlinks(StringBuffer sb, Outlink[] o) {
     for (int i= 0; i < o.length; i++) {
       sb.append(o[i].toString());
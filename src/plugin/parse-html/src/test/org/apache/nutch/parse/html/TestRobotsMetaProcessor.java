@@ -175,7 +175,17 @@ public class TestRobotsMetaProcessor extends TestCase {
                  || ( (robotsMeta.getBaseHref() != null)
                       && robotsMeta.getBaseHref().equals(
                         currURLsAndAnswers[i][1]) ) );
-      
+
+      // the same directives without a DOM tree
+      HTMLMetaTags saxMeta= new HTMLMetaTags();
+      try {
+        TestDOMContentUtils.extract(tests[i], currURLsAndAnswers[i][0],
+                                    saxMeta);
+      } catch (Exception e) {
+        fail("caught exception: " + e);
+      }
+      assertEquals("got meta tags wrong on test " + i,
+                   robotsMeta.toString(), saxMeta.toString());
     }
   }
 
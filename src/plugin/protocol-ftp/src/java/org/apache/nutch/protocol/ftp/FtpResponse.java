@@ -32,6 +32,7 @@ import org.apache.commons.net.ftp.parser.DefaultFTPFileEntryParserFactory;
 import org.apache.commons.net.ftp.parser.ParserInitializationException;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.net.DNSCache;
 import org.apache.nutch.net.protocols.HttpDateFormat;
 import org.apache.nutch.net.protocols.Response;
 import org.apache.nutch.protocol.Content;
@@ -111,7 +112,7 @@ public class FtpResponse {
         }
       }
 
-      InetAddress addr = InetAddress.getByName(url.getHost());
+      InetAddress addr = DNSCache.get(conf).resolve(url.getHost());
 
       // idled too long, remote server or ourselves may have timed out,
       // should start anew.
@@ -18,7 +18,6 @@ package org.apache.nutch.protocol.http;
 
 // JDK imports
 import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -26,15 +25,25 @@ import java.io.OutputStream;
 import java.io.PushbackInputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
 
-import org.apache.avro.util.Utf8;
 import org.apache.nutch.metadata.Metadata;
 import org.apache.nutch.metadata.SpellCheckedMetadata;
-import org.apache.nutch.net.protocols.HttpDateFormat;
+import org.apache.nutch.net.DNSCache;
+import org.apache.nutch.net.protocols.ConditionalGet;
+import org.apache.nutch.net.protocols.HttpUtils;
 import org.apache.nutch.net.protocols.Response;
 import org.apache.nutch.protocol.ProtocolException;
+import org.apache.nutch.protocol.http.api.ChunkedInputStream;
+import org.apache.nutch.protocol.http.api.ContentBuffer;
 import org.apache.nutch.protocol.http.api.HttpBase;
+import org.apache.nutch.protocol.http.api.HttpConnectionPool;
 import org.apache.nutch.protocol.http.api.HttpException;
 import org.apache.nutch.storage.WebPage;
 import org.apache.nutch.util.LogUtil;
@@ -48,6 +57,8 @@ public class HttpResponse implements Response {
   private int code;
   private final Metadata headers = new SpellCheckedMetadata();
 
+  private static final byte[] EMPTY_CONTENT = new byte[0];
+
 
   public HttpResponse(HttpBase http, URL url, WebPage page)
   throws ProtocolException, IOException {
@@ -78,101 +89,176 @@ public class HttpResponse implements Response {
       port= url.getPort();
       portString= ":" + port;
     }
-    Socket socket = null;
-
-    try {
-      socket = new Socket();                    // create the socket
-      socket.setSoTimeout(http.getTimeout());
+    String sockHost = http.useProxy() ? http.getProxyHost() : host;
+    int sockPort = http.useProxy() ? http.getProxyPort() : port;
 
+    // make request
+    StringBuffer reqStr = new StringBuffer("GET ");
+    if (http.useProxy()) {
+    	reqStr.append(url.getProtocol()+"://"+host+portString+path);
+    } else {
+    	reqStr.append(path);
+    }
 
-      // connect
-      String sockHost = http.useProxy() ? http.getProxyHost() : host;
-      int sockPort = http.useProxy() ? http.getProxyPort() : port;
-      InetSocketAddress sockAddr= new InetSocketAddress(sockHost, sockPort);
-      socket.connect(sockAddr, http.getTimeout());
+    reqStr.append(http.getUseHttp11() ? " HTTP/1.1\r\n" : " HTTP/1.0\r\n");
 
-      // make request
-      OutputStream req = socket.getOutputStream();
+    reqStr.append("Host: ");
+    reqStr.append(host);
+    reqStr.append(portString);
+    reqStr.append("\r\n");
 
-      StringBuffer reqStr = new StringBuffer("GET ");
-      if (http.useProxy()) {
-      	reqStr.append(url.getProtocol()+"://"+host+portString+path);
-      } else {
-      	reqStr.append(path);
-      }
+    reqStr.append("Accept-Encoding: x-gzip, gzip, deflate\r\n");
 
-      reqStr.append(" HTTP/1.0\r\n");
+    String userAgent = http.getUserAgent();
+    if ((userAgent == null) || (userAgent.length() == 0)) {
+      if (Http.LOG.isErrorEnabled()) { Http.LOG.error("User-agent is not set!"); }
+    } else {
+      reqStr.append("User-Agent: ");
+      reqStr.append(userAgent);
+      reqStr.append("\r\n");
+    }
 
-      reqStr.append("Host: ");
-      reqStr.append(host);
-      reqStr.append(portString);
+    String ifModifiedSince = ConditionalGet.getIfModifiedSince(page);
+    if (ifModifiedSince != null) {
+      reqStr.append("If-Modified-Since: " + ifModifiedSince);
       reqStr.append("\r\n");
+    }
+    String ifNoneMatch = ConditionalGet.getIfNoneMatch(page);
+    if (ifNoneMatch != null) {
+      reqStr.append("If-None-Match: " + ifNoneMatch);
+      reqStr.append("\r\n");
+    }
+    reqStr.append("\r\n");
 
-      reqStr.append("Accept-Encoding: x-gzip, gzip\r\n");
+    byte[] reqBytes= reqStr.toString().getBytes();
 
-      String userAgent = http.getUserAgent();
-      if ((userAgent == null) || (userAgent.length() == 0)) {
-        if (Http.LOG.isErrorEnabled()) { Http.LOG.error("User-agent is not set!"); }
-      } else {
-        reqStr.append("User-Agent: ");
-        reqStr.append(userAgent);
-        reqStr.append("\r\n");
-      }
+    HttpConnectionPool pool = http.getConnectionPool();
+    Socket socket = null;
+    boolean keepAlive = false;
 
-      if (page.isReadable(WebPage.Field.MODIFIED_TIME.getIndex())) {
-        reqStr.append("If-Modified-Since: " +
-                      HttpDateFormat.toString(page.getModifiedTime()));
-        reqStr.append("\r\n");
+    try {
+      if (pool != null) {
+        socket = pool.get(sockHost, sockPort);
       }
-      reqStr.append("\r\n");
-
-      byte[] reqBytes= reqStr.toString().getBytes();
-
-      req.write(reqBytes);
-      req.flush();
+      if (socket != null) {
+        try {
+          keepAlive = fetch(socket, reqBytes, true);
+        } catch (ClosedConnectionException e) {
+          // closed by the server while idle, try again on a new connection
+          if (Http.LOG.isTraceEnabled()) {
+            Http.LOG.trace("kept alive connection closed, reconnecting to "
+                + sockHost + ":" + sockPort);
+          }
+          socket.close();
+          socket = null;
+        }
+      }
+      if (socket == null) {
+        socket = new Socket();                    // create the socket
+        socket.setSoTimeout(http.getTimeout());
 
-      PushbackInputStream in =                  // process response
-        new PushbackInputStream(
-          new BufferedInputStream(socket.getInputStream(), Http.BUFFER_SIZE),
-          Http.BUFFER_SIZE) ;
+        // connect
+        InetSocketAddress sockAddr= new InetSocketAddress(
+            DNSCache.get(http.getConf()).resolve(sockHost), sockPort);
+        socket.connect(sockAddr, http.getTimeout());
 
-      StringBuffer line = new StringBuffer();
+        keepAlive = fetch(socket, reqBytes, false);
+      }
 
-      boolean haveSeenNonContinueStatus= false;
-      while (!haveSeenNonContinueStatus) {
-        // parse status code line
-        this.code = parseStatusLine(in, line);
-        // parse headers
-        parseHeaders(in, line);
-        haveSeenNonContinueStatus= code != 100; // 100 is "Continue"
+      if (Http.LOG.isTraceEnabled()) {
+        Http.LOG.trace("fetched " + content.length + " bytes from " + url);
       }
 
-      readPlainContent(in);
+      // add headers in metadata to row
+      ConditionalGet.storeHeaders(page, code, headers);
 
-      String contentEncoding = getHeader(Response.CONTENT_ENCODING);
-      if ("gzip".equals(contentEncoding) || "x-gzip".equals(contentEncoding)) {
-        content = http.processGzipEncoded(content, url);
-      } else {
-        if (Http.LOG.isTraceEnabled()) {
-          Http.LOG.trace("fetched " + content.length + " bytes from " + url);
+    } finally {
+      if (socket != null) {
+        if (keepAlive) {
+          pool.release(sockHost, sockPort, socket);
+        } else {
+          socket.close();
         }
       }
+    }
 
-      // add headers in metadata to row
-      if (page.getHeaders() != null) {
-        page.getHeaders().clear();
+  }
+
+  /** A kept alive connection was closed before the response started. */
+  private static class ClosedConnectionException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    ClosedConnectionException(Throwable cause) {
+      super(cause == null ? "Connection closed" : cause.toString());
+      initCause(cause);
+    }
+  }
+
+  /**
+   * Sends the request on a connection and reads the response.
+   * @param reused whether the connection was kept alive by a previous
+   *        request
+   * @return whether the connection can be kept alive for the next request
+   * @throws ClosedConnectionException if a reused connection was closed
+   *         before any of the response was read
+   */
+  private boolean fetch(Socket socket, byte[] reqBytes, boolean reused)
+    throws IOException, HttpException {
+
+    OutputStream req = socket.getOutputStream();
+    PushbackInputStream in =                  // process response
+      new PushbackInputStream(
+        new BufferedInputStream(socket.getInputStream(), Http.BUFFER_SIZE),
+        Http.BUFFER_SIZE) ;
+
+    int first;
+    try {
+      req.write(reqBytes);
+      req.flush();
+      first = in.read();
+    } catch (SocketTimeoutException e) {
+      throw e;
+    } catch (IOException e) {
+      if (reused) {
+        throw new ClosedConnectionException(e);
       }
-      for (String key : headers.names()) {
-        page.putToHeaders(new Utf8(key), new Utf8(headers.get(key)));
+      throw e;
+    }
+    if (first == -1) {
+      if (reused) {
+        throw new ClosedConnectionException(null);
       }
-
-    } finally {
-      if (socket != null)
-        socket.close();
+      throw new EOFException();
+    }
+    in.unread(first);
+
+    StringBuffer line = new StringBuffer();
+
+    boolean http11 = false;
+    boolean haveSeenNonContinueStatus= false;
+    while (!haveSeenNonContinueStatus) {
+      // parse status code line
+      this.code = parseStatusLine(in, line);
+      http11 = line.indexOf("HTTP/1.1") == 0;
+      // parse headers
+      parseHeaders(in, line);
+      haveSeenNonContinueStatus= code != 100; // 100 is "Continue"
     }
 
-  }
+    boolean complete = readPlainContent(in);
 
+    if (!http.getUseHttp11() || !complete || in.available() > 0) {
+      return false;
+    }
+    String connection = headers.get(Response.CONNECTION);
+    if (connection != null) {
+      connection = connection.trim().toLowerCase();
+    }
+    if (http11) {
+      return !"close".equals(connection);
+    }
+    return "keep-alive".equals(connection);
+  }
 
   /* ------------------------- *
    * <implementation:Response> *
@@ -203,12 +289,29 @@ public class HttpResponse implements Response {
    * ------------------------- */
 
 
-  private void readPlainContent(InputStream in)
+  /**
+   * Reads the body of the response, up to the content limit, decoding gzip
+   * and deflate content encodings on the fly. If the decoding fails, the
+   * content decoded so far is kept.
+   * @return whether the whole body was read, leaving the connection at the
+   *         start of the next response
+   */
+  private boolean readPlainContent(InputStream in)
     throws HttpException, IOException {
 
+    if ((code >= 100 && code < 200) || code == 204 || code == 304) {
+      content = EMPTY_CONTENT;                // no body
+      return true;
+    }
+
     int contentLength = Integer.MAX_VALUE;    // get content length
     String contentLengthString = headers.get(Response.CONTENT_LENGTH);
-    if (contentLengthString != null) {
+    String transferEncoding = headers.get(Response.TRANSFER_ENCODING);
+    ChunkedInputStream chunked = null;
+    if (transferEncoding != null
+        && "chunked".equalsIgnoreCase(transferEncoding.trim())) {
+      in = chunked = new ChunkedInputStream(in);
+    } else if (contentLengthString != null) {
       contentLengthString = contentLengthString.trim();
       try {
         contentLength = Integer.parseInt(contentLengthString);
@@ -216,69 +319,176 @@ public class HttpResponse implements Response {
         throw new HttpException("bad content length: "+contentLengthString);
       }
     }
-    if (http.getMaxContent() >= 0
-      && contentLength > http.getMaxContent())   // limit download size
-      contentLength  = http.getMaxContent();
+    int limit = Integer.MAX_VALUE;            // limit download size
+    if (http.getMaxContent() >= 0)
+      limit = http.getMaxContent();
 
-    ByteArrayOutputStream out = new ByteArrayOutputStream(Http.BUFFER_SIZE);
-    byte[] bytes = new byte[Http.BUFFER_SIZE];
-    int length = 0;                           // read content
-    for (int i = in.read(bytes); i != -1 && length + i <= contentLength; i = in.read(bytes)) {
+    String contentEncoding = headers.get(Response.CONTENT_ENCODING);
+    if (contentEncoding != null) {
+      contentEncoding = contentEncoding.trim().toLowerCase();
+    }
+    boolean gzip = "gzip".equals(contentEncoding)
+      || "x-gzip".equals(contentEncoding);
+    boolean deflate = "deflate".equals(contentEncoding);
+
+    if (chunked == null && contentLength != Integer.MAX_VALUE
+        && ((!gzip && !deflate) || contentLength == 0)) {
+      // read straight into the content
+      content = new byte[Math.min(contentLength, limit)];
+      int length = 0;
+      while (length < content.length) {
+        int i = in.read(content, length, content.length - length);
+        if (i == -1) {
+          break;
+        }
+        length += i;
+      }
+      if (length < content.length) {
+        content = Arrays.copyOf(content, length);
+      }
+      return length == contentLength;
+    }
+
+    if (chunked == null && contentLength != Integer.MAX_VALUE) {
+      in = new LengthInputStream(in, contentLength);
+    }
+    InputStream body = in;
+    Inflater inflater = null;
+    if (gzip) {
+      GZIPBodyInputStream gunzip = new GZIPBodyInputStream(in);
+      inflater = gunzip.getInflater();
+      body = gunzip;
+    } else if (deflate) {
+      PushbackInputStream pushback = new PushbackInputStream(in, 2);
+      inflater = new Inflater(!isZlibHeader(pushback));
+      body = new InflaterInputStream(pushback, inflater, Http.BUFFER_SIZE);
+    }
+
+    ContentBuffer buffer = ContentBuffer.get();
+    boolean ended = false;
+    try {
+      buffer.readFrom(body, limit);
+      ended = buffer.getLength() < limit || body.read() == -1;
+    } catch (ZipException e) {
+      if (Http.LOG.isTraceEnabled()) {
+        Http.LOG.trace("kept " + buffer.getLength() + " bytes of corrupted "
+            + contentEncoding + " content: " + e);
+      }
+    } catch (EOFException e) {
+      if (Http.LOG.isTraceEnabled()) {
+        Http.LOG.trace("kept " + buffer.getLength()
+            + " bytes of truncated content");
+      }
+    } finally {
+      if (inflater != null) {
+        inflater.end();
+      }
+    }
+    content = buffer.toByteArray();
 
-      out.write(bytes, 0, i);
-      length += i;
+    // the end of the decoded content may come before the end of the body
+    return ended && (chunked != null || contentLength != Integer.MAX_VALUE)
+      && skipToEnd(in);
+  }
+
+  /**
+   * Skips what is left of a body, if there is not much.
+   * @return whether the end was reached
+   */
+  private static boolean skipToEnd(InputStream in) throws IOException {
+    for (int i = 0; i < Http.BUFFER_SIZE; i++) {
+      if (in.read() == -1) {
+        return true;
+      }
     }
-    content = out.toByteArray();
+    return false;
   }
 
-  private int parseStatusLine(PushbackInputStream in, StringBuffer line)
-    throws IOException, HttpException {
-    readLine(in, line, false);
+  /**
+   * Tells whether deflated content has the zlib header required by RFC 2616,
+   * which many servers leave out.
+   */
+  private static boolean isZlibHeader(PushbackInputStream in)
+    throws IOException {
+    int b0 = in.read();
+    int b1 = b0 == -1 ? -1 : in.read();
+    if (b1 != -1) {
+      in.unread(b1);
+    }
+    if (b0 != -1) {
+      in.unread(b0);
+    }
+    return b1 != -1 && (b0 & 0x0f) == 8 && ((b0 << 8) | b1) % 31 == 0;
+  }
 
-    int codeStart = line.indexOf(" ");
-    int codeEnd = line.indexOf(" ", codeStart+1);
+  /** A gzip stream whose inflater can be freed without closing the body. */
+  private static class GZIPBodyInputStream extends GZIPInputStream {
+    GZIPBodyInputStream(InputStream in) throws IOException {
+      super(in, Http.BUFFER_SIZE);
+    }
 
-    // handle lines with no plaintext result code, ie:
-    // "HTTP/1.1 200" vs "HTTP/1.1 200 OK"
-    if (codeEnd == -1)
-      codeEnd= line.length();
+    Inflater getInflater() {
+      return inf;
+    }
+  }
 
-    int code;
-    try {
-      code= Integer.parseInt(line.substring(codeStart+1, codeEnd));
-    } catch (NumberFormatException e) {
-      throw new HttpException("bad status line '" + line
-                              + "': " + e.getMessage(), e);
+  /** The body of a response with a content length. */
+  private static class LengthInputStream extends InputStream {
+    private final InputStream in;
+    private int left;
+
+    LengthInputStream(InputStream in, int length) {
+      this.in = in;
+      this.left = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (left <= 0) {
+        return -1;
+      }
+      int b = in.read();
+      if (b != -1) {
+        left--;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (left <= 0) {
+        return -1;
+      }
+      int n = in.read(b, off, Math.min(len, left));
+      if (n > 0) {
+        left -= n;
+      }
+      return n;
     }
 
+    @Override
+    public int available() throws IOException {
+      return Math.min(left, in.available());
+    }
+  }
+
+  private int parseStatusLine(PushbackInputStream in, StringBuffer line)
+    throws IOException, HttpException {
+    readLine(in, line, false);
+
+    int code = HttpUtils.parseStatusCode(line);
+    if (code == -1) {
+      throw new HttpException("bad status line '" + line + "'");
+    }
     return code;
   }
 
 
   private void processHeaderLine(StringBuffer line)
     throws IOException, HttpException {
-
-    int colonIndex = line.indexOf(":");       // key is up to colon
-    if (colonIndex == -1) {
-      int i;
-      for (i= 0; i < line.length(); i++)
-        if (!Character.isWhitespace(line.charAt(i)))
-          break;
-      if (i == line.length())
-        return;
+    if (!HttpUtils.parseHeaderLine(line, headers)) {
       throw new HttpException("No colon in header:" + line);
     }
-    String key = line.substring(0, colonIndex);
-
-    int valueStart = colonIndex+1;            // skip whitespace
-    while (valueStart < line.length()) {
-      int c = line.charAt(valueStart);
-      if (c != ' ' && c != '\t')
-        break;
-      valueStart++;
-    }
-    String value = line.substring(valueStart);
-    headers.set(key, value);
   }
 
 
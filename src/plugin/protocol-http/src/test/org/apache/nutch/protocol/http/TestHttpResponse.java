@@ -0,0 +1,285 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.protocol.http;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.avro.util.Utf8;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.protocol.ProtocolOutput;
+import org.apache.nutch.protocol.ProtocolStatusCodes;
+import org.apache.nutch.protocol.http.api.HttpConnectionPool;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.DeflateUtils;
+import org.apache.nutch.util.GZIPUtils;
+import org.apache.nutch.util.NutchConfiguration;
+
+/**
+ * Tests how protocol-http reads responses and reuses HTTP/1.1 connections,
+ * against a server counting the connections it accepts.
+ */
+public class TestHttpResponse extends TestCase {
+
+  private static final byte[] HELLO = bytes("hello");
+
+  private ServerSocket server;
+  private final AtomicInteger connections = new AtomicInteger();
+  private Configuration conf;
+  private Http http;
+
+  @Override
+  protected void setUp() throws Exception {
+    server = new ServerSocket(0);
+    Thread acceptor = new Thread() {
+      public void run() {
+        try {
+          while (true) {
+            final Socket socket = server.accept();
+            connections.incrementAndGet();
+            new Thread() {
+              public void run() {
+                serve(socket);
+              }
+            }.start();
+          }
+        } catch (IOException e) {
+          // closed
+        }
+      }
+    };
+    acceptor.setDaemon(true);
+    acceptor.start();
+
+    conf = NutchConfiguration.create();
+    conf.setBoolean("http.useHttp11", true);
+    conf.set("http.agent.name", "test");
+    conf.set("http.robots.agents", "test,*");
+    http = new Http();
+    http.setConf(conf);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    server.close();
+    http.getConnectionPool().close();
+  }
+
+  /** Answers the requests of a connection, depending on their path. */
+  private static void serve(Socket socket) {
+    try {
+      BufferedReader in = new BufferedReader(
+          new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+      OutputStream out = socket.getOutputStream();
+      String request;
+      while ((request = in.readLine()) != null) {
+        String ifNoneMatch = null;
+        for (String line = in.readLine(); line != null && line.length() > 0;
+             line = in.readLine()) {
+          if (line.startsWith("If-None-Match: ")) {
+            ifNoneMatch = line.substring(15);
+          }
+        }
+        String path = request.split(" ")[1];
+        if (path.equals("/etag") && "\"1\"".equals(ifNoneMatch)) {
+          out.write(bytes("HTTP/1.1 304 Not Modified\r\nETag: \"1\"\r\n\r\n"));
+        } else if (path.equals("/etag")) {
+          out.write(bytes("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\n"
+              + "ETag: \"1\"\r\nContent-Length: 5\r\n\r\nhello"));
+        } else if (path.equals("/chunked")) {
+          out.write(bytes("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+            + "3;name=value\r\nhel\r\n2\r\nlo\r\n0\r\nExpires: 0\r\n\r\n"));
+        } else if (path.equals("/notmodified")) {
+          out.write(bytes("HTTP/1.1 304 Not Modified\r\n\r\n"));
+        } else if (path.equals("/close")) {
+          out.write(bytes("HTTP/1.1 200 OK\r\nConnection: close\r\n\r\nhello"));
+        } else if (path.equals("/http10")) {
+          out.write(bytes("HTTP/1.0 200 OK\r\nContent-Length: 5\r\n\r\nhello"));
+        } else if (path.equals("/gzip")) {
+          writeEncoded(out, "gzip", GZIPUtils.zip(HELLO), false);
+        } else if (path.equals("/gzip/chunked")) {
+          writeEncoded(out, "x-gzip", GZIPUtils.zip(HELLO), true);
+        } else if (path.equals("/gzip/truncated")) {
+          byte[] zipped = GZIPUtils.zip(HELLO);
+          writeEncoded(out, "gzip", Arrays.copyOf(zipped, zipped.length - 8),
+              false);
+        } else if (path.equals("/deflate")) {
+          // without the zlib header
+          ByteArrayOutputStream raw = new ByteArrayOutputStream();
+          DeflaterOutputStream deflater = new DeflaterOutputStream(raw,
+              new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+          deflater.write(HELLO);
+          deflater.close();
+          writeEncoded(out, "deflate", raw.toByteArray(), false);
+        } else if (path.equals("/deflate/zlib")) {
+          writeEncoded(out, "deflate", DeflateUtils.deflate(HELLO), true);
+        } else {
+          out.write(bytes("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello"));
+        }
+        out.flush();
+        if (path.equals("/close") || path.equals("/http10")
+            || path.equals("/drop")) {
+          break;
+        }
+      }
+      socket.close();
+    } catch (IOException e) {
+      // closed by the client
+    }
+  }
+
+  private static void writeEncoded(OutputStream out, String encoding,
+      byte[] body, boolean chunked) throws IOException {
+    if (chunked) {
+      out.write(bytes("HTTP/1.1 200 OK\r\nContent-Encoding: " + encoding
+          + "\r\nTransfer-Encoding: chunked\r\n\r\n"
+          + Integer.toHexString(body.length) + "\r\n"));
+      out.write(body);
+      out.write(bytes("\r\n0\r\n\r\n"));
+    } else {
+      out.write(bytes("HTTP/1.1 200 OK\r\nContent-Encoding: " + encoding
+          + "\r\nContent-Length: " + body.length + "\r\n\r\n"));
+      out.write(body);
+    }
+  }
+
+  private static byte[] bytes(String s) {
+    try {
+      return s.getBytes("ISO-8859-1");
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private String fetch(String path, int code) throws Exception {
+    HttpResponse response = new HttpResponse(http,
+        new URL("http://127.0.0.1:" + server.getLocalPort() + path),
+        new WebPage());
+    assertEquals(path, code, response.getCode());
+    return new String(response.getContent(), "ISO-8859-1");
+  }
+
+  public void testReuse() throws Exception {
+    assertEquals("hello", fetch("/length", 200));
+    assertEquals("hello", fetch("/chunked", 200));
+    assertEquals("", fetch("/notmodified", 304));
+    assertEquals("hello", fetch("/length", 200));
+    assertEquals(1, connections.get());
+    assertEquals(1, http.getConnectionPool().size());
+  }
+
+  public void testNotKeptAlive() throws Exception {
+    assertEquals("hello", fetch("/close", 200));
+    assertEquals("hello", fetch("/length", 200));
+    assertEquals(2, connections.get());
+    // reuses the second connection, then drops it
+    assertEquals("hello", fetch("/http10", 200));
+    assertEquals(0, http.getConnectionPool().size());
+    assertEquals("hello", fetch("/length", 200));
+    assertEquals(3, connections.get());
+  }
+
+  public void testClosedWhileIdle() throws Exception {
+    assertEquals("hello", fetch("/drop", 200));
+    Thread.sleep(100);
+    // the kept connection was closed, a new one is made
+    assertEquals("hello", fetch("/length", 200));
+    assertEquals(2, connections.get());
+  }
+
+  public void testContentLimit() throws Exception {
+    conf.setInt("http.content.limit", 3);
+    http.setConf(conf);
+    assertEquals("hel", fetch("/length", 200));
+    assertEquals("hel", fetch("/chunked", 200));
+    // the rest of the body was not read, so nothing could be reused
+    assertEquals(2, connections.get());
+  }
+
+  public void testContentEncoding() throws Exception {
+    assertEquals("hello", fetch("/gzip", 200));
+    assertEquals("hello", fetch("/gzip/chunked", 200));
+    assertEquals("hello", fetch("/deflate", 200));
+    assertEquals("hello", fetch("/deflate/zlib", 200));
+    assertEquals(1, connections.get());
+    // what could be decoded is kept
+    assertEquals("hello", fetch("/gzip/truncated", 200));
+    assertEquals(1, connections.get());
+    assertEquals(0, http.getConnectionPool().size());
+
+    conf.setInt("http.content.limit", 3);
+    http.setConf(conf);
+    assertEquals("hel", fetch("/gzip", 200));
+  }
+
+  public void testNotModified() throws Exception {
+    String url = "http://127.0.0.1:" + server.getLocalPort() + "/etag";
+    WebPage page = new WebPage();
+    ProtocolOutput output = http.getProtocolOutput(url, page);
+    assertEquals(ProtocolStatusCodes.SUCCESS, output.getStatus().getCode());
+    assertEquals("hello", new String(output.getContent().getContent(), "UTF-8"));
+
+    // sends the entity tag back
+    output = http.getProtocolOutput(url, page);
+    assertEquals(ProtocolStatusCodes.NOTMODIFIED, output.getStatus().getCode());
+    assertNull(output.getContent());
+    assertEquals(new Utf8("text/plain"),
+        page.getFromHeaders(new Utf8("Content-Type")));
+  }
+
+  public void testPoolLimits() throws Exception {
+    conf.setInt(HttpConnectionPool.MAX_PER_HOST_KEY, 2);
+    conf.setInt(HttpConnectionPool.MAX_TOTAL_KEY, 3);
+    HttpConnectionPool pool = new HttpConnectionPool(conf);
+    Socket[] sockets = new Socket[5];
+    for (int i = 0; i < sockets.length; i++) {
+      sockets[i] = new Socket();
+    }
+    pool.release("a", 80, sockets[0]);
+    pool.release("a", 80, sockets[1]);
+    pool.release("a", 80, sockets[2]);
+    assertTrue(sockets[0].isClosed());
+    assertEquals(2, pool.size());
+    pool.release("b", 80, sockets[3]);
+    pool.release("c", 80, sockets[4]);
+    // the oldest overall
+    assertTrue(sockets[1].isClosed());
+    assertEquals(3, pool.size());
+
+    assertSame(sockets[2], pool.get("A", 80));
+    assertNull(pool.get("a", 80));
+    assertNull(pool.get("b", 81));
+    assertSame(sockets[3], pool.get("b", 80));
+    pool.close();
+    assertTrue(sockets[4].isClosed());
+    assertEquals(0, pool.size());
+  }
+
+}
@@ -33,7 +33,7 @@ import org.apache.commons.httpclient.HttpException;
 // Nutch imports
 import org.apache.nutch.metadata.Metadata;
 import org.apache.nutch.metadata.SpellCheckedMetadata;
-import org.apache.nutch.net.protocols.HttpDateFormat;
+import org.apache.nutch.net.protocols.ConditionalGet;
 import org.apache.nutch.net.protocols.Response;
 import org.apache.nutch.protocol.http.api.HttpBase;
 import org.apache.nutch.storage.WebPage;
@@ -70,9 +70,13 @@ public class HttpResponse implements Response {
     GetMethod get = new GetMethod(url.toString());
     get.setFollowRedirects(followRedirects);
     get.setDoAuthentication(true);
-    if (page.getModifiedTime() > 0) {
-      get.setRequestHeader("If-Modified-Since",
-          HttpDateFormat.toString(page.getModifiedTime()));
+    String ifModifiedSince = ConditionalGet.getIfModifiedSince(page);
+    if (ifModifiedSince != null) {
+      get.setRequestHeader(ConditionalGet.IF_MODIFIED_SINCE, ifModifiedSince);
+    }
+    String ifNoneMatch = ConditionalGet.getIfNoneMatch(page);
+    if (ifNoneMatch != null) {
+      get.setRequestHeader(ConditionalGet.IF_NONE_MATCH, ifNoneMatch);
     }
 
     // Set HTTP parameters
@@ -98,6 +102,7 @@ public class HttpResponse implements Response {
       for (int i = 0; i < heads.length; i++) {
         headers.set(heads[i].getName(), heads[i].getValue());
       }
+      ConditionalGet.storeHeaders(page, code, headers);
       
       // Limit download size
       int contentLength = Integer.MAX_VALUE;
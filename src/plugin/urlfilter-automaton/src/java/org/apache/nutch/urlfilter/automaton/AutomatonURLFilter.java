@@ -104,6 +104,10 @@ public class AutomatonURLFilter extends RegexURLFilterBase {
     protected boolean match(String url) {
       return automaton.run(url);
     }
+
+    protected RunAutomaton getAutomaton() {
+      return automaton;
+    }
   }
   
 }
@@ -0,0 +1,346 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.urlfilter.regex;
+
+
+/**
+ * Translates {@link java.util.regex.Pattern Java regular expressions} into
+ * <a href="http://www.brics.dk/automaton/">dk.brics.automaton</a> regular
+ * expressions matching the same strings, when they only use features an
+ * automaton supports: literals, character classes, <code>.</code>,
+ * groups, alternations, greedy and reluctant quantifiers, and
+ * <code>^</code> and <code>$</code> anchoring the whole expression.
+ * <p>
+ * As a {@link java.util.regex.Matcher#find() find} matches anywhere in a
+ * string, the translation matches the whole strings in which the Java
+ * expression can be found. Expressions using other features (back
+ * references, look-arounds, flags, possessive quantifiers, word
+ * boundaries...) are not translated.
+ */
+class RegexTranslator {
+
+  /** The chars a Java <code>.</code> does not match */
+  private final static String LINE_TERMINATORS = "\n\r\u0085\u2028\u2029";
+
+  /** The characters of Java's <code>\s</code> */
+  private final static String SPACES = " \t\n\u000B\f\r";
+
+  private final static String DIGITS = "0-9";
+  private final static String WORD_CHARS = "a-zA-Z_0-9";
+
+  /** Thrown on features that have no automaton equivalent */
+  private static class UnsupportedException extends Exception {
+    UnsupportedException(String message) {
+      super(message);
+    }
+  }
+
+  private final String regex;
+  private final int end;
+  private int pos;
+
+  private RegexTranslator(String regex, int start, int end) {
+    this.regex = regex;
+    this.pos = start;
+    this.end = end;
+  }
+
+  /**
+   * Translates a Java regular expression.
+   * @return a dk.brics.automaton expression, to be parsed without optional
+   *         syntax, matching the strings in which <code>regex</code> is
+   *         found, or <code>null</code> if it cannot be translated.
+   */
+  static String translate(String regex) {
+    int start = 0;
+    int stop = regex.length();
+    final boolean anchoredStart = regex.startsWith("^");
+    if (anchoredStart) {
+      start++;
+    }
+    boolean anchoredEnd = false;
+    if (stop > start && regex.charAt(stop - 1) == '$') {
+      // an escaped dollar is a literal
+      int escapes = 0;
+      while (stop - 2 - escapes >= start
+             && regex.charAt(stop - 2 - escapes) == '\\') {
+        escapes++;
+      }
+      anchoredEnd = escapes % 2 == 0;
+      if (anchoredEnd) {
+        stop--;
+      }
+    }
+
+    final RegexTranslator translator = new RegexTranslator(regex, start, stop);
+    try {
+      final StringBuilder body = new StringBuilder();
+      final int alternatives = translator.alternation(body);
+      if (translator.pos != stop) {
+        throw new UnsupportedException("unbalanced )");
+      }
+      if (alternatives > 1 && (anchoredStart || anchoredEnd)) {
+        // the anchors only belong to the first or last alternative
+        throw new UnsupportedException("anchored alternatives");
+      }
+      final StringBuilder result = new StringBuilder();
+      result.append(anchoredStart ? "" : ".*");
+      result.append('(').append(body).append(')');
+      // $ also matches before a line terminator ending the input
+      result.append(anchoredEnd ? "(\r\n|[" + LINE_TERMINATORS + "])?" : ".*");
+      return result.toString();
+    } catch (UnsupportedException e) {
+      return null;
+    }
+  }
+
+  /** @return the number of alternatives */
+  private int alternation(StringBuilder out) throws UnsupportedException {
+    int alternatives = 1;
+    sequence(out);
+    while (pos < end && regex.charAt(pos) == '|') {
+      pos++;
+      out.append('|');
+      sequence(out);
+      alternatives++;
+    }
+    return alternatives;
+  }
+
+  private void sequence(StringBuilder out) throws UnsupportedException {
+    while (pos < end) {
+      final char c = regex.charAt(pos);
+      if (c == '|' || c == ')') {
+        return;
+      }
+      atom(out);
+      quantifier(out);
+    }
+  }
+
+  private void atom(StringBuilder out) throws UnsupportedException {
+    final char c = regex.charAt(pos++);
+    switch (c) {
+    case '(':
+      if (pos < end && regex.charAt(pos) == '?') {
+        if (pos + 1 < end && regex.charAt(pos + 1) == ':') {
+          pos += 2;
+        } else {
+          throw new UnsupportedException("special group");
+        }
+      }
+      out.append('(');
+      alternation(out);
+      if (pos >= end || regex.charAt(pos) != ')') {
+        throw new UnsupportedException("unclosed group");
+      }
+      pos++;
+      out.append(')');
+      break;
+    case '[':
+      charClass(out);
+      break;
+    case '.':
+      out.append("[^").append(LINE_TERMINATORS).append(']');
+      break;
+    case '\\':
+      escape(out, false);
+      break;
+    case '^': case '$':
+      throw new UnsupportedException("inner anchor");
+    case '*': case '+': case '?': case '{':
+      throw new UnsupportedException("dangling quantifier");
+    default:
+      literal(out, c);
+    }
+  }
+
+  private void quantifier(StringBuilder out) throws UnsupportedException {
+    if (pos >= end) {
+      return;
+    }
+    final char c = regex.charAt(pos);
+    if (c == '*' || c == '+' || c == '?') {
+      pos++;
+      out.append(c);
+    } else if (c == '{') {
+      final int close = regex.indexOf('}', pos);
+      if (close == -1 || close >= end) {
+        throw new UnsupportedException("unclosed repetition");
+      }
+      final String bounds = regex.substring(pos + 1, close);
+      if (!bounds.matches("[0-9]+(,[0-9]*)?")) {
+        throw new UnsupportedException("bad repetition");
+      }
+      out.append('{').append(bounds).append('}');
+      pos = close + 1;
+    } else {
+      return;
+    }
+    if (pos < end) {
+      final char mode = regex.charAt(pos);
+      if (mode == '?') {
+        // reluctant: finds the same strings
+        pos++;
+      } else if (mode == '+') {
+        throw new UnsupportedException("possessive quantifier");
+      }
+    }
+    if (pos < end) {
+      final char next = regex.charAt(pos);
+      if (next == '*' || next == '+' || next == '?' || next == '{') {
+        throw new UnsupportedException("repeated quantifier");
+      }
+    }
+  }
+
+  private void charClass(StringBuilder out) throws UnsupportedException {
+    out.append('[');
+    if (pos < end && regex.charAt(pos) == '^') {
+      pos++;
+      out.append('^');
+    }
+    boolean first = true;
+    while (true) {
+      if (pos >= end) {
+        throw new UnsupportedException("unclosed class");
+      }
+      char c = regex.charAt(pos++);
+      if (c == ']' && !first) {
+        break;
+      }
+      first = false;
+      if (c == '[' || (c == '&' && pos < end && regex.charAt(pos) == '&')) {
+        throw new UnsupportedException("nested class");
+      }
+      if (c == '\\') {
+        if (escape(out, true)) {
+          continue;
+        }
+        c = regex.charAt(pos - 1);
+        if (Character.isLetter(c)) {
+          // a control char, already written
+          c = controlChar(c);
+        }
+      } else {
+        literal(out, c);
+      }
+      // a range?
+      if (pos + 1 < end && regex.charAt(pos) == '-'
+          && regex.charAt(pos + 1) != ']') {
+        pos++;
+        char to = regex.charAt(pos++);
+        if (to == '[') {
+          throw new UnsupportedException("nested class");
+        }
+        if (to == '\\') {
+          if (pos >= end) {
+            throw new UnsupportedException("bad escape");
+          }
+          to = regex.charAt(pos++);
+          if (Character.isLetterOrDigit(to)) {
+            if (controlChar(to) == 0) {
+              throw new UnsupportedException("bad range");
+            }
+            to = controlChar(to);
+          }
+        }
+        if (to < c) {
+          throw new UnsupportedException("bad range");
+        }
+        out.append('-');
+        literal(out, to);
+      }
+    }
+    out.append(']');
+  }
+
+  /**
+   * Translates the escape after a backslash.
+   * @return true if it stands for a set of chars, which cannot start a
+   *         range
+   */
+  private boolean escape(StringBuilder out, boolean inClass)
+  throws UnsupportedException {
+    if (pos >= end) {
+      throw new UnsupportedException("bad escape");
+    }
+    final char c = regex.charAt(pos++);
+    String set = null;
+    boolean negated = false;
+    switch (c) {
+    case 'd': set = DIGITS; break;
+    case 'D': set = DIGITS; negated = true; break;
+    case 'w': set = WORD_CHARS; break;
+    case 'W': set = WORD_CHARS; negated = true; break;
+    case 's': set = escapeAll(SPACES); break;
+    case 'S': set = escapeAll(SPACES); negated = true; break;
+    default:
+    }
+    if (set != null) {
+      if (inClass) {
+        if (negated) {
+          throw new UnsupportedException("negated set in class");
+        }
+        out.append(set);
+      } else {
+        out.append(negated ? "[^" : "[").append(set).append(']');
+      }
+      return true;
+    }
+    if (Character.isLetterOrDigit(c)) {
+      final char control = controlChar(c);
+      if (control == 0) {
+        // back references, boundaries, quoting, properties...
+        throw new UnsupportedException("escape \\" + c);
+      }
+      literal(out, control);
+    } else {
+      literal(out, c);
+    }
+    return false;
+  }
+
+  /** @return the char of an escape like \t, or 0 */
+  private static char controlChar(char c) {
+    switch (c) {
+    case 't': return '\t';
+    case 'n': return '\n';
+    case 'r': return '\r';
+    case 'f': return '\f';
+    case 'a': return '\u0007';
+    case 'e': return '\u001B';
+    default: return 0;
+    }
+  }
+
+  private static void literal(StringBuilder out, char c) {
+    if (!Character.isLetterOrDigit(c)) {
+      out.append('\\');
+    }
+    out.append(c);
+  }
+
+  private static String escapeAll(String chars) {
+    final StringBuilder out = new StringBuilder();
+    for (int i = 0; i < chars.length(); i++) {
+      literal(out, chars.charAt(i));
+    }
+    return out.toString();
+  }
+
+}
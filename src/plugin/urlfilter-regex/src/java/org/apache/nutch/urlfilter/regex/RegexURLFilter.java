@@ -20,11 +20,16 @@ package org.apache.nutch.urlfilter.regex;
 import java.io.Reader;
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
 // Hadoop imports
 import org.apache.hadoop.conf.Configuration;
+
+// Automaton imports
+import dk.brics.automaton.RegExp;
+import dk.brics.automaton.RunAutomaton;
 import org.apache.nutch.net.*;
 import org.apache.nutch.urlfilter.api.RegexRule;
 import org.apache.nutch.urlfilter.api.RegexURLFilterBase;
@@ -34,6 +39,11 @@ import org.apache.nutch.util.NutchConfiguration;
 /**
  * Filters URLs based on a file of regular expressions using the
  * {@link java.util.regex Java Regex implementation}.
+ * <p>
+ * The regular expressions that only use the features of automata are also
+ * turned into automata, so that they are matched all at once. The others,
+ * e.g. those with back references, are matched by a {@link Matcher} kept
+ * per thread.
  */
 public class RegexURLFilter extends RegexURLFilterBase {
   
@@ -91,15 +101,31 @@ public class RegexURLFilter extends RegexURLFilterBase {
 
   private class Rule extends RegexRule {
     
-    private Pattern pattern;
+    private final Pattern pattern;
+    private final String automatonRegex;
+
+    private final ThreadLocal<Matcher> matchers = new ThreadLocal<Matcher>() {
+      protected Matcher initialValue() {
+        return pattern.matcher("");
+      }
+    };
     
     Rule(boolean sign, String regex) {
       super(sign, regex);
       pattern = Pattern.compile(regex);
+      automatonRegex = RegexTranslator.translate(regex);
     }
 
     protected boolean match(String url) {
-      return pattern.matcher(url).find();
+      return matchers.get().reset(url).find();
+    }
+
+    protected RunAutomaton getAutomaton() {
+      if (automatonRegex == null) {
+        return null;
+      }
+      return new RunAutomaton(
+          new RegExp(automatonRegex, RegExp.NONE).toAutomaton());
     }
   }
   
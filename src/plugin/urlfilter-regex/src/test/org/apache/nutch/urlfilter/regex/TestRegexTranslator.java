@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.urlfilter.regex;
+
+// JDK imports
+import java.util.regex.Pattern;
+
+// JUnit imports
+import junit.framework.TestCase;
+
+// Automaton imports
+import dk.brics.automaton.RegExp;
+import dk.brics.automaton.RunAutomaton;
+
+
+/**
+ * JUnit based test of class <code>RegexTranslator</code>: translated
+ * expressions must match the strings in which the Java expressions are
+ * found.
+ */
+public class TestRegexTranslator extends TestCase {
+
+  private final static String[] TRANSLATED = {
+    "^(file|ftp|mailto):",
+    "\\.(gif|GIF|jpg|JPG|ico|ICO|css|sit|eps|wmf|zip|ppt|mpg|xls|gz|rpm|tgz|mov|MOV|exe|png)$",
+    "[?*!@=]",
+    "^.*//.*\\.fr/",
+    "^http://([a-z0-9]*\\.)*MY.DOMAIN.NAME/",
+    ".",
+    "^https?://[^/]+/\\d{4}/\\d{2,}/",
+    "(?:/[\\w-]+){3,5}\\.html?$",
+    "/.+?/x",
+    "\\$price",
+    "[]a-]",
+    "\\s",
+    "a|b",
+    "",
+  };
+
+  private final static String[] NOT_TRANSLATED = {
+    "-.*(/.+?)/.*?\\1/.*?\\1/",
+    "(?i)\\.gif$",
+    "\\bword\\b",
+    "^a|b",
+    "a++",
+    "x(?=y)",
+    "[a-z&&[^e]]",
+    "\\p{Alpha}",
+  };
+
+  private final static String[] INPUTS = {
+    "",
+    "http://www.example.com/",
+    "http://www.example.fr/index.html",
+    "https://news.example.org/2011/04/story.htm",
+    "http://www.example.com/2011/4/story.html",
+    "file:///etc/passwd",
+    "mailto:someone@example.com",
+    "http://www.example.com/image.GIF",
+    "http://www.example.com/image.gif?size=2",
+    "http://www.example.com/a/b/c/d/e.html",
+    "http://www.example.com/a/b/c/d/e/f/g.html",
+    "http://intranet.MY.DOMAIN.NAME/",
+    "http://intranetXMY.DOMAIN.NAME/",
+    "http://www.example.com/$price/list",
+    "http://www.example.com/a b",
+    "http://www.example.com/a]b",
+    "http://www.example.com/a-b/x",
+    "line\nbreak",
+    "end.gif\n",
+    "a",
+    "b",
+  };
+
+  public void testTranslated() {
+    for (String regex : TRANSLATED) {
+      String translated = RegexTranslator.translate(regex);
+      assertNotNull(regex, translated);
+      RunAutomaton automaton =
+        new RunAutomaton(new RegExp(translated, RegExp.NONE).toAutomaton());
+      Pattern pattern = Pattern.compile(regex);
+      for (String input : INPUTS) {
+        assertEquals(regex + " on " + input,
+                     pattern.matcher(input).find(), automaton.run(input));
+      }
+    }
+  }
+
+  public void testNotTranslated() {
+    for (String regex : NOT_TRANSLATED) {
+      assertNull(regex, RegexTranslator.translate(regex));
+    }
+  }
+
+}
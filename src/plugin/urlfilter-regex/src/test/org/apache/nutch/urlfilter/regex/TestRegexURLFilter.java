@@ -17,6 +17,8 @@
 package org.apache.nutch.urlfilter.regex;
 
 // JDK imports
+import java.io.BufferedReader;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
 
@@ -24,10 +26,13 @@ import java.io.Reader;
 import junit.framework.Test;
 import junit.framework.TestSuite;
 import junit.textui.TestRunner;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.nutch.net.*;
 
 // Nutch imports
+import org.apache.nutch.urlfilter.api.RegexURLFilterBase;
 import org.apache.nutch.urlfilter.api.RegexURLFilterBaseTest;
+import org.apache.nutch.util.NutchConfiguration;
 
 
 /**
@@ -68,4 +73,40 @@ public class TestRegexURLFilter extends RegexURLFilterBaseTest {
     bench(800, "Benchmarks");
   }
 
+  /** The combined automaton and the rules one by one agree. */
+  public void testCombined() throws IOException {
+    String dir = System.getProperty("test.data", ".");
+    for (String name : new String[] { "WholeWebCrawling", "IntranetCrawling",
+                                      "Benchmarks" }) {
+      StringBuilder rules = new StringBuilder();
+      BufferedReader in = new BufferedReader(
+          new FileReader(dir + "/" + name + ".rules"));
+      String line;
+      while ((line = in.readLine()) != null) {
+        rules.append(line).append('\n');
+      }
+      in.close();
+
+      Configuration conf = NutchConfiguration.create();
+      conf.set(RegexURLFilter.URLFILTER_REGEX_RULES, rules.toString());
+      RegexURLFilter combined = new RegexURLFilter();
+      combined.setConf(conf);
+      conf = NutchConfiguration.create();
+      conf.set(RegexURLFilter.URLFILTER_REGEX_RULES, rules.toString());
+      conf.setInt(RegexURLFilterBase.MAX_STATES_KEY, 0);
+      RegexURLFilter separate = new RegexURLFilter();
+      separate.setConf(conf);
+
+      in = new BufferedReader(new FileReader(dir + "/" + name + ".urls"));
+      while ((line = in.readLine()) != null) {
+        if (line.length() > 1) {
+          String url = line.substring(1);
+          assertEquals(name + ": " + url,
+                       separate.filter(url), combined.filter(url));
+        }
+      }
+      in.close();
+    }
+  }
+
 }
@@ -0,0 +1,348 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net.urlnormalizer.regex;
+
+/**
+ * A cheap test telling that a regular expression cannot match a string,
+ * because the string lacks a literal that every match contains: the
+ * longest run of literal chars, or else the smallest class of chars, that
+ * the expression requires outside of optional parts and alternatives.
+ * <p>
+ * The expression is only looked at as far as it is safe to: expressions
+ * with quoting or comments get no precheck, and letters are not required
+ * if the expression turns on case insensitivity.
+ */
+class PatternPrecheck {
+
+  /** A literal that every match contains, or null */
+  private final String literal;
+  /** Chars one of which every match contains, or null */
+  private final char[] anyOf;
+
+  private PatternPrecheck(String literal, char[] anyOf) {
+    this.literal = literal;
+    this.anyOf = anyOf;
+  }
+
+  /**
+   * @return false if the expression cannot match <code>s</code>, true if
+   *         it may
+   */
+  boolean mayMatch(String s) {
+    if (literal != null) {
+      return s.indexOf(literal) != -1;
+    }
+    for (int i = 0; i < anyOf.length; i++) {
+      if (s.indexOf(anyOf[i]) != -1) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return literal != null ? "\"" + literal + "\""
+        : "[" + new String(anyOf) + "]";
+  }
+
+  /**
+   * @return the precheck of a {@link java.util.regex.Pattern} expression
+   *         compiled without flags, or <code>null</code> if there is none
+   */
+  static PatternPrecheck of(String regex) {
+    if (regex.indexOf("\\Q") != -1 || hasFlag(regex, 'x')) {
+      return null;
+    }
+    final Analysis analysis = new Analysis(regex, hasFlag(regex, 'i'));
+    if (!analysis.sequence(0, regex.length())) {
+      return null;
+    }
+    if (analysis.best.length() > 0) {
+      return new PatternPrecheck(analysis.best, null);
+    }
+    if (analysis.bestSet != null) {
+      return new PatternPrecheck(null, analysis.bestSet);
+    }
+    return null;
+  }
+
+  /** Collects what the sequences of atoms of an expression require. */
+  private static class Analysis {
+    private final String regex;
+    private final boolean ignoreCase;
+
+    String best = "";
+    char[] bestSet;
+
+    Analysis(String regex, boolean ignoreCase) {
+      this.regex = regex;
+      this.ignoreCase = ignoreCase;
+    }
+
+    /**
+     * Looks at the atoms of regex[start, end), unless they have
+     * alternatives.
+     * @return false if the expression could not be understood
+     */
+    boolean sequence(int start, int end) {
+      // alternatives at this level: nothing is required
+      for (int i = start; i < end; ) {
+        final char c = regex.charAt(i);
+        if (c == '|') {
+          return true;
+        } else if (c == '\\') {
+          i += 2;
+        } else if (c == '(') {
+          i = skipGroup(regex, i);
+        } else if (c == '[') {
+          i = skipClass(regex, i);
+        } else {
+          i++;
+        }
+        if (i == -1) {
+          return false;
+        }
+      }
+
+      final StringBuilder run = new StringBuilder();
+      int pos = start;
+      while (pos < end) {
+        final char c = regex.charAt(pos);
+        // the atom at pos, and what it requires
+        int next;
+        char literal = 0;
+        boolean isLiteral = false;
+        char[] set = null;
+        int groupStart = -1;
+        int groupEnd = -1;
+        switch (c) {
+        case '(':
+          next = skipGroup(regex, pos);
+          if (next == -1) {
+            return false;
+          }
+          if (pos + 1 < end && regex.charAt(pos + 1) != '?') {
+            groupStart = pos + 1;
+          } else if (pos + 2 < end && regex.charAt(pos + 2) == ':') {
+            groupStart = pos + 3;
+          }
+          // else a look-around, or flags
+          groupEnd = next - 1;
+          break;
+        case '[':
+          next = skipClass(regex, pos);
+          if (next == -1) {
+            return false;
+          }
+          set = simpleClass(regex, pos + 1, next - 1, ignoreCase);
+          break;
+        case '\\':
+          if (pos + 1 >= end) {
+            return false;
+          }
+          final char e = regex.charAt(pos + 1);
+          if (!Character.isLetterOrDigit(e)) {
+            literal = e;
+            isLiteral = true;
+          } else if ("dDwWsSbBAzZG".indexOf(e) == -1) {
+            // octal, hex, unicode, back reference, property...
+            return false;
+          }
+          next = pos + 2;
+          break;
+        case '.': case '^': case '$':
+          next = pos + 1;
+          break;
+        case '*': case '+': case '?': case '{': case ')':
+          // malformed, Pattern would have complained
+          return false;
+        default:
+          literal = c;
+          isLiteral = !(ignoreCase && Character.isLetter(c));
+          next = pos + 1;
+        }
+
+        // the quantifier of the atom
+        boolean optional = false;
+        boolean repeated = false;
+        if (next < end) {
+          final char q = regex.charAt(next);
+          if (q == '?' || q == '*') {
+            optional = true;
+            next++;
+          } else if (q == '+') {
+            repeated = true;
+            next++;
+          } else if (q == '{') {
+            final int close = regex.indexOf('}', next);
+            if (close == -1 || close >= end) {
+              return false;
+            }
+            optional = regex.charAt(next + 1) == '0';
+            repeated = true;
+            next = close + 1;
+          }
+          if ((optional || repeated) && next < end
+              && (regex.charAt(next) == '?' || regex.charAt(next) == '+')) {
+            // reluctant or possessive
+            next++;
+          }
+        }
+
+        if (isLiteral && !optional) {
+          run.append(literal);
+        }
+        if (!isLiteral || optional || repeated) {
+          // the run cannot go on past this atom
+          addLiteral(run.toString());
+          run.setLength(0);
+        }
+        if (!optional) {
+          if (set != null && (bestSet == null || set.length < bestSet.length)) {
+            bestSet = set;
+          }
+          if (groupStart != -1 && !sequence(groupStart, groupEnd)) {
+            return false;
+          }
+        }
+        pos = next;
+      }
+      addLiteral(run.toString());
+      return true;
+    }
+
+    private void addLiteral(String literal) {
+      if (literal.length() > best.length()) {
+        best = literal;
+      }
+    }
+  }
+
+  /** @return whether an inline flag group may turn on a flag */
+  private static boolean hasFlag(String regex, char flag) {
+    int start = regex.indexOf("(?");
+    while (start != -1) {
+      for (int i = start + 2; i < regex.length(); i++) {
+        final char c = regex.charAt(i);
+        if (c == flag) {
+          return true;
+        }
+        if (!Character.isLetter(c) && c != '-') {
+          break;
+        }
+      }
+      start = regex.indexOf("(?", start + 2);
+    }
+    return false;
+  }
+
+  /** @return the index after the group opened at pos, or -1 */
+  private static int skipGroup(String regex, int pos) {
+    int depth = 0;
+    int i = pos;
+    while (i < regex.length()) {
+      final char c = regex.charAt(i);
+      if (c == '\\') {
+        i += 2;
+        continue;
+      }
+      if (c == '[') {
+        i = skipClass(regex, i);
+        if (i == -1) {
+          return -1;
+        }
+        continue;
+      }
+      if (c == '(') {
+        depth++;
+      } else if (c == ')') {
+        depth--;
+        if (depth == 0) {
+          return i + 1;
+        }
+      }
+      i++;
+    }
+    return -1;
+  }
+
+  /** @return the index after the class opened at pos, or -1 */
+  private static int skipClass(String regex, int pos) {
+    int i = pos + 1;
+    if (i < regex.length() && regex.charAt(i) == '^') {
+      i++;
+    }
+    // a leading ] is a literal
+    if (i < regex.length() && regex.charAt(i) == ']') {
+      i++;
+    }
+    while (i < regex.length()) {
+      final char c = regex.charAt(i);
+      if (c == '\\') {
+        i += 2;
+        continue;
+      }
+      if (c == '[') {
+        i = skipClass(regex, i);
+        if (i == -1) {
+          return -1;
+        }
+        continue;
+      }
+      if (c == ']') {
+        return i + 1;
+      }
+      i++;
+    }
+    return -1;
+  }
+
+  /**
+   * @return the chars of a class made of single chars, e.g.
+   *         <code>[?&amp;.]</code>, or null for other classes
+   */
+  private static char[] simpleClass(String regex, int start, int end,
+      boolean ignoreCase) {
+    if (start >= end || regex.charAt(start) == '^') {
+      return null;
+    }
+    final StringBuilder chars = new StringBuilder();
+    for (int i = start; i < end; i++) {
+      char c = regex.charAt(i);
+      if (c == '\\') {
+        if (i + 1 >= end) {
+          return null;
+        }
+        c = regex.charAt(++i);
+        if (Character.isLetterOrDigit(c)) {
+          return null;
+        }
+      } else if (c == '[' || (c == '&' && i + 1 < end && regex.charAt(i + 1) == '&')
+          || (c == '-' && i > start && i < end - 1)) {
+        // nested class, intersection or range
+        return null;
+      }
+      if (ignoreCase && Character.isLetter(c)) {
+        return null;
+      }
+      chars.append(c);
+    }
+    return chars.toString().toCharArray();
+  }
+
+}
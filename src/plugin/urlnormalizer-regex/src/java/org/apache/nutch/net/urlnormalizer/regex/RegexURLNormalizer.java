@@ -31,6 +31,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -57,6 +58,9 @@ import java.util.regex.*;
  * </p>
  * <p>This class also supports different rules depending on the scope. Please see
  * the javadoc in {@link org.apache.nutch.net.URLNormalizers} for more details.</p>
+ * <p>The rules of a scope are resolved once, and then used without locking:
+ * each thread has its own matchers, and a rule is not run on a url that
+ * lacks a literal the rule requires.</p>
  * 
  * @author Luke Baker
  * @author Andrzej Bialecki
@@ -73,9 +77,54 @@ public class RegexURLNormalizer extends Configured implements URLNormalizer {
     public Pattern pattern;
 
     public String substitution;
+
+    /** Tells if the pattern may match, null if it always may */
+    public PatternPrecheck precheck;
+  }
+
+  /**
+   * The rules of a scope, in an array that is not modified, with the
+   * matchers of each thread.
+   */
+  private static class RuleSet {
+    private final Rule[] rules;
+
+    private final ThreadLocal<Matcher[]> matchers = new ThreadLocal<Matcher[]>() {
+      protected Matcher[] initialValue() {
+        Matcher[] m = new Matcher[rules.length];
+        for (int i = 0; i < rules.length; i++) {
+          m[i] = rules[i].pattern.matcher("");
+        }
+        return m;
+      }
+    };
+
+    RuleSet(List rules) {
+      this.rules = (Rule[]) rules.toArray(new Rule[rules.size()]);
+    }
+
+    String normalize(String urlString) {
+      Matcher[] m = null;
+      for (int i = 0; i < rules.length; i++) {
+        Rule r = rules[i];
+        if (r.precheck != null && !r.precheck.mayMatch(urlString)) {
+          continue;
+        }
+        if (m == null) {
+          m = matchers.get();
+        }
+        urlString = m[i].reset(urlString).replaceAll(r.substitution);
+      }
+      return urlString;
+    }
   }
 
+  /** The rules read for each scope, guarded by this */
   private HashMap scopedRules;
+
+  /** The rules used for each scope, once resolved */
+  private final ConcurrentHashMap<String, RuleSet> ruleSets =
+    new ConcurrentHashMap<String, RuleSet>();
   
   private static final List EMPTY_RULES = Collections.EMPTY_LIST;
 
@@ -134,9 +183,10 @@ public class RegexURLNormalizer extends Configured implements URLNormalizer {
   }
 
   // used in JUnit test.
-  void setConfiguration(Reader reader, String scope) {
+  synchronized void setConfiguration(Reader reader, String scope) {
     List rules = readConfiguration(reader);
     scopedRules.put(scope, rules);
+    ruleSets.clear();
     LOG.debug("Set config for scope '" + scope + "': " + rules.size() + " rules.");
   }
   
@@ -144,7 +194,22 @@ public class RegexURLNormalizer extends Configured implements URLNormalizer {
    * This function does the replacements by iterating through all the regex
    * patterns. It accepts a string url as input and returns the altered string.
    */
-  public synchronized String regexNormalize(String urlString, String scope) {
+  public String regexNormalize(String urlString, String scope) {
+    RuleSet ruleSet = ruleSets.get(scope);
+    if (ruleSet == null) {
+      ruleSet = getRuleSet(scope);
+    }
+    return ruleSet.normalize(urlString);
+  }
+
+  /**
+   * Resolves the rules of a scope, reading them if needed.
+   */
+  private synchronized RuleSet getRuleSet(String scope) {
+    RuleSet ruleSet = ruleSets.get(scope);
+    if (ruleSet != null) {
+      return ruleSet;
+    }
     List curRules = (List)scopedRules.get(scope);
     if (curRules == null) {
       // try to populate
@@ -170,20 +235,19 @@ public class RegexURLNormalizer extends Configured implements URLNormalizer {
     }
     if (curRules == EMPTY_RULES || curRules == null) {
       // use global rules
-      curRules = (List)scopedRules.get(URLNormalizers.SCOPE_DEFAULT);
-    }
-    Iterator i = curRules.iterator();
-    while (i.hasNext()) {
-      Rule r = (Rule) i.next();
-
-      Matcher matcher = r.pattern.matcher(urlString);
-
-      urlString = matcher.replaceAll(r.substitution);
+      if (URLNormalizers.SCOPE_DEFAULT.equals(scope)) {
+        ruleSet = new RuleSet(EMPTY_RULES);
+      } else {
+        ruleSet = getRuleSet(URLNormalizers.SCOPE_DEFAULT);
+      }
+    } else {
+      ruleSet = new RuleSet(curRules);
     }
-    return urlString;
+    ruleSets.put(scope, ruleSet);
+    return ruleSet;
   }
 
-  public synchronized String normalize(String urlString, String scope)
+  public String normalize(String urlString, String scope)
           throws MalformedURLException {
     return regexNormalize(urlString, scope);
   }
@@ -243,6 +307,7 @@ public class RegexURLNormalizer extends Configured implements URLNormalizer {
           Rule rule = new Rule();
           rule.pattern = Pattern.compile(patternValue);
           rule.substitution = subValue;
+          rule.precheck = PatternPrecheck.of(patternValue);
           rules.add(rule);
         }
       }
@@ -90,6 +90,57 @@ public class TestRegexURLNormalizer extends TestCase {
     }
   }
 
+  public void testPrecheck() {
+    assertEquals("\"=\"", PatternPrecheck.of(
+        "([;_]?((?i)l|j|bv_)?((?i)sid|phpsessid|sessionid)=.*?)(\\?|&|#|$)")
+        .toString());
+    assertEquals("\"#\"", PatternPrecheck.of("#.*?(\\?|&|$)").toString());
+    assertEquals("\"?&\"", PatternPrecheck.of("\\?&").toString());
+    assertEquals("[?&.]", PatternPrecheck.of("[\\?&\\.]$").toString());
+    assertEquals("\"/\"", PatternPrecheck.of("(?<!:)/{2,}").toString());
+    assertEquals("\"/a.b\"", PatternPrecheck.of("x?(?:/a\\.b)+").toString());
+    assertEquals("\"/\"", PatternPrecheck.of("(?i)/Index\\.html").toString());
+    assertNull(PatternPrecheck.of("a|b"));
+    assertNull(PatternPrecheck.of("(ab)?c*"));
+    assertNull(PatternPrecheck.of("\\Qa\\E"));
+    assertNull(PatternPrecheck.of("(?x)a b"));
+    assertNull(PatternPrecheck.of("\\x41"));
+
+    assertTrue(PatternPrecheck.of("\\?&").mayMatch("http://a.com/?&b"));
+    assertFalse(PatternPrecheck.of("\\?&").mayMatch("http://a.com/?b&c"));
+    assertTrue(PatternPrecheck.of("[?&.]$").mayMatch("http://a.com/?"));
+    assertFalse(PatternPrecheck.of("[?&]$").mayMatch("http://a.com/b"));
+  }
+
+  public void testThreads() throws Exception {
+    final NormalizedURL[] urls =
+      (NormalizedURL[])testData.get(URLNormalizers.SCOPE_DEFAULT);
+    final Exception[] failure = new Exception[1];
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread() {
+        public void run() {
+          try {
+            for (int i = 0; i < 25; i++) {
+              normalizeTest(urls, URLNormalizers.SCOPE_DEFAULT);
+            }
+          } catch (Throwable e) {
+            synchronized (failure) {
+              failure[0] = new Exception(e);
+            }
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (int t = 0; t < threads.length; t++) {
+      threads[t].join();
+    }
+    if (failure[0] != null) {
+      throw failure[0];
+    }
+  }
+
   private void normalizeTest(NormalizedURL[] urls, String scope) throws Exception {
     for (int i = 0; i < urls.length; i++) {
       String url = urls[i].url;
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.crawl;
+
+import org.apache.avro.util.Utf8;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.storage.Mark;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.AbstractNutchTest;
+import org.apache.nutch.util.TableUtil;
+
+/**
+ * Tests the incremental update of the web table: 1. Stores pages in and
+ * out of a batch 2. Updates the batch 3. Verifies that the pages of the
+ * batch are updated and their marks cleared 4. Verifies that the pages out
+ * of the batch only get the inlinks of the batch
+ */
+public class TestDbUpdaterJob extends AbstractNutchTest {
+
+  private static final String BATCH = "1234-5678";
+  private static final String OTHER_BATCH = "8765-4321";
+
+  private static final String PARSED = "http://www.example.com/parsed.html";
+  private static final String NOT_MODIFIED = "http://www.example.com/notmodified.html";
+  private static final String NOT_FETCHED = "http://www.example.com/notfetched.html";
+  private static final String UNPARSED = "http://www.example.com/unparsed.html";
+  private static final String LINKED = "http://www.example.com/linked.html";
+  private static final String OTHER = "http://www.example.com/other.html";
+  private static final String NEW = "http://www.example.com/new.html";
+  private static final String STALE = "http://www.example.com/stale.html";
+
+  private static final long FETCH_TIME = 1300000000000L;
+
+  public void testIncrementalUpdate() throws Exception {
+    WebPage parsed = createPage(CrawlStatus.STATUS_FETCHED, BATCH);
+    Mark.FETCH_MARK.putMark(parsed, BATCH);
+    Mark.PARSE_MARK.putMark(parsed, BATCH);
+    parsed.putToOutlinks(new Utf8(LINKED), new Utf8("linked"));
+    parsed.putToOutlinks(new Utf8(NEW), new Utf8("new"));
+    put(PARSED, parsed);
+
+    WebPage notModified = createPage(CrawlStatus.STATUS_NOTMODIFIED, BATCH);
+    Mark.FETCH_MARK.putMark(notModified, BATCH);
+    put(NOT_MODIFIED, notModified);
+
+    // the fetch of the batch stopped before this page
+    put(NOT_FETCHED, createPage(CrawlStatus.STATUS_UNFETCHED, BATCH));
+
+    // fetched, but left for the update after the parse
+    WebPage unparsed = createPage(CrawlStatus.STATUS_FETCHED, BATCH);
+    Mark.FETCH_MARK.putMark(unparsed, BATCH);
+    put(UNPARSED, unparsed);
+
+    WebPage linked = createPage(CrawlStatus.STATUS_FETCHED, OTHER_BATCH);
+    linked.putToInlinks(new Utf8(STALE), new Utf8("stale"));
+    put(LINKED, linked);
+
+    put(OTHER, createPage(CrawlStatus.STATUS_UNFETCHED, OTHER_BATCH));
+    webPageStore.flush();
+
+    // the batch id of a full update is refused
+    Configuration myConfiguration = new Configuration(conf);
+    assertEquals(-1, new DbUpdaterJob(myConfiguration).run(
+        new String[] { BATCH }));
+    assertEquals(-1, new DbUpdaterJob(myConfiguration).run(
+        new String[] { "-incremental", BATCH, "-crawlId" }));
+
+    assertEquals(0, new DbUpdaterJob(myConfiguration).run(
+        new String[] { "-incremental", BATCH }));
+
+    // the pages of the batch are updated
+    WebPage page = get(PARSED);
+    assertNull(Mark.GENERATE_MARK.checkMark(page));
+    assertNull(Mark.FETCH_MARK.checkMark(page));
+    assertNull(Mark.PARSE_MARK.checkMark(page));
+    assertTrue(page.getFetchTime() > FETCH_TIME);
+
+    page = get(NOT_MODIFIED);
+    assertNull(Mark.GENERATE_MARK.checkMark(page));
+    assertNull(Mark.FETCH_MARK.checkMark(page));
+    assertTrue(page.getFetchTime() > FETCH_TIME);
+
+    page = get(NOT_FETCHED);
+    assertNull(Mark.GENERATE_MARK.checkMark(page));
+    assertEquals(CrawlStatus.STATUS_UNFETCHED, page.getStatus());
+
+    page = get(UNPARSED);
+    assertEquals(new Utf8(BATCH), Mark.GENERATE_MARK.checkMark(page));
+    assertEquals(new Utf8(BATCH), Mark.FETCH_MARK.checkMark(page));
+    assertEquals(FETCH_TIME, page.getFetchTime());
+
+    // the pages they link to get their inlinks, and nothing else
+    page = get(LINKED);
+    assertEquals(new Utf8("linked"), page.getFromInlinks(new Utf8(PARSED)));
+    assertNotNull(page.getFromInlinks(new Utf8(STALE)));
+    assertEquals(new Utf8(OTHER_BATCH), Mark.GENERATE_MARK.checkMark(page));
+    assertEquals(FETCH_TIME, page.getFetchTime());
+
+    page = get(NEW);
+    assertEquals(CrawlStatus.STATUS_UNFETCHED, page.getStatus());
+    assertEquals(new Utf8("new"), page.getFromInlinks(new Utf8(PARSED)));
+
+    // and the rest of the table is left alone
+    page = get(OTHER);
+    assertEquals(new Utf8(OTHER_BATCH), Mark.GENERATE_MARK.checkMark(page));
+    assertEquals(FETCH_TIME, page.getFetchTime());
+  }
+
+  private static WebPage createPage(int status, String batchId) {
+    WebPage page = new WebPage();
+    page.setStatus(status);
+    page.setFetchTime(FETCH_TIME);
+    page.setPrevFetchTime(FETCH_TIME - 1000L);
+    page.setFetchInterval(2592000);
+    page.setScore(1.0f);
+    Mark.GENERATE_MARK.putMark(page, batchId);
+    return page;
+  }
+
+  private void put(String url, WebPage page) throws Exception {
+    webPageStore.put(TableUtil.reverseUrl(url), page);
+  }
+
+  private WebPage get(String url) throws Exception {
+    WebPage page = webPageStore.get(TableUtil.reverseUrl(url));
+    assertNotNull(url, page);
+    return page;
+  }
+
+}
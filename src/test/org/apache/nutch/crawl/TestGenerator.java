@@ -53,6 +53,23 @@ public class TestGenerator extends AbstractNutchTest {
    * @throws Exception
    */
   public void testGenerateHighest() throws Exception {
+    checkGenerateHighest(conf);
+  }
+
+  /**
+   * Test that generator generates the same fetchlist when the best urls are
+   * selected by the mappers.
+   *
+   * @throws Exception
+   */
+  public void testGenerateHighestMapSide() throws Exception {
+    Configuration myConfiguration = new Configuration(conf);
+    myConfiguration.setBoolean(GeneratorJob.GENERATOR_TOP_N_MAPSIDE, true);
+    myConfiguration.setFloat(GeneratorJob.GENERATOR_TOP_N_SLACK, 1.0f);
+    checkGenerateHighest(myConfiguration);
+  }
+
+  private void checkGenerateHighest(Configuration conf) throws Exception {
 
     final int NUM_RESULTS = 2;
 
@@ -133,6 +150,7 @@ public class TestGenerator extends AbstractNutchTest {
     // verify we got right amount of records
     assertEquals(1, fetchList.size());
 
+    removeGenerateMarks();
     myConfiguration = new Configuration(conf);
     myConfiguration.setInt(GeneratorJob.GENERATOR_MAX_COUNT, 2);
     generateFetchlist(Integer.MAX_VALUE, myConfiguration, false);
@@ -142,6 +160,7 @@ public class TestGenerator extends AbstractNutchTest {
     // verify we got right amount of records
     assertEquals(2, fetchList.size());
 
+    removeGenerateMarks();
     myConfiguration = new Configuration(conf);
     myConfiguration.setInt(GeneratorJob.GENERATOR_MAX_COUNT, 3);
     generateFetchlist(Integer.MAX_VALUE, myConfiguration, false);
@@ -184,6 +203,7 @@ public class TestGenerator extends AbstractNutchTest {
     // verify we got right amount of records
     assertEquals(1, fetchList.size());
 
+    removeGenerateMarks();
     myConfiguration = new Configuration(myConfiguration);
     myConfiguration.setInt(GeneratorJob.GENERATOR_MAX_COUNT, 2);
     generateFetchlist(Integer.MAX_VALUE, myConfiguration, false);
@@ -193,6 +213,7 @@ public class TestGenerator extends AbstractNutchTest {
     // verify we got right amount of records
     assertEquals(2, fetchList.size());
 
+    removeGenerateMarks();
     myConfiguration = new Configuration(myConfiguration);
     myConfiguration.setInt(GeneratorJob.GENERATOR_MAX_COUNT, 3);
     generateFetchlist(Integer.MAX_VALUE, myConfiguration, false);
@@ -203,6 +224,34 @@ public class TestGenerator extends AbstractNutchTest {
     assertEquals(3, fetchList.size());
   }
 
+  /**
+   * Test that generator does not generate urls again before they are
+   * fetched and updated.
+   *
+   * @throws Exception
+   */
+  public void testGenerateSkipsGenerated() throws Exception {
+    ArrayList<URLWebPage> list = new ArrayList<URLWebPage>();
+
+    list.add(createURLWebPage("http://www.example.com/index1.html", 1, 3));
+    list.add(createURLWebPage("http://www.example.com/index2.html", 1, 2));
+    list.add(createURLWebPage("http://www.example.com/index3.html", 1, 1));
+
+    for (URLWebPage uwp : list) {
+      webPageStore.put(TableUtil.reverseUrl(uwp.getUrl()), uwp.getDatum());
+    }
+    webPageStore.flush();
+
+    generateFetchlist(2, conf, false);
+    ArrayList<URLWebPage> fetchList = CrawlTestUtil.readContents(webPageStore, Mark.GENERATE_MARK, FIELDS);
+    assertEquals(2, fetchList.size());
+
+    // only the url left out the first time is generated
+    generateFetchlist(2, conf, false);
+    fetchList = CrawlTestUtil.readContents(webPageStore, Mark.GENERATE_MARK, FIELDS);
+    assertEquals(3, fetchList.size());
+  }
+
   /**
    * Test generator obeys the filter setting.
    *
@@ -240,6 +289,19 @@ public class TestGenerator extends AbstractNutchTest {
 
   }
 
+  /**
+   * Remove the generate marks, as fetching and updating would, so that the
+   * urls can be generated again.
+   */
+  private void removeGenerateMarks() throws Exception {
+    for (URLWebPage uwp : CrawlTestUtil.readContents(webPageStore,
+        Mark.GENERATE_MARK, (String[]) null)) {
+      Mark.GENERATE_MARK.removeMark(uwp.getDatum());
+      webPageStore.put(TableUtil.reverseUrl(uwp.getUrl()), uwp.getDatum());
+    }
+    webPageStore.flush();
+  }
+
   /**
    * Generate Fetchlist.
    *
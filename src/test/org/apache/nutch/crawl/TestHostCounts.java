@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.crawl;
+
+import junit.framework.TestCase;
+
+public class TestHostCounts extends TestCase {
+
+  private static void assertSameHost(String url1, String url2, boolean byDomain) {
+    assertEquals(url1 + " " + url2, HostCounts.hostKey(url1, byDomain),
+        HostCounts.hostKey(url2, byDomain));
+  }
+
+  public void testHostKey() {
+    assertSameHost("http://www.example.com/", "http://WWW.Example.com:8080/a", false);
+    assertSameHost("http://www.example.com", "https://user:pw@www.example.com?q", false);
+    assertSameHost("http://www.example.com/", "ftp://www.example.com#top", false);
+    assertSameHost("http://[::1]:80/", "http://[::1]/", false);
+    assertFalse(HostCounts.hostKey("http://www.example.com/", false)
+        == HostCounts.hostKey("http://example.com/", false));
+    assertFalse(HostCounts.hostKey("http://a.example.com/", false)
+        == HostCounts.hostKey("http://b.example.com/", false));
+
+    assertSameHost("http://a.example.com/", "http://b.example.com:8080/", true);
+    assertSameHost("http://a.example.co.uk/", "http://example.co.uk/", true);
+    assertFalse(HostCounts.hostKey("http://a.example.com/", true)
+        == HostCounts.hostKey("http://a.example.org/", true));
+  }
+
+  public void testCounts() {
+    HostCounts counts = new HostCounts(4);
+    for (int i = 0; i < 10000; i++) {
+      assertEquals(1, counts.increment(i));
+      assertEquals(2, counts.increment(i));
+    }
+    assertEquals(10000, counts.size());
+    for (int i = 0; i < 10000; i++) {
+      assertEquals(2, counts.get(i));
+    }
+    assertEquals(0, counts.get(10000));
+    counts.clear();
+    assertEquals(0, counts.get(0));
+    assertEquals(0, counts.size());
+  }
+}
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.crawl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.nutch.crawl.GeneratorJob.SelectorEntry;
+
+import junit.framework.TestCase;
+
+public class TestTopNSelector extends TestCase {
+
+  private static List<String> urls(TopNSelector<String> selector) {
+    List<String> urls = new ArrayList<String>();
+    for (TopNSelector.Item<String> item : selector) {
+      urls.add(item.entry.url);
+    }
+    return urls;
+  }
+
+  private static void offer(TopNSelector<String> selector, String url,
+      float score) {
+    selector.offer(new SelectorEntry(url, score),
+        HostCounts.hostKey(url, false), url);
+  }
+
+  public void testCapacity() {
+    TopNSelector<String> selector = new TopNSelector<String>(3, -1);
+    for (int i = 0; i < 10; i++) {
+      offer(selector, "http://h" + i + "/", i);
+    }
+    assertEquals(3, selector.size());
+    assertEquals(7, selector.getDropped());
+    List<String> urls = urls(selector);
+    assertEquals("http://h9/", urls.get(0));
+    assertEquals("http://h8/", urls.get(1));
+    assertEquals("http://h7/", urls.get(2));
+  }
+
+  public void testMaxPerHost() {
+    TopNSelector<String> selector = new TopNSelector<String>(4, 2);
+    offer(selector, "http://a/1", 1);
+    offer(selector, "http://a/2", 2);
+    offer(selector, "http://a/3", 3);
+    offer(selector, "http://b/1", 1.5f);
+    offer(selector, "http://a/0", 0);
+    offer(selector, "http://c/1", 0.5f);
+    offer(selector, "http://d/1", 0.1f);
+    List<String> urls = urls(selector);
+    assertEquals(4, urls.size());
+    assertEquals("http://a/3", urls.get(0));
+    assertEquals("http://a/2", urls.get(1));
+    assertEquals("http://b/1", urls.get(2));
+    assertEquals("http://c/1", urls.get(3));
+    // a host pushed out by the capacity gets its place back
+    offer(selector, "http://b/2", 5);
+    offer(selector, "http://e/1", 4);
+    offer(selector, "http://f/1", 4.5f);
+    urls = urls(selector);
+    assertEquals("http://b/2", urls.get(0));
+    assertEquals("http://f/1", urls.get(1));
+    assertEquals("http://e/1", urls.get(2));
+    assertEquals("http://a/3", urls.get(3));
+    offer(selector, "http://a/1", 1);
+    assertEquals(4, selector.size());
+  }
+
+  public void testDuplicate() {
+    TopNSelector<String> selector = new TopNSelector<String>(3, -1);
+    offer(selector, "http://a/", 1);
+    offer(selector, "http://a/", 1);
+    assertEquals(1, selector.size());
+  }
+
+  public void testAdmit() {
+    TopNSelector<String> selector = new TopNSelector<String>(3, 2);
+    offer(selector, "http://a/1", 1);
+    offer(selector, "http://a/2", 2);
+    offer(selector, "http://b/1", 3);
+    long a = HostCounts.hostKey("http://a/", false);
+    long c = HostCounts.hostKey("http://c/", false);
+    // full host, and full selector
+    assertFalse(selector.admit(new SelectorEntry("http://a/0", 0.5f), a));
+    assertTrue(selector.admit(new SelectorEntry("http://a/3", 1.5f), a));
+    assertFalse(selector.admit(new SelectorEntry("http://c/1", 0.5f), c));
+    assertTrue(selector.admit(new SelectorEntry("http://c/1", 5), c));
+    // already there
+    assertFalse(selector.admit(new SelectorEntry("http://a/1", 1), a));
+    // admitting changes nothing but the count of dropped entries
+    assertEquals(3, selector.size());
+    assertEquals(3, selector.getDropped());
+    assertEquals("http://a/1", urls(selector).get(2));
+  }
+}
@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.fetcher;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.NutchConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import junit.framework.TestCase;
+
+/** Unit tests for FetchItemQueues and DelayedFetchItemQueues. */
+public class TestFetchItemQueues extends TestCase {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TestFetchItemQueues.class);
+
+  private static final int BENCH_HOSTS = 1000;
+  private static final int BENCH_ITEMS = 50000;
+
+  private Configuration conf;
+
+  @Override
+  protected void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    conf.setFloat("fetcher.server.delay", 0.5f);
+    conf.setInt("fetcher.threads.per.queue", 1);
+  }
+
+  public void testCreate() {
+    assertEquals(FetchItemQueues.class, FetchItemQueues.create(conf).getClass());
+    conf.set(FetchItemQueues.SCHEDULER_KEY, FetchItemQueues.SCHEDULER_DELAYED);
+    assertEquals(DelayedFetchItemQueues.class,
+        FetchItemQueues.create(conf).getClass());
+  }
+
+  public void testPolling() throws Exception {
+    checkPoliteness(new FetchItemQueues(conf));
+  }
+
+  public void testDelayed() throws Exception {
+    checkPoliteness(new DelayedFetchItemQueues(conf));
+  }
+
+  private void checkPoliteness(FetchItemQueues queues) throws Exception {
+    queues.addFetchItem("http://a.example.com/1", new WebPage());
+    queues.addFetchItem("http://a.example.com/2", new WebPage());
+    queues.addFetchItem("http://b.example.com/1", new WebPage());
+    assertEquals(3, queues.getTotalSize());
+    assertEquals(2, queues.getQueueCount());
+
+    // one item per host is ready right away
+    FetchItem first = queues.getFetchItem();
+    FetchItem second = queues.getFetchItem();
+    assertNotNull(first);
+    assertNotNull(second);
+    assertFalse(first.queueID.equals(second.queueID));
+    assertNull(queues.getFetchItem());
+
+    // the remaining item of a.example.com is blocked until its delay expires
+    FetchItem a = first.queueID.equals("http://a.example.com") ? first : second;
+    FetchItem b = a == first ? second : first;
+    queues.finishFetchItem(b);
+    long finished = System.currentTimeMillis();
+    queues.finishFetchItem(a);
+    assertNull(queues.getFetchItem());
+
+    FetchItem next = null;
+    while (next == null) {
+      queues.waitForFetchItem();
+      next = queues.getFetchItem();
+    }
+    assertEquals("http://a.example.com/2", next.url);
+    assertTrue(System.currentTimeMillis() - finished >= 500);
+    assertEquals(0, queues.getTotalSize());
+  }
+
+  public void testDelayedWakesUpWhenDue() throws Exception {
+    final DelayedFetchItemQueues queues = new DelayedFetchItemQueues(conf);
+    queues.addFetchItem("http://a.example.com/1", new WebPage());
+    queues.addFetchItem("http://a.example.com/2", new WebPage());
+    queues.finishFetchItem(queues.getFetchItem());
+
+    // a single wait is enough, and it ends when the queue becomes due
+    long start = System.currentTimeMillis();
+    queues.waitForFetchItem();
+    long waited = System.currentTimeMillis() - start;
+    assertNotNull(queues.getFetchItem());
+    assertTrue(waited < DelayedFetchItemQueues.MAX_WAIT);
+  }
+
+  public void testDelayedSignalsFeeder() throws Exception {
+    final DelayedFetchItemQueues queues = new DelayedFetchItemQueues(conf);
+    queues.addFetchItem("http://a.example.com/1", new WebPage());
+    Thread taker = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(100);
+        } catch (InterruptedException e) {}
+        queues.getFetchItem();
+      }
+    };
+    taker.start();
+    long start = System.currentTimeMillis();
+    queues.waitForCapacity(1);
+    assertTrue(System.currentTimeMillis() - start < DelayedFetchItemQueues.MAX_WAIT);
+    assertEquals(0, queues.getTotalSize());
+    taker.join();
+  }
+
+  public void testBenchmark() throws Exception {
+    conf.setFloat("fetcher.server.delay", 0.0f);
+    for (int threads : new int[] { 10, 100, 1000 }) {
+      bench(new FetchItemQueues(conf), threads);
+      bench(new DelayedFetchItemQueues(conf), threads);
+    }
+  }
+
+  /**
+   * Take and finish all items of {@link #BENCH_ITEMS} spread over
+   * {@link #BENCH_HOSTS} hosts with the given number of threads. There is no
+   * crawl delay, so this measures the cost of the queues themselves.
+   */
+  private void bench(final FetchItemQueues queues, int threads)
+  throws InterruptedException {
+    for (int i = 0; i < BENCH_ITEMS; i++) {
+      queues.addFetchItem("http://host" + (i % BENCH_HOSTS) + ".example.com/" + i,
+          new WebPage());
+    }
+    final AtomicInteger taken = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(threads);
+    long start = System.currentTimeMillis();
+    for (int t = 0; t < threads; t++) {
+      new Thread() {
+        @Override
+        public void run() {
+          while (taken.get() < BENCH_ITEMS) {
+            FetchItem fit = queues.getFetchItem();
+            if (fit == null) {
+              Thread.yield();
+              continue;
+            }
+            taken.incrementAndGet();
+            queues.finishFetchItem(fit);
+          }
+          done.countDown();
+        }
+      }.start();
+    }
+    done.await();
+    LOG.info("bench time (" + queues.getClass().getSimpleName() + ", "
+        + threads + " threads) " + (System.currentTimeMillis() - start) + "ms");
+    assertEquals(BENCH_ITEMS, taken.get());
+    assertEquals(0, queues.getTotalSize());
+  }
+}
@@ -61,6 +61,15 @@ public class TestFetcher extends AbstractNutchTest {
   }
 
   public void testFetch() throws Exception {
+    checkFetch();
+  }
+
+  public void testFetchVirtualThreads() throws Exception {
+    conf.setBoolean(FetcherJob.THREADS_VIRTUAL_KEY, true);
+    checkFetch();
+  }
+
+  private void checkFetch() throws Exception {
 
     //generate seedlist
     ArrayList<String> urls = new ArrayList<String>();
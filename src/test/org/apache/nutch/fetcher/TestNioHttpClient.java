@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.fetcher;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.protocol.ProtocolOutput;
+import org.apache.nutch.protocol.ProtocolStatusCodes;
+import org.apache.nutch.protocol.ProtocolStatusUtils;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.NutchConfiguration;
+import org.mortbay.jetty.Request;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.handler.AbstractHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link NioHttpClient} against an embedded server. Every address of
+ * 127.0.0.0/8 reaches the loopback interface, which is used to simulate
+ * thousands of distinct hosts.
+ */
+public class TestNioHttpClient extends TestCase {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TestNioHttpClient.class);
+
+  private static final int PORT = 55001;
+  private static final int HOSTS = 2000;
+
+  private Configuration conf;
+  private Server server;
+  private NioHttpClient client;
+
+  /** Echoes the Host header, with a few special paths. */
+  private static class TestHandler extends AbstractHandler {
+    public void handle(String target, HttpServletRequest req,
+        HttpServletResponse res, int dispatch) throws IOException {
+      ((Request) req).setHandled(true);
+      if (target.equals("/missing")) {
+        res.sendError(HttpServletResponse.SC_NOT_FOUND);
+        return;
+      }
+      if (target.equals("/moved")) {
+        res.setStatus(HttpServletResponse.SC_MOVED_PERMANENTLY);
+        res.setHeader("Location", "/page");
+        return;
+      }
+      if (target.equals("/slow")) {
+        try {
+          Thread.sleep(3000);
+        } catch (InterruptedException e) {}
+      }
+      res.setContentType("text/plain");
+      res.setStatus(HttpServletResponse.SC_OK);
+      res.getWriter().print("host " + req.getHeader("Host") + " " + target);
+    }
+  }
+
+  /** Collects the outputs of a number of requests. */
+  private static class Results {
+    private final Map<String, ProtocolOutput> outputs =
+      new ConcurrentHashMap<String, ProtocolOutput>();
+    private final CountDownLatch latch;
+
+    Results(int count) {
+      latch = new CountDownLatch(count);
+    }
+
+    NioHttpClient.Callback callback(final String url) {
+      return new NioHttpClient.Callback() {
+        public void completed(ProtocolOutput output) {
+          outputs.put(url, output);
+          latch.countDown();
+        }
+      };
+    }
+
+    void await() throws InterruptedException {
+      assertTrue(latch.await(60, TimeUnit.SECONDS));
+    }
+
+    ProtocolOutput get(String url) {
+      return outputs.get(url);
+    }
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    conf.set("http.agent.name", "test");
+    conf.setInt("http.timeout", 10000);
+    conf.setInt(NioHttpClient.CONNECTIONS_KEY, 200);
+    server = new Server(PORT);
+    server.setHandler(new TestHandler());
+    server.start();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    if (client != null) client.close();
+    server.stop();
+  }
+
+  private static String host(int i) {
+    return "127.0." + (i / 250) + "." + (i % 250 + 1) + ":" + PORT;
+  }
+
+  public void testManyHosts() throws Exception {
+    client = new NioHttpClient(conf);
+    final Results results = new Results(HOSTS);
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < HOSTS; i++) {
+      final String url = "http://" + host(i) + "/page";
+      client.fetch(new URL(url), new WebPage(), results.callback(url));
+    }
+    results.await();
+    LOG.info("fetched " + HOSTS + " hosts in "
+        + (System.currentTimeMillis() - start) + "ms");
+    for (int i = 0; i < HOSTS; i++) {
+      final String url = "http://" + host(i) + "/page";
+      final ProtocolOutput output = results.get(url);
+      assertEquals(url + ": " + ProtocolStatusUtils.getMessage(output.getStatus()),
+          ProtocolStatusCodes.SUCCESS, output.getStatus().getCode());
+      assertEquals("host " + host(i) + " /page",
+          new String(output.getContent().getContent(), "UTF-8"));
+      assertEquals("text/plain", output.getContent().getContentType());
+      assertEquals(url, output.getContent().getUrl());
+    }
+    assertEquals(0, client.getInFlight());
+  }
+
+  public void testStatus() throws Exception {
+    conf.setInt("http.timeout", 1000);
+    client = new NioHttpClient(conf);
+    final String base = "http://" + host(0);
+    final Results results = new Results(3);
+    for (String path : new String[] { "/missing", "/moved", "/slow" }) {
+      client.fetch(new URL(base + path), new WebPage(),
+          results.callback(base + path));
+    }
+    results.await();
+    assertEquals(ProtocolStatusCodes.NOTFOUND,
+        results.get(base + "/missing").getStatus().getCode());
+    final ProtocolOutput moved = results.get(base + "/moved");
+    assertEquals(ProtocolStatusCodes.MOVED, moved.getStatus().getCode());
+    assertEquals(base + "/page", ProtocolStatusUtils.getMessage(moved.getStatus()));
+    // times out before the response comes
+    final ProtocolOutput slow = results.get(base + "/slow");
+    assertEquals(ProtocolStatusCodes.EXCEPTION, slow.getStatus().getCode());
+    assertNull(slow.getContent());
+  }
+
+  public void testConnectionRefused() throws Exception {
+    client = new NioHttpClient(conf);
+    final String url = "http://127.0.0.1:" + (PORT + 1) + "/page";
+    final Results results = new Results(1);
+    client.fetch(new URL(url), new WebPage(), results.callback(url));
+    results.await();
+    assertEquals(ProtocolStatusCodes.EXCEPTION,
+        results.get(url).getStatus().getCode());
+  }
+
+  public void testSplitHeaders() throws Exception {
+    client = new NioHttpClient(conf);
+    final ServerSocket serverSocket = new ServerSocket(PORT + 2);
+    final StringBuilder longValue = new StringBuilder();
+    while (longValue.length() < 20000) longValue.append("0123456789");
+    final Thread server = new Thread() {
+      public void run() {
+        try {
+          final Socket socket = serverSocket.accept();
+          final InputStream in = socket.getInputStream();
+          // read the request up to its blank line
+          final StringBuilder request = new StringBuilder();
+          for (int b; request.indexOf("\r\n\r\n") == -1
+              && (b = in.read()) != -1;) {
+            request.append((char) b);
+          }
+          final OutputStream out = socket.getOutputStream();
+          // the headers come in many reads, the end of them in pieces
+          for (String part : new String[] { "HTTP/1.1 100 Continue\r\n",
+              "\r\nHTTP/1.1 200 OK\r\nContent-Type: text/plain\r\n",
+              "X-Long: " + longValue + "\r\nContent-Length: 5\r\n", "\r",
+              "\nhel", "lo" }) {
+            out.write(part.getBytes("ISO-8859-1"));
+            out.flush();
+            Thread.sleep(50);
+          }
+          socket.close();
+        } catch (Exception e) {
+          LOG.error("test server failed", e);
+        }
+      }
+    };
+    server.start();
+    try {
+      final String url = "http://127.0.0.1:" + (PORT + 2) + "/page";
+      final Results results = new Results(1);
+      client.fetch(new URL(url), new WebPage(), results.callback(url));
+      results.await();
+      final ProtocolOutput output = results.get(url);
+      assertEquals(ProtocolStatusUtils.getMessage(output.getStatus()),
+          ProtocolStatusCodes.SUCCESS, output.getStatus().getCode());
+      assertEquals("hello",
+          new String(output.getContent().getContent(), "UTF-8"));
+      assertEquals(longValue.toString(),
+          output.getContent().getMetadata().get("X-Long"));
+    } finally {
+      server.join();
+      serverSocket.close();
+    }
+  }
+}
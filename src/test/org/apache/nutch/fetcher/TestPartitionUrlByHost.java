@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.fetcher;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.util.TableUtil;
+
+import junit.framework.TestCase;
+
+/** Unit tests for PartitionUrlByHost. */
+public class TestPartitionUrlByHost extends TestCase {
+
+  private static final int PARTITIONS = 16;
+
+  private Configuration conf;
+
+  @Override
+  protected void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+  }
+
+  private PartitionUrlByHost create(String mode) {
+    conf.set("fetcher.queue.mode", mode);
+    PartitionUrlByHost partitioner = new PartitionUrlByHost();
+    partitioner.setConf(conf);
+    return partitioner;
+  }
+
+  private int partition(PartitionUrlByHost partitioner, String url)
+  throws Exception {
+    return partitioner.getPartition(null,
+        new FetchEntry(conf, TableUtil.reverseUrl(url), new WebPage()),
+        PARTITIONS);
+  }
+
+  public void testByHost() throws Exception {
+    PartitionUrlByHost partitioner = create(FetchItemQueues.QUEUE_MODE_HOST);
+    int p = partition(partitioner, "http://www.example.com/a");
+    assertEquals(p, partition(partitioner, "http://www.example.com/b"));
+    assertEquals(p, partition(partitioner, "https://www.example.com/c"));
+    assertEquals(p, partition(partitioner, "http://www.example.com:8080/d"));
+    // the hash of the reversed host, without the cached value
+    assertEquals(("com.example.www".hashCode() & Integer.MAX_VALUE) % PARTITIONS,
+        partition(create(FetchItemQueues.QUEUE_MODE_HOST), "http://www.example.com/"));
+
+    // hosts are spread over the partitions
+    Set<Integer> partitions = new HashSet<Integer>();
+    for (int i = 0; i < 1000; i++) {
+      partitions.add(partition(partitioner, "http://host" + i + ".example.com/"));
+    }
+    assertEquals(PARTITIONS, partitions.size());
+  }
+
+  public void testByDomain() throws Exception {
+    PartitionUrlByHost partitioner = create(FetchItemQueues.QUEUE_MODE_DOMAIN);
+    int p = partition(partitioner, "http://www.example.com/a");
+    for (int i = 0; i < 100; i++) {
+      assertEquals(p, partition(partitioner, "http://host" + i + ".example.com/"));
+    }
+    assertEquals(("example.com".hashCode() & Integer.MAX_VALUE) % PARTITIONS, p);
+  }
+
+  public void testByIP() throws Exception {
+    PartitionUrlByHost partitioner = create(FetchItemQueues.QUEUE_MODE_IP);
+    assertEquals(("127.0.0.1".hashCode() & Integer.MAX_VALUE) % PARTITIONS,
+        partition(partitioner, "http://127.0.0.1/"));
+  }
+
+  public void testSkew() {
+    assertEquals("4 partitions, 400 urls, min 50, max 200, mean 100.0, "
+        + "max/mean 2.0, empty 0",
+        PartitionUrlByHost.skew(new long[] { 50, 200, 100, 50 }));
+    assertEquals("2 partitions, 0 urls, min 0, max 0, mean 0.0, "
+        + "max/mean 0.0, empty 2",
+        PartitionUrlByHost.skew(new long[] { 0, 0 }));
+  }
+
+  public void testCountUrls() throws Exception {
+    assertEquals(5, countUrls(false).findCounter(
+        PartitionUrlByHost.COUNTER_GROUP, PartitionUrlByHost.URLS_COUNTER)
+        .getValue());
+    assertEquals(0, countUrls(false).findCounter(
+        PartitionUrlByHost.COUNTER_GROUP, PartitionUrlByHost.URLS_COUNTER + 3)
+        .getValue());
+    conf.setBoolean(PartitionUrlByHost.SKEW_REPORT_KEY, true);
+    final Counters counters = countUrls(true);
+    assertEquals(5, counters.findCounter(PartitionUrlByHost.COUNTER_GROUP,
+        PartitionUrlByHost.URLS_COUNTER).getValue());
+    assertEquals(5, counters.findCounter(PartitionUrlByHost.COUNTER_GROUP,
+        PartitionUrlByHost.URLS_COUNTER + 3).getValue());
+  }
+
+  /** Count 5 urls in partition 3. */
+  private Counters countUrls(boolean report) throws Exception {
+    conf.setBoolean(PartitionUrlByHost.SKEW_REPORT_KEY, report);
+    final Counters counters = new Counters();
+    final StatusReporter reporter = new StatusReporter() {
+      @Override
+      public Counter getCounter(Enum<?> name) {
+        return counters.findCounter(name);
+      }
+
+      @Override
+      public Counter getCounter(String group, String name) {
+        return counters.findCounter(group, name);
+      }
+
+      @Override
+      public void progress() {
+      }
+
+      @Override
+      public void setStatus(String status) {
+      }
+    };
+    final Mapper<Object, Object, Object, Object> mapper =
+      new Mapper<Object, Object, Object, Object>();
+    PartitionUrlByHost.countUrls(mapper.new Context(conf,
+        new TaskAttemptID("test", 1, false, 3, 0), null, null, null,
+        reporter, null), 5);
+    return counters;
+  }
+}
@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.net;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.util.NutchConfiguration;
+
+import junit.framework.TestCase;
+
+/** Unit tests for DNSCache, with a resolver stub. */
+public class TestDNSCache extends TestCase {
+
+  /**
+   * Resolves "hostN" to 10.0.0.N after a delay, and fails for every other
+   * host.
+   */
+  public static class StubResolver implements DNSCache.Resolver {
+    static final AtomicInteger lookups = new AtomicInteger();
+    static volatile long delay = 0;
+
+    public InetAddress resolve(String host) throws UnknownHostException {
+      lookups.incrementAndGet();
+      if (delay > 0) {
+        try {
+          Thread.sleep(delay);
+        } catch (InterruptedException e) {}
+      }
+      if (!host.startsWith("host")) {
+        throw new UnknownHostException(host);
+      }
+      final int n = Integer.parseInt(host.substring(4));
+      return InetAddress.getByAddress(host,
+          new byte[] { 10, 0, (byte) (n / 256), (byte) (n % 256) });
+    }
+  }
+
+  private Configuration conf;
+
+  @Override
+  protected void setUp() throws Exception {
+    conf = NutchConfiguration.create();
+    conf.setClass(DNSCache.RESOLVER_KEY, StubResolver.class, DNSCache.Resolver.class);
+    StubResolver.lookups.set(0);
+    StubResolver.delay = 0;
+  }
+
+  public void testCache() throws Exception {
+    DNSCache cache = new DNSCache(conf);
+    assertEquals("10.0.0.1", cache.resolve("host1").getHostAddress());
+    assertEquals("10.0.0.1", cache.resolve("host1").getHostAddress());
+    assertEquals("10.0.0.2", cache.resolve("host2").getHostAddress());
+    assertEquals(2, StubResolver.lookups.get());
+    assertEquals(1, cache.getHits());
+    assertEquals(2, cache.getMisses());
+  }
+
+  public void testNegative() throws Exception {
+    DNSCache cache = new DNSCache(conf);
+    for (int i = 0; i < 3; i++) {
+      try {
+        cache.resolve("unknown.invalid");
+        fail();
+      } catch (UnknownHostException e) {
+        // expected
+      }
+    }
+    assertEquals(1, StubResolver.lookups.get());
+    assertEquals(3, cache.getFailures());
+  }
+
+  public void testExpiry() throws Exception {
+    conf.setLong(DNSCache.TTL_KEY, 0);
+    DNSCache cache = new DNSCache(conf);
+    cache.resolve("host1");
+    Thread.sleep(10);
+    cache.resolve("host1");
+    assertEquals(2, StubResolver.lookups.get());
+  }
+
+  public void testSize() throws Exception {
+    conf.setInt(DNSCache.SIZE_KEY, 10);
+    DNSCache cache = new DNSCache(conf);
+    for (int i = 0; i < 100; i++) {
+      cache.resolve("host" + i);
+    }
+    assertEquals(10, cache.size());
+    // the most recent ones are kept
+    cache.resolve("host99");
+    assertEquals(100, StubResolver.lookups.get());
+    cache.resolve("host0");
+    assertEquals(101, StubResolver.lookups.get());
+  }
+
+  public void testPrefetch() throws Exception {
+    StubResolver.delay = 200;
+    DNSCache cache = new DNSCache(conf);
+    List<String> hosts = new ArrayList<String>();
+    for (int i = 0; i < 50; i++) {
+      hosts.add("host" + i);
+    }
+    long start = System.currentTimeMillis();
+    cache.prefetch(hosts);
+    for (String host : hosts) {
+      cache.resolve(host);
+    }
+    // 10 threads resolve 50 hosts in about 5 rounds
+    assertTrue(System.currentTimeMillis() - start < 50 * 200 / 2);
+    assertEquals(50, StubResolver.lookups.get());
+    cache.close();
+  }
+
+  public void testShared() throws Exception {
+    DNSCache cache = DNSCache.get(conf);
+    assertSame(cache, DNSCache.get(conf));
+    cache.resolve("host1");
+    DNSCache.get(conf).resolve("host1");
+    assertEquals(1, StubResolver.lookups.get());
+  }
+}
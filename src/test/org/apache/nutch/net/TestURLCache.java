@@ -0,0 +1,128 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net;
+
+import java.net.MalformedURLException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.util.NutchConfiguration;
+
+import junit.framework.TestCase;
+
+public class TestURLCache extends TestCase {
+
+  private Configuration conf;
+
+  @Override
+  protected void setUp() {
+    conf = NutchConfiguration.create();
+    conf.set("plugin.includes",
+        "nutch-extensionpoints|urlnormalizer-basic|urlfilter-validator");
+  }
+
+  public void testNormalizeAndFilter() throws Exception {
+    URLCache cache = new URLCache(conf);
+    for (int i = 0; i < 3; i++) {
+      assertEquals("http://www.example.com/b", cache.normalizeAndFilter(
+          "http://WWW.Example.com/a/../b", URLNormalizers.SCOPE_OUTLINK));
+      // rejected by the validator
+      assertNull(cache.normalizeAndFilter("http://ex..ample/",
+          URLNormalizers.SCOPE_OUTLINK));
+      try {
+        cache.normalize("nosuchprotocol://example.com/",
+            URLNormalizers.SCOPE_OUTLINK);
+        fail("malformed url normalized");
+      } catch (MalformedURLException e) {
+        // expected, every time
+      }
+    }
+    assertEquals(6, cache.getNormalizeHits());
+    assertEquals(3, cache.getNormalizeMisses());
+    assertEquals(4, cache.getFilterHits());
+    assertEquals(2, cache.getFilterMisses());
+
+    // the scope is part of the key
+    cache.normalize("http://WWW.Example.com/a/../b",
+        URLNormalizers.SCOPE_FETCHER);
+    assertEquals(4, cache.getNormalizeMisses());
+  }
+
+  public void testEviction() throws Exception {
+    conf.setInt(URLCache.NORMALIZE_SIZE_KEY, 16);
+    conf.setInt(URLCache.FILTER_SIZE_KEY, 0);
+    URLCache cache = new URLCache(conf);
+    for (int i = 0; i < 100; i++) {
+      cache.normalize("http://" + i + ".com/", URLNormalizers.SCOPE_DEFAULT);
+      assertTrue(cache.getNormalizedSize() <= 16);
+    }
+    // an eighth is dropped when the cache is full
+    assertTrue(cache.getNormalizedSize() >= 14);
+    assertEquals(0, cache.getNormalizeHits());
+
+    // not caching
+    assertEquals("http://a.com/", cache.filter("http://a.com/"));
+    assertEquals("http://a.com/", cache.filter("http://a.com/"));
+    assertEquals(0, cache.getFilterHits());
+    assertEquals(2, cache.getFilterMisses());
+  }
+
+  public void testConcurrent() throws Exception {
+    conf.setInt(URLCache.NORMALIZE_SIZE_KEY, 64);
+    final URLCache cache = new URLCache(conf);
+    final int threads = 8;
+    final int loops = 2000;
+    final Throwable[] failure = new Throwable[1];
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      workers[t] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < loops; i++) {
+              // more urls than the cache holds, some seen again
+              int n = i % 100;
+              assertEquals("http://www.example.com/" + n, cache
+                  .normalizeAndFilter("http://WWW.Example.com/a/../" + n,
+                      URLNormalizers.SCOPE_OUTLINK));
+            }
+          } catch (Throwable e) {
+            synchronized (failure) {
+              failure[0] = e;
+            }
+          }
+        }
+      };
+      workers[t].start();
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    synchronized (failure) {
+      if (failure[0] != null) {
+        throw new AssertionError(failure[0]);
+      }
+    }
+    assertEquals(threads * loops,
+        cache.getNormalizeHits() + cache.getNormalizeMisses());
+    assertTrue(cache.getNormalizeHits() > 0);
+    assertTrue(cache.getNormalizedSize() <= 64);
+  }
+
+  public void testShared() {
+    assertSame(URLCache.get(conf), URLCache.get(conf));
+  }
+}
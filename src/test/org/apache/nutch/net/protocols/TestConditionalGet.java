@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net.protocols;
+
+import org.apache.avro.util.Utf8;
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.metadata.SpellCheckedMetadata;
+import org.apache.nutch.storage.WebPage;
+
+import junit.framework.TestCase;
+
+public class TestConditionalGet extends TestCase {
+
+  public void testValidators() {
+    WebPage page = new WebPage();
+    assertNull(ConditionalGet.getIfNoneMatch(page));
+    assertNull(ConditionalGet.getIfModifiedSince(page));
+
+    page.setModifiedTime(1000000000000L);
+    assertEquals(HttpDateFormat.toString(1000000000000L),
+        ConditionalGet.getIfModifiedSince(page));
+
+    Metadata headers = new SpellCheckedMetadata();
+    headers.set("etag", "\"abc\"");
+    headers.set("Last-Modified", "Sat, 29 Oct 1994 19:43:31 GMT");
+    ConditionalGet.storeHeaders(page, 200, headers);
+    assertEquals("\"abc\"", ConditionalGet.getIfNoneMatch(page));
+    // as the server sent it
+    assertEquals("Sat, 29 Oct 1994 19:43:31 GMT",
+        ConditionalGet.getIfModifiedSince(page));
+
+    // whatever the case of the stored name
+    page = new WebPage();
+    page.putToHeaders(new Utf8("ETAG"), new Utf8("W/\"x\""));
+    assertEquals("W/\"x\"", ConditionalGet.getIfNoneMatch(page));
+  }
+
+  public void testStoreHeaders() {
+    WebPage page = new WebPage();
+    Metadata headers = new SpellCheckedMetadata();
+    headers.set("Content-Type", "text/html");
+    headers.set("ETag", "\"1\"");
+    ConditionalGet.storeHeaders(page, 200, headers);
+
+    // a 304 keeps the stored headers
+    headers = new SpellCheckedMetadata();
+    headers.set("ETag", "\"2\"");
+    ConditionalGet.storeHeaders(page, 304, headers);
+    assertEquals(new Utf8("text/html"),
+        page.getFromHeaders(new Utf8("Content-Type")));
+    assertEquals("\"2\"", ConditionalGet.getIfNoneMatch(page));
+
+    // other responses replace them
+    headers = new SpellCheckedMetadata();
+    headers.set("Content-Type", "text/plain");
+    ConditionalGet.storeHeaders(page, 200, headers);
+    assertEquals(new Utf8("text/plain"),
+        page.getFromHeaders(new Utf8("Content-Type")));
+    assertNull(ConditionalGet.getIfNoneMatch(page));
+  }
+
+}
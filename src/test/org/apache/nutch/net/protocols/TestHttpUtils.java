@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.net.protocols;
+
+import java.net.URL;
+
+import org.apache.nutch.metadata.Metadata;
+import org.apache.nutch.metadata.SpellCheckedMetadata;
+import org.apache.nutch.protocol.ProtocolOutput;
+import org.apache.nutch.protocol.ProtocolStatusCodes;
+import org.apache.nutch.protocol.ProtocolStatusUtils;
+import org.apache.nutch.util.GZIPUtils;
+import org.apache.nutch.util.MimeUtil;
+import org.apache.nutch.util.NutchConfiguration;
+
+import junit.framework.TestCase;
+
+public class TestHttpUtils extends TestCase {
+
+  public void testAgentString() {
+    assertEquals("", HttpUtils.getAgentString(null, "1.0", null, null, null));
+    assertEquals("bot/1.0", HttpUtils.getAgentString("bot", "1.0", null, null, ""));
+    assertEquals("bot (a bot; bot@example.com)", HttpUtils.getAgentString(
+        "bot", null, "a bot", null, "bot@example.com"));
+  }
+
+  public void testStatusLine() {
+    assertEquals(200, HttpUtils.parseStatusCode("HTTP/1.1 200 OK"));
+    assertEquals(404, HttpUtils.parseStatusCode("HTTP/1.0 404"));
+    assertEquals(-1, HttpUtils.parseStatusCode("HTTP/1.1"));
+    assertEquals(-1, HttpUtils.parseStatusCode("HTTP/1.1 OK"));
+  }
+
+  public void testHeaderLine() {
+    Metadata headers = new SpellCheckedMetadata();
+    assertTrue(HttpUtils.parseHeaderLine("content-type:  text/html ", headers));
+    assertEquals("text/html", headers.get(Response.CONTENT_TYPE));
+    assertTrue(HttpUtils.parseHeaderLine(" ", headers));
+    assertFalse(HttpUtils.parseHeaderLine("<html>", headers));
+  }
+
+  public void testDecodeContent() throws Exception {
+    byte[] content = "some content".getBytes("UTF-8");
+    assertSame(content, HttpUtils.decodeContent(content, null, -1));
+    assertEquals("some content", new String(HttpUtils.decodeContent(
+        GZIPUtils.zip(content), " GZIP", -1), "UTF-8"));
+    assertEquals("some", new String(HttpUtils.decodeContent(
+        GZIPUtils.zip(content), "x-gzip", 4), "UTF-8"));
+  }
+
+  public void testProtocolOutput() throws Exception {
+    MimeUtil mimeTypes = new MimeUtil(NutchConfiguration.create());
+    URL url = new URL("http://www.example.com/page");
+    Metadata headers = new SpellCheckedMetadata();
+    assertEquals(ProtocolStatusCodes.NOTMODIFIED, HttpUtils.toProtocolOutput(
+        url, 304, headers, null, mimeTypes).getStatus().getCode());
+
+    ProtocolOutput output = HttpUtils.toProtocolOutput(url, 200, headers,
+        "text".getBytes("UTF-8"), mimeTypes);
+    assertEquals(ProtocolStatusCodes.SUCCESS, output.getStatus().getCode());
+    assertEquals("text", new String(output.getContent().getContent(), "UTF-8"));
+
+    headers.set("location", "/moved");
+    output = HttpUtils.toProtocolOutput(url, 302, headers, null, mimeTypes);
+    assertEquals(ProtocolStatusCodes.TEMP_MOVED, output.getStatus().getCode());
+    assertEquals("http://www.example.com/moved",
+        ProtocolStatusUtils.getMessage(output.getStatus()));
+    output = HttpUtils.toProtocolOutput(url, 301, headers, null, mimeTypes);
+    assertEquals(ProtocolStatusCodes.MOVED, output.getStatus().getCode());
+
+    assertEquals(ProtocolStatusCodes.NOTFOUND, HttpUtils.toProtocolOutput(
+        url, 404, headers, null, mimeTypes).getStatus().getCode());
+    assertEquals(ProtocolStatusCodes.GONE, HttpUtils.toProtocolOutput(
+        url, 410, headers, null, mimeTypes).getStatus().getCode());
+    assertEquals(ProtocolStatusCodes.EXCEPTION, HttpUtils.toProtocolOutput(
+        url, 500, headers, null, mimeTypes).getStatus().getCode());
+  }
+}
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.parse;
+
+import java.util.Collection;
+import java.util.HashSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.storage.WebPage;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link ParserExecutor} with parsers that sleep, or ignore
+ * interrupts.
+ */
+public class TestParserExecutor extends TestCase {
+
+  /** Parses urls like "sleep:500", "spin:" or "ok:". */
+  private static class TestParser implements Parser {
+    private volatile boolean released;
+
+    public Parse getParse(String url, WebPage page) {
+      if (url.startsWith("sleep:")) {
+        try {
+          Thread.sleep(Long.parseLong(url.substring(6)));
+        } catch (InterruptedException e) {
+          return null;
+        }
+      } else if (url.startsWith("spin:")) {
+        while (!released) {
+          try {
+            Thread.sleep(10);
+          } catch (InterruptedException e) {
+            // ignored, like a parser stuck in a loop
+          }
+        }
+      }
+      return new Parse(url, url, new Outlink[0], ParseStatusUtils.STATUS_SUCCESS);
+    }
+
+    public Collection<WebPage.Field> getFields() {
+      return new HashSet<WebPage.Field>();
+    }
+
+    public void setConf(Configuration conf) {
+    }
+
+    public Configuration getConf() {
+      return null;
+    }
+  }
+
+  private TestParser parser;
+
+  @Override
+  protected void setUp() {
+    parser = new TestParser();
+  }
+
+  @Override
+  protected void tearDown() {
+    parser.released = true;
+  }
+
+  private static void waitForZombies(ParserExecutor executor, int zombies)
+  throws InterruptedException {
+    for (int i = 0; i < 100 && executor.getZombies() != zombies; i++) {
+      Thread.sleep(50);
+    }
+    assertEquals(zombies, executor.getZombies());
+  }
+
+  public void testParse() {
+    final ParserExecutor executor = new ParserExecutor(2, 1000, -1);
+    assertEquals("ok:", executor.parse(parser, "ok:", new WebPage()).getText());
+    assertEquals(0, executor.getTimeouts());
+  }
+
+  public void testTimeout() throws Exception {
+    final ParserExecutor executor = new ParserExecutor(1, 200, -1);
+    assertNull(executor.parse(parser, "sleep:5000", new WebPage()));
+    assertEquals(1, executor.getTimeouts());
+    // the interrupt stopped it
+    waitForZombies(executor, 0);
+    assertNotNull(executor.parse(parser, "ok:", new WebPage()));
+  }
+
+  public void testQueuedTimeNotCounted() throws Exception {
+    final ParserExecutor executor = new ParserExecutor(1, 1000, -1);
+    final Parse[] parses = new Parse[2];
+    final Thread[] threads = new Thread[2];
+    for (int i = 0; i < threads.length; i++) {
+      final int n = i;
+      threads[i] = new Thread() {
+        public void run() {
+          parses[n] = executor.parse(parser, "sleep:600", new WebPage());
+        }
+      };
+      threads[i].start();
+    }
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+    // the second parse waited for the first one, then ran in time
+    assertNotNull(parses[0]);
+    assertNotNull(parses[1]);
+    assertEquals(0, executor.getTimeouts());
+  }
+
+  public void testZombie() throws Exception {
+    final ParserExecutor executor = new ParserExecutor(1, 200, -1);
+    assertNull(executor.parse(parser, "spin:", new WebPage()));
+    assertEquals(1, executor.getTimeouts());
+    assertEquals(1, executor.getZombies());
+    // another thread takes over
+    assertNotNull(executor.parse(parser, "ok:", new WebPage()));
+    assertNull(executor.parse(parser, "spin:", new WebPage()));
+    assertEquals(2, executor.getZombies());
+    parser.released = true;
+    waitForZombies(executor, 0);
+    assertEquals(2, executor.getZombieCount());
+    assertEquals(2, executor.getMaxZombies());
+    assertEquals(0, executor.getKilled());
+  }
+
+  public void testKill() throws Exception {
+    final ParserExecutor executor = new ParserExecutor(1, 200, 200);
+    assertNull(executor.parse(parser, "spin:", new WebPage()));
+    assertEquals(1, executor.getZombies());
+    Thread.sleep(500);
+    // zombies are looked at on the next parse
+    assertNotNull(executor.parse(parser, "ok:", new WebPage()));
+    if (executor.getKilled() == 1) {
+      waitForZombies(executor, 0);
+    } else {
+      // Thread.stop() is not supported by this JVM
+      assertEquals(1, executor.getZombies());
+    }
+    assertEquals(1, executor.getZombieCount());
+  }
+}
@@ -0,0 +1,305 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.parse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.nutch.crawl.CrawlStatus;
+import org.apache.nutch.crawl.GeneratorJob;
+import org.apache.nutch.crawl.URLWebPage;
+import org.apache.nutch.storage.Mark;
+import org.apache.nutch.storage.ParseStatus;
+import org.apache.nutch.storage.WebPage;
+import org.apache.nutch.util.NutchConfiguration;
+import org.apache.nutch.util.TableUtil;
+
+/**
+ * Tests the {@link ParserJob.ParserMapper} parsing pages on several threads:
+ * every page of the batch is written once, the writes do not overlap, the
+ * pages in flight stay within their budgets, and the counters are complete
+ * when the task is cleaned up.
+ */
+public class TestParserMapper extends TestCase {
+
+  private static final String BATCH = "1234-5678";
+  private static final int PAGES = 200;
+  private static final int SIZE = 1000;
+
+  private Configuration conf;
+
+  @Override
+  protected void setUp() {
+    conf = NutchConfiguration.create();
+    conf.set(GeneratorJob.BATCH_ID, BATCH);
+    conf.setInt(ParserJob.THREADS_KEY, 4);
+  }
+
+  public void testByteBudget() throws Exception {
+    // three pages at a time
+    conf.setLong(ParserJob.INFLIGHT_BYTES_KEY, 3 * SIZE);
+    Run run = new Run();
+    run.run();
+    run.check();
+    assertTrue(run.maxUnwrittenBytes <= 3 * SIZE);
+  }
+
+  public void testPageBudget() throws Exception {
+    conf.setLong(ParserJob.INFLIGHT_BYTES_KEY, 1000L * SIZE);
+    Run run = new Run();
+    run.run();
+    run.check();
+    assertTrue(run.maxUnwritten <= 2 * 4);
+    assertTrue(run.maxActive > 1);
+    assertTrue(run.maxActive <= 4);
+  }
+
+  public void testPoolThreads() throws Exception {
+    conf.setInt(ParserJob.THREADS_KEY, 20);
+    conf.setInt("parser.threads", 10);
+    Run run = new Run();
+    run.run();
+    run.check();
+    assertEquals(20, run.poolThreads);
+  }
+
+  public void testFailure() throws Exception {
+    conf.setLong(ParserJob.INFLIGHT_BYTES_KEY, 1000L * SIZE);
+    Run run = new Run();
+    run.failAt = 52;
+    try {
+      run.run();
+      fail("failure not reported");
+    } catch (IllegalStateException e) {
+      assertEquals("parse 52", e.getMessage());
+    }
+    assertFalse(run.cleanedUp);
+  }
+
+  /** One map task, on pages read into a reused page. */
+  private class Run {
+    final Counters counters = new Counters();
+    final List<String> written = Collections.synchronizedList(new ArrayList<String>());
+    final AtomicInteger active = new AtomicInteger();
+    final AtomicInteger redirects = new AtomicInteger();
+    volatile int maxActive;
+    volatile boolean writing;
+    volatile String overlap;
+    int maxUnwritten;
+    long maxUnwrittenBytes;
+    int failAt = -1;
+    boolean cleanedUp;
+    int cleanupWrites;
+    int poolThreads;
+    final Set<String> expected = new HashSet<String>();
+
+    void run() throws Exception {
+      ParserJob.ParserMapper mapper = new ParserJob.ParserMapper() {
+        @Override
+        URLWebPage process(String key, WebPage page) {
+          int n = active.incrementAndGet();
+          if (n > maxActive) {
+            maxActive = n;
+          }
+          try {
+            String url = TableUtil.unreverseUrl(key);
+            int i = Integer.parseInt(url.substring(url.lastIndexOf('/') + 1));
+            if (i == failAt) {
+              throw new IllegalStateException("parse " + i);
+            }
+            // the page was copied from the reused one
+            assertEquals((byte) i, page.getContent().get(0));
+            Thread.sleep(1);
+            ParseStatus status = new ParseStatus();
+            status.setMajorCode(ParseStatusCodes.SUCCESS);
+            page.setParseStatus(status);
+            if (i % 3 == 0) {
+              redirects.incrementAndGet();
+              return new URLWebPage("http://www.example.com/redirect/" + i,
+                  new WebPage());
+            }
+            return null;
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          } finally {
+            active.decrementAndGet();
+          }
+        }
+
+        @Override
+        protected void cleanup(Context context) {
+          super.cleanup(context);
+          cleanedUp = true;
+          cleanupWrites = written.size();
+          poolThreads = context.getConfiguration().getInt("parser.threads", 0);
+        }
+      };
+      ParserJob.ParserMapper.Context context = mapper.new Context(conf,
+          new TaskAttemptID(), new Reader(), new Writer(), null,
+          new Reporter(), null);
+      mapper.run(context);
+    }
+
+    void check() {
+      assertNull(overlap, overlap);
+      assertTrue(cleanedUp);
+      // nothing is written after the cleanup
+      assertEquals(written.size(), cleanupWrites);
+      assertEquals(expected.size() + redirects.get(), written.size());
+      assertEquals(written.size(), new HashSet<String>(written).size());
+      for (int i = 0; i < written.size(); i++) {
+        String url = TableUtil.unreverseUrl(written.get(i));
+        if (url.contains("/redirect/")) {
+          // a redirect is written right before its page
+          assertEquals(url.replace("/redirect/", "/"),
+              TableUtil.unreverseUrl(written.get(i + 1)));
+        } else {
+          assertTrue(url, expected.contains(written.get(i)));
+        }
+      }
+      assertEquals(expected.size(), counters.findCounter("ParserStatus",
+          ParseStatusCodes.majorCodes[ParseStatusCodes.SUCCESS]).getValue());
+      assertEquals(0, counters.findCounter("ParserStatus", "timeout").getValue());
+    }
+
+    /** Reads pages into one reused page, as the Gora record reader does. */
+    private class Reader extends RecordReader<String, WebPage> {
+      private final WebPage page = new WebPage();
+      private int next = 0;
+      private String key;
+      private int read = 0;
+
+      @Override
+      public void initialize(InputSplit split, TaskAttemptContext context) {
+      }
+
+      @Override
+      public boolean nextKeyValue() throws IOException {
+        // the pages read before are in flight until they are written
+        if (key != null && expected.contains(key)) {
+          read++;
+        }
+        int unwritten = read - countPages();
+        maxUnwritten = Math.max(maxUnwritten, unwritten);
+        maxUnwrittenBytes = Math.max(maxUnwrittenBytes, (long) unwritten * SIZE);
+        if (next == PAGES) {
+          return false;
+        }
+        int i = next++;
+        key = TableUtil.reverseUrl("http://www.example.com/" + i);
+        page.clear();
+        page.setStatus(i % 7 == 0 ? CrawlStatus.STATUS_NOTMODIFIED
+            : CrawlStatus.STATUS_FETCHED);
+        byte[] content = new byte[SIZE];
+        content[0] = (byte) i;
+        page.setContent(ByteBuffer.wrap(content));
+        Mark.FETCH_MARK.putMark(page, i % 5 == 0 ? "other" : BATCH);
+        page.clearDirty();
+        if (i % 7 != 0 && i % 5 != 0) {
+          expected.add(key);
+        }
+        return true;
+      }
+
+      private int countPages() {
+        int pages = 0;
+        synchronized (written) {
+          for (String key : written) {
+            if (expected.contains(key)) {
+              pages++;
+            }
+          }
+        }
+        return pages;
+      }
+
+      @Override
+      public String getCurrentKey() {
+        return key;
+      }
+
+      @Override
+      public WebPage getCurrentValue() {
+        return page;
+      }
+
+      @Override
+      public float getProgress() {
+        return (float) next / PAGES;
+      }
+
+      @Override
+      public void close() {
+      }
+    }
+
+    private class Writer extends RecordWriter<String, WebPage> {
+      @Override
+      public void write(String key, WebPage page) throws InterruptedException {
+        if (writing) {
+          overlap = "overlapping write of " + key;
+        }
+        writing = true;
+        Thread.sleep(1);
+        written.add(key);
+        writing = false;
+      }
+
+      @Override
+      public void close(TaskAttemptContext context) {
+      }
+    }
+
+    private class Reporter extends StatusReporter {
+      @Override
+      public Counter getCounter(Enum<?> name) {
+        return counters.findCounter(name);
+      }
+
+      @Override
+      public Counter getCounter(String group, String name) {
+        return counters.findCounter(group, name);
+      }
+
+      @Override
+      public void progress() {
+      }
+
+      @Override
+      public void setStatus(String status) {
+      }
+    }
+  }
+
+}
@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.apache.nutch.protocol;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.nutch.util.NutchConfiguration;
+
+import junit.framework.TestCase;
+
+public class TestRobotRulesCache extends TestCase {
+
+  private static class TestRules implements RobotRules {
+    private final long crawlDelay;
+    private final long expireTime;
+
+    TestRules(long crawlDelay, long expireTime) {
+      this.crawlDelay = crawlDelay;
+      this.expireTime = expireTime;
+    }
+
+    public long getExpireTime() {
+      return expireTime;
+    }
+
+    public long getCrawlDelay() {
+      return crawlDelay;
+    }
+
+    public boolean isAllowed(URL url) {
+      return true;
+    }
+  }
+
+  private static final RobotRulesCache.Serializer SERIALIZER =
+    new RobotRulesCache.Serializer() {
+    public void write(RobotRules rules, DataOutput out) throws IOException {
+      out.writeLong(rules.getCrawlDelay());
+    }
+
+    public RobotRules read(DataInput in) throws IOException {
+      return new TestRules(in.readLong(), 0);
+    }
+  };
+
+  /** Counts its calls, and returns rules with the delay given. */
+  private static class Fetch implements Callable<RobotRules> {
+    private final AtomicInteger calls = new AtomicInteger();
+    private final long crawlDelay;
+    private final long expireTime;
+    private final CountDownLatch latch;
+
+    Fetch(long crawlDelay, long expireTime, CountDownLatch latch) {
+      this.crawlDelay = crawlDelay;
+      this.expireTime = expireTime;
+      this.latch = latch;
+    }
+
+    public RobotRules call() throws Exception {
+      calls.incrementAndGet();
+      if (latch != null) {
+        latch.await();
+      }
+      return new TestRules(crawlDelay, expireTime);
+    }
+  }
+
+  private Configuration conf;
+
+  @Override
+  protected void setUp() {
+    conf = NutchConfiguration.create();
+  }
+
+  public void testSingleFetch() throws Exception {
+    final RobotRulesCache cache = new RobotRulesCache(conf);
+    final CountDownLatch latch = new CountDownLatch(1);
+    final Fetch fetch = new Fetch(5, 0, latch);
+    final long[] delays = new long[20];
+    final Thread[] threads = new Thread[delays.length];
+    for (int i = 0; i < threads.length; i++) {
+      final int n = i;
+      threads[i] = new Thread() {
+        public void run() {
+          try {
+            delays[n] = cache.get("host", fetch).getCrawlDelay();
+          } catch (Exception e) {
+            delays[n] = -1;
+          }
+        }
+      };
+      threads[i].start();
+    }
+    Thread.sleep(200);
+    latch.countDown();
+    for (int i = 0; i < threads.length; i++) {
+      threads[i].join();
+      assertEquals(5, delays[i]);
+    }
+    assertEquals(1, fetch.calls.get());
+    assertEquals(1, cache.getMisses());
+    assertEquals(delays.length - 1, cache.getHits());
+  }
+
+  public void testExpire() throws Exception {
+    conf.setLong(RobotRulesCache.TTL_KEY, 1);
+    final RobotRulesCache cache = new RobotRulesCache(conf);
+    // rules that expire at once are not kept
+    final Fetch error = new Fetch(1, System.currentTimeMillis(), null);
+    cache.get("error", error);
+    cache.get("error", error);
+    assertEquals(2, error.calls.get());
+    assertEquals(0, cache.size());
+
+    final Fetch fetch = new Fetch(1, 0, null);
+    cache.get("host", fetch);
+    cache.get("host", fetch);
+    assertEquals(1, fetch.calls.get());
+    Thread.sleep(1100);
+    cache.get("host", fetch);
+    assertEquals(2, fetch.calls.get());
+    assertEquals(1, cache.getEvictions());
+  }
+
+  public void testFailure() throws Exception {
+    final RobotRulesCache cache = new RobotRulesCache(conf);
+    final Callable<RobotRules> failing = new Callable<RobotRules>() {
+      public RobotRules call() throws Exception {
+        throw new IOException("failed");
+      }
+    };
+    try {
+      cache.get("host", failing);
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+    assertEquals(0, cache.size());
+  }
+
+  public void testSize() throws Exception {
+    conf.setInt(RobotRulesCache.SIZE_KEY, 10);
+    final RobotRulesCache cache = new RobotRulesCache(conf);
+    final Fetch fetch = new Fetch(1, 0, null);
+    for (int i = 0; i < 100; i++) {
+      cache.get("host" + i, fetch);
+    }
+    assertEquals(10, cache.size());
+    assertEquals(90, cache.getEvictions());
+  }
+
+  public void testFile() throws Exception {
+    final File file = File.createTempFile("robots", ".cache");
+    file.delete();
+    try {
+      conf.set(RobotRulesCache.FILE_KEY, file.getPath());
+      RobotRulesCache cache = new RobotRulesCache(conf);
+      cache.attach(SERIALIZER);
+      cache.get("a", new Fetch(1, 0, null));
+      cache.get("b", new Fetch(2, 0, null));
+      cache.put("c", new TestRules(3, 0));
+      cache.get("expired", new Fetch(4, System.currentTimeMillis(), null));
+      cache.close();
+      assertTrue(file.exists());
+
+      cache = new RobotRulesCache(conf);
+      cache.attach(SERIALIZER);
+      assertEquals(3, cache.size());
+      final Fetch fetch = new Fetch(0, 0, null);
+      assertEquals(1, cache.get("a", fetch).getCrawlDelay());
+      assertEquals(2, cache.get("b", fetch).getCrawlDelay());
+      assertEquals(3, cache.get("c", fetch).getCrawlDelay());
+      assertEquals(0, fetch.calls.get());
+    } finally {
+      file.delete();
+    }
+  }
+}
@@ -0,0 +1,156 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.avro.util.Utf8;
+import org.apache.gora.persistency.State;
+import org.apache.gora.persistency.StatefulMap;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.nutch.util.NutchConfiguration;
+
+/** Unit tests for the {@link ContentCodec}. */
+public class TestContentCodec extends TestCase {
+
+  private static final int CONTENT = WebPage.Field.CONTENT.getIndex();
+
+  private static final byte[] HTML = ("<html><head><title>title</title></head>"
+      + "<body><p>Some text, some text, some more text.</p>"
+      + "<p>Some text, some text, some more text.</p></body></html>")
+      .getBytes();
+
+  private Configuration conf;
+
+  @Override
+  protected void setUp() {
+    conf = NutchConfiguration.create();
+  }
+
+  public void testRoundTrip() throws IOException {
+    ContentCodec codec = new ContentCodec(conf);
+    WebPage page = fetched(new WebPage(), HTML);
+    codec.encode(page);
+    assertTrue(page.isDirty(CONTENT));
+    assertTrue(page.getContent().remaining() < HTML.length);
+    assertNotNull(page.getFromMetadata(ContentCodec.CODEC_META));
+
+    WebPage stored = stored(page);
+    codec.decode(stored);
+    assertEquals(ByteBuffer.wrap(HTML), stored.getContent());
+    // parsers read the whole array
+    assertEquals(HTML.length, stored.getContent().array().length);
+    assertFalse(stored.isDirty(CONTENT));
+
+    // content set in a page is not decoded
+    page = fetched(new WebPage(), HTML);
+    page.putToMetadata(ContentCodec.CODEC_META,
+        stored.getFromMetadata(ContentCodec.CODEC_META));
+    codec.decode(page);
+    assertEquals(ByteBuffer.wrap(HTML), page.getContent());
+  }
+
+  public void testUnchangedContent() throws IOException {
+    ContentCodec codec = new ContentCodec(conf);
+    WebPage page = fetched(new WebPage(), HTML);
+    codec.encode(page);
+    WebPage stored = stored(page);
+
+    // a refetch of the same content does not write it again
+    fetched(stored, HTML);
+    codec.encode(stored);
+    assertFalse(stored.isDirty(CONTENT));
+    assertEquals(ByteBuffer.wrap(HTML), stored.getContent());
+
+    // a change does
+    stored = stored(page);
+    byte[] changed = HTML.clone();
+    changed[changed.length - 10] = 'X';
+    fetched(stored, changed);
+    codec.encode(stored);
+    assertTrue(stored.isDirty(CONTENT));
+    WebPage read = stored(stored);
+    codec.decode(read);
+    assertEquals(ByteBuffer.wrap(changed), read.getContent());
+  }
+
+  public void testUncompressed() throws IOException {
+    ContentCodec codec = new ContentCodec(conf);
+    WebPage page = fetched(new WebPage(), HTML);
+    codec.encode(page);
+    WebPage stored = stored(page);
+
+    // content that does not compress is stored as is
+    byte[] random = new byte[1000];
+    new Random(0).nextBytes(random);
+    fetched(stored, random);
+    codec.encode(stored);
+    assertEquals(ByteBuffer.wrap(random), stored.getContent());
+    // removed entries stay in the map until the page is written
+    assertEquals(State.DELETED, ((StatefulMap<Utf8, ByteBuffer>) stored
+        .getMetadata()).getState(ContentCodec.CODEC_META));
+    WebPage read = stored(stored);
+    codec.decode(read);
+    assertEquals(ByteBuffer.wrap(random), read.getContent());
+
+    // and so is all content without a codec
+    conf.set(ContentCodec.CODEC_KEY, "");
+    page = fetched(new WebPage(), HTML);
+    new ContentCodec(conf).encode(page);
+    assertEquals(ByteBuffer.wrap(HTML), page.getContent());
+    assertNotNull(page.getFromMetadata(ContentCodec.DIGEST_META));
+  }
+
+  public void testChangedCodec() throws IOException {
+    conf.set(ContentCodec.CODEC_KEY, GzipCodec.class.getName());
+    WebPage page = fetched(new WebPage(), HTML);
+    new ContentCodec(conf).encode(page);
+
+    conf.set(ContentCodec.CODEC_KEY, "");
+    WebPage stored = stored(page);
+    new ContentCodec(conf).decode(stored);
+    assertEquals(ByteBuffer.wrap(HTML), stored.getContent());
+  }
+
+  /** Sets fetched content in a page. */
+  private static WebPage fetched(WebPage page, byte[] content) {
+    page.setContent(ByteBuffer.wrap(content));
+    return page;
+  }
+
+  /** @return the page as it would be read from the store */
+  private static WebPage stored(WebPage page) {
+    WebPage stored = new WebPage();
+    stored.setContent(page.getContent());
+    StatefulMap<Utf8, ByteBuffer> metadata =
+      (StatefulMap<Utf8, ByteBuffer>) page.getMetadata();
+    for (Map.Entry<Utf8, ByteBuffer> e : metadata.entrySet()) {
+      if (metadata.getState(e.getKey()) != State.DELETED) {
+        stored.putToMetadata(e.getKey(), e.getValue());
+      }
+    }
+    stored.clearDirty();
+    return stored;
+  }
+
+}
@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.nutch.util;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+/** Unit tests for PathRuleMatcher. */
+public class TestPathRuleMatcher extends TestCase {
+
+  private final static char[] alphabet= new char[] { 'a', 'b', 'c', '*' };
+
+  private final Random random= new Random(42);
+
+  private String makeRandRule(int maxLen) {
+    int len= random.nextInt(maxLen + 1);
+    StringBuilder rule= new StringBuilder();
+    for (int pos= 0; pos < len; pos++) {
+      rule.append(alphabet[random.nextInt(alphabet.length)]);
+    }
+    if (random.nextInt(5) == 0) {
+      rule.append('$');
+    }
+    return rule.toString();
+  }
+
+  private String makeRandInput(int maxLen) {
+    int len= random.nextInt(maxLen + 1);
+    char[] chars= new char[len];
+    for (int pos= 0; pos < len; pos++) {
+      chars[pos]= alphabet[random.nextInt(alphabet.length - 1)];
+    }
+    return new String(chars);
+  }
+
+  /** The regular expression a rule stands for. */
+  private static Pattern toPattern(String rule) {
+    boolean anchored= rule.endsWith("$");
+    if (anchored) {
+      rule= rule.substring(0, rule.length() - 1);
+    }
+    StringBuilder regex= new StringBuilder();
+    String[] parts= rule.split("\\*", -1);
+    for (int i= 0; i < parts.length; i++) {
+      if (i > 0) {
+        regex.append(".*");
+      }
+      if (parts[i].length() > 0) {
+        regex.append(Pattern.quote(parts[i]));
+      }
+    }
+    regex.append(anchored ? "" : ".*");
+    return Pattern.compile(regex.toString(), Pattern.DOTALL);
+  }
+
+  public void testFirstMatch() {
+    PathRuleMatcher matcher= new PathRuleMatcher(new String[] {
+        "/a/b", "/a", "/*.pdf$", "/c/*/d", "/e$", "", "/never" });
+    assertEquals(1, matcher.firstMatch("/a/c"));
+    assertEquals(0, matcher.firstMatch("/a/b/c"));
+    assertEquals(2, matcher.firstMatch("/x/y.pdf"));
+    assertEquals(5, matcher.firstMatch("/x/y.pdf?z"));
+    assertEquals(3, matcher.firstMatch("/c/x/y/dz"));
+    assertEquals(4, matcher.firstMatch("/e"));
+    assertEquals(5, matcher.firstMatch("/e/"));
+    assertEquals(5, matcher.firstMatch("/never"));
+
+    matcher= new PathRuleMatcher(new String[] { "/a*b*c$", "/a" });
+    assertEquals(0, matcher.firstMatch("/axbxbc"));
+    assertEquals(1, matcher.firstMatch("/axbxbcx"));
+    assertEquals(-1, matcher.firstMatch("/b"));
+    assertEquals(-1, new PathRuleMatcher(new String[0]).firstMatch("/"));
+  }
+
+  public void testShortestAndLongestMatch() {
+    PathRuleMatcher matcher= new PathRuleMatcher(new String[] {
+        "/abc", "/a*c", "/ab" });
+    assertEquals("/ab", matcher.shortestMatch("/abcbc"));
+    assertEquals("/abcbc", matcher.longestMatch("/abcbc"));
+    assertNull(matcher.shortestMatch("/b"));
+    assertNull(matcher.longestMatch("/b"));
+  }
+
+  public void testRandomRules() {
+    for (int round= 0; round < 50; round++) {
+      String[] rules= new String[1 + random.nextInt(20)];
+      Pattern[] patterns= new Pattern[rules.length];
+      for (int i= 0; i < rules.length; i++) {
+        rules[i]= makeRandRule(6);
+        patterns[i]= toPattern(rules[i]);
+      }
+      PathRuleMatcher matcher= new PathRuleMatcher(rules);
+
+      for (int n= 0; n < 200; n++) {
+        String input= makeRandInput(10);
+        int expected= -1;
+        for (int i= 0; i < rules.length && expected == -1; i++) {
+          if (patterns[i].matcher(input).matches()) {
+            expected= i;
+          }
+        }
+        assertEquals("first of " + java.util.Arrays.asList(rules)
+                     + " matching '" + input + "'",
+                     expected, matcher.firstMatch(input));
+      }
+    }
+  }
+
+}
@@ -16,11 +16,19 @@
  ******************************************************************************/
 package org.apache.nutch.util;
 
+import java.net.MalformedURLException;
+import java.net.URL;
+
 import org.apache.nutch.util.TableUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import junit.framework.TestCase;
 
 public class TestTableUtil extends TestCase {
 
+  private static final Logger LOG = LoggerFactory.getLogger(TestTableUtil.class);
+
   String urlString1 = "http://foo.com/";
   String urlString2 = "http://foo.com:8900/";
   String urlString3 = "ftp://bar.baz.com/";
@@ -55,6 +63,124 @@ public class TestTableUtil extends TestCase {
     assertUnreverse(reversedUrlString6, urlString6);
   }
 
+  public void testUnreverseHost() throws Exception {
+    assertEquals("bar.foo.com", TableUtil.unreverseHost("com.foo.bar"));
+    assertEquals("localhost", TableUtil.unreverseHost("localhost"));
+    assertEquals("1.0.0.127", TableUtil.unreverseHost("127.0.0.1"));
+  }
+
+  public void testReverseLikeURL() throws Exception {
+    String[] urls = {
+        "http://foo.com/", "HTTP://Foo.COM/A", "https://foo.com:443/a?b#c",
+        "http://foo.com:/a", "http://foo.com:080/", "http://foo.com:99999999999/",
+        "http://foo.com:8x/", "http://foo.com#frag", "http://foo.com?q#frag",
+        "http://foo.com/a/./b", "http://foo.com/a/../b", "http://foo.com/a?x=/../",
+        "http://foo.com/.well-known/x", "http://user:pw@foo.com/",
+        "http://[::1]:8080/", "http://foo.com./", "http://.foo.com/",
+        "http://a..b/", "http://foo.com", " http://foo.com/ ", "url:http://foo.com/",
+        "ftp://ftp.foo.com/pub", "file:///tmp/x", "mailto:a@foo.com",
+        "nosuch://foo.com/", "http:foo.com", "http://", "http://foo.com/a b",
+        "http://foo.com/\u00e9t\u00e9" };
+    for (String url : urls) {
+      String expected;
+      try {
+        expected = TableUtil.reverseUrl(new URL(url));
+      } catch (MalformedURLException e) {
+        expected = null;
+      }
+      String reversed;
+      try {
+        reversed = TableUtil.reverseUrl(url);
+      } catch (MalformedURLException e) {
+        reversed = null;
+      }
+      assertEquals(url, expected, reversed);
+    }
+  }
+
+  public void testHostViews() throws Exception {
+    assertEquals("bar.baz.com", TableUtil.getHost(reversedUrlString4));
+    assertEquals("http", TableUtil.getProtocol(reversedUrlString4));
+    assertEquals("ftp", TableUtil.getProtocol(reversedUrlString3));
+    assertEquals("http", TableUtil.getProtocol(reversedUrlString6));
+    assertEquals("baz.com", TableUtil.getDomainName(reversedUrlString4));
+    assertEquals(11, TableUtil.getReversedHostLength(reversedUrlString4));
+    assertEquals("com.baz.bar".hashCode(),
+        TableUtil.hashReversedHost(reversedUrlString4));
+    assertTrue(TableUtil.isSameReversedHost(reversedUrlString3,
+        reversedUrlString4));
+    assertFalse(TableUtil.isSameReversedHost(reversedUrlString1,
+        reversedUrlString4));
+    assertFalse(TableUtil.isSameReversedHost("com.foo:http/",
+        "com.foo2:http/"));
+  }
+
+  /** Compares with the implementation based on URL and split(). */
+  public void bench() throws Exception {
+    String[] urls = new String[1000];
+    for (int i = 0; i < urls.length; i++) {
+      urls[i] = "http://www" + (i % 10) + ".example" + (i % 100)
+          + ".co.uk/some/path/" + i + ".html?a=b&c=" + i;
+    }
+    String[] reversed = new String[urls.length];
+    for (int round = 0; round < 3; round++) {
+      long start = System.currentTimeMillis();
+      for (int n = 0; n < 200; n++) {
+        for (int i = 0; i < urls.length; i++) {
+          reversed[i] = splitReverseUrl(urls[i]);
+          splitUnreverseUrl(reversed[i]);
+        }
+      }
+      long split = System.currentTimeMillis() - start;
+      start = System.currentTimeMillis();
+      for (int n = 0; n < 200; n++) {
+        for (int i = 0; i < urls.length; i++) {
+          reversed[i] = TableUtil.reverseUrl(urls[i]);
+          TableUtil.unreverseUrl(reversed[i]);
+        }
+      }
+      LOG.info("bench time (200000 reverse+unreverse): URL and split "
+          + split + "ms, scan " + (System.currentTimeMillis() - start) + "ms");
+    }
+  }
+
+  private static String splitReverseUrl(String urlString)
+  throws MalformedURLException {
+    URL url = new URL(urlString);
+    String file = url.getFile();
+    StringBuilder buf = new StringBuilder();
+    splitReverseAppend(url.getHost().split("\\."), buf);
+    buf.append(':').append(url.getProtocol());
+    if (url.getPort() != -1) {
+      buf.append(':').append(url.getPort());
+    }
+    if (file.length() > 0 && '/' != file.charAt(0)) {
+      buf.append('/');
+    }
+    return buf.append(file).toString();
+  }
+
+  private static String splitUnreverseUrl(String reversedUrl) {
+    StringBuilder buf = new StringBuilder(reversedUrl.length() + 2);
+    int pathBegin = reversedUrl.indexOf('/');
+    if (pathBegin == -1)
+      pathBegin = reversedUrl.length();
+    String[] splits = reversedUrl.substring(0, pathBegin).split(":");
+    buf.append(splits[1]).append("://");
+    splitReverseAppend(splits[0].split("\\."), buf);
+    if (splits.length == 3) {
+      buf.append(':').append(splits[2]);
+    }
+    return buf.append(reversedUrl.substring(pathBegin)).toString();
+  }
+
+  private static void splitReverseAppend(String[] splits, StringBuilder buf) {
+    for (int i = splits.length - 1; i > 0; i--) {
+      buf.append(splits[i]).append('.');
+    }
+    buf.append(splits[0]);
+  }
+
   private static void assertReverse(String url, String expectedReversedUrl) throws Exception {
     String reversed = TableUtil.reverseUrl(url);
     assertEquals(expectedReversedUrl, reversed);
@@ -18,6 +18,13 @@
 package org.apache.nutch.util;
 
 import java.net.URL;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.apache.nutch.util.domain.DomainSuffix;
+import org.apache.nutch.util.domain.DomainSuffixes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import junit.framework.TestCase;
 
@@ -25,6 +32,12 @@ import junit.framework.TestCase;
 public class TestURLUtil
   extends TestCase {
 
+  private static final Logger LOG = LoggerFactory.getLogger(TestURLUtil.class);
+
+  private static final String[] LABELS = { "www", "example", "co", "uk",
+    "com", "org", "plc", "im", "2000", "hu", "nn", "", "\u5546\u696d", "tw",
+    "1", "10", "255", "1234", "ORG" };
+
   @Override
   protected void setUp()
     throws Exception {
@@ -213,4 +226,96 @@ public class TestURLUtil
     assertEquals(aDotCom, URLUtil.chooseRepr(aDotCom, aSubDotCom, true));
   }
 
+  /** Compares with the substring and lookup implementation. */
+  public void testRandomHosts() {
+    Random random = new Random(42);
+    for (int n = 0; n < 10000; n++) {
+      String host = randomHost(random);
+      assertEquals(host, substringDomainName(host),
+          URLUtil.getHostDomainName(host));
+      assertSame(host, substringDomainSuffix(host),
+          URLUtil.getHostDomainSuffix(host));
+    }
+  }
+
+  public void bench() {
+    Random random = new Random(42);
+    String[] hosts = new String[1000];
+    for (int i = 0; i < hosts.length; i++) {
+      hosts[i] = randomHost(random);
+    }
+    for (int round = 0; round < 3; round++) {
+      long start = System.currentTimeMillis();
+      for (int n = 0; n < 200; n++) {
+        for (int i = 0; i < hosts.length; i++) {
+          substringDomainName(hosts[i]);
+        }
+      }
+      long substrings = System.currentTimeMillis() - start;
+      start = System.currentTimeMillis();
+      for (int n = 0; n < 200; n++) {
+        for (int i = 0; i < hosts.length; i++) {
+          URLUtil.getHostDomainName(hosts[i]);
+        }
+      }
+      LOG.info("bench time (200000 domain names): substrings " + substrings
+          + "ms, trie " + (System.currentTimeMillis() - start) + "ms");
+    }
+  }
+
+  private static String randomHost(Random random) {
+    StringBuilder host = new StringBuilder();
+    int labels = 1 + random.nextInt(5);
+    for (int i = 0; i < labels; i++) {
+      if (i > 0) {
+        host.append('.');
+      }
+      host.append(LABELS[random.nextInt(LABELS.length)]);
+    }
+    if (random.nextInt(10) == 0) {
+      host.append('.');
+    }
+    return host.toString();
+  }
+
+  private static final Pattern IP_PATTERN =
+    Pattern.compile("(\\d{1,3}\\.){3}(\\d{1,3})");
+
+  private static String substringDomainName(String host) {
+    DomainSuffixes tlds = DomainSuffixes.getInstance();
+    if (host.endsWith("."))
+      host = host.substring(0, host.length() - 1);
+    if (IP_PATTERN.matcher(host).matches())
+      return host;
+    int index = 0;
+    String candidate = host;
+    for (; index >= 0;) {
+      index = candidate.indexOf('.');
+      String subCandidate = candidate.substring(index + 1);
+      if (tlds.isDomainSuffix(subCandidate)) {
+        return candidate;
+      }
+      candidate = subCandidate;
+    }
+    return candidate;
+  }
+
+  private static DomainSuffix substringDomainSuffix(String host) {
+    DomainSuffixes tlds = DomainSuffixes.getInstance();
+    if (IP_PATTERN.matcher(host).matches())
+      return null;
+    int index = 0;
+    String candidate = host;
+    for (; index >= 0;) {
+      index = candidate.indexOf('.');
+      String subCandidate = candidate.substring(index + 1);
+      DomainSuffix d = tlds.get(subCandidate);
+      if (d != null) {
+        return d;
+      }
+      candidate = subCandidate;
+    }
+    return null;
+  }
+
 }
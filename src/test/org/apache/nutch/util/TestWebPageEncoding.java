@@ -0,0 +1,226 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.nutch.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.EnumSet;
+
+import junit.framework.TestCase;
+
+import org.apache.avro.util.Utf8;
+import org.apache.gora.mapreduce.GoraMapReduceUtils;
+import org.apache.gora.persistency.State;
+import org.apache.gora.persistency.StatefulMap;
+import org.apache.gora.util.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.nutch.storage.ParseStatus;
+import org.apache.nutch.storage.ProtocolStatus;
+import org.apache.nutch.storage.WebPage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Unit tests for the {@link WebPageEncoding}. */
+public class TestWebPageEncoding extends TestCase {
+
+  private static final Logger LOG =
+    LoggerFactory.getLogger(TestWebPageEncoding.class);
+
+  private static final Utf8 URL = new Utf8("http://www.example.com/");
+
+  public void testRoundTrip() throws IOException {
+    WebPage page = createPage(4096, 20);
+    // changes made by a mapper
+    page.setScore(2.5f);
+    page.getOutlinks().remove(new Utf8(URL + "0"));
+    page.putToMarkers(new Utf8("_gnmrk_"), new Utf8("1234"));
+    page.getHeaders().clear();
+    page.setReprUrl(null);
+
+    WebPage read = decode(encode(page, WebPageEncoding.ALL_FIELDS), null);
+    assertPage(page, read);
+    // removed entries are deleted when the page is written
+    assertEquals(State.DELETED, ((StatefulMap<Utf8, Utf8>) read.getOutlinks())
+        .getState(new Utf8(URL + "0")));
+    assertEquals(State.DELETED, ((StatefulMap<Utf8, Utf8>) read.getHeaders())
+        .getState(new Utf8("ETag")));
+    assertNull(((StatefulMap<Utf8, Utf8>) read.getOutlinks())
+        .getState(new Utf8(URL + "1")));
+    assertTrue(read.isDirty(WebPage.Field.REPR_URL.getIndex()));
+    assertNull(read.getReprUrl());
+  }
+
+  public void testProjection() throws IOException {
+    WebPage page = createPage(4096, 20);
+    page.setTitle(new Utf8("changed"));
+    long fields = WebPageEncoding.getFieldMask(
+        EnumSet.complementOf(EnumSet.of(WebPage.Field.CONTENT,
+            WebPage.Field.TITLE, WebPage.Field.OUTLINKS)));
+    byte[] bytes = encode(page, fields);
+    assertTrue(bytes.length < 4096);
+    WebPage read = decode(bytes, new WebPage());
+
+    // the content is not sent, a changed field is
+    assertFalse(read.isReadable(WebPage.Field.CONTENT.getIndex()));
+    assertNull(read.getContent());
+    assertTrue(read.isDirty(WebPage.Field.TITLE.getIndex()));
+    assertEquals(new Utf8("changed"), read.getTitle());
+    assertFalse(read.isReadable(WebPage.Field.OUTLINKS.getIndex()));
+    assertTrue(read.getOutlinks().isEmpty());
+    assertEquals(page.getFetchTime(), read.getFetchTime());
+    assertEquals(page.getMarkers(), read.getMarkers());
+    assertFalse(read.isDirty(WebPage.Field.MARKERS.getIndex()));
+
+    // a reused page does not keep the fields of the previous one
+    read = decode(encode(page, WebPageEncoding.ALL_FIELDS), read);
+    assertPage(page, read);
+    WebPage small = new WebPage();
+    small.setStatus(3);
+    read = decode(encode(small, WebPageEncoding.ALL_FIELDS), read);
+    assertPage(small, read);
+    assertNull(read.getContent());
+    assertTrue(read.getMarkers().isEmpty());
+  }
+
+  public void testSize() throws IOException {
+    Configuration conf = createConfiguration();
+    WebPage page = createPage(0, 20);
+    int avro = avroEncode(conf, page).length;
+    int compact = encode(page, WebPageEncoding.ALL_FIELDS).length;
+    assertTrue(compact + " >= " + avro, compact < avro);
+  }
+
+  /**
+   * Compares the size of the pages shuffled by the fetcher and their time
+   * of serialization with those of the Avro serialization of Gora.
+   */
+  public void bench() throws IOException {
+    Configuration conf = createConfiguration();
+    WebPage page = createPage(20000, 50);
+    long fetcherFields = WebPageEncoding.getFieldMask(
+        EnumSet.complementOf(EnumSet.of(WebPage.Field.CONTENT)));
+    LOG.info("bytes: avro " + avroEncode(conf, page).length + ", all fields "
+        + encode(page, WebPageEncoding.ALL_FIELDS).length + ", fetcher "
+        + encode(page, fetcherFields).length);
+    int loops = 20000;
+    for (int round = 0; round < 3; round++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < loops; i++) {
+        DataOutputBuffer out = new DataOutputBuffer();
+        IOUtils.serialize(conf, out, page, WebPage.class);
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(out.getData(), out.getLength());
+        IOUtils.deserialize(conf, in, null, WebPage.class);
+      }
+      long avro = System.nanoTime() - start;
+      start = System.nanoTime();
+      for (int i = 0; i < loops; i++) {
+        decode(encode(page, fetcherFields), null);
+      }
+      long compact = System.nanoTime() - start;
+      LOG.info("round trip: avro " + avro / loops + "ns, compact "
+          + compact / loops + "ns");
+    }
+  }
+
+  private static Configuration createConfiguration() {
+    Configuration conf = NutchConfiguration.create();
+    GoraMapReduceUtils.setIOSerializations(conf, true);
+    return conf;
+  }
+
+  /** A page as read from the store by a mapper. */
+  private static WebPage createPage(int contentLength, int outlinks) {
+    WebPage page = new WebPage();
+    page.setBaseUrl(URL);
+    page.setStatus(2);
+    page.setFetchTime(1300000000000L);
+    page.setFetchInterval(2592000);
+    page.setScore(1.0f);
+    page.setReprUrl(URL);
+    byte[] content = new byte[contentLength];
+    Arrays.fill(content, (byte) 'x');
+    page.setContent(ByteBuffer.wrap(content));
+    page.setContentType(new Utf8("text/html"));
+    page.setSignature(ByteBuffer.wrap(new byte[] { 1, 2, 3, 4 }));
+    page.setTitle(new Utf8("title"));
+    ProtocolStatus protocolStatus = new ProtocolStatus();
+    protocolStatus.setCode(1);
+    protocolStatus.addToArgs(new Utf8("arg"));
+    page.setProtocolStatus(protocolStatus);
+    ParseStatus parseStatus = new ParseStatus();
+    parseStatus.setMajorCode(1);
+    page.setParseStatus(parseStatus);
+    page.putToHeaders(new Utf8("Content-Type"), new Utf8("text/html"));
+    page.putToHeaders(new Utf8("ETag"), new Utf8("\"abc\""));
+    for (int i = 0; i < outlinks; i++) {
+      page.putToOutlinks(new Utf8(URL + String.valueOf(i)), new Utf8("anchor"));
+    }
+    page.putToMarkers(new Utf8("_ftcmrk_"), new Utf8("1234"));
+    page.putToMetadata(new Utf8("_csh_"), ByteBuffer.wrap(new byte[] { 0 }));
+    page.clearDirty();
+    for (int i = 0; i < page.getFields().length; i++) {
+      clearStates(page.get(i));
+    }
+    return page;
+  }
+
+  private static void clearStates(Object value) {
+    if (value instanceof StatefulMap) {
+      ((StatefulMap<?, ?>) value).clearStates();
+    }
+  }
+
+  private static void assertPage(WebPage expected, WebPage actual) {
+    for (int i = 0; i < expected.getFields().length; i++) {
+      String field = expected.getField(i);
+      assertEquals(field, expected.isReadable(i), actual.isReadable(i));
+      assertEquals(field, expected.isDirty(i), actual.isDirty(i));
+      if (expected.isReadable(i)) {
+        assertEquals(field, expected.get(i), actual.get(i));
+        if (expected.get(i) instanceof StatefulMap) {
+          assertEquals(field, ((StatefulMap<?, ?>) expected.get(i)).states(),
+              ((StatefulMap<?, ?>) actual.get(i)).states());
+        }
+      }
+    }
+  }
+
+  private static byte[] encode(WebPage page, long fields) throws IOException {
+    DataOutputBuffer out = new DataOutputBuffer();
+    WebPageEncoding.write(out, page, fields);
+    return Arrays.copyOf(out.getData(), out.getLength());
+  }
+
+  private static WebPage decode(byte[] bytes, WebPage page)
+  throws IOException {
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(bytes, bytes.length);
+    return WebPageEncoding.read(in, page);
+  }
+
+  private static byte[] avroEncode(Configuration conf, WebPage page)
+  throws IOException {
+    DataOutputBuffer out = new DataOutputBuffer();
+    IOUtils.serialize(conf, out, page, WebPage.class);
+    return Arrays.copyOf(out.getData(), out.getLength());
+  }
+
+}